@@ -30,6 +30,8 @@ import com.tencent.matrix.apk.model.result.TaskResultRegistry;
 import com.tencent.matrix.apk.model.task.ApkTask;
 import com.tencent.matrix.apk.model.task.TaskFactory;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
+import com.tencent.matrix.apk.model.task.util.ResultCache;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
@@ -47,7 +49,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.Attributes;
@@ -88,7 +90,8 @@ public final class ApkJob {
         if (threadNum > 0) {
             this.threadNum = threadNum;
         }
-        executor = Executors.newFixedThreadPool(this.threadNum);
+        // The tasks may fork sub tasks into the pool and join them, see ApkUtil.invokeAll.
+        executor = new ForkJoinPool(this.threadNum);
         this.preTasks = new ArrayList<>();
         this.taskList = new ArrayList<>();
         this.jobResults = new ArrayList<>();
@@ -209,6 +212,14 @@ public final class ApkJob {
             }
             jobConfig.setUnzipPath(value);
 
+            if (config.has(JobConstants.PARAM_IN_ZIP)) {
+                jobConfig.setInZip(config.get(JobConstants.PARAM_IN_ZIP).getAsBoolean());
+            }
+
+            if (config.has(JobConstants.PARAM_CACHE_DIR) && !Util.isNullOrNil(config.get(JobConstants.PARAM_CACHE_DIR).getAsString())) {
+                jobConfig.setCacheDir(config.get(JobConstants.PARAM_CACHE_DIR).getAsString());
+            }
+
             if (config.has(JobConstants.PARAM_FORMAT) && !Util.isNullOrNil(config.get(JobConstants.PARAM_FORMAT).getAsString())) {
                 value = config.get(JobConstants.PARAM_FORMAT).getAsString();
             } else {
@@ -369,6 +380,14 @@ public final class ApkJob {
                     jobConfig.setUnzipPath(apkFile.getParentFile().getAbsolutePath() + File.separator + getApkRawName(apkFile.getName()) + "_unzip");
                 }
 
+                if (globalParams.containsKey(JobConstants.PARAM_IN_ZIP)) {
+                    jobConfig.setInZip(Boolean.parseBoolean(globalParams.get(JobConstants.PARAM_IN_ZIP)));
+                }
+
+                if (globalParams.containsKey(JobConstants.PARAM_CACHE_DIR)) {
+                    jobConfig.setCacheDir(globalParams.get(JobConstants.PARAM_CACHE_DIR));
+                }
+
                 if (globalParams.containsKey(JobConstants.PARAM_MAPPING_TXT)) {
                     mappingFilePath = globalParams.get(JobConstants.PARAM_MAPPING_TXT);
                 }
@@ -501,6 +520,12 @@ public final class ApkJob {
                     }
                 }
             }
+            // The dex files are parsed at most once and shared by the tasks.
+            jobConfig.setDexIndex(new DexIndex(jobConfig.getApkRoot()));
+            // The results of the tasks and of the files they read are kept across the runs if a cache dir is given.
+            if (!Util.isNullOrNil(jobConfig.getCacheDir())) {
+                jobConfig.setResultCache(new ResultCache(new File(jobConfig.getCacheDir()), ApkConstants.CACHE_MAX_ENTRY_COUNT));
+            }
             for (ApkTask task : taskList) {
                 task.init();
             }
@@ -517,17 +542,30 @@ public final class ApkJob {
                     }
                 }
             }
-            executor.shutdownNow();
-
             for (JobResult jobResult : jobResults) {
                 jobResult.output();
             }
-            Log.d(TAG, "parse apk end, try to delete tmp un zip files");
-            FileUtils.deleteDirectory(new File(jobConfig.getUnzipPath()));
 
         } catch (Exception e) {
             Log.e(TAG, "Task executor execute with error:" + e.getMessage());
             throw e;
+        } finally {
+            executor.shutdownNow();
+            if (jobConfig.getResultCache() != null) {
+                jobConfig.getResultCache().trim();
+            }
+            // A failed task must not leave the apk open or the unzipped files behind.
+            try {
+                if (jobConfig.getApkRoot() != null) {
+                    jobConfig.getApkRoot().close();
+                }
+                if (!Util.isNullOrNil(jobConfig.getUnzipPath())) {
+                    Log.d(TAG, "parse apk end, try to delete tmp un zip files");
+                    FileUtils.deleteDirectory(new File(jobConfig.getUnzipPath()));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "clean up with error:" + e.getMessage());
+            }
         }
     }
 }
@@ -19,6 +19,9 @@ package com.tencent.matrix.apk.model.job;
 import com.google.gson.JsonArray;
 
 import com.android.utils.Pair;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
+import com.tencent.matrix.apk.model.task.util.ResultCache;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 
 import java.util.List;
 import java.util.Map;
@@ -35,6 +38,8 @@ public final class JobConfig {
     private String outputPath;
     private String mappingFilePath;
     private String resMappingFilePath;
+    private boolean inZip;
+    private String cacheDir;
     private JsonArray outputConfig;
 
     private List<String> outputFormatList;
@@ -42,6 +47,10 @@ public final class JobConfig {
     private Map<String, String> resguardMap;
     private Map<String, Pair<Long, Long>> entrySizeMap;
     private Map<String, String> entryNameMap;
+    private Map<String, Long> entryCrcMap;
+    private DexIndex dexIndex;
+    private VirtualFile apkRoot;
+    private ResultCache resultCache;
 
     public String getInputDir() {
         return inputDir;
@@ -99,6 +108,22 @@ public final class JobConfig {
         this.resMappingFilePath = resMappingFilePath;
     }
 
+    public boolean isInZip() {
+        return inZip;
+    }
+
+    public void setInZip(boolean inZip) {
+        this.inZip = inZip;
+    }
+
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
     public Map<String, String> getProguardClassMap() {
         return proguardClassMap;
     }
@@ -131,6 +156,38 @@ public final class JobConfig {
         this.entryNameMap = entryNameMap;
     }
 
+    public Map<String, Long> getEntryCrcMap() {
+        return entryCrcMap;
+    }
+
+    public void setEntryCrcMap(Map<String, Long> entryCrcMap) {
+        this.entryCrcMap = entryCrcMap;
+    }
+
+    public DexIndex getDexIndex() {
+        return dexIndex;
+    }
+
+    public void setDexIndex(DexIndex dexIndex) {
+        this.dexIndex = dexIndex;
+    }
+
+    public VirtualFile getApkRoot() {
+        return apkRoot;
+    }
+
+    public void setApkRoot(VirtualFile apkRoot) {
+        this.apkRoot = apkRoot;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
     public JsonArray getOutputConfig() {
         return outputConfig;
     }
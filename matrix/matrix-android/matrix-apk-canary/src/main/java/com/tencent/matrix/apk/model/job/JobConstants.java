@@ -27,6 +27,8 @@ public final class JobConstants {
     public static final String PARAM_INPUT = "--input";
     public static final String PARAM_APK = "--apk";
     public static final String PARAM_UNZIP = "--unzip";
+    public static final String PARAM_IN_ZIP = "--inZip";
+    public static final String PARAM_CACHE_DIR = "--cacheDir";
     public static final String PARAM_OUTPUT = "--output";
     public static final String PARAM_FORMAT = "--format";
     public static final String PARAM_FORMAT_JAR = "--formatJar";
@@ -17,14 +17,24 @@
 package com.tencent.matrix.apk.model.task;
 
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
 import com.tencent.matrix.apk.model.job.JobConfig;
+import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
+import com.tencent.matrix.apk.model.task.util.ResultCache;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
+import com.tencent.matrix.javalib.util.Log;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 
 /**
@@ -35,6 +45,9 @@ public abstract class ApkTask implements Callable<TaskResult> {
 
     private static final String TAG = "Matrix.ApkTask";
 
+    private static final String CACHE_NAMESPACE_TASK = "task";
+    private static final List<String> RESULT_META_KEYS = Arrays.asList("taskType", "taskDescription", "start-time", "end-time");
+
     protected int type;
     protected JobConfig config;
     protected Map<String, String> params;
@@ -83,6 +96,91 @@ public abstract class ApkTask implements Callable<TaskResult> {
         }
     }
 
+    /*
+     *  the content of an entry is addressed by the crc and the size in the central directory of the apk, so that
+     *  it can be looked up in the cache without being read, return null if the entry is unknown
+     */
+    protected String getEntryHash(VirtualFile file) {
+        Map<String, Long> entryCrcMap = config.getEntryCrcMap();
+        if (entryCrcMap == null || !entryCrcMap.containsKey(file.getPath()) || entryCrcMap.get(file.getPath()) < 0) {
+            return null;
+        }
+        return Long.toHexString(entryCrcMap.get(file.getPath())) + "-" + file.length();
+    }
+
+    /*
+     *  the inputs of a task reading the files, made of their entry names and hashes, return null if any of them is
+     *  unknown
+     */
+    protected String getEntryInputs(List<VirtualFile> files) {
+        Map<String, String> entryNameMap = config.getEntryNameMap();
+        StringBuilder inputs = new StringBuilder();
+        for (VirtualFile file : files) {
+            String entryHash = getEntryHash(file);
+            if (entryHash == null) {
+                return null;
+            }
+            inputs.append(file.getPath());
+            if (entryNameMap != null && entryNameMap.containsKey(file.getPath())) {
+                inputs.append('>').append(entryNameMap.get(file.getPath()));
+            }
+            inputs.append('=').append(entryHash).append('\n');
+        }
+        return inputs.toString();
+    }
+
+    /*
+     *  the key of a task result is made of the type and the params of the task, and the inputs given by the task,
+     *  which should contain the hashes of the entries it reads
+     */
+    private String getResultKey(String inputs) {
+        StringBuilder key = new StringBuilder();
+        key.append(type).append('\n');
+        for (Map.Entry<String, String> param : new TreeMap<>(params).entrySet()) {
+            key.append(param.getKey()).append('=').append(param.getValue()).append('\n');
+        }
+        return key.append(inputs).toString();
+    }
+
+    /*
+     *  fill the task result with the cached one, return false if it is not cached
+     */
+    protected boolean loadCachedResult(String inputs, TaskResult taskResult) {
+        ResultCache resultCache = config.getResultCache();
+        if (resultCache == null || inputs == null || !(taskResult instanceof TaskJsonResult)) {
+            return false;
+        }
+        String value = resultCache.get(CACHE_NAMESPACE_TASK, getResultKey(inputs));
+        if (value == null) {
+            return false;
+        }
+        try {
+            JsonObject jsonObject = new JsonParser().parse(value).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+                ((TaskJsonResult) taskResult).add(entry.getKey(), entry.getValue());
+            }
+        } catch (JsonParseException | IllegalStateException e) {
+            Log.w(TAG, "parse cached result of task %d failed, %s", type, e.getMessage());
+            return false;
+        }
+        Log.i(TAG, "task %d is not changed, use the cached result", type);
+        return true;
+    }
+
+    protected void saveCachedResult(String inputs, TaskResult taskResult) {
+        ResultCache resultCache = config.getResultCache();
+        if (resultCache == null || inputs == null || !(taskResult instanceof TaskJsonResult)) {
+            return;
+        }
+        JsonObject jsonObject = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : ((TaskJsonResult) taskResult).getResult().entrySet()) {
+            if (!RESULT_META_KEYS.contains(entry.getKey())) {
+                jsonObject.add(entry.getKey(), entry.getValue());
+            }
+        }
+        resultCache.put(CACHE_NAMESPACE_TASK, getResultKey(inputs), jsonObject.toString());
+    }
+
     @Override
     public abstract TaskResult call() throws TaskExecuteException;
 }
@@ -18,7 +18,6 @@
 package com.tencent.matrix.apk.model.task;
 
 import com.android.dexdeps.ClassRef;
-import com.android.dexdeps.DexData;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
@@ -28,18 +27,14 @@ import com.tencent.matrix.apk.model.job.JobConstants;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
-import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -55,14 +50,10 @@ public class CountClassTask extends ApkTask {
 
     private File inputFile;
     private String group = JobConstants.GROUP_PACKAGE;
-    private final List<String> dexFileNameList;
-    private final List<RandomAccessFile> dexFileList;
 
     public CountClassTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_COUNT_CLASS;
-        dexFileNameList = new ArrayList<>();
-        dexFileList = new ArrayList<>();
     }
 
     @Override
@@ -84,19 +75,8 @@ public class CountClassTask extends ApkTask {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
 
-        File[] files = inputFile.listFiles();
-        try {
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                        dexFileNameList.add(file.getName());
-                        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-                        dexFileList.add(randomAccessFile);
-                    }
-                }
-            }
-        } catch (FileNotFoundException e) {
-            throw new TaskInitException(e.getMessage(), e);
+        if (config.getDexIndex() == null) {
+            throw new TaskInitException(TAG + "---DEX-INDEX can not be null!");
         }
 
         if (params.containsKey(JobConstants.PARAM_GROUP)) {
@@ -117,12 +97,8 @@ public class CountClassTask extends ApkTask {
             Map<String, String> classProguardMap = config.getProguardClassMap();
             JsonArray dexFiles = new JsonArray();
 
-            for (int i = 0; i < dexFileList.size(); i++) {
-                RandomAccessFile dexFile = dexFileList.get(i);
-                DexData dexData = new DexData(dexFile);
-                dexData.load();
-                dexFile.close();
-                ClassRef[] defClassRefs = dexData.getInternalReferences();
+            for (DexIndex.DexFileInfo dexFile : config.getDexIndex().getDexFiles()) {
+                ClassRef[] defClassRefs = dexFile.internalClasses;
                 Set<String> classNameSet = new HashSet<>();
                 for (ClassRef classRef : defClassRefs) {
                     String className = ApkUtil.getNormalClassName(classRef.getName());
@@ -135,8 +111,8 @@ public class CountClassTask extends ApkTask {
                     classNameSet.add(className);
                 }
                 JsonObject jsonObject = new JsonObject();
-                jsonObject.addProperty("dex-file", dexFileNameList.get(i));
-                Log.d(TAG, "dex %s, classes %s", dexFileNameList.get(i), classNameSet.toString());
+                jsonObject.addProperty("dex-file", dexFile.fileName);
+                Log.d(TAG, "dex %s, classes %s", dexFile.fileName, classNameSet.toString());
 
                 Map<String, Set<String>> packageClass = new HashMap<>();
                 if (JobConstants.GROUP_PACKAGE.equals(group)) {
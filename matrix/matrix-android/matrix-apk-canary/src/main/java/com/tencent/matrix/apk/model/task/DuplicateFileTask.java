@@ -24,13 +24,17 @@ import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkConstants;
+import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.ResultCache;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.android.utils.Pair;
+import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -39,6 +43,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * Created by jinqiuchen on 17/6/27.
@@ -48,6 +53,8 @@ public class DuplicateFileTask extends ApkTask {
 
     private static final String TAG = "Matrix.DuplicateFileTask";
 
+    private static final String CACHE_NAMESPACE = "md5";
+
     private File inputFile;
     private Map<String, List<String>> md5Map;
     private List<Pair<String, Long>> fileSizeList;
@@ -72,47 +79,120 @@ public class DuplicateFileTask extends ApkTask {
         } else if (!inputFile.isDirectory()) {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
+        }
         md5Map = new HashMap<>();
         fileSizeList = new ArrayList<>();
         entrySizeMap = config.getEntrySizeMap();
         entryNameMap = config.getEntryNameMap();
     }
 
-    private void computeMD5(File file) throws NoSuchAlgorithmException, IOException {
+    private void listFiles(VirtualFile file, List<VirtualFile> fileList) {
         if (file != null) {
             if (file.isDirectory()) {
-                File[] files = file.listFiles();
-                for (File resFile : files) {
-                    computeMD5(resFile);
+                VirtualFile[] files = file.listFiles();
+                for (VirtualFile resFile : files) {
+                    listFiles(resFile, fileList);
                 }
             } else {
-                MessageDigest msgDigest = MessageDigest.getInstance("MD5");
-                BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-                byte[] buffer = new byte[512];
-                int readSize = 0;
-                long totalRead = 0;
-                while ((readSize = inputStream.read(buffer)) > 0) {
-                    msgDigest.update(buffer, 0, readSize);
-                    totalRead += readSize;
-                }
-                inputStream.close();
-                if (totalRead > 0) {
-                    final String md5 = Util.byteArrayToHex(msgDigest.digest());
-                    String filename = file.getAbsolutePath().substring(inputFile.getAbsolutePath().length() + 1);
-                    if (entryNameMap.containsKey(filename)) {
-                        filename = entryNameMap.get(filename);
+                fileList.add(file);
+            }
+        }
+    }
+
+    /*
+     *  return the md5 and the read size of the file
+     */
+    private static Pair<String, Long> computeFileMD5(VirtualFile file) throws NoSuchAlgorithmException, IOException {
+        MessageDigest msgDigest = MessageDigest.getInstance("MD5");
+        InputStream inputStream = file.openStream();
+        byte[] buffer = new byte[512];
+        int readSize = 0;
+        long totalRead = 0;
+        try {
+            while ((readSize = inputStream.read(buffer)) > 0) {
+                msgDigest.update(buffer, 0, readSize);
+                totalRead += readSize;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return Pair.of(Util.byteArrayToHex(msgDigest.digest()), totalRead);
+    }
+
+    /*
+     *  the md5 is cached for each file by its entry hash, so the unchanged files are not read again. The crc and
+     *  the size are all we know without reading the file, two different files of them colliding would be reported
+     *  as duplicated, so the path is a part of the key too and only a file changed in place to the same crc and
+     *  size (about 1 in 2^32) gets a stale md5
+     */
+    private Pair<String, Long> getFileMD5(VirtualFile file) throws NoSuchAlgorithmException, IOException {
+        ResultCache resultCache = config.getResultCache();
+        String entryHash = getEntryHash(file);
+        if (entryHash != null) {
+            entryHash = file.getPath() + "=" + entryHash;
+        }
+        if (resultCache != null && entryHash != null) {
+            String value = resultCache.get(CACHE_NAMESPACE, entryHash);
+            if (value != null) {
+                String[] columns = value.split(",");
+                if (columns.length == 2) {
+                    try {
+                        return Pair.of(columns[0], Long.parseLong(columns[1]));
+                    } catch (NumberFormatException e) {
+                        Log.w(TAG, "cached md5 '%s' is not correct!", value);
                     }
-                    if (!md5Map.containsKey(md5)) {
-                        md5Map.put(md5, new ArrayList<String>());
-                        if (entrySizeMap.containsKey(filename)) {
-                            fileSizeList.add(Pair.of(md5, entrySizeMap.get(filename).getFirst()));
-                        } else {
-                            fileSizeList.add(Pair.of(md5, totalRead));
-                        }
+                }
+            }
+        }
+        Pair<String, Long> md5 = computeFileMD5(file);
+        if (resultCache != null && entryHash != null) {
+            resultCache.put(CACHE_NAMESPACE, entryHash, md5.getFirst() + "," + md5.getSecond());
+        }
+        return md5;
+    }
+
+    /*
+     *  the files are hashed by sub tasks, and then added in the order they are listed
+     */
+    private void computeMD5(final List<VirtualFile> fileList) throws Exception {
+        List<Callable<List<Pair<String, Long>>>> subTasks = new ArrayList<>();
+        for (final List<VirtualFile> part : ApkUtil.partition(fileList, ApkConstants.FILES_PER_SUB_TASK)) {
+            subTasks.add(new Callable<List<Pair<String, Long>>>() {
+                @Override
+                public List<Pair<String, Long>> call() throws Exception {
+                    List<Pair<String, Long>> md5List = new ArrayList<>(part.size());
+                    for (VirtualFile file : part) {
+                        md5List.add(getFileMD5(file));
                     }
-                    md5Map.get(md5).add(filename);
+                    return md5List;
+                }
+            });
+        }
+        int index = 0;
+        for (List<Pair<String, Long>> md5List : ApkUtil.invokeAll(subTasks)) {
+            for (Pair<String, Long> md5 : md5List) {
+                addFile(fileList.get(index++), md5.getFirst(), md5.getSecond());
+            }
+        }
+    }
+
+    private void addFile(VirtualFile file, String md5, long totalRead) {
+        if (totalRead > 0) {
+            String filename = file.getPath();
+            if (entryNameMap.containsKey(filename)) {
+                filename = entryNameMap.get(filename);
+            }
+            if (!md5Map.containsKey(md5)) {
+                md5Map.put(md5, new ArrayList<String>());
+                if (entrySizeMap.containsKey(filename)) {
+                    fileSizeList.add(Pair.of(md5, entrySizeMap.get(filename).getFirst()));
+                } else {
+                    fileSizeList.add(Pair.of(md5, totalRead));
                 }
             }
+            md5Map.get(md5).add(filename);
         }
     }
 
@@ -124,7 +204,15 @@ public class DuplicateFileTask extends ApkTask {
             long startTime = System.currentTimeMillis();
             JsonArray jsonArray = new JsonArray();
 
-            computeMD5(inputFile);
+            List<VirtualFile> fileList = new ArrayList<>();
+            listFiles(config.getApkRoot(), fileList);
+            String inputs = getEntryInputs(fileList);
+            if (loadCachedResult(inputs, taskResult)) {
+                taskResult.setStartTime(startTime);
+                taskResult.setEndTime(System.currentTimeMillis());
+                return taskResult;
+            }
+            computeMD5(fileList);
 
             Collections.sort(fileSizeList, new Comparator<Pair<String, Long>>() {
                 @Override
@@ -155,6 +243,7 @@ public class DuplicateFileTask extends ApkTask {
                 }
             }
             ((TaskJsonResult) taskResult).add("files", jsonArray);
+            saveCachedResult(inputs, taskResult);
             taskResult.setStartTime(startTime);
             taskResult.setEndTime(System.currentTimeMillis());
         } catch (Exception e) {
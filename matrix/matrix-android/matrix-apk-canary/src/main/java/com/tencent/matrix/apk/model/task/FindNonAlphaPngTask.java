@@ -27,6 +27,9 @@ import com.tencent.matrix.apk.model.job.JobConstants;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.ResultCache;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 import com.android.utils.Pair;
@@ -34,11 +37,13 @@ import java.awt.image.BufferedImage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.imageio.ImageIO;
 
@@ -52,6 +57,8 @@ public class FindNonAlphaPngTask extends ApkTask {
 
     private static final String TAG = "Matrix.FindNonAlphaPngTask";
 
+    private static final String CACHE_NAMESPACE = "png-alpha";
+
     private File inputFile;
     private List<Pair<String, Long>> nonAlphaPngList;
     private long downLimitSize;
@@ -76,6 +83,9 @@ public class FindNonAlphaPngTask extends ApkTask {
         } else if (!inputFile.isDirectory()) {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
+        }
         if (params.containsKey(JobConstants.PARAM_MIN_SIZE_IN_KB)) {
             try {
                 downLimitSize = Long.parseLong(params.get(JobConstants.PARAM_MIN_SIZE_IN_KB));
@@ -88,47 +98,114 @@ public class FindNonAlphaPngTask extends ApkTask {
         entryNameMap = config.getEntryNameMap();
     }
 
-    private void findNonAlphaPng(File file) throws IOException {
+    private void listPngFiles(VirtualFile file, List<VirtualFile> pngFileList) {
         if (file != null) {
             if (file.isDirectory()) {
-                File[] files = file.listFiles();
-                for (File tempFile : files) {
-                    findNonAlphaPng(tempFile);
+                VirtualFile[] files = file.listFiles();
+                for (VirtualFile tempFile : files) {
+                    listPngFiles(tempFile, pngFileList);
                 }
             } else if (file.isFile() && file.getName().endsWith(ApkConstants.PNG_FILE_SUFFIX) && !file.getName().endsWith(ApkConstants.NINE_PNG)) {
-                BufferedImage bufferedImage = ImageIO.read(file);
-                if (bufferedImage != null && bufferedImage.getColorModel() != null && !bufferedImage.getColorModel().hasAlpha()) {
-                    String filename = file.getAbsolutePath().substring(inputFile.getAbsolutePath().length() + 1);
-                    if (entryNameMap.containsKey(filename)) {
-                        filename = entryNameMap.get(filename);
-                    }
-                    long size = file.length();
-                    if (entrySizeMap.containsKey(filename)) {
-                        size = entrySizeMap.get(filename).getFirst();
-                    }
-                    if (size >= downLimitSize * ApkConstants.K1024) {
-                        nonAlphaPngList.add(Pair.of(filename, file.length()));
+                pngFileList.add(file);
+            }
+        }
+    }
+
+    /*
+     *  the alpha check is cached for each png by its content
+     */
+    private boolean isNonAlphaPng(VirtualFile file) throws IOException {
+        ResultCache resultCache = config.getResultCache();
+        String entryHash = getEntryHash(file);
+        if (resultCache != null && entryHash != null) {
+            String value = resultCache.get(CACHE_NAMESPACE, entryHash);
+            if (value != null) {
+                return Boolean.parseBoolean(value);
+            }
+        }
+        BufferedImage bufferedImage;
+        InputStream inputStream = file.openStream();
+        try {
+            bufferedImage = ImageIO.read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        boolean result = bufferedImage != null && bufferedImage.getColorModel() != null && !bufferedImage.getColorModel().hasAlpha();
+        if (resultCache != null && entryHash != null) {
+            resultCache.put(CACHE_NAMESPACE, entryHash, String.valueOf(result));
+        }
+        return result;
+    }
+
+    /*
+     *  return the entry name and size of the png if it has no alpha channel and is not smaller than the limit,
+     *  or null otherwise
+     */
+    private Pair<String, Long> checkNonAlphaPng(VirtualFile file) throws IOException {
+        if (isNonAlphaPng(file)) {
+            String filename = file.getPath();
+            if (entryNameMap.containsKey(filename)) {
+                filename = entryNameMap.get(filename);
+            }
+            long size = file.length();
+            if (entrySizeMap.containsKey(filename)) {
+                size = entrySizeMap.get(filename).getFirst();
+            }
+            if (size >= downLimitSize * ApkConstants.K1024) {
+                return Pair.of(filename, file.length());
+            }
+        }
+        return null;
+    }
+
+    /*
+     *  the pngs are decoded by sub tasks, and then added in the order they are listed
+     */
+    private void findNonAlphaPng(List<VirtualFile> pngFileList) throws Exception {
+        List<Callable<List<Pair<String, Long>>>> subTasks = new ArrayList<>();
+        for (final List<VirtualFile> part : ApkUtil.partition(pngFileList, ApkConstants.FILES_PER_SUB_TASK)) {
+            subTasks.add(new Callable<List<Pair<String, Long>>>() {
+                @Override
+                public List<Pair<String, Long>> call() throws Exception {
+                    List<Pair<String, Long>> pngList = new ArrayList<>();
+                    for (VirtualFile pngFile : part) {
+                        Pair<String, Long> nonAlphaPng = checkNonAlphaPng(pngFile);
+                        if (nonAlphaPng != null) {
+                            pngList.add(nonAlphaPng);
+                        }
                     }
+                    return pngList;
                 }
-            }
+            });
+        }
+        for (List<Pair<String, Long>> pngList : ApkUtil.invokeAll(subTasks)) {
+            nonAlphaPngList.addAll(pngList);
         }
     }
 
     @Override
     public TaskResult call() throws TaskExecuteException {
-        File resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
+        VirtualFile resDir = config.getApkRoot().getChild(ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
         TaskResult taskResult = null;
         try {
             taskResult = TaskResultFactory.factory(getType(), TaskResultFactory.TASK_RESULT_TYPE_JSON, config);
             long startTime = System.currentTimeMillis();
-            if (resDir.exists() && resDir.isDirectory()) {
-                findNonAlphaPng(resDir);
+            List<VirtualFile> pngFileList = new ArrayList<>();
+            if (resDir != null && resDir.isDirectory()) {
+                listPngFiles(resDir, pngFileList);
             } else {
-                resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_NAME);
-                if (resDir.exists() && resDir.isDirectory()) {
-                    findNonAlphaPng(resDir);
+                resDir = config.getApkRoot().getChild(ApkConstants.RESOURCE_DIR_NAME);
+                if (resDir != null && resDir.isDirectory()) {
+                    listPngFiles(resDir, pngFileList);
                 }
             }
+            String inputs = getEntryInputs(pngFileList);
+            if (loadCachedResult(inputs, taskResult)) {
+                taskResult.setStartTime(startTime);
+                taskResult.setEndTime(System.currentTimeMillis());
+                return taskResult;
+            }
+            findNonAlphaPng(pngFileList);
 
             Collections.sort(nonAlphaPngList, new Comparator<Pair<String, Long>>() {
                 @Override
@@ -155,6 +232,7 @@ public class FindNonAlphaPngTask extends ApkTask {
                 }
             }
             ((TaskJsonResult) taskResult).add("files", jsonArray);
+            saveCachedResult(inputs, taskResult);
             taskResult.setStartTime(startTime);
             taskResult.setEndTime(System.currentTimeMillis());
             return taskResult;
@@ -25,6 +25,7 @@ import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.tencent.matrix.apk.model.task.util.ManifestParser;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
@@ -43,8 +44,8 @@ public class ManifestAnalyzeTask extends ApkTask {
 
     private static final String TAG = "Matrix.ManifestAnalyzeTask";
 
-    private File inputFile;
-    private File arscFile;
+    private VirtualFile inputFile;
+    private VirtualFile arscFile;
 
     public ManifestAnalyzeTask(JobConfig config, Map<String, String> params) {
         super(config, params);
@@ -59,22 +60,25 @@ public class ManifestAnalyzeTask extends ApkTask {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
         }
         Log.i(TAG, "inputPath:%s", inputPath);
-        inputFile = new File(inputPath, ApkConstants.MANIFEST_FILE_NAME);
-        if (!inputFile.exists()) {
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
+        }
+        inputFile = config.getApkRoot().getChild(ApkConstants.MANIFEST_FILE_NAME);
+        if (inputFile == null) {
             throw new TaskInitException(TAG + "---Manifest file '" + inputPath + File.separator + ApkConstants.MANIFEST_FILE_NAME + "' is not exist!");
         }
 
-        arscFile = new File(inputPath, ApkConstants.ARSC_FILE_NAME);
+        arscFile = config.getApkRoot().getChild(ApkConstants.ARSC_FILE_NAME);
     }
 
     @Override
     public TaskResult call() throws TaskExecuteException {
         try {
             ManifestParser manifestParser = null;
-            if (!FileUtil.isLegalFile(arscFile)) {
-                manifestParser = new ManifestParser(inputFile);
+            if (arscFile == null || !FileUtil.isLegalFile(arscFile.toFile())) {
+                manifestParser = new ManifestParser(inputFile.toFile());
             } else {
-                manifestParser = new ManifestParser(inputFile, arscFile);
+                manifestParser = new ManifestParser(inputFile.toFile(), arscFile.toFile());
             }
             TaskResult taskResult = TaskResultFactory.factory(getType(), TASK_RESULT_TYPE_JSON, config);
             if (taskResult == null) {
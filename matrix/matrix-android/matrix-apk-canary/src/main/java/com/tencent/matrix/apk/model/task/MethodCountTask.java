@@ -17,11 +17,9 @@
 package com.tencent.matrix.apk.model.task;
 
 import com.android.dexdeps.ClassRef;
-import com.android.dexdeps.DexData;
 import com.android.dexdeps.MethodRef;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
 import com.tencent.matrix.apk.model.job.JobConfig;
@@ -30,21 +28,20 @@ import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import static com.tencent.matrix.apk.model.result.TaskResultFactory.TASK_RESULT_TYPE_JSON;
 import static com.tencent.matrix.apk.model.task.TaskFactory.TASK_TYPE_COUNT_METHOD;
@@ -59,22 +56,20 @@ public class MethodCountTask extends ApkTask {
 
     private File inputFile;
     private String group = JobConstants.GROUP_PACKAGE;
-    private final List<String>           dexFileNameList;
-    private final List<RandomAccessFile> dexFileList;
-    private final Map<String, Integer> classInternalMethod;
-    private final Map<String, Integer> classExternalMethod;
-    private final Map<String, Integer> pkgInternalRefMethod;
-    private final Map<String, Integer> pkgExternalMethod;
+
+    /*
+     *  the counts of a dex file, each dex file is counted by a sub task
+     */
+    private static final class DexMethodCount {
+        private final Map<String, Integer> classInternalMethod = new HashMap<String, Integer>();
+        private final Map<String, Integer> classExternalMethod = new HashMap<String, Integer>();
+        private final Map<String, Integer> pkgInternalRefMethod = new HashMap<String, Integer>();
+        private final Map<String, Integer> pkgExternalMethod = new HashMap<String, Integer>();
+    }
 
     public MethodCountTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TASK_TYPE_COUNT_METHOD;
-        dexFileNameList = new ArrayList<String>();
-        dexFileList = new ArrayList<RandomAccessFile>();
-        classInternalMethod = new HashMap<String, Integer>();
-        classExternalMethod = new HashMap<String, Integer>();
-        pkgInternalRefMethod = new HashMap<String, Integer>();
-        pkgExternalMethod = new HashMap<String, Integer>();
     }
 
     @Override
@@ -91,19 +86,8 @@ public class MethodCountTask extends ApkTask {
         } else if (!inputFile.isDirectory()) {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
-        File[] files = inputFile.listFiles();
-        try {
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                        dexFileNameList.add(file.getName());
-                        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
-                        dexFileList.add(randomAccessFile);
-                    }
-                }
-            }
-        } catch (FileNotFoundException e) {
-            throw new TaskInitException(e.getMessage(), e);
+        if (config.getDexIndex() == null) {
+            throw new TaskInitException(TAG + "---DEX-INDEX can not be null!");
         }
         if (params.containsKey(JobConstants.PARAM_GROUP)) {
             if (JobConstants.GROUP_PACKAGE.equals(params.get(JobConstants.PARAM_GROUP))) {
@@ -116,15 +100,9 @@ public class MethodCountTask extends ApkTask {
         }
     }
 
-    private void countDex(RandomAccessFile dexFile) throws IOException {
-        classInternalMethod.clear();
-        classExternalMethod.clear();
-        pkgInternalRefMethod.clear();
-        pkgExternalMethod.clear();
-        DexData dexData = new DexData(dexFile);
-        dexData.load();
-        MethodRef[] methodRefs = dexData.getMethodRefs();
-        ClassRef[] externalClassRefs = dexData.getExternalReferences();
+    private void countMethods(DexIndex.DexFileInfo dexFile, DexMethodCount methodCount) {
+        MethodRef[] methodRefs = dexFile.methodRefs;
+        ClassRef[] externalClassRefs = dexFile.externalClasses;
         Map<String, String> proguardClassMap = config.getProguardClassMap();
         String className = null;
         for (ClassRef classRef : externalClassRefs) {
@@ -135,7 +113,7 @@ public class MethodCountTask extends ApkTask {
             if (className.indexOf('.') == -1) {
                 continue;
             }
-            classExternalMethod.put(className, 0);
+            methodCount.classExternalMethod.put(className, 0);
         }
         for (MethodRef methodRef : methodRefs) {
             className = ApkUtil.getNormalClassName(methodRef.getDeclClassName());
@@ -146,20 +124,20 @@ public class MethodCountTask extends ApkTask {
                 if (className.indexOf('.') == -1) {
                     continue;
                 }
-                if (classExternalMethod.containsKey(className)) {
-                    classExternalMethod.put(className, classExternalMethod.get(className) + 1);
-                } else if (classInternalMethod.containsKey(className)) {
-                    classInternalMethod.put(className, classInternalMethod.get(className) + 1);
+                if (methodCount.classExternalMethod.containsKey(className)) {
+                    methodCount.classExternalMethod.put(className, methodCount.classExternalMethod.get(className) + 1);
+                } else if (methodCount.classInternalMethod.containsKey(className)) {
+                    methodCount.classInternalMethod.put(className, methodCount.classInternalMethod.get(className) + 1);
                 } else {
-                    classInternalMethod.put(className, 1);
+                    methodCount.classInternalMethod.put(className, 1);
                 }
             }
         }
 
         //remove 0-method referenced class
-        Iterator<String> iterator = classExternalMethod.keySet().iterator();
+        Iterator<String> iterator = methodCount.classExternalMethod.keySet().iterator();
         while (iterator.hasNext()) {
-            if (classExternalMethod.get(iterator.next()) == 0) {
+            if (methodCount.classExternalMethod.get(iterator.next()) == 0) {
                 iterator.remove();
             }
         }
@@ -192,6 +170,88 @@ public class MethodCountTask extends ApkTask {
         return sum;
     }
 
+    private JsonObject countDex(DexIndex.DexFileInfo dexFile) {
+        DexMethodCount methodCount = new DexMethodCount();
+        countMethods(dexFile, methodCount);
+        int totalInternalMethods = sumOfValue(methodCount.classInternalMethod);
+        int totalExternalMethods = sumOfValue(methodCount.classExternalMethod);
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("dex-file", dexFile.fileName);
+
+        if (JobConstants.GROUP_CLASS.equals(group)) {
+            List<String> sortList = sortKeyByValue(methodCount.classInternalMethod);
+            JsonArray classes = new JsonArray();
+            for (String className : sortList) {
+                JsonObject classObj = new JsonObject();
+                classObj.addProperty("name", className);
+                classObj.addProperty("methods", methodCount.classInternalMethod.get(className));
+                classes.add(classObj);
+            }
+            jsonObject.add("internal-classes", classes);
+        } else if (JobConstants.GROUP_PACKAGE.equals(group)) {
+            String packageName;
+            for (Map.Entry<String, Integer> entry : methodCount.classInternalMethod.entrySet()) {
+                packageName = ApkUtil.getPackageName(entry.getKey());
+                if (!Util.isNullOrNil(packageName)) {
+                    if (!methodCount.pkgInternalRefMethod.containsKey(packageName)) {
+                        methodCount.pkgInternalRefMethod.put(packageName, entry.getValue());
+                    } else {
+                        methodCount.pkgInternalRefMethod.put(packageName, methodCount.pkgInternalRefMethod.get(packageName) + entry.getValue());
+                    }
+                }
+            }
+            List<String> sortList = sortKeyByValue(methodCount.pkgInternalRefMethod);
+            JsonArray packages = new JsonArray();
+            for (String pkgName : sortList) {
+                JsonObject pkgObj = new JsonObject();
+                pkgObj.addProperty("name", pkgName);
+                pkgObj.addProperty("methods", methodCount.pkgInternalRefMethod.get(pkgName));
+                packages.add(pkgObj);
+            }
+            jsonObject.add("internal-packages", packages);
+        }
+        jsonObject.addProperty("total-internal-classes", methodCount.classInternalMethod.size());
+        jsonObject.addProperty("total-internal-methods", totalInternalMethods);
+
+        if (JobConstants.GROUP_CLASS.equals(group)) {
+            List<String> sortList = sortKeyByValue(methodCount.classExternalMethod);
+            JsonArray classes = new JsonArray();
+            for (String className : sortList) {
+                JsonObject classObj = new JsonObject();
+                classObj.addProperty("name", className);
+                classObj.addProperty("methods", methodCount.classExternalMethod.get(className));
+                classes.add(classObj);
+            }
+            jsonObject.add("external-classes", classes);
+
+        } else if (JobConstants.GROUP_PACKAGE.equals(group)) {
+            String packageName = "";
+            for (Map.Entry<String, Integer> entry : methodCount.classExternalMethod.entrySet()) {
+                packageName = ApkUtil.getPackageName(entry.getKey());
+                if (!Util.isNullOrNil(packageName)) {
+                    if (!methodCount.pkgExternalMethod.containsKey(packageName)) {
+                        methodCount.pkgExternalMethod.put(packageName, entry.getValue());
+                    } else {
+                        methodCount.pkgExternalMethod.put(packageName, methodCount.pkgExternalMethod.get(packageName) + entry.getValue());
+                    }
+                }
+            }
+            List<String> sortList = sortKeyByValue(methodCount.pkgExternalMethod);
+            JsonArray packages = new JsonArray();
+            for (String pkgName : sortList) {
+                JsonObject pkgObj = new JsonObject();
+                pkgObj.addProperty("name", pkgName);
+                pkgObj.addProperty("methods", methodCount.pkgExternalMethod.get(pkgName));
+                packages.add(pkgObj);
+            }
+            jsonObject.add("external-packages", packages);
+
+        }
+        jsonObject.addProperty("total-external-classes", methodCount.classExternalMethod.size());
+        jsonObject.addProperty("total-external-methods", totalExternalMethods);
+        return jsonObject;
+    }
+
     @Override
     public TaskResult call() throws TaskExecuteException {
         try {
@@ -200,87 +260,17 @@ public class MethodCountTask extends ApkTask {
                 return null;
             }
             long startTime = System.currentTimeMillis();
-            JsonArray jsonArray = new JsonArray();
-            for (int i = 0; i < dexFileList.size(); i++) {
-                RandomAccessFile dexFile = dexFileList.get(i);
-                countDex(dexFile);
-                dexFile.close();
-                int totalInternalMethods = sumOfValue(classInternalMethod);
-                int totalExternalMethods = sumOfValue(classExternalMethod);
-                JsonObject jsonObject = new JsonObject();
-                jsonObject.addProperty("dex-file", dexFileNameList.get(i));
-
-                if (JobConstants.GROUP_CLASS.equals(group)) {
-                    List<String> sortList = sortKeyByValue(classInternalMethod);
-                    JsonArray classes = new JsonArray();
-                    for (String className : sortList) {
-                        JsonObject classObj = new JsonObject();
-                        classObj.addProperty("name", className);
-                        classObj.addProperty("methods", classInternalMethod.get(className));
-                        classes.add(classObj);
-                    }
-                    jsonObject.add("internal-classes", classes);
-                } else if (JobConstants.GROUP_PACKAGE.equals(group)) {
-                    String packageName;
-                    for (Map.Entry<String, Integer> entry : classInternalMethod.entrySet()) {
-                        packageName = ApkUtil.getPackageName(entry.getKey());
-                        if (!Util.isNullOrNil(packageName)) {
-                            if (!pkgInternalRefMethod.containsKey(packageName)) {
-                                pkgInternalRefMethod.put(packageName, entry.getValue());
-                            } else {
-                                pkgInternalRefMethod.put(packageName, pkgInternalRefMethod.get(packageName) + entry.getValue());
-                            }
-                        }
-                    }
-                    List<String> sortList = sortKeyByValue(pkgInternalRefMethod);
-                    JsonArray packages = new JsonArray();
-                    for (String pkgName : sortList) {
-                        JsonObject pkgObj = new JsonObject();
-                        pkgObj.addProperty("name", pkgName);
-                        pkgObj.addProperty("methods", pkgInternalRefMethod.get(pkgName));
-                        packages.add(pkgObj);
+            List<Callable<JsonObject>> subTasks = new ArrayList<>();
+            for (final DexIndex.DexFileInfo dexFile : config.getDexIndex().getDexFiles()) {
+                subTasks.add(new Callable<JsonObject>() {
+                    @Override
+                    public JsonObject call() {
+                        return countDex(dexFile);
                     }
-                    jsonObject.add("internal-packages", packages);
-                }
-                jsonObject.addProperty("total-internal-classes", classInternalMethod.size());
-                jsonObject.addProperty("total-internal-methods", totalInternalMethods);
-
-                if (JobConstants.GROUP_CLASS.equals(group)) {
-                    List<String> sortList = sortKeyByValue(classExternalMethod);
-                    JsonArray classes = new JsonArray();
-                    for (String className : sortList) {
-                        JsonObject classObj = new JsonObject();
-                        classObj.addProperty("name", className);
-                        classObj.addProperty("methods", classExternalMethod.get(className));
-                        classes.add(classObj);
-                    }
-                    jsonObject.add("external-classes", classes);
-
-                } else if (JobConstants.GROUP_PACKAGE.equals(group)) {
-                    String packageName = "";
-                    for (Map.Entry<String, Integer> entry : classExternalMethod.entrySet()) {
-                        packageName = ApkUtil.getPackageName(entry.getKey());
-                        if (!Util.isNullOrNil(packageName)) {
-                            if (!pkgExternalMethod.containsKey(packageName)) {
-                                pkgExternalMethod.put(packageName, entry.getValue());
-                            } else {
-                                pkgExternalMethod.put(packageName, pkgExternalMethod.get(packageName) + entry.getValue());
-                            }
-                        }
-                    }
-                    List<String> sortList = sortKeyByValue(pkgExternalMethod);
-                    JsonArray packages = new JsonArray();
-                    for (String pkgName : sortList) {
-                        JsonObject pkgObj = new JsonObject();
-                        pkgObj.addProperty("name", pkgName);
-                        pkgObj.addProperty("methods", pkgExternalMethod.get(pkgName));
-                        packages.add(pkgObj);
-                    }
-                    jsonObject.add("external-packages", packages);
-
-                }
-                jsonObject.addProperty("total-external-classes", classExternalMethod.size());
-                jsonObject.addProperty("total-external-methods", totalExternalMethods);
+                });
+            }
+            JsonArray jsonArray = new JsonArray();
+            for (JsonObject jsonObject : ApkUtil.invokeAll(subTasks)) {
                 jsonArray.add(jsonObject);
             }
             ((TaskJsonResult) taskResult).add("dex-files", jsonArray);
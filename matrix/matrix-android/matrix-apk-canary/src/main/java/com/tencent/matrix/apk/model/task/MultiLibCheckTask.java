@@ -23,10 +23,10 @@ import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
-import java.io.File;
 import java.util.Map;
 
 import static com.tencent.matrix.apk.model.result.TaskResultFactory.TASK_RESULT_TYPE_JSON;
@@ -40,7 +40,7 @@ public class MultiLibCheckTask extends ApkTask {
 
     private static final String TAG = "Matrix.MultiLibCheckTask";
 
-    private File libDir;
+    private VirtualFile libDir;
 
     public MultiLibCheckTask(JobConfig jobConfig, Map<String, String> params) {
         super(jobConfig, params);
@@ -53,10 +53,13 @@ public class MultiLibCheckTask extends ApkTask {
         String inputPath = config.getUnzipPath();
         if (!Util.isNullOrNil(inputPath)) {
             Log.i(TAG, "inputPath:%s", inputPath);
-            libDir = new File(inputPath, "lib");
         } else {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
         }
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
+        }
+        libDir = config.getApkRoot().getChild("lib");
     }
 
     @Override
@@ -68,9 +71,9 @@ public class MultiLibCheckTask extends ApkTask {
             }
             long startTime = System.currentTimeMillis();
             JsonArray jsonArray = new JsonArray();
-            if (libDir.exists() && libDir.isDirectory()) {
-                File[] dirs = libDir.listFiles();
-                for (File dir : dirs) {
+            if (libDir != null && libDir.isDirectory()) {
+                VirtualFile[] dirs = libDir.listFiles();
+                for (VirtualFile dir : dirs) {
                     if (dir.isDirectory()) {
                         jsonArray.add(dir.getName());
                     }
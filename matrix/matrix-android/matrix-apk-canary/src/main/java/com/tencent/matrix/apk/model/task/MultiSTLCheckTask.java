@@ -25,6 +25,8 @@ import com.tencent.matrix.apk.model.job.JobConstants;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ResultCache;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
@@ -50,7 +52,9 @@ public class MultiSTLCheckTask extends ApkTask {
 
     private static final String TAG = "Matrix.MultiSTLCheckTask";
 
-    private File libDir;
+    private static final String CACHE_NAMESPACE = "nm-stl";
+
+    private VirtualFile libDir;
     private String toolnmPath;
 
     public MultiSTLCheckTask(JobConfig jobConfig, Map<String, String> params) {
@@ -84,13 +88,37 @@ public class MultiSTLCheckTask extends ApkTask {
         }
         if (!Util.isNullOrNil(inputPath)) {
             Log.i(TAG, "inputPath:%s", inputPath);
-            libDir = new File(inputPath, "lib");
         } else {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
         }
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
+        }
+        libDir = config.getApkRoot().getChild("lib");
 
     }
 
+    /*
+     *  the output of nm is cached for each lib by its content
+     */
+    private boolean isStlLinked(VirtualFile libFile) throws IOException, InterruptedException {
+        ResultCache resultCache = config.getResultCache();
+        String entryHash = getEntryHash(libFile);
+        String key = toolnmPath + "\n" + entryHash;
+        if (resultCache != null && entryHash != null) {
+            String value = resultCache.get(CACHE_NAMESPACE, key);
+            if (value != null) {
+                return Boolean.parseBoolean(value);
+            }
+        }
+        // nm reads the lib by its path, so it is extracted in the in-zip mode.
+        boolean result = isStlLinked(libFile.toFile());
+        if (resultCache != null && entryHash != null) {
+            resultCache.put(CACHE_NAMESPACE, key, String.valueOf(result));
+        }
+        return result;
+    }
+
     private boolean isStlLinked(File libFile) throws IOException, InterruptedException {
         ProcessBuilder processBuilder = new ProcessBuilder(toolnmPath, "-D", "-C", libFile.getAbsolutePath());
         Process process = processBuilder.start();
@@ -117,14 +145,14 @@ public class MultiSTLCheckTask extends ApkTask {
                 return null;
             }
             long startTime = System.currentTimeMillis();
-            List<File> libFiles = new ArrayList<>();
+            List<VirtualFile> libFiles = new ArrayList<>();
             JsonArray jsonArray = new JsonArray();
-            if (libDir.exists() && libDir.isDirectory()) {
-                File[] dirs = libDir.listFiles();
-                for (File dir : dirs) {
+            if (libDir != null && libDir.isDirectory()) {
+                VirtualFile[] dirs = libDir.listFiles();
+                for (VirtualFile dir : dirs) {
                     if (dir.isDirectory()) {
-                        File[] libs = dir.listFiles();
-                        for (File libFile : libs) {
+                        VirtualFile[] libs = dir.listFiles();
+                        for (VirtualFile libFile : libs) {
                             if (libFile.isFile() && libFile.getName().endsWith(ApkConstants.DYNAMIC_LIB_FILE_SUFFIX)) {
                                 libFiles.add(libFile);
                             }
@@ -132,7 +160,16 @@ public class MultiSTLCheckTask extends ApkTask {
                     }
                 }
             }
-            for (File libFile : libFiles) {
+            String inputs = getEntryInputs(libFiles);
+            if (inputs != null) {
+                inputs = toolnmPath + "\n" + inputs;
+            }
+            if (loadCachedResult(inputs, taskResult)) {
+                taskResult.setStartTime(startTime);
+                taskResult.setEndTime(System.currentTimeMillis());
+                return taskResult;
+            }
+            for (VirtualFile libFile : libFiles) {
                 if (isStlLinked(libFile)) {
                     Log.i(TAG, "lib: %s has stl link", libFile.getName());
 
@@ -145,6 +182,7 @@ public class MultiSTLCheckTask extends ApkTask {
             } else {
                 ((TaskJsonResult) taskResult).add("multi-stl", false);
             }
+            saveCachedResult(inputs, taskResult);
             taskResult.setStartTime(startTime);
             taskResult.setEndTime(System.currentTimeMillis());
             return taskResult;
@@ -23,6 +23,7 @@ import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
 
@@ -63,6 +64,9 @@ public class ResProguardCheckTask extends ApkTask {
         } else if (!inputFile.isDirectory()) {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH '" + inputPath + "' is not directory!");
         }
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
+        }
         fileNamePattern = Pattern.compile("[a-z_0-9]{1,3}");
     }
 
@@ -70,22 +74,22 @@ public class ResProguardCheckTask extends ApkTask {
 
     @Override
     public TaskResult call() throws TaskExecuteException {
-        File resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
+        VirtualFile resDir = config.getApkRoot().getChild(ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
         try {
             TaskResult taskResult = TaskResultFactory.factory(getType(), TASK_RESULT_TYPE_JSON, config);
             if (taskResult == null) {
                 return null;
             }
             long startTime = System.currentTimeMillis();
-            if (resDir.exists() && resDir.isDirectory()) {
-                Log.i(TAG, "find resource directory " + resDir.getAbsolutePath());
+            if (resDir != null && resDir.isDirectory()) {
+                Log.i(TAG, "find resource directory " + resDir.getPath());
                 ((TaskJsonResult) taskResult).add("hasResProguard", true);
             } else {
-                resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_NAME);
-                if (resDir.exists() && resDir.isDirectory()) {
-                    File[] dirs = resDir.listFiles();
+                resDir = config.getApkRoot().getChild(ApkConstants.RESOURCE_DIR_NAME);
+                if (resDir != null && resDir.isDirectory()) {
+                    VirtualFile[] dirs = resDir.listFiles();
                     boolean hasProguard = true;
-                    for (File dir : dirs) {
+                    for (VirtualFile dir : dirs) {
                         if (dir.isDirectory() && !fileNamePattern.matcher(dir.getName()).matches()) {
                             hasProguard = false;
                             Log.i(TAG, "directory " + dir.getName() + " has a non-proguard name!");
@@ -24,6 +24,8 @@ import com.tencent.matrix.apk.model.job.JobConstants;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.ResultCache;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
@@ -50,7 +52,9 @@ public class UnStrippedSoCheckTask extends ApkTask {
 
     private static final String TAG = "Matrix.UnStrippedSoCheckTask";
 
-    private File libDir;
+    private static final String CACHE_NAMESPACE = "nm-stripped";
+
+    private VirtualFile libDir;
     private String toolnmPath;
 
     public UnStrippedSoCheckTask(JobConfig jobConfig, Map<String, String> params) {
@@ -84,13 +88,37 @@ public class UnStrippedSoCheckTask extends ApkTask {
         }
         if (!Util.isNullOrNil(inputPath)) {
             Log.i(TAG, "inputPath:%s", inputPath);
-            libDir = new File(inputPath, "lib");
         } else {
             throw new TaskInitException(TAG + "---APK-UNZIP-PATH can not be null!");
         }
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
+        }
+        libDir = config.getApkRoot().getChild("lib");
 
     }
 
+    /*
+     *  the output of nm is cached for each lib by its content
+     */
+    private boolean isSoStripped(VirtualFile libFile) throws IOException, InterruptedException {
+        ResultCache resultCache = config.getResultCache();
+        String entryHash = getEntryHash(libFile);
+        String key = toolnmPath + "\n" + entryHash;
+        if (resultCache != null && entryHash != null) {
+            String value = resultCache.get(CACHE_NAMESPACE, key);
+            if (value != null) {
+                return Boolean.parseBoolean(value);
+            }
+        }
+        // nm reads the lib by its path, so it is extracted in the in-zip mode.
+        boolean result = isSoStripped(libFile.toFile());
+        if (resultCache != null && entryHash != null) {
+            resultCache.put(CACHE_NAMESPACE, key, String.valueOf(result));
+        }
+        return result;
+    }
+
     private boolean isSoStripped(File libFile) throws IOException, InterruptedException {
         ProcessBuilder processBuilder = new ProcessBuilder(toolnmPath, libFile.getAbsolutePath());
         Process process = processBuilder.start();
@@ -117,14 +145,14 @@ public class UnStrippedSoCheckTask extends ApkTask {
                 return null;
             }
             long startTime = System.currentTimeMillis();
-            List<File> libFiles = new ArrayList<>();
+            List<VirtualFile> libFiles = new ArrayList<>();
             JsonArray jsonArray = new JsonArray();
-            if (libDir.exists() && libDir.isDirectory()) {
-                File[] dirs = libDir.listFiles();
-                for (File dir : dirs) {
+            if (libDir != null && libDir.isDirectory()) {
+                VirtualFile[] dirs = libDir.listFiles();
+                for (VirtualFile dir : dirs) {
                     if (dir.isDirectory()) {
-                        File[] libs = dir.listFiles();
-                        for (File libFile : libs) {
+                        VirtualFile[] libs = dir.listFiles();
+                        for (VirtualFile libFile : libs) {
                             if (libFile.isFile() && libFile.getName().endsWith(ApkConstants.DYNAMIC_LIB_FILE_SUFFIX)) {
                                 libFiles.add(libFile);
                             }
@@ -132,7 +160,16 @@ public class UnStrippedSoCheckTask extends ApkTask {
                     }
                 }
             }
-            for (File libFile : libFiles) {
+            String inputs = getEntryInputs(libFiles);
+            if (inputs != null) {
+                inputs = toolnmPath + "\n" + inputs;
+            }
+            if (loadCachedResult(inputs, taskResult)) {
+                taskResult.setStartTime(startTime);
+                taskResult.setEndTime(System.currentTimeMillis());
+                return taskResult;
+            }
+            for (VirtualFile libFile : libFiles) {
                 if (!isSoStripped(libFile)) {
                     Log.i(TAG, "lib: %s is not stripped", libFile.getName());
 
@@ -140,6 +177,7 @@ public class UnStrippedSoCheckTask extends ApkTask {
                 }
             }
             ((TaskJsonResult) taskResult).add("unstripped-lib", jsonArray);
+            saveCachedResult(inputs, taskResult);
             taskResult.setStartTime(startTime);
             taskResult.setEndTime(System.currentTimeMillis());
             return taskResult;
@@ -17,7 +17,6 @@
 package com.tencent.matrix.apk.model.task;
 
 
-import com.google.common.collect.Ordering;
 import com.google.gson.JsonArray;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
 import com.tencent.matrix.apk.model.exception.TaskInitException;
@@ -27,19 +26,12 @@ import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
-import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
-import org.jf.baksmali.BaksmaliOptions;
-import org.jf.dexlib2.DexFileFactory;
-import org.jf.dexlib2.Opcodes;
-import org.jf.dexlib2.dexbacked.DexBackedDexFile;
-import org.jf.dexlib2.iface.ClassDef;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -53,7 +45,6 @@ public class UnusedAssetsTask extends ApkTask {
     private static final String TAG = "Matrix.UnusedAssetsTask";
 
     private File inputFile;
-    private final List<String> dexFileNameList;
     private final Set<String> ignoreSet;
     private final Set<String> assetsPathSet;
     private final Set<String> assetRefSet;
@@ -61,7 +52,6 @@ public class UnusedAssetsTask extends ApkTask {
     public UnusedAssetsTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TaskFactory.TASK_TYPE_UNUSED_ASSETS;
-        dexFileNameList = new ArrayList<>();
         ignoreSet = new HashSet<>();
         assetsPathSet = new HashSet<>();
         assetRefSet = new HashSet<>();
@@ -88,65 +78,34 @@ public class UnusedAssetsTask extends ApkTask {
                 ignoreSet.add(Util.globToRegexp(ignore));
             }
         }
-
-        File[] files = inputFile.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                    dexFileNameList.add(file.getName());
-                }
-            }
+        if (config.getDexIndex() == null) {
+            throw new TaskInitException(TAG + "---DEX-INDEX can not be null!");
+        }
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
         }
     }
 
-    private void findAssetsFile(File dir) throws IOException {
-        if (dir != null && dir.exists() && dir.isDirectory()) {
-            File[] files = dir.listFiles();
-            for (File file : files) {
+    private void findAssetsFile(VirtualFile dir) throws IOException {
+        if (dir != null && dir.isDirectory()) {
+            VirtualFile[] files = dir.listFiles();
+            for (VirtualFile file : files) {
                 if (file.isDirectory()) {
                     findAssetsFile(file);
                 } else {
-                    Log.d(TAG, "find asset file %s", file.getAbsolutePath());
-                    assetsPathSet.add(file.getAbsolutePath());
+                    Log.d(TAG, "find asset file %s", file.getPath());
+                    assetsPathSet.add(file.getPath());
                 }
             }
         }
     }
 
     private void decodeCode() throws IOException {
-        for (String dexFileName : dexFileNameList) {
-            DexBackedDexFile dexFile = DexFileFactory.loadDexFile(new File(inputFile, dexFileName), Opcodes.forApi(15));
-
-            BaksmaliOptions options = new BaksmaliOptions();
-            List<? extends ClassDef> classDefs = Ordering.natural().sortedCopy(dexFile.getClasses());
-
-            for (ClassDef classDef : classDefs) {
-                String[] lines = ApkUtil.disassembleClass(classDef, options);
-                if (lines != null) {
-                    readSmaliLines(lines);
-                }
-            }
-
-        }
-    }
-
-    private void readSmaliLines(String[] lines) {
-        if (lines == null) {
-            return;
-        }
-        for (String line : lines) {
-            line = line.trim();
-            if (!Util.isNullOrNil(line) && line.startsWith("const-string")) {
-                String[] columns = line.split(",");
-                if (columns.length == 2) {
-                    String assetFileName = columns[1].trim();
-                    assetFileName = assetFileName.substring(1, assetFileName.length() - 1);
-                    if (!Util.isNullOrNil(assetFileName)) {
-                        for (String path : assetsPathSet) {
-                            if (assetFileName.endsWith(path)) {
-                                assetRefSet.add(path);
-                            }
-                        }
+        for (String assetFileName : config.getDexIndex().getCodeReferences().constStrings) {
+            if (!Util.isNullOrNil(assetFileName)) {
+                for (String path : assetsPathSet) {
+                    if (assetFileName.endsWith(path)) {
+                        assetRefSet.add(path);
                     }
                 }
             }
@@ -187,9 +146,11 @@ public class UnusedAssetsTask extends ApkTask {
         try {
             TaskResult taskResult = TaskResultFactory.factory(type, TaskResultFactory.TASK_RESULT_TYPE_JSON, config);
             long startTime = System.currentTimeMillis();
-            File assetDir = new File(inputFile, ApkConstants.ASSETS_DIR_NAME);
-            findAssetsFile(assetDir);
-            generateAssetsSet(assetDir.getAbsolutePath());
+            VirtualFile assetDir = config.getApkRoot().getChild(ApkConstants.ASSETS_DIR_NAME);
+            if (assetDir != null) {
+                findAssetsFile(assetDir);
+                generateAssetsSet(assetDir.getPath());
+            }
             Log.i(TAG, "find all assets count: %d", assetsPathSet.size());
             decodeCode();
             Log.i(TAG, "find reference assets count: %d", assetRefSet.size());
@@ -17,7 +17,6 @@
 package com.tencent.matrix.apk.model.task;
 
 
-import com.google.common.collect.Ordering;
 import com.google.gson.JsonArray;
 import com.tencent.matrix.apk.model.task.util.ApkConstants;
 import com.tencent.matrix.apk.model.exception.TaskExecuteException;
@@ -29,24 +28,19 @@ import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
 import com.tencent.matrix.apk.model.task.util.ApkResourceDecoder;
 import com.tencent.matrix.apk.model.task.util.ApkUtil;
+import com.tencent.matrix.apk.model.task.util.DexIndex;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.Util;
-import org.jf.baksmali.BaksmaliOptions;
-import org.jf.dexlib2.DexFileFactory;
-import org.jf.dexlib2.Opcodes;
-import org.jf.dexlib2.dexbacked.DexBackedDexFile;
-import org.jf.dexlib2.iface.ClassDef;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -66,7 +60,6 @@ public class UnusedResourcesTask extends ApkTask {
     private File resourceTxt;
     private File mappingTxt;
     private File resMappingTxt;
-    private final List<String> dexFileNameList;
     private final Map<String, String> rclassProguardMap;
     private final Map<String, String> resourceDefMap;
     private final Map<String, Set<String>> styleableMap;
@@ -79,7 +72,6 @@ public class UnusedResourcesTask extends ApkTask {
     public UnusedResourcesTask(JobConfig config, Map<String, String> params) {
         super(config, params);
         type = TaskFactory.TASK_TYPE_UNUSED_RESOURCES;
-        dexFileNameList = new ArrayList<>();
         ignoreSet = new HashSet<>();
         rclassProguardMap = new HashMap<>();
         resourceDefMap = new HashMap<>();
@@ -129,14 +121,11 @@ public class UnusedResourcesTask extends ApkTask {
                 throw new TaskInitException(TAG + "---The Resguard mapping file 'resguard-mapping.txt' is not legal!");
             }
         }
-
-        File[] files = inputFile.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
-                    dexFileNameList.add(file.getName());
-                }
-            }
+        if (config.getDexIndex() == null) {
+            throw new TaskInitException(TAG + "---DEX-INDEX can not be null!");
+        }
+        if (config.getApkRoot() == null) {
+            throw new TaskInitException(TAG + "---APK-ROOT can not be null!");
         }
 
     }
@@ -271,23 +260,6 @@ public class UnusedResourcesTask extends ApkTask {
         }
     }
 
-    private void decodeCode() throws IOException {
-        for (String dexFileName : dexFileNameList) {
-            DexBackedDexFile dexFile = DexFileFactory.loadDexFile(new File(inputFile, dexFileName), Opcodes.forApi(15));
-
-            BaksmaliOptions options = new BaksmaliOptions();
-            List<? extends ClassDef> classDefs = Ordering.natural().sortedCopy(dexFile.getClasses());
-
-            for (ClassDef classDef : classDefs) {
-                String[] lines = ApkUtil.disassembleClass(classDef, options);
-                if (lines != null) {
-                    readSmaliLines(lines);
-                }
-            }
-
-        }
-    }
-
     /*
 
         1. const
@@ -313,71 +285,53 @@ public class UnusedResourcesTask extends ApkTask {
 
     */
 
-    private void readSmaliLines(String[] lines) {
-        if (lines == null) {
-            return;
+    private void decodeCode() throws IOException {
+        DexIndex.CodeReferences codeReferences = config.getDexIndex().getCodeReferences();
+        for (String literal : codeReferences.constLiterals) {
+            final String resId = parseResourceId(literal);
+            if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
+                resourceRefSet.add(resourceDefMap.get(resId));
+            }
         }
-        boolean arrayData = false;
-        for (String line : lines) {
-            line = line.trim();
-            if (!Util.isNullOrNil(line)) {
-                if (line.startsWith("const")) {
-                    String[] columns = line.split(" ");
-                    if (columns.length >= 3) {
-                        final String resId = parseResourceId(columns[2].trim());
-                        if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
-                            resourceRefSet.add(resourceDefMap.get(resId));
-                        }
-                    }
-                } else if (line.startsWith("sget")) {
-                    String[] columns = line.split(" ");
-                    if (columns.length >= 3) {
-                        final String resourceRef = parseResourceNameFromProguard(columns[2].trim());
-                        if (!Util.isNullOrNil(resourceRef)) {
-                            Log.d(TAG, "find resource reference %s", resourceRef);
-                            if (styleableMap.containsKey(resourceRef)) {
-                                //reference of R.styleable.XXX
-                                for (String attr : styleableMap.get(resourceRef)) {
-                                    resourceRefSet.add(resourceDefMap.get(attr));
-                                }
-                            } else {
-                                resourceRefSet.add(resourceRef);
-                            }
-                        }
-                    }
-                } else if (line.startsWith(".array-data 4")) {
-                    arrayData = true;
-                } else if (line.startsWith(".end array-data")) {
-                    arrayData = false;
-                } else  {
-                    if (arrayData) {
-                        String[] columns = line.split(" ");
-                        if (columns.length > 0) {
-                            final String resId = parseResourceId(columns[0].trim());
-                            if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
-                                Log.d(TAG, "array field resource, %s", resId);
-                                resourceRefSet.add(resourceDefMap.get(resId));
-                            }
-                        }
+        for (String fieldRef : codeReferences.staticFieldRefs) {
+            final String resourceRef = parseResourceNameFromProguard(fieldRef);
+            if (!Util.isNullOrNil(resourceRef)) {
+                Log.d(TAG, "find resource reference %s", resourceRef);
+                if (styleableMap.containsKey(resourceRef)) {
+                    //reference of R.styleable.XXX
+                    for (String attr : styleableMap.get(resourceRef)) {
+                        resourceRefSet.add(resourceDefMap.get(attr));
                     }
+                } else {
+                    resourceRefSet.add(resourceRef);
                 }
             }
         }
+        for (String literal : codeReferences.arrayDataLiterals) {
+            final String resId = parseResourceId(literal);
+            if (!Util.isNullOrNil(resId) && resourceDefMap.containsKey(resId)) {
+                Log.d(TAG, "array field resource, %s", resId);
+                resourceRefSet.add(resourceDefMap.get(resId));
+            }
+        }
     }
 
 
     private void decodeResources() throws IOException, InterruptedException, AndrolibException, XmlPullParserException {
-        File manifestFile = new File(inputFile, ApkConstants.MANIFEST_FILE_NAME);
-        File arscFile = new File(inputFile, ApkConstants.ARSC_FILE_NAME);
-        File resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_NAME);
-        if (!resDir.exists()) {
-            resDir = new File(inputFile, ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
+        VirtualFile apkRoot = config.getApkRoot();
+        VirtualFile manifestFile = apkRoot.getChild(ApkConstants.MANIFEST_FILE_NAME);
+        VirtualFile arscFile = apkRoot.getChild(ApkConstants.ARSC_FILE_NAME);
+        VirtualFile resDir = apkRoot.getChild(ApkConstants.RESOURCE_DIR_NAME);
+        if (resDir == null) {
+            resDir = apkRoot.getChild(ApkConstants.RESOURCE_DIR_PROGUARD_NAME);
         }
 
         Map<String, Set<String>> fileResMap = new HashMap<>();
         Set<String> valuesReferences = new HashSet<>();
 
-        ApkResourceDecoder.decodeResourcesRef(manifestFile, arscFile, resDir, fileResMap, valuesReferences);
+        // The res files are read from the apk, only the manifest and the arsc are extracted in the in-zip mode.
+        ApkResourceDecoder.decodeResourcesRef(manifestFile != null ? manifestFile.toFile() : null,
+                arscFile != null ? arscFile.toFile() : null, resDir, fileResMap, valuesReferences);
 
         Map<String, String> resguardMap = config.getResguardMap();
 
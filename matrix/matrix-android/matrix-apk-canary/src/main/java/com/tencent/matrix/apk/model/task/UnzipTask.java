@@ -24,6 +24,7 @@ import com.tencent.matrix.apk.model.job.JobConfig;
 import com.tencent.matrix.apk.model.result.TaskJsonResult;
 import com.tencent.matrix.apk.model.result.TaskResult;
 import com.tencent.matrix.apk.model.result.TaskResultFactory;
+import com.tencent.matrix.apk.model.task.util.VirtualFile;
 import com.android.utils.Pair;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
@@ -64,6 +65,7 @@ public class UnzipTask extends ApkTask {
     private final Map<String, String> resDirMap;
     private final Map<String, String> entryNameMap;
     private final Map<String, Pair<Long, Long>> entrySizeMap;
+    private final Map<String, Long> entryCrcMap;
 
     public UnzipTask(JobConfig config, Map<String, String> params) {
         super(config, params);
@@ -73,6 +75,7 @@ public class UnzipTask extends ApkTask {
         resDirMap = new HashMap<>();
         entryNameMap = new HashMap<>();
         entrySizeMap = new HashMap<>();
+        entryCrcMap = new HashMap<>();
     }
 
     @Override
@@ -225,6 +228,24 @@ public class UnzipTask extends ApkTask {
         return outEntryName;
     }
 
+    /*
+     *  return the entry name before resguard, or null if it is a directory
+     */
+    private String getOutEntryName(String entryName) {
+        int index = entryName.lastIndexOf('/');
+        if (index >= 0) {
+            String filename = entryName.substring(index + 1);
+            if (Util.isNullOrNil(filename)) {
+                return null;
+            }
+            String outEntryName = reverseResguard(entryName.substring(0, index), filename);
+            if (!Util.isNullOrNil(outEntryName)) {
+                return outEntryName;
+            }
+        }
+        return entryName;
+    }
+
     private String writeEntry(ZipFile zipFile, ZipEntry entry) throws IOException {
 
         int readSize;
@@ -247,10 +268,7 @@ public class UnzipTask extends ApkTask {
             }
             if (!Util.isNullOrNil(filename)) {
                 file = new File(dir, filename);
-                outEntryName = reverseResguard(dirName, filename);
-                if (Util.isNullOrNil(outEntryName)) {
-                    outEntryName = entryName;
-                }
+                outEntryName = getOutEntryName(entryName);
             }
         } else {
             file = new File(outputFile, entryName);
@@ -313,7 +331,11 @@ public class UnzipTask extends ApkTask {
             String outEntryName = "";
             while (entries.hasMoreElements()) {
                 ZipEntry entry = (ZipEntry) entries.nextElement();
-                outEntryName = writeEntry(zipFile, entry);
+                if (config.isInZip()) {
+                    outEntryName = getOutEntryName(entry.getName());
+                } else {
+                    outEntryName = writeEntry(zipFile, entry);
+                }
                 if (!Util.isNullOrNil(outEntryName)) {
                     JsonObject fileItem = new JsonObject();
                     fileItem.addProperty("entry-name", outEntryName);
@@ -321,11 +343,21 @@ public class UnzipTask extends ApkTask {
                     jsonArray.add(fileItem);
                     entrySizeMap.put(outEntryName, Pair.of(entry.getSize(), entry.getCompressedSize()));
                     entryNameMap.put(entry.getName(), outEntryName);
+                    entryCrcMap.put(entry.getName(), entry.getCrc());
                 }
             }
 
             config.setEntrySizeMap(entrySizeMap);
             config.setEntryNameMap(entryNameMap);
+            config.setEntryCrcMap(entryCrcMap);
+            // In the in-zip mode the entries are read from the apk directly, and only extracted to the unzip dir
+            // when a task asks for a real file.
+            if (config.isInZip()) {
+                config.setApkRoot(VirtualFile.fromZip(zipFile, outputFile));
+            } else {
+                zipFile.close();
+                config.setApkRoot(VirtualFile.fromDir(outputFile));
+            }
             ((TaskJsonResult) taskResult).add("entries", jsonArray);
             taskResult.setStartTime(startTime);
             taskResult.setEndTime(System.currentTimeMillis());
@@ -38,5 +38,7 @@ public class ApkConstants {
     public static final String DEFAULT_RTXT_FILENAME = "R.txt";
     public static final String DEFAULT_RESGUARD_MAPPING_FILENAME = "resguard-mapping.txt";
     public static final int K1024 = 1024;
+    public static final int FILES_PER_SUB_TASK = 64;
+    public static final int CACHE_MAX_ENTRY_COUNT = 50000;
 
 }
@@ -158,15 +158,15 @@ public class ApkResourceDecoder {
         return pkg;
     }
 
-    private static void decodeResResource(ResResource res, File inDir, AXmlResourceParser xmlParser, Map<String, Set<String>> nonValueReferences) throws AndrolibException, IOException {
+    private static void decodeResResource(ResResource res, VirtualFile inDir, AXmlResourceParser xmlParser, Map<String, Set<String>> nonValueReferences) throws AndrolibException, IOException {
         ResFileValue fileValue = (ResFileValue) res.getValue();
         String inFileName = fileValue.getStrippedPath();
         String typeName = res.getResSpec().getType().getName();
 
         try {
-            File inFile = new File(inDir, inFileName);
-            if (!FileUtil.isLegalFile(inFile)) {
-//                Log.d(TAG, "Can not find %s", inFile.getAbsolutePath());
+            VirtualFile inFile = inDir.getChild(inFileName);
+            if (inFile == null || !inFile.isFile() || inFile.length() <= 0) {
+//                Log.d(TAG, "Can not find %s", inFileName);
                 return;
             }
 
@@ -175,9 +175,13 @@ public class ApkResourceDecoder {
                 return;
             }
 
-            FileInputStream inputStream = new FileInputStream(inFile);
+            InputStream inputStream = inFile.openStream();
             XmlPullResourceRefDecoder xmlDecoder = new XmlPullResourceRefDecoder(xmlParser);
-            xmlDecoder.decode(inputStream, null);
+            try {
+                xmlDecoder.decode(inputStream, null);
+            } finally {
+                inputStream.close();
+            }
             String resource = ApkConstants.R_PREFIX + typeName + "." + inFile.getName().substring(0, inFile.getName().lastIndexOf('.'));
             if (!nonValueReferences.containsKey(resource)) {
                 nonValueReferences.put(resource, xmlDecoder.getResourceRefSet());
@@ -214,7 +218,7 @@ public class ApkResourceDecoder {
         references.addAll(xmlDecoder.getResourceRefSet());
     }
 
-    public static void decodeResourcesRef(File manifestFile, File arscFile, File resDir, Map<String, Set<String>> nonValueReferences, Set<String> valueReferences) throws IOException, AndrolibException, XmlPullParserException {
+    public static void decodeResourcesRef(File manifestFile, File arscFile, VirtualFile resDir, Map<String, Set<String>> nonValueReferences, Set<String> valueReferences) throws IOException, AndrolibException, XmlPullParserException {
         if (!FileUtil.isLegalFile(manifestFile)) {
             Log.w(TAG, "File %s is illegal!", ApkConstants.MANIFEST_FILE_NAME);
             return;
@@ -223,7 +227,7 @@ public class ApkResourceDecoder {
             Log.w(TAG, "File %s is illegal!", ApkConstants.ARSC_FILE_NAME);
             return;
         }
-        if (resDir != null && resDir.exists() && resDir.isDirectory()) {
+        if (resDir != null && resDir.isDirectory()) {
             //decode arsc file
             ResTable resTable = new ResTable();
             decodeArscFile(arscFile, resTable);
@@ -29,6 +29,10 @@ import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Pattern;
 
 /**
@@ -97,6 +101,40 @@ public class ApkUtil {
     }
 
 
+    /*
+     *  run the sub tasks with the ForkJoinPool of the job if it is called from one of its threads, or one by one
+     *  otherwise, the results are in the order of the sub tasks so that they can be merged deterministically.
+     */
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> subTasks) throws Exception {
+        List<T> results = new ArrayList<>(subTasks.size());
+        if (subTasks.size() > 1 && ForkJoinTask.inForkJoinPool()) {
+            List<ForkJoinTask<T>> forkJoinTasks = new ArrayList<>(subTasks.size());
+            for (Callable<T> subTask : subTasks) {
+                forkJoinTasks.add(ForkJoinTask.adapt(subTask));
+            }
+            ForkJoinTask.invokeAll(forkJoinTasks);
+            for (ForkJoinTask<T> forkJoinTask : forkJoinTasks) {
+                results.add(forkJoinTask.get());
+            }
+        } else {
+            for (Callable<T> subTask : subTasks) {
+                results.add(subTask.call());
+            }
+        }
+        return results;
+    }
+
+    /*
+     *  split the list into consecutive parts of at most partSize items
+     */
+    public static <T> List<List<T>> partition(List<T> list, int partSize) {
+        List<List<T>> parts = new ArrayList<>();
+        for (int start = 0; start < list.size(); start += partSize) {
+            parts.add(list.subList(start, Math.min(start + partSize, list.size())));
+        }
+        return parts;
+    }
+
     public static String[] disassembleClass(ClassDef classDef, BaksmaliOptions options) {
         /**
          * The path for the disassembly file is based on the package name
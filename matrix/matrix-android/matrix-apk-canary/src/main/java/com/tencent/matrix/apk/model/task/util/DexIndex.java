@@ -0,0 +1,264 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.android.dexdeps.ClassRef;
+import com.android.dexdeps.DexData;
+import com.android.dexdeps.FieldRef;
+import com.android.dexdeps.MethodRef;
+import com.tencent.matrix.javalib.util.Log;
+
+import org.jf.dexlib2.DexFileFactory;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.WideLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.util.ReferenceUtil;
+import org.jf.util.StringUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * The dex files of the apk parsed once for all the tasks of a job.
+ * <p>
+ * The ref tables are loaded on the first call of {@link #getDexFiles()}, and the constants referenced by code
+ * are collected on the first call of {@link #getCodeReferences()}, so a job without tasks asking for code never
+ * reads the instructions. Both are immutable once built and can be read by the tasks concurrently.
+ * </p>
+ */
+public final class DexIndex {
+
+    private static final String TAG = "Matrix.DexIndex";
+
+    private final List<VirtualFile> dexFileList;
+    private final List<String> dexFileNameList;
+
+    private final Object dexFilesLock = new Object();
+    private final Object codeReferencesLock = new Object();
+    private volatile List<DexFileInfo> dexFiles;
+    private volatile CodeReferences codeReferences;
+
+    public static final class DexFileInfo {
+        public final String fileName;
+        public final ClassRef[] internalClasses;
+        public final ClassRef[] externalClasses;
+        public final MethodRef[] methodRefs;
+        public final FieldRef[] fieldRefs;
+
+        private DexFileInfo(String fileName, DexData dexData) {
+            this.fileName = fileName;
+            internalClasses = dexData.getInternalReferences();
+            externalClasses = dexData.getExternalReferences();
+            methodRefs = dexData.getMethodRefs();
+            fieldRefs = dexData.getFieldRefs();
+        }
+    }
+
+    /**
+     * Operands of the instructions in all the dex files, kept as they are written by smali so that the tasks
+     * match them the same way as they matched the disassembled lines. The literals are the non-negative ones in
+     * the int range only, the others were never parsed as resource ids from the disassembled lines either.
+     */
+    public static final class CodeReferences {
+        /*
+         *  const v6, 0x7f0c0061
+         */
+        public final Set<String> constLiterals = new HashSet<>();
+        /*
+         *  sget v6, Lcom/tencent/mm/R$string;->chatting_long_click_menu_revoke_msg:I
+         */
+        public final Set<String> staticFieldRefs = new HashSet<>();
+        /*
+         *  .array-data 4
+         *      0x7f0a0022
+         *  .end array-data
+         */
+        public final Set<String> arrayDataLiterals = new HashSet<>();
+        /*
+         *  const-string v0, "file.txt"
+         */
+        public final Set<String> constStrings = new HashSet<>();
+
+        private CodeReferences() {
+        }
+    }
+
+    /*
+     *  the dex files are extracted from the apk if it is checked in the in-zip mode, since they are read randomly
+     */
+    public DexIndex(VirtualFile apkRoot) {
+        dexFileList = new ArrayList<>();
+        dexFileNameList = new ArrayList<>();
+        VirtualFile[] files = apkRoot != null ? apkRoot.listFiles() : null;
+        if (files != null) {
+            for (VirtualFile file : files) {
+                if (file.isFile() && file.getName().endsWith(ApkConstants.DEX_FILE_SUFFIX)) {
+                    dexFileList.add(file);
+                    dexFileNameList.add(file.getName());
+                }
+            }
+        }
+    }
+
+    public List<String> getDexFileNames() {
+        return Collections.unmodifiableList(dexFileNameList);
+    }
+
+    public List<DexFileInfo> getDexFiles() throws IOException {
+        if (dexFiles == null) {
+            synchronized (dexFilesLock) {
+                if (dexFiles == null) {
+                    dexFiles = loadDexFiles();
+                }
+            }
+        }
+        return dexFiles;
+    }
+
+    public CodeReferences getCodeReferences() throws IOException {
+        if (codeReferences == null) {
+            synchronized (codeReferencesLock) {
+                if (codeReferences == null) {
+                    codeReferences = loadCodeReferences();
+                }
+            }
+        }
+        return codeReferences;
+    }
+
+    /*
+     *  The dex files are loaded by sub tasks in parallel when the index is built from a thread of the job.
+     */
+    private List<DexFileInfo> loadDexFiles() throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<Callable<DexFileInfo>> subTasks = new ArrayList<>();
+        for (final VirtualFile dexFile : dexFileList) {
+            subTasks.add(new Callable<DexFileInfo>() {
+                @Override
+                public DexFileInfo call() throws IOException {
+                    RandomAccessFile randomAccessFile = new RandomAccessFile(dexFile.toFile(), "r");
+                    try {
+                        DexData dexData = new DexData(randomAccessFile);
+                        dexData.load();
+                        return new DexFileInfo(dexFile.getName(), dexData);
+                    } finally {
+                        randomAccessFile.close();
+                    }
+                }
+            });
+        }
+        List<DexFileInfo> result = invokeAll(subTasks);
+        Log.i(TAG, "load %d dex files, use time %d ms", result.size(), System.currentTimeMillis() - startTime);
+        return Collections.unmodifiableList(result);
+    }
+
+    private CodeReferences loadCodeReferences() throws IOException {
+        long startTime = System.currentTimeMillis();
+        List<Callable<CodeReferences>> subTasks = new ArrayList<>();
+        for (final VirtualFile file : dexFileList) {
+            subTasks.add(new Callable<CodeReferences>() {
+                @Override
+                public CodeReferences call() throws IOException {
+                    CodeReferences result = new CodeReferences();
+                    DexBackedDexFile dexFile = DexFileFactory.loadDexFile(file.toFile(), Opcodes.forApi(15));
+                    for (ClassDef classDef : dexFile.getClasses()) {
+                        for (Method method : classDef.getMethods()) {
+                            MethodImplementation implementation = method.getImplementation();
+                            if (implementation != null) {
+                                for (Instruction instruction : implementation.getInstructions()) {
+                                    readInstruction(instruction, result);
+                                }
+                            }
+                        }
+                    }
+                    return result;
+                }
+            });
+        }
+        CodeReferences result = new CodeReferences();
+        for (CodeReferences dexCodeReferences : invokeAll(subTasks)) {
+            result.constLiterals.addAll(dexCodeReferences.constLiterals);
+            result.staticFieldRefs.addAll(dexCodeReferences.staticFieldRefs);
+            result.arrayDataLiterals.addAll(dexCodeReferences.arrayDataLiterals);
+            result.constStrings.addAll(dexCodeReferences.constStrings);
+        }
+        Log.i(TAG, "collect code references of %d dex files, use time %d ms", dexFileList.size(), System.currentTimeMillis() - startTime);
+        return result;
+    }
+
+    private static <T> List<T> invokeAll(List<Callable<T>> subTasks) throws IOException {
+        try {
+            return ApkUtil.invokeAll(subTasks);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /*
+     *  The operands are read from the instructions directly instead of disassembling the classes into smali, and
+     *  then formatted the way smali writes them.
+     */
+    private static void readInstruction(Instruction instruction, CodeReferences result) {
+        Opcode opcode = instruction.getOpcode();
+        if (opcode == Opcode.CONST_STRING || opcode == Opcode.CONST_STRING_JUMBO) {
+            String value = StringUtils.escapeString(((StringReference) ((ReferenceInstruction) instruction).getReference()).getString());
+            // A const-string line of smali containing ',' was never split into exactly 2 columns.
+            if (value.indexOf(',') == -1) {
+                result.constStrings.add(value);
+            }
+        } else if (opcode.name.startsWith("const") && instruction instanceof WideLiteralInstruction) {
+            addLiteral(((WideLiteralInstruction) instruction).getWideLiteral(), result.constLiterals);
+        } else if (opcode.name.startsWith("sget")) {
+            // All of them are kept since the R classes may be renamed by proguard.
+            result.staticFieldRefs.add(ReferenceUtil.getFieldDescriptor((FieldReference) ((ReferenceInstruction) instruction).getReference()));
+        } else if (opcode == Opcode.ARRAY_PAYLOAD) {
+            ArrayPayload arrayPayload = (ArrayPayload) instruction;
+            if (arrayPayload.getElementWidth() == 4) {
+                for (Number element : arrayPayload.getArrayElements()) {
+                    addLiteral(element.longValue(), result.arrayDataLiterals);
+                }
+            }
+        }
+    }
+
+    /*
+     *  smali writes a literal as 0x.. or -0x.., with a suffix 'L' if it is out of the int range. Only the
+     *  non-negative ones in the int range can be resource ids, the others are not kept.
+     */
+    private static void addLiteral(long literal, Set<String> literals) {
+        if (literal >= 0 && literal <= Integer.MAX_VALUE) {
+            literals.add("0x" + Long.toHexString(literal));
+        }
+    }
+}
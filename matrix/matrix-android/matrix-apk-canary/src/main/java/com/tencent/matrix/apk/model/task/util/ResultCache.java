@@ -0,0 +1,156 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A local cache of the results kept across the runs of ApkChecker.
+ * <p>
+ * A value is stored in a file named by the md5 of its key under the dir of its namespace, so the key must contain
+ * everything the value depends on, e.g. the hashes of the entries read and the params. A broken cache is never
+ * an error, the value is just computed again.
+ * </p>
+ * <p>
+ * A read marks the value as recently used by its modified time, and {@link #trim()} evicts the least recently used
+ * ones of each namespace beyond the max entry count, so the cache doesn't grow with every apk checked.
+ * </p>
+ */
+public final class ResultCache {
+
+    private static final String TAG = "Matrix.ResultCache";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File cacheDir;
+    private final int maxEntryCount;
+
+    public ResultCache(File cacheDir, int maxEntryCount) {
+        if (maxEntryCount <= 0) {
+            throw new IllegalArgumentException("bad max entry count: " + maxEntryCount);
+        }
+        this.cacheDir = cacheDir;
+        this.maxEntryCount = maxEntryCount;
+    }
+
+    /*
+     *  return null if the key is not cached
+     */
+    public String get(String namespace, String key) {
+        File file = getFile(namespace, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        String value;
+        try {
+            value = new String(Files.readAllBytes(file.toPath()), UTF_8);
+        } catch (IOException e) {
+            Log.w(TAG, "read cache %s failed, %s", file.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return value;
+    }
+
+    /*
+     *  the value is written to a temp file and then renamed, so the tasks running at the same time never read a
+     *  partial one
+     */
+    public void put(String namespace, String key, String value) {
+        File file = getFile(namespace, key);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            Log.w(TAG, "%s mkdirs failed!", dir.getAbsolutePath());
+            return;
+        }
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+            Files.write(tempFile.toPath(), value.getBytes(UTF_8));
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.w(TAG, "write cache %s failed, %s", file.getAbsolutePath(), e.getMessage());
+        } finally {
+            if (tempFile != null && tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /*
+     *  called once the job is done rather than on each put, since listing a namespace of the md5 of every file is
+     *  not cheap
+     */
+    public void trim() {
+        File[] namespaceDirs = cacheDir.listFiles();
+        if (namespaceDirs == null) {
+            return;
+        }
+        for (File namespaceDir : namespaceDirs) {
+            if (namespaceDir.isDirectory()) {
+                trim(namespaceDir);
+            }
+        }
+    }
+
+    private void trim(File namespaceDir) {
+        File[] files = namespaceDir.listFiles();
+        if (files == null || files.length <= maxEntryCount) {
+            return;
+        }
+        final Map<File, Long> lastModifiedMap = new HashMap<>(files.length);
+        for (File file : files) {
+            lastModifiedMap.put(file, file.lastModified());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lastModifiedMap.get(lhs), lastModifiedMap.get(rhs));
+            }
+        });
+        int evictCount = files.length - maxEntryCount;
+        for (int i = 0; i < evictCount; i++) {
+            if (!files[i].delete()) {
+                Log.w(TAG, "evict cache %s failed!", files[i].getAbsolutePath());
+            }
+        }
+        Log.i(TAG, "evict %d cache entries of %s", evictCount, namespaceDir.getName());
+    }
+
+    private File getFile(String namespace, String key) {
+        try {
+            MessageDigest msgDigest = MessageDigest.getInstance("MD5");
+            String name = Util.byteArrayToHex(msgDigest.digest(key.getBytes(UTF_8)));
+            return new File(new File(cacheDir, namespace), name);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.apk.model.task.util;
+
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A file or directory of the apk, either unzipped to disk or still in the apk.
+ * <p>
+ * The path of a file is its entry name in the apk, the tasks walking the files read them by {@link #openStream()}.
+ * A task which needs a real path, such as the ones running nm, calls {@link #toFile()}, which extracts the entries
+ * of the apk to the unzip dir on demand.
+ * </p>
+ */
+public abstract class VirtualFile implements Closeable {
+
+    private static final String TAG = "Matrix.VirtualFile";
+
+    public abstract String getName();
+
+    /*
+     *  the path relative to the root, separated by '/'
+     */
+    public abstract String getPath();
+
+    public abstract boolean isDirectory();
+
+    public abstract long length();
+
+    /*
+     *  return null if it is not a directory
+     */
+    public abstract VirtualFile[] listFiles();
+
+    public abstract InputStream openStream() throws IOException;
+
+    public abstract File toFile() throws IOException;
+
+    /*
+     *  return the file of the relative path separated by '/', or null if it does not exist
+     */
+    public VirtualFile getChild(String path) {
+        VirtualFile file = this;
+        for (String name : path.split("/")) {
+            if (Util.isNullOrNil(name)) {
+                continue;
+            }
+            file = file.findChild(name);
+            if (file == null) {
+                return null;
+            }
+        }
+        return file;
+    }
+
+    public boolean isFile() {
+        return !isDirectory();
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    protected abstract VirtualFile findChild(String name);
+
+    public static VirtualFile fromDir(File dir) {
+        return new DiskFile(dir, "");
+    }
+
+    /*
+     *  the entries are indexed by the central directory of the zip file, which is closed along with the root
+     */
+    public static VirtualFile fromZip(ZipFile zipFile, File extractDir) {
+        ZipDir root = new ZipDir(new ZipRoot(zipFile, extractDir), "");
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String[] names = entry.getName().split("/");
+            ZipDir dir = root;
+            int fileIndex = entry.isDirectory() ? names.length : names.length - 1;
+            for (int i = 0; i < fileIndex; i++) {
+                if (!Util.isNullOrNil(names[i])) {
+                    dir = dir.getOrCreateDir(names[i]);
+                }
+            }
+            if (!entry.isDirectory() && !Util.isNullOrNil(names[fileIndex])) {
+                dir.children.put(names[fileIndex], new ZipEntryFile(root.zip, dir, entry, names[fileIndex]));
+            }
+        }
+        return root;
+    }
+
+    private static String childPath(String parentPath, String name) {
+        return parentPath.isEmpty() ? name : parentPath + "/" + name;
+    }
+
+    private static final class DiskFile extends VirtualFile {
+
+        private final File file;
+        private final String path;
+
+        private DiskFile(File file, String path) {
+            this.file = file;
+            this.path = path;
+        }
+
+        @Override
+        public String getName() {
+            return file.getName();
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return file.isDirectory();
+        }
+
+        @Override
+        public long length() {
+            return file.length();
+        }
+
+        @Override
+        public VirtualFile[] listFiles() {
+            File[] files = file.listFiles();
+            if (files == null) {
+                return null;
+            }
+            VirtualFile[] result = new VirtualFile[files.length];
+            for (int i = 0; i < files.length; i++) {
+                result[i] = new DiskFile(files[i], childPath(path, files[i].getName()));
+            }
+            return result;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+
+        @Override
+        public File toFile() {
+            return file;
+        }
+
+        @Override
+        protected VirtualFile findChild(String name) {
+            File child = new File(file, name);
+            return child.exists() ? new DiskFile(child, childPath(path, name)) : null;
+        }
+    }
+
+    private static final class ZipRoot {
+
+        private final ZipFile zipFile;
+        private final File extractDir;
+
+        private ZipRoot(ZipFile zipFile, File extractDir) {
+            this.zipFile = zipFile;
+            this.extractDir = extractDir;
+        }
+    }
+
+    private static final class ZipDir extends VirtualFile {
+
+        private final ZipRoot zip;
+        private final String path;
+        private final Map<String, VirtualFile> children = new LinkedHashMap<>();
+
+        private ZipDir(ZipRoot zip, String path) {
+            this.zip = zip;
+            this.path = path;
+        }
+
+        private ZipDir getOrCreateDir(String name) {
+            VirtualFile child = children.get(name);
+            if (!(child instanceof ZipDir)) {
+                child = new ZipDir(zip, childPath(path, name));
+                children.put(name, child);
+            }
+            return (ZipDir) child;
+        }
+
+        @Override
+        public String getName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return true;
+        }
+
+        @Override
+        public long length() {
+            return 0;
+        }
+
+        @Override
+        public VirtualFile[] listFiles() {
+            return children.values().toArray(new VirtualFile[children.size()]);
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            throw new IOException(path + " is a directory!");
+        }
+
+        /*
+         *  all the files under the directory are extracted
+         */
+        @Override
+        public File toFile() throws IOException {
+            for (VirtualFile child : children.values()) {
+                child.toFile();
+            }
+            File dir = new File(zip.extractDir, path);
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IOException("Create directory '" + dir.getAbsolutePath() + "' failed!");
+            }
+            return dir;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (path.isEmpty()) {
+                zip.zipFile.close();
+            }
+        }
+
+        @Override
+        protected VirtualFile findChild(String name) {
+            return children.get(name);
+        }
+    }
+
+    private static final class ZipEntryFile extends VirtualFile {
+
+        private final ZipRoot zip;
+        private final ZipDir parent;
+        private final ZipEntry entry;
+        private final String name;
+        private File extractedFile;
+
+        private ZipEntryFile(ZipRoot zip, ZipDir parent, ZipEntry entry, String name) {
+            this.zip = zip;
+            this.parent = parent;
+            this.entry = entry;
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getPath() {
+            return childPath(parent.path, name);
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public long length() {
+            return entry.getSize();
+        }
+
+        @Override
+        public VirtualFile[] listFiles() {
+            return null;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new BufferedInputStream(zip.zipFile.getInputStream(entry));
+        }
+
+        @Override
+        public synchronized File toFile() throws IOException {
+            if (extractedFile == null) {
+                File file = new File(zip.extractDir, getPath());
+                File dir = file.getParentFile();
+                if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("Create directory '" + dir.getAbsolutePath() + "' failed!");
+                }
+                InputStream inputStream = zip.zipFile.getInputStream(entry);
+                OutputStream outputStream = null;
+                try {
+                    outputStream = new BufferedOutputStream(new FileOutputStream(file));
+                    byte[] buffer = new byte[4096];
+                    int readSize;
+                    while ((readSize = inputStream.read(buffer)) != -1) {
+                        outputStream.write(buffer, 0, readSize);
+                    }
+                } finally {
+                    inputStream.close();
+                    if (outputStream != null) {
+                        outputStream.close();
+                    }
+                }
+                Log.d(TAG, "extract %s", getPath());
+                extractedFile = file;
+            }
+            return extractedFile;
+        }
+
+        @Override
+        protected VirtualFile findChild(String name) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.tencent.matrix.trace;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the bytes of the classes read by {@link MethodCollector}, so {@link MethodTracer} doesn't need to read and
+ * inflate them again. The cache is bounded by {@link #maxSize}, the classes which don't fit are read from the input again.
+ */
+public class ClassCache {
+
+    private static final String NO_ENTRY = "";
+
+    private final ConcurrentHashMap<File, ConcurrentHashMap<String, byte[]>> cache = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private final long maxSize;
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger overflowCount = new AtomicInteger();
+
+    public ClassCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param entryName the name of the class in the jar, or null if the input is the class file itself.
+     */
+    public boolean put(File input, String entryName, byte[] data) {
+        if (size.addAndGet(data.length) > maxSize) {
+            size.addAndGet(-data.length);
+            overflowCount.incrementAndGet();
+            return false;
+        }
+        ConcurrentHashMap<String, byte[]> entries = cache.get(input);
+        if (null == entries) {
+            ConcurrentHashMap<String, byte[]> newEntries = new ConcurrentHashMap<>();
+            entries = cache.putIfAbsent(input, newEntries);
+            if (null == entries) {
+                entries = newEntries;
+            }
+        }
+        byte[] old = entries.put(null == entryName ? NO_ENTRY : entryName, data);
+        if (null != old) {
+            size.addAndGet(-old.length);
+        }
+        return true;
+    }
+
+    /**
+     * every class is traced only once, so the bytes are released as soon as they are taken.
+     */
+    public byte[] remove(File input, String entryName) {
+        ConcurrentHashMap<String, byte[]> entries = cache.get(input);
+        byte[] data = null == entries ? null : entries.remove(null == entryName ? NO_ENTRY : entryName);
+        if (null == data) {
+            missCount.incrementAndGet();
+        } else {
+            size.addAndGet(-data.length);
+            hitCount.incrementAndGet();
+        }
+        return data;
+    }
+
+    /**
+     * drop all classes of the input which won't be taken, it isn't counted as a hit or miss.
+     */
+    public void evict(File input) {
+        ConcurrentHashMap<String, byte[]> entries = cache.remove(input);
+        if (null != entries) {
+            for (byte[] data : entries.values()) {
+                size.addAndGet(-data.length);
+            }
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+        size.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hit:%s miss:%s overflow:%s", hitCount.get(), missCount.get(), overflowCount.get());
+    }
+}
@@ -12,20 +12,26 @@ public class Configuration {
     public String mappingDir;
     public String baseMethodMapPath;
     public String methodMapFilePath;
+    public String methodMapBinFilePath;
+    public String methodIndexFilePath;
     public String ignoreMethodMapFilePath;
     public String blackListFilePath;
     public String traceClassOut;
+    public int parallelism;
     public HashSet<String> blackSet = new HashSet<>();
 
-    Configuration(String packageName, String mappingDir, String baseMethodMapPath, String methodMapFilePath,
-                  String ignoreMethodMapFilePath, String blackListFilePath, String traceClassOut) {
+    Configuration(String packageName, String mappingDir, String baseMethodMapPath, String methodMapFilePath, String methodMapBinFilePath,
+                  String methodIndexFilePath, String ignoreMethodMapFilePath, String blackListFilePath, String traceClassOut, int parallelism) {
         this.packageName = packageName;
         this.mappingDir = Util.nullAsNil(mappingDir);
         this.baseMethodMapPath = Util.nullAsNil(baseMethodMapPath);
         this.methodMapFilePath = Util.nullAsNil(methodMapFilePath);
+        this.methodMapBinFilePath = Util.nullAsNil(methodMapBinFilePath);
+        this.methodIndexFilePath = Util.nullAsNil(methodIndexFilePath);
         this.ignoreMethodMapFilePath = Util.nullAsNil(ignoreMethodMapFilePath);
         this.blackListFilePath = Util.nullAsNil(blackListFilePath);
         this.traceClassOut = Util.nullAsNil(traceClassOut);
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
     }
 
     public int parseBlackFile(MappingCollector processor) {
@@ -64,9 +70,12 @@ public class Configuration {
                 + "|* mappingDir:\t" + mappingDir + "\n"
                 + "|* baseMethodMapPath:\t" + baseMethodMapPath + "\n"
                 + "|* methodMapFilePath:\t" + methodMapFilePath + "\n"
+                + "|* methodMapBinFilePath:\t" + methodMapBinFilePath + "\n"
+                + "|* methodIndexFilePath:\t" + methodIndexFilePath + "\n"
                 + "|* ignoreMethodMapFilePath:\t" + ignoreMethodMapFilePath + "\n"
                 + "|* blackListFilePath:\t" + blackListFilePath + "\n"
-                + "|* traceClassOut:\t" + traceClassOut + "\n";
+                + "|* traceClassOut:\t" + traceClassOut + "\n"
+                + "|* parallelism:\t" + parallelism + "\n";
     }
 
     public static class Builder {
@@ -75,9 +84,12 @@ public class Configuration {
         public String mappingPath;
         public String baseMethodMap;
         public String methodMapFile;
+        public String methodMapBinFile;
+        public String methodIndexFile;
         public String ignoreMethodMapFile;
         public String blackListFile;
         public String traceClassOut;
+        public int parallelism;
 
         public Builder setPackageName(String packageName) {
             this.packageName = packageName;
@@ -104,6 +116,16 @@ public class Configuration {
             return this;
         }
 
+        public Builder setMethodMapBinFilePath(String methodMapBinFile) {
+            this.methodMapBinFile = methodMapBinFile;
+            return this;
+        }
+
+        public Builder setMethodIndexFilePath(String methodIndexFile) {
+            this.methodIndexFile = methodIndexFile;
+            return this;
+        }
+
         public Builder setIgnoreMethodMapFilePath(String methodMapDir) {
             ignoreMethodMapFile = methodMapDir;
             return this;
@@ -114,8 +136,13 @@ public class Configuration {
             return this;
         }
 
+        public Builder setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
         public Configuration build() {
-            return new Configuration(packageName, mappingPath, baseMethodMap, methodMapFile, ignoreMethodMapFile, blackListFile, traceClassOut);
+            return new Configuration(packageName, mappingPath, baseMethodMap, methodMapFile, methodMapBinFile, methodIndexFile, ignoreMethodMapFile, blackListFile, traceClassOut, parallelism);
         }
 
     }
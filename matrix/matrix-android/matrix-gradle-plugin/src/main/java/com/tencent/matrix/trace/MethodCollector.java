@@ -1,12 +1,14 @@
 package com.tencent.matrix.trace;
 
+import com.google.common.io.ByteStreams;
 import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
 import com.tencent.matrix.trace.item.TraceMethod;
 import com.tencent.matrix.trace.retrace.MappingCollector;
+import com.tencent.matrix.trace.retrace.MethodMappingWriter;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
@@ -15,6 +17,7 @@ import org.objectweb.asm.tree.MethodNode;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
@@ -23,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -32,6 +36,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -47,16 +52,26 @@ public class MethodCollector {
 
     private final ConcurrentHashMap<String, TraceMethod> collectedIgnoreMethodMap = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, TraceMethod> collectedMethodMap;
+    private final Set<String> tracedClassSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> windowFocusClassSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<File> tracedInputSet = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
     private final Configuration configuration;
+    private final MethodIndex methodIndex;
+    private final ClassCache classCache;
     private final AtomicInteger methodId;
     private final AtomicInteger ignoreCount = new AtomicInteger();
     private final AtomicInteger incrementCount = new AtomicInteger();
+    private final AtomicLong readCost = new AtomicLong();
+    private final AtomicLong visitCost = new AtomicLong();
 
     public MethodCollector(ExecutorService executor, MappingCollector mappingCollector, AtomicInteger methodId,
-                           Configuration configuration, ConcurrentHashMap<String, TraceMethod> collectedMethodMap) {
+                           Configuration configuration, MethodIndex methodIndex, ClassCache classCache,
+                           ConcurrentHashMap<String, TraceMethod> collectedMethodMap) {
         this.executor = executor;
         this.mappingCollector = mappingCollector;
         this.configuration = configuration;
+        this.methodIndex = methodIndex;
+        this.classCache = classCache;
         this.methodId = methodId;
         this.collectedMethodMap = collectedMethodMap;
     }
@@ -69,24 +84,65 @@ public class MethodCollector {
         return collectedMethodMap;
     }
 
+    public ConcurrentHashMap<String, TraceMethod> getCollectedIgnoreMethodMap() {
+        return collectedIgnoreMethodMap;
+    }
+
+    /**
+     * @return the classes which have at least one method to trace.
+     */
+    public Set<String> getTracedClassSet() {
+        return tracedClassSet;
+    }
+
+    /**
+     * @return the classes without onWindowFocusChanged, including the abstract ones as before, the method is inserted if
+     * they turn out to be activities.
+     */
+    public Set<String> getWindowFocusClassSet() {
+        return windowFocusClassSet;
+    }
+
+    /**
+     * @return the inputs which may be changed by the tracer, the others can be copied as they are.
+     */
+    public Set<File> getTracedInputSet() {
+        return tracedInputSet;
+    }
+
+    /**
+     * @return the total time of all collecting threads spent on reading the classes, in ms.
+     */
+    public long getReadCost() {
+        return readCost.get() / 1000000;
+    }
+
+    /**
+     * @return the total time of all collecting threads spent on visiting the classes, in ms.
+     */
+    public long getVisitCost() {
+        return visitCost.get() / 1000000;
+    }
+
     public void collect(Set<File> srcFolderList, Set<File> dependencyJarList) throws ExecutionException, InterruptedException {
         List<Future> futures = new LinkedList<>();
 
-        for (File srcFile : srcFolderList) {
-            ArrayList<File> classFileList = new ArrayList<>();
-            if (srcFile.isDirectory()) {
-                listClassFiles(classFileList, srcFile);
-            } else {
-                classFileList.add(srcFile);
-            }
+        methodIndex.restore(mappingCollector, collectedMethodMap, collectedIgnoreMethodMap, collectedClassExtendMap);
 
-            for (File classFile : classFileList) {
-                futures.add(executor.submit(new CollectSrcTask(classFile)));
-            }
-        }
+        // the inputs which are collected only won't be traced, there is no need to keep their classes
+        Set<File> collectOnlySrcList = new HashSet<>(methodIndex.getCollectOnlySrcList());
+        collectOnlySrcList.removeAll(srcFolderList);
+        Set<File> collectOnlyJarList = new HashSet<>(methodIndex.getCollectOnlyJarList());
+        collectOnlyJarList.removeAll(dependencyJarList);
+
+        collectFromSrc(srcFolderList, true, futures);
+        collectFromSrc(collectOnlySrcList, false, futures);
 
         for (File jarFile : dependencyJarList) {
-            futures.add(executor.submit(new CollectJarTask(jarFile)));
+            collectFromJar(jarFile, true, futures);
+        }
+        for (File jarFile : collectOnlyJarList) {
+            collectFromJar(jarFile, false, futures);
         }
 
         for (Future future : futures) {
@@ -94,6 +150,15 @@ public class MethodCollector {
         }
         futures.clear();
 
+        // the jars without any class to trace will be copied as they are
+        for (File jarFile : dependencyJarList) {
+            if (!tracedInputSet.contains(jarFile)) {
+                classCache.evict(jarFile);
+            }
+        }
+
+        assignMethodId();
+
         futures.add(executor.submit(new Runnable() {
             @Override
             public void run() {
@@ -116,23 +181,70 @@ public class MethodCollector {
     }
 
 
+    private void collectFromSrc(Set<File> srcList, boolean isTrace, List<Future> futures) {
+        for (File srcFile : srcList) {
+            ArrayList<File> classFileList = new ArrayList<>();
+            if (srcFile.isDirectory()) {
+                listClassFiles(classFileList, srcFile);
+            } else if (isNeedTraceFile(srcFile.getName())) {
+                classFileList.add(srcFile);
+            }
+
+            for (File classFile : classFileList) {
+                futures.add(executor.submit(new CollectSrcTask(classFile, isTrace)));
+            }
+        }
+    }
+
+    private void collectFromJar(File jarFile, boolean isTrace, List<Future> futures) {
+        if (jarFile.length() > TraceBuildConstants.JAR_SPLIT_SIZE) {
+            // a big jar is split into subtasks, so it doesn't keep one thread busy while the others are idle
+            try {
+                List<String> entryNames = listClassEntries(jarFile);
+                methodIndex.startRecord(jarFile);
+                for (int i = 0; i < entryNames.size(); i += TraceBuildConstants.JAR_SPLIT_ENTRY_COUNT) {
+                    List<String> subList = entryNames.subList(i, Math.min(entryNames.size(), i + TraceBuildConstants.JAR_SPLIT_ENTRY_COUNT));
+                    futures.add(executor.submit(new CollectJarTask(jarFile, isTrace, subList)));
+                }
+                return;
+            } catch (IOException e) {
+                Log.e(TAG, "[collectFromJar] list entries err! jar:%s e:%s", jarFile.getAbsolutePath(), e);
+            }
+        }
+        futures.add(executor.submit(new CollectJarTask(jarFile, isTrace, null)));
+    }
+
+    private void collectClass(byte[] data, File input) {
+        long start = System.nanoTime();
+        ClassReader classReader = new ClassReader(data);
+        ClassVisitor visitor = new TraceClassAdapter(Opcodes.ASM5, null, input);
+        classReader.accept(visitor, 0);
+        visitCost.addAndGet(System.nanoTime() - start);
+    }
+
     class CollectSrcTask implements Runnable {
 
         File classFile;
+        boolean isTrace;
 
-        CollectSrcTask(File classFile) {
+        CollectSrcTask(File classFile, boolean isTrace) {
             this.classFile = classFile;
+            this.isTrace = isTrace;
         }
 
         @Override
         public void run() {
             InputStream is = null;
             try {
+                methodIndex.startRecord(classFile);
+                long start = System.nanoTime();
                 is = new FileInputStream(classFile);
-                ClassReader classReader = new ClassReader(is);
-                ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-                ClassVisitor visitor = new TraceClassAdapter(Opcodes.ASM5, classWriter);
-                classReader.accept(visitor, 0);
+                byte[] data = ByteStreams.toByteArray(is);
+                readCost.addAndGet(System.nanoTime() - start);
+                if (isTrace) {
+                    classCache.put(classFile, null, data);
+                }
+                collectClass(data, classFile);
 
             } catch (Exception e) {
                 e.printStackTrace();
@@ -148,9 +260,16 @@ public class MethodCollector {
     class CollectJarTask implements Runnable {
 
         File fromJar;
+        boolean isTrace;
+        List<String> entryNames;
 
-        CollectJarTask(File jarFile) {
+        /**
+         * @param entryNames the part of the jar to collect, or null to collect the whole jar.
+         */
+        CollectJarTask(File jarFile, boolean isTrace, List<String> entryNames) {
             this.fromJar = jarFile;
+            this.isTrace = isTrace;
+            this.entryNames = entryNames;
         }
 
         @Override
@@ -159,16 +278,18 @@ public class MethodCollector {
 
             try {
                 zipFile = new ZipFile(fromJar);
-                Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
-                while (enumeration.hasMoreElements()) {
-                    ZipEntry zipEntry = enumeration.nextElement();
-                    String zipEntryName = zipEntry.getName();
-                    if (isNeedTraceFile(zipEntryName)) {
-                        InputStream inputStream = zipFile.getInputStream(zipEntry);
-                        ClassReader classReader = new ClassReader(inputStream);
-                        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-                        ClassVisitor visitor = new TraceClassAdapter(Opcodes.ASM5, classWriter);
-                        classReader.accept(visitor, 0);
+                if (null == entryNames) {
+                    methodIndex.startRecord(fromJar);
+                    Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+                    while (enumeration.hasMoreElements()) {
+                        ZipEntry zipEntry = enumeration.nextElement();
+                        if (isNeedTraceFile(zipEntry.getName())) {
+                            collectEntry(zipFile, zipEntry);
+                        }
+                    }
+                } else {
+                    for (String entryName : entryNames) {
+                        collectEntry(zipFile, zipFile.getEntry(entryName));
                     }
                 }
             } catch (Exception e) {
@@ -181,9 +302,74 @@ public class MethodCollector {
                 }
             }
         }
+
+        private void collectEntry(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+            long start = System.nanoTime();
+            InputStream inputStream = zipFile.getInputStream(zipEntry);
+            byte[] data = ByteStreams.toByteArray(inputStream);
+            inputStream.close();
+            readCost.addAndGet(System.nanoTime() - start);
+            if (isTrace) {
+                classCache.put(fromJar, zipEntry.getName(), data);
+            }
+            collectClass(data, fromJar);
+        }
     }
 
 
+    /**
+     * The methods which are collected in this build get their ids of last build first, and then the new methods
+     * get increasing ids in the order of their names, so the ids don't depend on the order of collecting.
+     */
+    private void assignMethodId() {
+        List<TraceMethod> newMethodList = new ArrayList<>();
+        HashSet<Integer> usedIds = new HashSet<>();
+        for (TraceMethod traceMethod : collectedMethodMap.values()) {
+            if (traceMethod.id == 0) {
+                newMethodList.add(traceMethod);
+            } else {
+                usedIds.add(traceMethod.id);
+            }
+        }
+        Collections.sort(newMethodList, new Comparator<TraceMethod>() {
+            @Override
+            public int compare(TraceMethod o1, TraceMethod o2) {
+                return o1.getMethodName().compareTo(o2.getMethodName());
+            }
+        });
+
+        if (methodId.get() < methodIndex.getLastMaxId()) {
+            methodId.set(methodIndex.getLastMaxId());
+        }
+        int reuseCount = 0;
+        for (TraceMethod traceMethod : newMethodList) {
+            Integer lastId = methodIndex.getLastMethodId(traceMethod.getMethodName());
+            if (null != lastId && usedIds.add(lastId)) {
+                traceMethod.id = lastId;
+                reuseCount++;
+            } else {
+                incrementCount.incrementAndGet();
+            }
+        }
+        int dropCount = 0;
+        for (TraceMethod traceMethod : newMethodList) {
+            if (traceMethod.id != 0) {
+                continue;
+            }
+            // the ids beyond METHOD_ID_DISPATCH are ignored at runtime, such methods are not traced at all
+            if (methodId.get() + 1 >= TraceBuildConstants.METHOD_ID_DISPATCH) {
+                collectedMethodMap.remove(traceMethod.getMethodName());
+                dropCount++;
+                continue;
+            }
+            traceMethod.id = methodId.incrementAndGet();
+        }
+        if (dropCount > 0) {
+            Log.e(TAG, "[assignMethodId] method ids run out, %s methods won't be traced, a full build renumbers the methods", dropCount);
+        }
+        Log.i(TAG, "[assignMethodId] collected:%s reuse:%s new:%s maxId:%s", newMethodList.size(), reuseCount, incrementCount.get(), methodId.get());
+    }
+
     private void saveIgnoreCollectedMethod(MappingCollector mappingCollector) {
 
         File methodMapFile = new File(configuration.ignoreMethodMapFilePath);
@@ -263,15 +449,27 @@ public class MethodCollector {
                 pw.close();
             }
         }
+
+        if (!Util.isNullOrNil(configuration.methodMapBinFilePath)) {
+            try {
+                long start = System.currentTimeMillis();
+                new MethodMappingWriter(new File(configuration.methodMapBinFilePath)).write(methodList);
+                Log.i(TAG, "[saveCollectedMethod] binary cost:%sms path:%s", System.currentTimeMillis() - start, configuration.methodMapBinFilePath);
+            } catch (Exception e) {
+                Log.e(TAG, "write binary method map Exception:%s", e.getMessage());
+            }
+        }
     }
 
     private class TraceClassAdapter extends ClassVisitor {
         private String className;
         private boolean isABSClass = false;
         private boolean hasWindowFocusMethod = false;
+        private final File input;
 
-        TraceClassAdapter(int i, ClassVisitor classVisitor) {
+        TraceClassAdapter(int i, ClassVisitor classVisitor, File input) {
             super(i, classVisitor);
+            this.input = input;
         }
 
         @Override
@@ -282,18 +480,28 @@ public class MethodCollector {
                 this.isABSClass = true;
             }
             collectedClassExtendMap.put(className, superName);
+            methodIndex.recordClass(input, className, superName);
+        }
+
+        @Override
+        public void visitEnd() {
+            super.visitEnd();
+            if (!hasWindowFocusMethod && isNeedTrace(configuration, className, mappingCollector)) {
+                windowFocusClassSet.add(className);
+                tracedInputSet.add(input);
+            }
         }
 
         @Override
         public MethodVisitor visitMethod(int access, String name, String desc,
                                          String signature, String[] exceptions) {
+            if (!hasWindowFocusMethod) {
+                hasWindowFocusMethod = isWindowFocusChangeMethod(name, desc);
+            }
             if (isABSClass) {
                 return super.visitMethod(access, name, desc, signature, exceptions);
             } else {
-                if (!hasWindowFocusMethod) {
-                    hasWindowFocusMethod = isWindowFocusChangeMethod(name, desc);
-                }
-                return new CollectMethodNode(className, access, name, desc, signature, exceptions);
+                return new CollectMethodNode(className, access, name, desc, signature, exceptions, input);
             }
         }
     }
@@ -301,19 +509,30 @@ public class MethodCollector {
     private class CollectMethodNode extends MethodNode {
         private String className;
         private boolean isConstructor;
+        private final File input;
 
 
         CollectMethodNode(String className, int access, String name, String desc,
-                          String signature, String[] exceptions) {
+                          String signature, String[] exceptions, File input) {
             super(Opcodes.ASM5, access, name, desc, signature, exceptions);
             this.className = className;
+            this.input = input;
         }
 
         @Override
         public void visitEnd() {
             super.visitEnd();
             TraceMethod traceMethod = TraceMethod.create(0, access, className, name, desc);
+            collectMethod(traceMethod);
+
+            // the tracer hooks every method found in the collected map, no matter where it comes from
+            if (collectedMethodMap.containsKey(traceMethod.getMethodName())) {
+                tracedClassSet.add(className);
+                tracedInputSet.add(input);
+            }
+        }
 
+        private void collectMethod(TraceMethod traceMethod) {
             if ("<init>".equals(name)) {
                 isConstructor = true;
             }
@@ -324,16 +543,20 @@ public class MethodCollector {
                     && isNeedTrace) {
                 ignoreCount.incrementAndGet();
                 collectedIgnoreMethodMap.put(traceMethod.getMethodName(), traceMethod);
+                methodIndex.recordMethod(input, traceMethod.getMethodName(), true);
                 return;
             }
 
+            // the id is assigned after all classes are collected, see assignMethodId
             if (isNeedTrace && !collectedMethodMap.containsKey(traceMethod.getMethodName())) {
-                traceMethod.id = methodId.incrementAndGet();
                 collectedMethodMap.put(traceMethod.getMethodName(), traceMethod);
-                incrementCount.incrementAndGet();
+                methodIndex.recordMethod(input, traceMethod.getMethodName(), false);
+            } else if (isNeedTrace) {
+                methodIndex.recordMethod(input, traceMethod.getMethodName(), false);
             } else if (!isNeedTrace && !collectedIgnoreMethodMap.containsKey(traceMethod.className)) {
                 ignoreCount.incrementAndGet();
                 collectedIgnoreMethodMap.put(traceMethod.getMethodName(), traceMethod);
+                methodIndex.recordMethod(input, traceMethod.getMethodName(), true);
             }
 
         }
@@ -450,6 +673,23 @@ public class MethodCollector {
         }
     }
 
+    public static List<String> listClassEntries(File jarFile) throws IOException {
+        List<String> entryNames = new ArrayList<>();
+        ZipFile zipFile = new ZipFile(jarFile);
+        try {
+            Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+            while (enumeration.hasMoreElements()) {
+                String zipEntryName = enumeration.nextElement().getName();
+                if (isNeedTraceFile(zipEntryName)) {
+                    entryNames.add(zipEntryName);
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return entryNames;
+    }
+
     public static boolean isNeedTraceFile(String fileName) {
         if (fileName.endsWith(".class")) {
             for (String unTraceCls : TraceBuildConstants.UN_TRACE_CLASS) {
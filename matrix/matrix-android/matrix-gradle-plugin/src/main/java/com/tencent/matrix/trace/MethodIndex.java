@@ -0,0 +1,439 @@
+package com.tencent.matrix.trace;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.tencent.matrix.javalib.util.FileUtil;
+import com.tencent.matrix.javalib.util.Log;
+import com.tencent.matrix.javalib.util.Util;
+import com.tencent.matrix.trace.item.TraceMethod;
+import com.tencent.matrix.trace.retrace.MappingCollector;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The index of the classes and methods collected from every input of trace transform.
+ * <p>
+ * It's kept next to {@link Configuration#methodMapFilePath} between builds, so that a method always gets the same id,
+ * and an input which is not changed since last build skips both collection and tracing.
+ * The key of an input is the absolute path of a jar or a class file of directory.
+ * </p>
+ */
+public class MethodIndex {
+
+    private static final String TAG = "Matrix.MethodIndex";
+    private static final String HEADER_CONFIG = "#config ";
+    private static final String HEADER_MAX_ID = "#maxId ";
+    private static final String PREFIX_INPUT = "@";
+    private static final String PREFIX_CLASS = "c ";
+    private static final String PREFIX_METHOD = "m ";
+    private static final String PREFIX_IGNORE = "i ";
+    private static final String SPLIT = "\t";
+
+    private final Configuration configuration;
+    private final String configFingerprint;
+    private String lastConfigFingerprint;
+    private int lastMaxId;
+    private boolean isRenumbered;
+    private final HashMap<String, InputRecord> lastRecords = new HashMap<>();
+    private final HashMap<String, Integer> lastMethodIds = new HashMap<>();
+    private final ConcurrentHashMap<String, InputRecord> records = new ConcurrentHashMap<>();
+    private final List<File> collectOnlySrcList = Collections.synchronizedList(new ArrayList<File>());
+    private final List<File> collectOnlyJarList = Collections.synchronizedList(new ArrayList<File>());
+
+    private static final class InputRecord {
+        final String fingerprint;
+        final boolean isReused;
+        final List<String> classes = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> methods = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> ignoreMethods = Collections.synchronizedList(new ArrayList<String>());
+
+        InputRecord(String fingerprint, boolean isReused) {
+            this.fingerprint = fingerprint;
+            this.isReused = isReused;
+        }
+    }
+
+    private MethodIndex(Configuration configuration) {
+        this.configuration = configuration;
+        this.configFingerprint = configFingerprint(configuration);
+    }
+
+    /**
+     * @param isIncremental the traced outputs of an incremental build are kept with their ids, so the methods can be
+     *                      renumbered only by a full build.
+     */
+    public static MethodIndex load(Configuration configuration, boolean isIncremental) {
+        long start = System.currentTimeMillis();
+        MethodIndex methodIndex = new MethodIndex(configuration);
+        methodIndex.readMethodMapping(new File(configuration.methodMapFilePath));
+        methodIndex.readIndex(new File(configuration.methodIndexFilePath));
+        methodIndex.checkMaxId(isIncremental);
+        Log.i(TAG, "[load] cost:%sms inputs:%s methods:%s maxId:%s isConfigChanged:%s isRenumbered:%s", System.currentTimeMillis() - start,
+                methodIndex.lastRecords.size(), methodIndex.lastMethodIds.size(), methodIndex.lastMaxId, methodIndex.isConfigChanged(), methodIndex.isRenumbered);
+        return methodIndex;
+    }
+
+    /**
+     * The ids only grow since the removed methods keep their ids, once the max id is close to
+     * {@link TraceBuildConstants#METHOD_ID_DISPATCH} and most ids below it are unused, the ids of last build are dropped,
+     * so that every input is traced again and the methods get the compact ids from 1.
+     */
+    private void checkMaxId(boolean isIncremental) {
+        int limit = TraceBuildConstants.METHOD_ID_DISPATCH - TraceBuildConstants.METHOD_ID_RESERVED;
+        if (lastMaxId < limit || lastMethodIds.size() >= lastMaxId - TraceBuildConstants.METHOD_ID_RESERVED) {
+            return;
+        }
+        if (isIncremental) {
+            Log.w(TAG, "[checkMaxId] maxId:%s is close to the limit but only %s ids are used, run a full build to renumber the methods",
+                    lastMaxId, lastMethodIds.size());
+            return;
+        }
+        Log.w(TAG, "[checkMaxId] maxId:%s is close to the limit but only %s ids are used, renumber all methods", lastMaxId, lastMethodIds.size());
+        lastRecords.clear();
+        lastMethodIds.clear();
+        lastMaxId = 0;
+        isRenumbered = true;
+    }
+
+    /**
+     * @return true if the ids of last build are dropped, none of the inputs is reused.
+     */
+    public boolean isRenumbered() {
+        return isRenumbered;
+    }
+
+    public boolean isConfigChanged() {
+        return !configFingerprint.equals(lastConfigFingerprint);
+    }
+
+    /**
+     * @return true if the input has been collected and traced into output by last build with the same content and configuration.
+     */
+    public boolean isUpToDate(File input, File output) {
+        if (isConfigChanged() || !output.exists()) {
+            return false;
+        }
+        InputRecord last = lastRecords.get(input.getAbsolutePath());
+        return null != last && last.fingerprint.equals(fingerprint(input));
+    }
+
+    /**
+     * keep the record of last build for the input, its classes and methods will be restored instead of collecting.
+     *
+     * @return false if there isn't any record of this input.
+     */
+    public boolean reuse(File input) {
+        String key = input.getAbsolutePath();
+        InputRecord last = lastRecords.get(key);
+        if (null == last) {
+            return false;
+        }
+        InputRecord record = new InputRecord(last.fingerprint, true);
+        record.classes.addAll(last.classes);
+        record.methods.addAll(last.methods);
+        record.ignoreMethods.addAll(last.ignoreMethods);
+        records.put(key, record);
+        return true;
+    }
+
+    /**
+     * the input is not changed but there isn't any record of it, it must be collected again without tracing.
+     */
+    public void collectOnly(File input, boolean isJar) {
+        if (isJar) {
+            collectOnlyJarList.add(input);
+        } else {
+            collectOnlySrcList.add(input);
+        }
+    }
+
+    public int getReusedCount() {
+        int count = 0;
+        for (InputRecord record : records.values()) {
+            if (record.isReused) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public List<File> getCollectOnlySrcList() {
+        return collectOnlySrcList;
+    }
+
+    public List<File> getCollectOnlyJarList() {
+        return collectOnlyJarList;
+    }
+
+    /**
+     * start recording the classes and methods of an input which is collected in this build.
+     */
+    public void startRecord(File input) {
+        records.put(input.getAbsolutePath(), new InputRecord(fingerprint(input), false));
+    }
+
+    public void recordClass(File input, String className, String superName) {
+        InputRecord record = records.get(input.getAbsolutePath());
+        if (null != record) {
+            record.classes.add(className + SPLIT + superName);
+        }
+    }
+
+    /**
+     * @param methodName the key of the method in collected map
+     */
+    public void recordMethod(File input, String methodName, boolean isIgnore) {
+        InputRecord record = records.get(input.getAbsolutePath());
+        if (null != record) {
+            if (isIgnore) {
+                record.ignoreMethods.add(methodName);
+            } else {
+                record.methods.add(methodName);
+            }
+        }
+    }
+
+    /**
+     * restore the classes and methods of reused inputs, and convert the names of last ids by the current proguard mapping.
+     */
+    public void restore(MappingCollector mappingCollector, ConcurrentHashMap<String, TraceMethod> collectedMethodMap,
+                        ConcurrentHashMap<String, TraceMethod> collectedIgnoreMethodMap, ConcurrentHashMap<String, String> collectedClassExtendMap) {
+        HashMap<String, Integer> methodIds = new HashMap<>(lastMethodIds.size());
+        for (Map.Entry<String, Integer> entry : lastMethodIds.entrySet()) {
+            TraceMethod traceMethod = parseMethod(entry.getKey());
+            traceMethod.proguard(mappingCollector);
+            methodIds.put(traceMethod.getMethodName(), entry.getValue());
+        }
+        lastMethodIds.clear();
+        lastMethodIds.putAll(methodIds);
+
+        int count = 0;
+        for (InputRecord record : records.values()) {
+            if (!record.isReused) {
+                continue;
+            }
+            count++;
+            for (String line : record.classes) {
+                String[] fields = line.split(SPLIT);
+                if (fields.length > 1) {
+                    collectedClassExtendMap.put(fields[0], fields[1]);
+                }
+            }
+            for (String line : record.methods) {
+                TraceMethod traceMethod = parseMethod(line);
+                traceMethod.proguard(mappingCollector);
+                if (!collectedMethodMap.containsKey(traceMethod.getMethodName())) {
+                    collectedMethodMap.put(traceMethod.getMethodName(), traceMethod);
+                }
+            }
+            for (String line : record.ignoreMethods) {
+                TraceMethod traceMethod = parseMethod(line);
+                traceMethod.proguard(mappingCollector);
+                collectedIgnoreMethodMap.put(traceMethod.getMethodName(), traceMethod);
+            }
+        }
+        Log.i(TAG, "[restore] reused inputs:%s methods:%s", count, collectedMethodMap.size());
+    }
+
+    /**
+     * @param methodName the proguard name of method
+     * @return the id of the method in last build, or null if it's a new method.
+     */
+    public Integer getLastMethodId(String methodName) {
+        return lastMethodIds.get(methodName);
+    }
+
+    public int getLastMaxId() {
+        return lastMaxId;
+    }
+
+    /**
+     * It must be called after {@link MethodCollector#collect}, which has reverted the collected methods to original names.
+     */
+    public void save(Map<String, TraceMethod> collectedMethodMap, Map<String, TraceMethod> collectedIgnoreMethodMap) {
+        long start = System.currentTimeMillis();
+        File indexFile = new File(configuration.methodIndexFilePath);
+        if (!indexFile.getParentFile().exists()) {
+            indexFile.getParentFile().mkdirs();
+        }
+        int maxId = lastMaxId;
+        for (TraceMethod traceMethod : collectedMethodMap.values()) {
+            if (traceMethod.id > maxId && traceMethod.id != TraceBuildConstants.METHOD_ID_DISPATCH) {
+                maxId = traceMethod.id;
+            }
+        }
+
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(indexFile, false), "UTF-8"));
+            pw.println(HEADER_CONFIG + configFingerprint);
+            pw.println(HEADER_MAX_ID + maxId);
+            for (Map.Entry<String, InputRecord> entry : records.entrySet()) {
+                InputRecord record = entry.getValue();
+                pw.println(PREFIX_INPUT + entry.getKey() + SPLIT + record.fingerprint);
+                for (String line : record.classes) {
+                    pw.println(PREFIX_CLASS + line);
+                }
+                writeMethods(pw, PREFIX_METHOD, record.methods, record.isReused, collectedMethodMap);
+                writeMethods(pw, PREFIX_IGNORE, record.ignoreMethods, record.isReused, collectedIgnoreMethodMap);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "[save] write index Exception:%s", e.getMessage());
+        } finally {
+            if (pw != null) {
+                pw.flush();
+                pw.close();
+            }
+        }
+        Log.i(TAG, "[save] cost:%sms inputs:%s maxId:%s path:%s", System.currentTimeMillis() - start, records.size(), maxId, indexFile.getAbsolutePath());
+    }
+
+    private void writeMethods(PrintWriter pw, String prefix, Collection<String> methods, boolean isReused, Map<String, TraceMethod> methodMap) {
+        for (String method : methods) {
+            if (isReused) {
+                pw.println(prefix + method);
+            } else {
+                TraceMethod traceMethod = methodMap.get(method);
+                if (null != traceMethod) {
+                    pw.println(prefix + traceMethod.toString());
+                }
+            }
+        }
+    }
+
+    private void readIndex(File indexFile) {
+        if (!indexFile.exists()) {
+            Log.w(TAG, "[readIndex] not exist! %s", indexFile.getAbsolutePath());
+            return;
+        }
+        Scanner fileReader = null;
+        try {
+            fileReader = new Scanner(indexFile, "UTF-8");
+            InputRecord record = null;
+            while (fileReader.hasNextLine()) {
+                String line = fileReader.nextLine();
+                if (Util.isNullOrNil(line)) {
+                    continue;
+                }
+                if (line.startsWith(HEADER_CONFIG)) {
+                    lastConfigFingerprint = line.substring(HEADER_CONFIG.length());
+                } else if (line.startsWith(HEADER_MAX_ID)) {
+                    lastMaxId = Math.max(lastMaxId, Integer.parseInt(line.substring(HEADER_MAX_ID.length())));
+                } else if (line.startsWith(PREFIX_INPUT)) {
+                    String[] fields = line.substring(PREFIX_INPUT.length()).split(SPLIT);
+                    record = new InputRecord(fields.length > 1 ? fields[1] : "", true);
+                    lastRecords.put(fields[0], record);
+                } else if (null == record) {
+                    continue;
+                } else if (line.startsWith(PREFIX_CLASS)) {
+                    record.classes.add(line.substring(PREFIX_CLASS.length()));
+                } else if (line.startsWith(PREFIX_METHOD)) {
+                    String method = line.substring(PREFIX_METHOD.length());
+                    record.methods.add(method);
+                    addLastMethodId(parseMethod(method));
+                } else if (line.startsWith(PREFIX_IGNORE)) {
+                    record.ignoreMethods.add(line.substring(PREFIX_IGNORE.length()));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "[readIndex] err! %s", e.toString());
+            lastRecords.clear();
+            lastConfigFingerprint = null;
+        } finally {
+            if (fileReader != null) {
+                fileReader.close();
+            }
+        }
+    }
+
+    /**
+     * the method mapping of last build also gives the ids, even if there is no index yet.
+     */
+    private void readMethodMapping(File methodMapFile) {
+        if (!methodMapFile.exists()) {
+            return;
+        }
+        Scanner fileReader = null;
+        try {
+            fileReader = new Scanner(methodMapFile, "UTF-8");
+            while (fileReader.hasNextLine()) {
+                String line = fileReader.nextLine();
+                if (!Util.isNullOrNil(line)) {
+                    addLastMethodId(parseMethod(line.trim()));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "[readMethodMapping] err! %s", e.toString());
+        } finally {
+            if (fileReader != null) {
+                fileReader.close();
+            }
+        }
+    }
+
+    private void addLastMethodId(TraceMethod traceMethod) {
+        if (traceMethod.id == TraceBuildConstants.METHOD_ID_DISPATCH || traceMethod.id <= 0) {
+            return;
+        }
+        lastMethodIds.put(traceMethod.toString().substring(traceMethod.toString().indexOf(',') + 1), traceMethod.id);
+        lastMaxId = Math.max(lastMaxId, traceMethod.id);
+    }
+
+    /**
+     * the same format as {@link TraceMethod#toString()}, the id and access flag are optional.
+     */
+    private static TraceMethod parseMethod(String line) {
+        String[] fields = line.split(",");
+        TraceMethod traceMethod = new TraceMethod();
+        int index = 0;
+        if (fields.length > 2) {
+            traceMethod.id = Integer.parseInt(fields[index++]);
+        }
+        if (fields.length > 1) {
+            traceMethod.accessFlag = Integer.parseInt(fields[index++]);
+        }
+        String[] methodField = fields[index].split(" ");
+        traceMethod.className = methodField[0].replace("/", ".");
+        traceMethod.methodName = methodField[1];
+        if (methodField.length > 2) {
+            traceMethod.desc = methodField[2].replace("/", ".");
+        }
+        return traceMethod;
+    }
+
+    private static String fingerprint(File input) {
+        try {
+            if (input.isFile()) {
+                return input.length() + "-" + Files.hash(input, Hashing.sha1()).toString();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "[fingerprint] err! %s", e.toString());
+        }
+        return "";
+    }
+
+    /**
+     * the blacklist, base method map and proguard mapping all decide which methods are traced.
+     */
+    private static String configFingerprint(Configuration configuration) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(Util.nullAsNil(FileUtil.readFileAsString(configuration.blackListFilePath)), Charsets.UTF_8);
+        hasher.putString(fingerprint(new File(configuration.baseMethodMapPath)), Charsets.UTF_8);
+        hasher.putString(fingerprint(new File(configuration.mappingDir, "mapping.txt")), Charsets.UTF_8);
+        return hasher.hash().toString();
+    }
+}
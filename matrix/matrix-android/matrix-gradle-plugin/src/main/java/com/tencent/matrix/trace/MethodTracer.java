@@ -16,6 +16,7 @@
 
 package com.tencent.matrix.trace;
 
+import com.google.common.io.ByteStreams;
 import com.tencent.matrix.javalib.util.FileUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.trace.item.TraceMethod;
@@ -36,15 +37,19 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -65,13 +70,47 @@ public class MethodTracer {
     private final ConcurrentHashMap<String, String> collectedClassExtendMap;
     private final ExecutorService executor;
     private MappingCollector mappingCollector;
-
-    public MethodTracer(ExecutorService executor, MappingCollector mappingCollector, Configuration config, ConcurrentHashMap<String, TraceMethod> collectedMap, ConcurrentHashMap<String, String> collectedClassExtendMap) {
+    private final ClassCache classCache;
+    private final Set<String> tracedClassSet;
+    private final Set<String> windowFocusClassSet;
+    private final Set<File> tracedInputSet;
+    private final AtomicLong readCost = new AtomicLong();
+    private final AtomicLong traceCost = new AtomicLong();
+    private final AtomicInteger copyClassCount = new AtomicInteger();
+    private final AtomicInteger copyJarCount = new AtomicInteger();
+
+    public MethodTracer(ExecutorService executor, MappingCollector mappingCollector, Configuration config, ClassCache classCache, MethodCollector methodCollector) {
         this.configuration = config;
         this.mappingCollector = mappingCollector;
         this.executor = executor;
-        this.collectedClassExtendMap = collectedClassExtendMap;
-        this.collectedMethodMap = collectedMap;
+        this.classCache = classCache;
+        this.collectedClassExtendMap = methodCollector.getCollectedClassExtendMap();
+        this.collectedMethodMap = methodCollector.getCollectedMethodMap();
+        this.tracedClassSet = methodCollector.getTracedClassSet();
+        this.windowFocusClassSet = methodCollector.getWindowFocusClassSet();
+        this.tracedInputSet = methodCollector.getTracedInputSet();
+    }
+
+    /**
+     * @return the total time of all tracing threads spent on reading the classes which are missed in the cache, in ms.
+     */
+    public long getReadCost() {
+        return readCost.get() / 1000000;
+    }
+
+    /**
+     * @return the total time of all tracing threads spent on hooking the classes, in ms.
+     */
+    public long getTraceCost() {
+        return traceCost.get() / 1000000;
+    }
+
+    public int getCopyClassCount() {
+        return copyClassCount.get();
+    }
+
+    public int getCopyJarCount() {
+        return copyJarCount.get();
     }
 
 
@@ -83,6 +122,7 @@ public class MethodTracer {
             future.get();
         }
         futures.clear();
+        classCache.clear();
     }
 
     private void traceMethodFromSrc(Map<File, File> srcMap, List<Future> futures) {
@@ -132,19 +172,22 @@ public class MethodTracer {
                 changedFileOutput.createNewFile();
 
                 if (MethodCollector.isNeedTraceFile(classFile.getName())) {
-                    is = new FileInputStream(classFile);
-                    ClassReader classReader = new ClassReader(is);
-                    ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-                    ClassVisitor classVisitor = new TraceClassAdapter(Opcodes.ASM5, classWriter);
-                    classReader.accept(classVisitor, ClassReader.EXPAND_FRAMES);
-                    is.close();
+                    byte[] data = classCache.remove(classFile, null);
+                    if (null == data) {
+                        long start = System.nanoTime();
+                        is = new FileInputStream(classFile);
+                        data = ByteStreams.toByteArray(is);
+                        is.close();
+                        readCost.addAndGet(System.nanoTime() - start);
+                    }
+                    data = traceClass(data);
 
                     if (output.isDirectory()) {
                         os = new FileOutputStream(changedFileOutput);
                     } else {
                         os = new FileOutputStream(output);
                     }
-                    os.write(classWriter.toByteArray());
+                    os.write(data);
                     os.close();
                 } else {
                     FileUtil.copyFileUsingStream(classFile, changedFileOutput);
@@ -168,29 +211,28 @@ public class MethodTracer {
     }
 
     private void innerTraceMethodFromJar(File input, File output) {
+        if (!tracedInputSet.contains(input)) {
+            try {
+                Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                copyJarCount.incrementAndGet();
+                return;
+            } catch (Exception e) {
+                Log.e(TAG, "[innerTraceMethodFromJar] copy input:%s output:%s e:%s", input.getName(), output, e);
+            }
+        }
         ZipOutputStream zipOutputStream = null;
         ZipFile zipFile = null;
         try {
             zipOutputStream = new ZipOutputStream(new FileOutputStream(output));
             zipFile = new ZipFile(input);
-            Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
-            while (enumeration.hasMoreElements()) {
-                ZipEntry zipEntry = enumeration.nextElement();
-                String zipEntryName = zipEntry.getName();
-                if (MethodCollector.isNeedTraceFile(zipEntryName)) {
-                    InputStream inputStream = zipFile.getInputStream(zipEntry);
-                    ClassReader classReader = new ClassReader(inputStream);
-                    ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-                    ClassVisitor classVisitor = new TraceClassAdapter(Opcodes.ASM5, classWriter);
-                    classReader.accept(classVisitor, ClassReader.EXPAND_FRAMES);
-                    byte[] data = classWriter.toByteArray();
-                    InputStream byteArrayInputStream = new ByteArrayInputStream(data);
-                    ZipEntry newZipEntry = new ZipEntry(zipEntryName);
-                    FileUtil.addZipEntry(zipOutputStream, newZipEntry, byteArrayInputStream);
-                } else {
-                    InputStream inputStream = zipFile.getInputStream(zipEntry);
-                    ZipEntry newZipEntry = new ZipEntry(zipEntryName);
-                    FileUtil.addZipEntry(zipOutputStream, newZipEntry, inputStream);
+            if (input.length() > TraceBuildConstants.JAR_SPLIT_SIZE) {
+                traceSplitJar(input, zipFile, zipOutputStream);
+            } else {
+                Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+                while (enumeration.hasMoreElements()) {
+                    ZipEntry zipEntry = enumeration.nextElement();
+                    byte[] data = MethodCollector.isNeedTraceFile(zipEntry.getName()) ? traceEntry(input, zipFile, zipEntry) : null;
+                    addZipEntry(zipOutputStream, zipFile, zipEntry, data);
                 }
             }
         } catch (Exception e) {
@@ -216,6 +258,86 @@ public class MethodTracer {
         }
     }
 
+    /**
+     * The classes of a big jar are traced by subtasks of {@link TraceBuildConstants#JAR_SPLIT_ENTRY_COUNT} entries,
+     * and written in the original order as soon as their subtask is done.
+     */
+    private void traceSplitJar(final File input, final ZipFile zipFile, ZipOutputStream zipOutputStream) throws Exception {
+        List<? extends ZipEntry> zipEntries = Collections.list(zipFile.entries());
+        List<Future<byte[][]>> futures = new ArrayList<>();
+        for (int i = 0; i < zipEntries.size(); i += TraceBuildConstants.JAR_SPLIT_ENTRY_COUNT) {
+            final List<? extends ZipEntry> subList = zipEntries.subList(i, Math.min(zipEntries.size(), i + TraceBuildConstants.JAR_SPLIT_ENTRY_COUNT));
+            futures.add(executor.submit(new Callable<byte[][]>() {
+                @Override
+                public byte[][] call() throws Exception {
+                    byte[][] result = new byte[subList.size()][];
+                    for (int j = 0; j < subList.size(); j++) {
+                        ZipEntry zipEntry = subList.get(j);
+                        if (MethodCollector.isNeedTraceFile(zipEntry.getName())) {
+                            result[j] = traceEntry(input, zipFile, zipEntry);
+                        }
+                    }
+                    return result;
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            byte[][] result = futures.get(i).get();
+            futures.set(i, null);
+            for (int j = 0; j < result.length; j++) {
+                addZipEntry(zipOutputStream, zipFile, zipEntries.get(i * TraceBuildConstants.JAR_SPLIT_ENTRY_COUNT + j), result[j]);
+            }
+        }
+    }
+
+    private byte[] traceEntry(File input, ZipFile zipFile, ZipEntry zipEntry) throws Exception {
+        byte[] data = classCache.remove(input, zipEntry.getName());
+        if (null == data) {
+            long start = System.nanoTime();
+            InputStream inputStream = zipFile.getInputStream(zipEntry);
+            data = ByteStreams.toByteArray(inputStream);
+            inputStream.close();
+            readCost.addAndGet(System.nanoTime() - start);
+        }
+        return traceClass(data);
+    }
+
+    /**
+     * @param data the traced class, or null to copy the entry from the input.
+     */
+    private void addZipEntry(ZipOutputStream zipOutputStream, ZipFile zipFile, ZipEntry zipEntry, byte[] data) throws Exception {
+        ZipEntry newZipEntry = new ZipEntry(zipEntry.getName());
+        if (null != data) {
+            FileUtil.addZipEntry(zipOutputStream, newZipEntry, new ByteArrayInputStream(data));
+        } else {
+            FileUtil.addZipEntry(zipOutputStream, newZipEntry, zipFile.getInputStream(zipEntry));
+        }
+    }
+
+    /**
+     * @return the hooked class, or the class itself if none of its methods is traced.
+     */
+    private byte[] traceClass(byte[] data) {
+        long start = System.nanoTime();
+        ClassReader classReader = new ClassReader(data);
+        if (!isNeedRewrite(classReader.getClassName())) {
+            copyClassCount.incrementAndGet();
+            return data;
+        }
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        ClassVisitor classVisitor = new TraceClassAdapter(Opcodes.ASM5, classWriter);
+        classReader.accept(classVisitor, ClassReader.EXPAND_FRAMES);
+        data = classWriter.toByteArray();
+        traceCost.addAndGet(System.nanoTime() - start);
+        return data;
+    }
+
+    private boolean isNeedRewrite(String className) {
+        return tracedClassSet.contains(className)
+                || (windowFocusClassSet.contains(className) && isActivityOrSubClass(className, collectedClassExtendMap));
+    }
+
     private void listClassFiles(ArrayList<File> classFiles, File folder) {
         File[] files = folder.listFiles();
         if (null == files) {
@@ -264,12 +386,12 @@ public class MethodTracer {
         @Override
         public MethodVisitor visitMethod(int access, String name, String desc,
                                          String signature, String[] exceptions) {
+            if (!hasWindowFocusMethod) {
+                hasWindowFocusMethod = MethodCollector.isWindowFocusChangeMethod(name, desc);
+            }
             if (isABSClass) {
                 return super.visitMethod(access, name, desc, signature, exceptions);
             } else {
-                if (!hasWindowFocusMethod) {
-                    hasWindowFocusMethod = MethodCollector.isWindowFocusChangeMethod(name, desc);
-                }
                 MethodVisitor methodVisitor = cv.visitMethod(access, name, desc, signature, exceptions);
                 return new TraceMethodAdapter(api, methodVisitor, access, name, desc, this.className,
                         hasWindowFocusMethod, isActivityOrSubClass, isNeedTrace);
@@ -39,6 +39,12 @@ public class TraceBuildConstants {
                     + "-keeppackage android/\n"
                     + "-keeppackage com/tencent/matrix/\n";
 
+    public static final long CLASS_CACHE_MAX_SIZE = 128 * 1024 * 1024;
+    public static final long JAR_SPLIT_SIZE = 8 * 1024 * 1024;
+    public static final int JAR_SPLIT_ENTRY_COUNT = 500;
+
     private static final int METHOD_ID_MAX = 0xFFFFF;
     public static final int METHOD_ID_DISPATCH = METHOD_ID_MAX - 1;
+    // the ids kept for the new methods of one build, the methods are renumbered by a full build before they run out
+    public static final int METHOD_ID_RESERVED = 0x10000;
 }
@@ -5,6 +5,7 @@ public class MatrixTraceExtension {
     String baseMethodMapFile;
     String blackListFile;
     String customDexTransformName;
+    int parallelism;
 
     public String getBaseMethodMapFile() {
         return baseMethodMapFile;
@@ -18,6 +19,13 @@ public class MatrixTraceExtension {
         return customDexTransformName;
     }
 
+    /**
+     * @return the number of threads used by the trace transform, 0 means the number of available processors.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     public boolean isEnable() {
         return enable;
     }
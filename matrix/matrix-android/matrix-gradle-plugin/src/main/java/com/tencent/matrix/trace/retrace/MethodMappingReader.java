@@ -0,0 +1,157 @@
+package com.tencent.matrix.trace.retrace;
+
+import com.google.common.base.Charsets;
+import com.tencent.matrix.trace.item.TraceMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.tencent.matrix.trace.retrace.MethodMappingWriter.ENTRY_SIZE;
+import static com.tencent.matrix.trace.retrace.MethodMappingWriter.HEADER_SIZE;
+import static com.tencent.matrix.trace.retrace.MethodMappingWriter.NONE;
+import static com.tencent.matrix.trace.retrace.MethodMappingWriter.SPARSE_ENTRY_SIZE;
+
+/**
+ * Reads the binary method mapping written by {@link MethodMappingWriter}.
+ * <p>
+ * The file is memory-mapped instead of parsed, a method is found by its id in constant time, and the pages are
+ * shared by all processes which read the same file.
+ * </p>
+ */
+public class MethodMappingReader {
+
+    private final File methodMappingFile;
+    private ByteBuffer buffer;
+    private int denseCount;
+    private int sparseCount;
+    private int stringCount;
+    private int sparseOffset;
+    private int stringOffset;
+    private int poolOffset;
+
+    public MethodMappingReader(File methodMappingFile) {
+        this.methodMappingFile = methodMappingFile;
+    }
+
+    /**
+     * Maps the file into memory, it must be called before any lookup.
+     */
+    public void read() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(methodMappingFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MethodMappingWriter.MAGIC) {
+            throw new IOException("not a method mapping file: " + methodMappingFile.getAbsolutePath());
+        }
+        if (buffer.getInt(4) != MethodMappingWriter.VERSION) {
+            throw new IOException("unsupported method mapping version " + buffer.getInt(4) + ": " + methodMappingFile.getAbsolutePath());
+        }
+        denseCount = buffer.getInt(8);
+        sparseCount = buffer.getInt(12);
+        stringCount = buffer.getInt(16);
+        sparseOffset = HEADER_SIZE + denseCount * ENTRY_SIZE;
+        stringOffset = sparseOffset + sparseCount * SPARSE_ENTRY_SIZE;
+        poolOffset = stringOffset + (stringCount + 1) * 4;
+    }
+
+    public int getMethodCount() {
+        int count = sparseCount;
+        for (int i = 0; i < denseCount; i++) {
+            if (buffer.getInt(HEADER_SIZE + i * ENTRY_SIZE + 4) != NONE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean contains(int id) {
+        return entryOffset(id) >= 0;
+    }
+
+    /**
+     * @return the access flag of the method, or 0 if there isn't such method.
+     */
+    public int getAccessFlag(int id) {
+        int offset = entryOffset(id);
+        return offset < 0 ? 0 : buffer.getInt(offset);
+    }
+
+    public String getClassName(int id) {
+        return getField(id, 1);
+    }
+
+    public String getMethodName(int id) {
+        return getField(id, 2);
+    }
+
+    public String getDesc(int id) {
+        return getField(id, 3);
+    }
+
+    /**
+     * @return the method as it is written in methodMapping.txt, or null if there isn't such method.
+     */
+    public TraceMethod getTraceMethod(int id) {
+        int offset = entryOffset(id);
+        if (offset < 0) {
+            return null;
+        }
+        TraceMethod traceMethod = new TraceMethod();
+        traceMethod.id = id;
+        traceMethod.accessFlag = buffer.getInt(offset);
+        traceMethod.className = getString(buffer.getInt(offset + 4));
+        traceMethod.methodName = getString(buffer.getInt(offset + 8));
+        traceMethod.desc = getString(buffer.getInt(offset + 12));
+        return traceMethod;
+    }
+
+    private String getField(int id, int field) {
+        int offset = entryOffset(id);
+        return offset < 0 ? null : getString(buffer.getInt(offset + field * 4));
+    }
+
+    /**
+     * @return the offset of the entry of the id, or -1 if there isn't such method.
+     */
+    private int entryOffset(int id) {
+        if (id >= 0 && id < denseCount) {
+            int offset = HEADER_SIZE + id * ENTRY_SIZE;
+            return buffer.getInt(offset + 4) == NONE ? -1 : offset;
+        }
+        int low = 0;
+        int high = sparseCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = buffer.getInt(sparseOffset + mid * SPARSE_ENTRY_SIZE);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return sparseOffset + mid * SPARSE_ENTRY_SIZE + 4;
+            }
+        }
+        return -1;
+    }
+
+    private String getString(int index) {
+        if (index < 0 || index >= stringCount) {
+            return null;
+        }
+        int start = buffer.getInt(stringOffset + index * 4);
+        int end = buffer.getInt(stringOffset + index * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(poolOffset + start);
+        duplicate.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
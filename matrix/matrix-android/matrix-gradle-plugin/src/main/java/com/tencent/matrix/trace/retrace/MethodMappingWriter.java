@@ -0,0 +1,146 @@
+package com.tencent.matrix.trace.retrace;
+
+import com.google.common.base.Charsets;
+import com.tencent.matrix.trace.TraceBuildConstants;
+import com.tencent.matrix.trace.item.TraceMethod;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Writes the binary companion of methodMapping.txt, which is read by {@link MethodMappingReader}.
+ * <p>
+ * The file is made of a header, an entry table indexed by method id up to the max one, a sorted table of the special ids
+ * from {@link TraceBuildConstants#METHOD_ID_DISPATCH}, and a pool of the deduplicated strings:
+ * <pre>
+ * header:  magic, version, dense count, sparse count, string count
+ * dense:   [accessFlag, class, method, desc] * dense count, the slot of id i is at i, class is -1 for an empty slot
+ * sparse:  [id, accessFlag, class, method, desc] * sparse count, sorted by id
+ * strings: [offset] * (string count + 1), then the utf-8 bytes of all strings
+ * </pre>
+ * All ints are big-endian, a string is referred by its index and -1 means null.
+ * </p>
+ */
+public class MethodMappingWriter {
+
+    static final int MAGIC = 0x4d544d4d;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 5 * 4;
+    static final int ENTRY_SIZE = 4 * 4;
+    static final int SPARSE_ENTRY_SIZE = 5 * 4;
+    static final int NONE = -1;
+
+    private final File methodMappingFile;
+    private final HashMap<String, Integer> stringIndexMap = new HashMap<>();
+    private final List<byte[]> stringList = new ArrayList<>();
+
+    public MethodMappingWriter(File methodMappingFile) {
+        this.methodMappingFile = methodMappingFile;
+    }
+
+    /**
+     * @param methods the methods with their original names.
+     */
+    public void write(Collection<TraceMethod> methods) throws IOException {
+        List<TraceMethod> methodList = new ArrayList<>(methods);
+        Collections.sort(methodList, new Comparator<TraceMethod>() {
+            @Override
+            public int compare(TraceMethod o1, TraceMethod o2) {
+                return o1.id - o2.id;
+            }
+        });
+
+        // the ids are assigned one by one and renumbered by MethodIndex before they reach METHOD_ID_DISPATCH,
+        // so the table is as large as the max id, only the special ids from METHOD_ID_DISPATCH are kept sparse
+        int denseLimit = TraceBuildConstants.METHOD_ID_DISPATCH;
+        List<TraceMethod> denseList = new ArrayList<>();
+        List<TraceMethod> sparseList = new ArrayList<>();
+        for (TraceMethod traceMethod : methodList) {
+            if (traceMethod.id < 0) {
+                continue;
+            }
+            if (traceMethod.id < denseLimit) {
+                denseList.add(traceMethod);
+            } else {
+                sparseList.add(traceMethod);
+            }
+        }
+        int denseCount = denseList.isEmpty() ? 0 : denseList.get(denseList.size() - 1).id + 1;
+
+        int[] entries = new int[denseCount * 4];
+        for (int i = 0; i < denseCount; i++) {
+            entries[i * 4 + 1] = NONE;
+        }
+        for (TraceMethod traceMethod : denseList) {
+            fillEntry(entries, traceMethod.id * 4, traceMethod);
+        }
+        int[] sparseEntries = new int[sparseList.size() * 4];
+        for (int i = 0; i < sparseList.size(); i++) {
+            fillEntry(sparseEntries, i * 4, sparseList.get(i));
+        }
+
+        File parent = methodMappingFile.getParentFile();
+        if (null != parent && !parent.exists()) {
+            parent.mkdirs();
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(methodMappingFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(denseCount);
+            out.writeInt(sparseList.size());
+            out.writeInt(stringList.size());
+
+            for (int value : entries) {
+                out.writeInt(value);
+            }
+            for (int i = 0; i < sparseList.size(); i++) {
+                out.writeInt(sparseList.get(i).id);
+                for (int j = 0; j < 4; j++) {
+                    out.writeInt(sparseEntries[i * 4 + j]);
+                }
+            }
+
+            int offset = 0;
+            out.writeInt(offset);
+            for (byte[] bytes : stringList) {
+                offset += bytes.length;
+                out.writeInt(offset);
+            }
+            for (byte[] bytes : stringList) {
+                out.write(bytes);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void fillEntry(int[] entries, int offset, TraceMethod traceMethod) {
+        entries[offset] = traceMethod.accessFlag;
+        entries[offset + 1] = indexOf(traceMethod.className);
+        entries[offset + 2] = indexOf(traceMethod.methodName);
+        entries[offset + 3] = indexOf(traceMethod.desc);
+    }
+
+    private int indexOf(String str) {
+        if (null == str) {
+            return NONE;
+        }
+        Integer index = stringIndexMap.get(str);
+        if (null == index) {
+            index = stringList.size();
+            stringIndexMap.put(str, index);
+            stringList.add(str.getBytes(Charsets.UTF_8));
+        }
+        return index;
+    }
+}
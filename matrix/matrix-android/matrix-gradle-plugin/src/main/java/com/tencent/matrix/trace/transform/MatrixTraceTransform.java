@@ -21,8 +21,10 @@ import com.tencent.matrix.javalib.util.IOUtil;
 import com.tencent.matrix.javalib.util.Log;
 import com.tencent.matrix.javalib.util.ReflectUtil;
 import com.tencent.matrix.javalib.util.Util;
+import com.tencent.matrix.trace.ClassCache;
 import com.tencent.matrix.trace.Configuration;
 import com.tencent.matrix.trace.MethodCollector;
+import com.tencent.matrix.trace.MethodIndex;
 import com.tencent.matrix.trace.MethodTracer;
 import com.tencent.matrix.trace.TraceBuildConstants;
 import com.tencent.matrix.trace.extension.MatrixTraceExtension;
@@ -43,6 +45,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -53,7 +56,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -64,7 +67,6 @@ public class MatrixTraceTransform extends Transform {
     private static final String TAG = "MatrixTraceTransform";
     private Configuration config;
     private Transform origTransform;
-    private ExecutorService executor = Executors.newFixedThreadPool(16);
 
     public static void inject(Project project, MatrixTraceExtension extension, VariantScope variantScope) {
 
@@ -86,9 +88,12 @@ public class MatrixTraceTransform extends Transform {
                 .setBaseMethodMap(extension.getBaseMethodMapFile())
                 .setBlackListFile(extension.getBlackListFile())
                 .setMethodMapFilePath(mappingOut + "/methodMapping.txt")
+                .setMethodMapBinFilePath(mappingOut + "/methodMapping.bin")
+                .setMethodIndexFilePath(mappingOut + "/methodIndex.txt")
                 .setIgnoreMethodMapFilePath(mappingOut + "/ignoreMethodMapping.txt")
                 .setMappingPath(mappingOut)
                 .setTraceClassOut(traceClassOut)
+                .setParallelism(extension.getParallelism())
                 .build();
 
         try {
@@ -153,10 +158,14 @@ public class MatrixTraceTransform extends Transform {
     public void transform(TransformInvocation transformInvocation) throws TransformException, InterruptedException, IOException {
         super.transform(transformInvocation);
         long start = System.currentTimeMillis();
+        // a work-stealing pool keeps all threads busy while the subtasks of big jars are waited for
+        ExecutorService executor = new ForkJoinPool(config.parallelism);
         try {
-            doTransform(transformInvocation); // hack
+            doTransform(transformInvocation, executor); // hack
         } catch (ExecutionException e) {
             e.printStackTrace();
+        } finally {
+            executor.shutdown();
         }
         long cost = System.currentTimeMillis() - start;
         long begin = System.currentTimeMillis();
@@ -165,7 +174,7 @@ public class MatrixTraceTransform extends Transform {
         Log.i("Matrix." + getName(), "[transform] cost time: %dms %s:%sms MatrixTraceTransform:%sms", System.currentTimeMillis() - start, origTransform.getClass().getSimpleName(), origTransformCost, cost);
     }
 
-    private void doTransform(TransformInvocation transformInvocation) throws ExecutionException, InterruptedException {
+    private void doTransform(TransformInvocation transformInvocation, ExecutorService executor) throws ExecutionException, InterruptedException {
         final boolean isIncremental = transformInvocation.isIncremental() && this.isIncremental();
 
         /**
@@ -178,6 +187,7 @@ public class MatrixTraceTransform extends Transform {
         final MappingCollector mappingCollector = new MappingCollector();
         final AtomicInteger methodId = new AtomicInteger(0);
         final ConcurrentHashMap<String, TraceMethod> collectedMethodMap = new ConcurrentHashMap<>();
+        final MethodIndex methodIndex = MethodIndex.load(config, isIncremental);
 
         futures.add(executor.submit(new ParseMappingTask(mappingCollector, collectedMethodMap, methodId)));
 
@@ -188,11 +198,11 @@ public class MatrixTraceTransform extends Transform {
         for (TransformInput input : inputs) {
 
             for (DirectoryInput directoryInput : input.getDirectoryInputs()) {
-                futures.add(executor.submit(new CollectDirectoryInputTask(dirInputOutMap, directoryInput, isIncremental)));
+                futures.add(executor.submit(new CollectDirectoryInputTask(dirInputOutMap, directoryInput, isIncremental, methodIndex)));
             }
 
             for (JarInput inputJar : input.getJarInputs()) {
-                futures.add(executor.submit(new CollectJarInputTask(inputJar, isIncremental, jarInputOutMap, dirInputOutMap)));
+                futures.add(executor.submit(new CollectJarInputTask(inputJar, isIncremental, jarInputOutMap, dirInputOutMap, methodIndex)));
             }
         }
 
@@ -201,24 +211,31 @@ public class MatrixTraceTransform extends Transform {
         }
         futures.clear();
 
-        Log.i(TAG, "[doTransform] Step(1)[Parse]... cost:%sms", System.currentTimeMillis() - start);
+        Log.i(TAG, "[doTransform] Step(1)[Parse]... cost:%sms reused:%s dir:%s jar:%s", System.currentTimeMillis() - start,
+                methodIndex.getReusedCount(), dirInputOutMap.size(), jarInputOutMap.size());
 
 
         /**
          * step 2
          */
         start = System.currentTimeMillis();
-        MethodCollector methodCollector = new MethodCollector(executor, mappingCollector, methodId, config, collectedMethodMap);
+        ClassCache classCache = new ClassCache(TraceBuildConstants.CLASS_CACHE_MAX_SIZE);
+        MethodCollector methodCollector = new MethodCollector(executor, mappingCollector, methodId, config, methodIndex, classCache, collectedMethodMap);
         methodCollector.collect(dirInputOutMap.keySet(), jarInputOutMap.keySet());
-        Log.i(TAG, "[doTransform] Step(2)[Collection]... cost:%sms", System.currentTimeMillis() - start);
+        Log.i(TAG, "[doTransform] Step(2)[Collection]... cost:%sms read:%sms visit:%sms", System.currentTimeMillis() - start,
+                methodCollector.getReadCost(), methodCollector.getVisitCost());
 
         /**
          * step 3
          */
         start = System.currentTimeMillis();
-        MethodTracer methodTracer = new MethodTracer(executor, mappingCollector, config, methodCollector.getCollectedMethodMap(), methodCollector.getCollectedClassExtendMap());
+        MethodTracer methodTracer = new MethodTracer(executor, mappingCollector, config, classCache, methodCollector);
         methodTracer.trace(dirInputOutMap, jarInputOutMap);
-        Log.i(TAG, "[doTransform] Step(3)[Trace]... cost:%sms", System.currentTimeMillis() - start);
+        Log.i(TAG, "[doTransform] Step(3)[Trace]... cost:%sms read:%sms trace:%sms copy class:%s copy jar:%s cache[%s]",
+                System.currentTimeMillis() - start, methodTracer.getReadCost(), methodTracer.getTraceCost(),
+                methodTracer.getCopyClassCount(), methodTracer.getCopyJarCount(), classCache);
+
+        methodIndex.save(methodCollector.getCollectedMethodMap(), methodCollector.getCollectedIgnoreMethodMap());
 
     }
 
@@ -323,12 +340,14 @@ public class MatrixTraceTransform extends Transform {
         DirectoryInput directoryInput;
         boolean isIncremental;
         String traceClassOut;
+        MethodIndex methodIndex;
 
-        CollectDirectoryInputTask(Map<File, File> dirInputOutMap, DirectoryInput directoryInput, boolean isIncremental) {
+        CollectDirectoryInputTask(Map<File, File> dirInputOutMap, DirectoryInput directoryInput, boolean isIncremental, MethodIndex methodIndex) {
             this.dirInputOutMap = dirInputOutMap;
             this.directoryInput = directoryInput;
             this.isIncremental = isIncremental;
             this.traceClassOut = config.traceClassOut;
+            this.methodIndex = methodIndex;
         }
 
         @Override
@@ -379,24 +398,59 @@ public class MatrixTraceTransform extends Transform {
                 }
                 replaceChangedFile(directoryInput, outChangedFiles);
 
+                // the classes which are not changed keep their traced output, but still need to be known by the mapping
+                ArrayList<File> classFileList = new ArrayList<>();
+                listFiles(classFileList, dirInput);
+                for (File classFile : classFileList) {
+                    if (!fileStatusMap.containsKey(classFile) && MethodCollector.isNeedTraceFile(classFile.getName())
+                            && !methodIndex.reuse(classFile)) {
+                        methodIndex.collectOnly(classFile, false);
+                    }
+                }
+
             } else {
-                dirInputOutMap.put(dirInput, dirOutput);
+                ArrayList<File> fileList = new ArrayList<>();
+                listFiles(fileList, dirInput);
+                for (File file : fileList) {
+                    final File fileOutput = new File(file.getAbsolutePath().replace(inputFullPath, outputFullPath));
+                    if (MethodCollector.isNeedTraceFile(file.getName())
+                            && methodIndex.isUpToDate(file, fileOutput) && methodIndex.reuse(file)) {
+                        continue;
+                    }
+                    dirInputOutMap.put(file, fileOutput);
+                }
             }
             replaceFile(directoryInput, dirOutput);
         }
     }
 
+    private static void listFiles(ArrayList<File> fileList, File folder) {
+        File[] files = folder.listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                listFiles(fileList, file);
+            } else if (file.isFile()) {
+                fileList.add(file);
+            }
+        }
+    }
+
     private class CollectJarInputTask implements Runnable {
         JarInput inputJar;
         boolean isIncremental;
         Map<File, File> jarInputOutMap;
         Map<File, File> dirInputOutMap;
+        MethodIndex methodIndex;
 
-        CollectJarInputTask(JarInput inputJar, boolean isIncremental, Map<File, File> jarInputOutMap, Map<File, File> dirInputOutMap) {
+        CollectJarInputTask(JarInput inputJar, boolean isIncremental, Map<File, File> jarInputOutMap, Map<File, File> dirInputOutMap, MethodIndex methodIndex) {
             this.inputJar = inputJar;
             this.isIncremental = isIncremental;
             this.jarInputOutMap = jarInputOutMap;
             this.dirInputOutMap = dirInputOutMap;
+            this.methodIndex = methodIndex;
         }
 
         @Override
@@ -414,9 +468,6 @@ public class MatrixTraceTransform extends Transform {
 
             final File jarInput = inputJar.getFile();
             final File jarOutput = new File(traceClassOut, getUniqueJarName(jarInput));
-            if (jarOutput.exists()) {
-                jarOutput.delete();
-            }
             if (!jarOutput.getParentFile().exists()) {
                 jarOutput.getParentFile().mkdirs();
             }
@@ -424,16 +475,23 @@ public class MatrixTraceTransform extends Transform {
             if (IOUtil.isRealZipOrJar(jarInput)) {
                 if (isIncremental) {
                     if (inputJar.getStatus() == Status.ADDED || inputJar.getStatus() == Status.CHANGED) {
+                        jarOutput.delete();
                         jarInputOutMap.put(jarInput, jarOutput);
                     } else if (inputJar.getStatus() == Status.REMOVED) {
                         jarOutput.delete();
+                    } else if (!methodIndex.reuse(jarInput)) {
+                        methodIndex.collectOnly(jarInput, true);
                     }
 
-                } else {
+                } else if (!methodIndex.isUpToDate(jarInput, jarOutput) || !methodIndex.reuse(jarInput)) {
+                    jarOutput.delete();
                     jarInputOutMap.put(jarInput, jarOutput);
                 }
 
             } else {
+                if (jarOutput.exists()) {
+                    jarOutput.delete();
+                }
                 Log.i(TAG, "Special case for WeChat AutoDex. Its rootInput jar file is actually a txt file contains path list.");
                 // Special case for WeChat AutoDex. Its rootInput jar file is actually
                 // a txt file contains path list.
@@ -450,7 +508,9 @@ public class MatrixTraceTransform extends Transform {
                         final File realJarOutput = new File(traceClassOut, getUniqueJarName(realJarInput));
 
                         if (realJarInput.exists() && IOUtil.isRealZipOrJar(realJarInput)) {
-                            jarInputOutMap.put(realJarInput, realJarOutput);
+                            if (!methodIndex.isUpToDate(realJarInput, realJarOutput) || !methodIndex.reuse(realJarInput)) {
+                                jarInputOutMap.put(realJarInput, realJarOutput);
+                            }
                         } else {
                             realJarOutput.delete();
                             if (realJarInput.exists() && realJarInput.isDirectory()) {
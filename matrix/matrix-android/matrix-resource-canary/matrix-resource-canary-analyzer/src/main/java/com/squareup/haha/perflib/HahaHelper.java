@@ -33,6 +33,10 @@ public final class HahaHelper {
                     Double.class.getName(), Byte.class.getName(), Short.class.getName(),
                     Integer.class.getName(), Long.class.getName()));
 
+    // Looked up once, buffers are read chunk by chunk through them.
+    private static volatile java.lang.reflect.Field  sArrayLengthField     = null;
+    private static volatile java.lang.reflect.Method sAsRawByteArrayMethod = null;
+
     public static String fieldToString(Map.Entry<Field, Object> entry) {
         return fieldToString(entry.getKey(), entry.getValue());
     }
@@ -175,8 +179,12 @@ public final class HahaHelper {
 
     public static int getArrayInstanceLength(ArrayInstance instance) {
         try {
-            final java.lang.reflect.Field mLengthField = ArrayInstance.class.getDeclaredField("mLength");
-            mLengthField.setAccessible(true);
+            java.lang.reflect.Field mLengthField = sArrayLengthField;
+            if (mLengthField == null) {
+                mLengthField = ArrayInstance.class.getDeclaredField("mLength");
+                mLengthField.setAccessible(true);
+                sArrayLengthField = mLengthField;
+            }
             return mLengthField.getInt(instance);
         } catch (Throwable thr) {
             throw new RuntimeException(thr);
@@ -185,9 +193,12 @@ public final class HahaHelper {
 
     public static byte[] asRawByteArray(ArrayInstance instance, int start, int elementCount) {
         try {
-            final java.lang.reflect.Method asRawByteArrayMethod
-                    = ArrayInstance.class.getDeclaredMethod("asRawByteArray", int.class, int.class);
-            asRawByteArrayMethod.setAccessible(true);
+            java.lang.reflect.Method asRawByteArrayMethod = sAsRawByteArrayMethod;
+            if (asRawByteArrayMethod == null) {
+                asRawByteArrayMethod = ArrayInstance.class.getDeclaredMethod("asRawByteArray", int.class, int.class);
+                asRawByteArrayMethod.setAccessible(true);
+                sAsRawByteArrayMethod = asRawByteArrayMethod;
+            }
             return (byte[]) asRawByteArrayMethod.invoke(instance, start, elementCount);
         } catch (Throwable thr) {
             throw new RuntimeException(thr);
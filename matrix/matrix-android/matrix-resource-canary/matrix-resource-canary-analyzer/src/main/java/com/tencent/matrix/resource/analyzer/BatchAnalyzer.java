@@ -0,0 +1,211 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer;
+
+import com.tencent.matrix.resource.analyzer.model.ActivityLeakResult;
+import com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult;
+import com.tencent.matrix.resource.analyzer.model.HeapSnapshot;
+import com.tencent.matrix.resource.common.utils.StreamUtil;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+/**
+ * Analyzes a batch of results generated by resource canary module with several workers, and writes the result
+ * json of each one as a line of the output file.
+ * <p>
+ * The snapshot of a hprof takes several times the heap of the hprof size, so a result is admitted only when
+ * its estimated cost fits into the heap budget together with the ones being analyzed. Both analyzers still run
+ * one after another on a snapshot since the snapshot reads instance values through a shared buffer position.
+ * </p>
+ */
+final class BatchAnalyzer {
+    /**
+     * Estimated heap bytes a snapshot takes for each byte of the hprof.
+     */
+    private static final int HEAP_COST_PER_HPROF_BYTE = 3;
+
+    private final List<File> mInputFiles;
+    private final File mOutputFile;
+    private final int mWorkerCount;
+    private final int mHeapBudgetKB;
+    private final int mMinBmpLeakSize;
+    private final Semaphore mHeapAdmission;
+    private final LeakSignatureCache mCache;
+
+    BatchAnalyzer(List<File> inputFiles, File outputFile, int workerCount, long heapBudget, int minBmpLeakSize,
+                  LeakSignatureCache cache) {
+        mInputFiles = inputFiles;
+        mOutputFile = outputFile;
+        mWorkerCount = workerCount;
+        mHeapBudgetKB = (int) Math.min(heapBudget >> 10, Integer.MAX_VALUE);
+        mMinBmpLeakSize = minBmpLeakSize;
+        mHeapAdmission = new Semaphore(mHeapBudgetKB, true);
+        mCache = cache;
+    }
+
+    /**
+     * @param input a directory of results, or a file which lists a result path per line.
+     */
+    static List<File> collectInputs(File input) throws IOException {
+        final List<File> inputFiles = new ArrayList<>();
+        if (input.isDirectory()) {
+            final File[] files = input.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && file.getName().endsWith(".zip");
+                }
+            });
+            if (files != null) {
+                Arrays.sort(files);
+                inputFiles.addAll(Arrays.asList(files));
+            }
+        } else {
+            BufferedReader br = null;
+            try {
+                br = new BufferedReader(new FileReader(input));
+                String line = null;
+                while ((line = br.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    inputFiles.add(new File(line));
+                }
+            } finally {
+                StreamUtil.closeQuietly(br);
+            }
+        }
+        return inputFiles;
+    }
+
+    /**
+     * @return count of the results failed to analyze.
+     */
+    int run() throws IOException, InterruptedException {
+        final File outputDir = mOutputFile.getAbsoluteFile().getParentFile();
+        if (outputDir != null && !outputDir.exists()) {
+            outputDir.mkdirs();
+        }
+        final AtomicInteger doneCount = new AtomicInteger(0);
+        final AtomicInteger failedCount = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(mWorkerCount);
+        PrintWriter resultPW = null;
+        try {
+            resultPW = new PrintWriter(new BufferedWriter(new FileWriter(mOutputFile)));
+            final PrintWriter finalResultPW = resultPW;
+            for (final File inputFile : mInputFiles) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final long start = System.currentTimeMillis();
+                        final JSONObject lineJson = new JSONObject().put("input", inputFile.getPath());
+                        try {
+                            lineJson.put("result", analyze(inputFile));
+                        } catch (Throwable thr) {
+                            failedCount.incrementAndGet();
+                            lineJson.put("error", String.valueOf(thr));
+                        }
+                        synchronized (finalResultPW) {
+                            finalResultPW.println(lineJson.toString());
+                            finalResultPW.flush();
+                        }
+                        System.out.println("analyzed " + inputFile.getPath() + " (" + doneCount.incrementAndGet()
+                                + "/" + mInputFiles.size() + "), use time: " + (System.currentTimeMillis() - start) + "ms");
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Keep waiting.
+            }
+        } finally {
+            executor.shutdownNow();
+            StreamUtil.closeQuietly(resultPW);
+        }
+        if (failedCount.get() > 0) {
+            System.err.println("\n ! " + failedCount.get() + " of " + mInputFiles.size() + " results failed to analyze.");
+        }
+        return failedCount.get();
+    }
+
+    private JSONObject analyze(File inputFile) throws IOException, InterruptedException {
+        ZipFile zf = null;
+        File tempHprofFile = null;
+        HeapSnapshot heapSnapshot = null;
+        int admittedKB = 0;
+        try {
+            zf = new ZipFile(inputFile);
+            final CLIMain.ResultInfo resultInfo = CLIMain.readResultInfo(zf);
+
+            final String signature = (mCache != null ? LeakSignatureCache.signatureOf(resultInfo, mMinBmpLeakSize) : null);
+            if (signature != null) {
+                final JSONObject cachedResultJson = mCache.get(signature);
+                if (cachedResultJson != null) {
+                    return CLIMain.replaceExtraInfo(cachedResultJson, resultInfo.extraInfo);
+                }
+            }
+
+            // A result larger than the whole budget waits until it runs alone.
+            final long hprofSize = Math.max(resultInfo.hprofEntry.getSize(), 0);
+            final int costKB = (int) Math.min((hprofSize * HEAP_COST_PER_HPROF_BYTE) >> 10, mHeapBudgetKB);
+            mHeapAdmission.acquire(costKB);
+            admittedKB = costKB;
+
+            tempHprofFile = File.createTempFile("temp_", ".hprof");
+            StreamUtil.extractZipEntry(zf, resultInfo.hprofEntry, tempHprofFile);
+
+            heapSnapshot = new HeapSnapshot(tempHprofFile);
+            final ActivityLeakResult activityLeakResult = CLIMain.analyzeActivityLeak(heapSnapshot, resultInfo);
+            final DuplicatedBitmapResult duplicatedBmpResult
+                    = CLIMain.analyzeDuplicatedBitmap(heapSnapshot, resultInfo, mMinBmpLeakSize);
+            final JSONObject resultJson
+                    = CLIMain.buildResultJson(activityLeakResult, duplicatedBmpResult, resultInfo.extraInfo);
+            if (signature != null && LeakSignatureCache.isCacheable(resultJson)) {
+                mCache.put(signature, resultJson);
+            }
+            return resultJson;
+        } finally {
+            // The mapped hprof must be released first, or the temp file can't be deleted on Windows.
+            if (heapSnapshot != null) {
+                heapSnapshot.dispose();
+            }
+            if (tempHprofFile != null) {
+                tempHprofFile.delete();
+            }
+            mHeapAdmission.release(admittedKB);
+            StreamUtil.closeQuietly(zf);
+        }
+    }
+}
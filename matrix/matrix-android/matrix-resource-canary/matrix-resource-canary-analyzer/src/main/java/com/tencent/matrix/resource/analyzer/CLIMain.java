@@ -48,6 +48,8 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -58,11 +60,16 @@ import java.util.zip.ZipOutputStream;
 
 import javax.imageio.ImageIO;
 
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_BATCH;
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_CACHE;
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_CACHE_SIZE;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_COMPRESS_OUTPUT;
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_HEAP_BUDGET;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_HELP;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_INPUT;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_MIN_BMPLEAK_SIZE;
 import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_OUTPUT;
+import static com.tencent.matrix.resource.analyzer.CLIMain.AnalyzerOptions.OPTION_WORKERS;
 import static com.tencent.matrix.resource.analyzer.model.DuplicatedBitmapResult.DuplicatedBitmapEntry;
 
 /**
@@ -80,8 +87,15 @@ public final class CLIMain {
     private static File    mOutputFile     = null;
     private static boolean mCompressOutput = false;
     private static int     mMinBmpLeakSize = 5000;
+    private static boolean mBatchMode      = false;
+    private static int     mWorkerCount    = Runtime.getRuntime().availableProcessors();
+    private static long    mHeapBudget     = Runtime.getRuntime().maxMemory() / 10 * 8;
+    private static File    mCacheDir       = null;
+    private static int     mCacheSize      = 1024;
 
     private static final String EXTRA_INFO_NAME = "extra.info";
+    // Keys of the native bitmap pixel hashes in extra info, see NativeBitmapHasher in resource canary module.
+    private static final String NATIVE_BITMAP_KEY_PREFIX = "bitmap.";
 
     @SuppressWarnings("unused")
     enum AnalyzerOptions {
@@ -90,7 +104,8 @@ public final class CLIMain {
             Option build() {
                 return Option.builder("i")
                         .longOpt("input")
-                        .desc("Required. Path to read result generated by resource canary module.")
+                        .desc("Required. Path to read result generated by resource canary module. In batch mode, path of"
+                                + " a directory of such results or a file which lists a result path per line.")
                         .numberOfArgs(1)
                         .argName("inputPath")
                         .optionalArg(false)
@@ -103,7 +118,8 @@ public final class CLIMain {
             Option build() {
                 return Option.builder("o")
                         .longOpt("output")
-                        .desc("Required. Path to store analyze result directory.")
+                        .desc("Required. Path to store analyze result directory. In batch mode, path of a file to store"
+                                + " a result json per line.")
                         .numberOfArgs(1)
                         .argName("outputPath")
                         .optionalArg(false)
@@ -135,6 +151,74 @@ public final class CLIMain {
                         .build();
             }
         },
+        OPTION_BATCH {
+            @Override
+            Option build() {
+                return Option.builder("b")
+                        .longOpt("batch")
+                        .desc("Optional. Analyze a batch of results concurrently, bitmap buffers are not exported"
+                                + " in this mode.")
+                        .required(false)
+                        .build();
+            }
+        },
+        OPTION_WORKERS {
+            @Override
+            Option build() {
+                return Option.builder("w")
+                        .longOpt("workers")
+                        .desc("Optional. Number of results analyzed at the same time in batch mode."
+                                + " Default is the number of processors.")
+                        .numberOfArgs(1)
+                        .argName("workerCount")
+                        .optionalArg(false)
+                        .required(false)
+                        .build();
+            }
+        },
+        OPTION_HEAP_BUDGET {
+            @Override
+            Option build() {
+                return Option.builder("hb")
+                        .longOpt("heap-budget")
+                        .desc("Optional. Megabytes of heap which the results analyzed at the same time may use"
+                                + " in batch mode, a result waits until its estimated cost fits."
+                                + " Default is 80% of the max heap.")
+                        .numberOfArgs(1)
+                        .argName("heapBudgetMB")
+                        .optionalArg(false)
+                        .required(false)
+                        .build();
+            }
+        },
+        OPTION_CACHE {
+            @Override
+            Option build() {
+                return Option.builder("c")
+                        .longOpt("cache")
+                        .desc("Optional. Path of a directory to keep analyze results, a result whose hprof and device"
+                                + " are the same as a kept one is not analyzed again.")
+                        .numberOfArgs(1)
+                        .argName("cacheDir")
+                        .optionalArg(false)
+                        .required(false)
+                        .build();
+            }
+        },
+        OPTION_CACHE_SIZE {
+            @Override
+            Option build() {
+                return Option.builder("cs")
+                        .longOpt("cache-size")
+                        .desc("Optional. Max count of analyze results to keep in the cache directory, the least recently"
+                                + " used ones are dropped first. Default is 1024.")
+                        .numberOfArgs(1)
+                        .argName("cacheSize")
+                        .optionalArg(false)
+                        .required(false)
+                        .build();
+            }
+        },
         OPTION_HELP {
             @Override
             Option build() {
@@ -178,7 +262,9 @@ public final class CLIMain {
         final String inputPath = cmdline.getOptionValue(OPTION_INPUT.mOption.getLongOpt());
         mInputFile = new File(inputPath);
 
-        if (cmdline.hasOption(OPTION_COMPRESS_OUTPUT.mOption.getLongOpt())) {
+        if (cmdline.hasOption(OPTION_BATCH.mOption.getLongOpt())) {
+            mBatchMode = true;
+        } else if (cmdline.hasOption(OPTION_COMPRESS_OUTPUT.mOption.getLongOpt())) {
             mCompressOutput = true;
         }
 
@@ -192,14 +278,63 @@ public final class CLIMain {
         if (minBmpLeakSizeVal != null) {
             mMinBmpLeakSize = Integer.parseInt(minBmpLeakSizeVal);
         }
+
+        final String workerCountVal = cmdline.getOptionValue(OPTION_WORKERS.mOption.getLongOpt());
+        if (workerCountVal != null) {
+            mWorkerCount = Integer.parseInt(workerCountVal);
+            if (mWorkerCount <= 0) {
+                throw new IllegalArgumentException("bad worker count: " + mWorkerCount);
+            }
+        }
+
+        final String cacheDirVal = cmdline.getOptionValue(OPTION_CACHE.mOption.getLongOpt());
+        if (cacheDirVal != null) {
+            mCacheDir = new File(cacheDirVal);
+        }
+
+        final String cacheSizeVal = cmdline.getOptionValue(OPTION_CACHE_SIZE.mOption.getLongOpt());
+        if (cacheSizeVal != null) {
+            mCacheSize = Integer.parseInt(cacheSizeVal);
+            if (mCacheSize <= 0) {
+                throw new IllegalArgumentException("bad cache size: " + mCacheSize);
+            }
+        }
+
+        final String heapBudgetVal = cmdline.getOptionValue(OPTION_HEAP_BUDGET.mOption.getLongOpt());
+        if (heapBudgetVal != null) {
+            mHeapBudget = Long.parseLong(heapBudgetVal) * 1024 * 1024;
+            if (mHeapBudget <= 0) {
+                throw new IllegalArgumentException("bad heap budget: " + heapBudgetVal);
+            }
+        }
     }
 
-    private static void doAnalyze() throws IOException {
-        ZipFile zf = null;
+    /**
+     * The content of result.info and extra.info in a result generated by resource canary module.
+     */
+    static final class ResultInfo {
+        final int sdkVersion;
+        final String manufacturer;
+        final ZipEntry hprofEntry;
+        final String leakedActivityKey;
+        final JSONObject extraInfo;
+        // mNativePtr of bitmap -> "<md5 of pixels>,<byte count>".
+        final Map<Long, String> nativeBitmapHashes;
+
+        ResultInfo(int sdkVersion, String manufacturer, ZipEntry hprofEntry, String leakedActivityKey, JSONObject extraInfo,
+                   Map<Long, String> nativeBitmapHashes) {
+            this.sdkVersion = sdkVersion;
+            this.manufacturer = manufacturer;
+            this.hprofEntry = hprofEntry;
+            this.leakedActivityKey = leakedActivityKey;
+            this.extraInfo = extraInfo;
+            this.nativeBitmapHashes = nativeBitmapHashes;
+        }
+    }
+
+    static ResultInfo readResultInfo(ZipFile zf) throws IOException {
         BufferedReader br = null;
-        File tempHprofFile = null;
         try {
-            zf = new ZipFile(mInputFile);
             final ZipEntry canaryResultInfoEntry = new ZipEntry("result.info");
             final Map<String, String> resultInfoMap = new HashMap<>();
             br = new BufferedReader(new InputStreamReader(zf.getInputStream(canaryResultInfoEntry)));
@@ -234,19 +369,20 @@ public final class CLIMain {
             if (hprofEntryName == null) {
                 throw new IllegalStateException("hprofEntry is absent in result.info.");
             }
-            final ZipEntry hprofEntry = new ZipEntry(hprofEntryName);
+            // Get the entry from the zip so that its size is known.
+            ZipEntry hprofEntry = zf.getEntry(hprofEntryName);
+            if (hprofEntry == null) {
+                hprofEntry = new ZipEntry(hprofEntryName);
+            }
 
             final String leakedActivityKey = resultInfoMap.get("leakedActivityKey");
             if (leakedActivityKey == null) {
                 throw new IllegalStateException("leakedActivityKey is absent in result.info.");
             }
 
-            // We would extract hprof entry into a temporary file.
-            tempHprofFile = new File(new File("").getAbsoluteFile(), "temp_" + System.currentTimeMillis() + ".hprof");
-            StreamUtil.extractZipEntry(zf, hprofEntry, tempHprofFile);
-
             // Parse extra info if exists.
             final JSONObject extraInfo = new JSONObject();
+            final Map<Long, String> nativeBitmapHashes = new HashMap<>();
             final ZipEntry extraInfoEntry = zf.getEntry(EXTRA_INFO_NAME);
             if (extraInfoEntry != null) {
                 BufferedReader br2 = null;
@@ -264,43 +400,141 @@ public final class CLIMain {
                         }
                         final String key = pair[0].trim();
                         final String value = pair[1].trim();
-                        extraInfo.put(key, value);
+                        if (key.startsWith(NATIVE_BITMAP_KEY_PREFIX)) {
+                            final String nativePtrHex = key.substring(NATIVE_BITMAP_KEY_PREFIX.length());
+                            try {
+                                nativeBitmapHashes.put(parseUnsignedHex(nativePtrHex), value);
+                            } catch (NumberFormatException e) {
+                                // A bad hash only loses the pixels of one bitmap, the rest is still analyzed.
+                                System.err.println("skip bad native bitmap line: " + line);
+                            }
+                        } else {
+                            extraInfo.put(key, value);
+                        }
                     }
                 } finally {
                     StreamUtil.closeQuietly(br2);
                 }
             }
 
+            return new ResultInfo(sdkVersion, manufacturer, hprofEntry, leakedActivityKey, extraInfo, nativeBitmapHashes);
+        } finally {
+            StreamUtil.closeQuietly(br);
+        }
+    }
+
+    private static void doAnalyze(LeakSignatureCache cache) throws IOException {
+        ZipFile zf = null;
+        File tempHprofFile = null;
+        try {
+            zf = new ZipFile(mInputFile);
+            final ResultInfo resultInfo = readResultInfo(zf);
+
+            // The bitmap buffers are not kept in the cache, so a cached result with duplicated bitmaps is
+            // analyzed again to export them, unless the buffers are not in the hprof since Android O.
+            final String signature = (cache != null ? LeakSignatureCache.signatureOf(resultInfo, mMinBmpLeakSize) : null);
+            if (signature != null) {
+                final JSONObject cachedResultJson = cache.get(signature);
+                if (cachedResultJson != null && (resultInfo.sdkVersion >= 26 || !hasDuplicatedBitmaps(cachedResultJson))) {
+                    System.out.println("analyze result is found in cache, signature: " + signature);
+                    storeResult(replaceExtraInfo(cachedResultJson, resultInfo.extraInfo),
+                            Collections.<DuplicatedBitmapEntry>emptyList());
+                    return;
+                }
+            }
+
+            // We would extract hprof entry into a temporary file.
+            tempHprofFile = new File(new File("").getAbsoluteFile(), "temp_" + System.currentTimeMillis() + ".hprof");
+            StreamUtil.extractZipEntry(zf, resultInfo.hprofEntry, tempHprofFile);
+
             // Then do analyzing works and output into directory or zip according to the option. Besides,
             // store extra info into the result json by the way.
-            analyzeAndStoreResult(tempHprofFile, sdkVersion, manufacturer, leakedActivityKey, extraInfo);
+            final JSONObject resultJson = analyzeAndStoreResult(tempHprofFile, resultInfo);
+            if (signature != null && LeakSignatureCache.isCacheable(resultJson)) {
+                cache.put(signature, resultJson);
+            }
         } finally {
             if (tempHprofFile != null) {
                 tempHprofFile.delete();
             }
-            StreamUtil.closeQuietly(br);
             StreamUtil.closeQuietly(zf);
         }
     }
 
-    private static void analyzeAndStoreResult(File hprofFile, int sdkVersion, String manufacturer,
-                                              String leakedActivityKey, JSONObject extraInfo) throws IOException {
-        final HeapSnapshot heapSnapshot = new HeapSnapshot(hprofFile);
-        final ExcludedRefs excludedRefs = AndroidExcludedRefs.createAppDefaults(sdkVersion, manufacturer).build();
-        final ActivityLeakResult activityLeakResult
-                = new ActivityLeakAnalyzer(leakedActivityKey, excludedRefs).analyze(heapSnapshot);
+    static ActivityLeakResult analyzeActivityLeak(HeapSnapshot heapSnapshot, ResultInfo resultInfo) {
+        final ExcludedRefs excludedRefs = AndroidExcludedRefs.createAppDefaults(resultInfo.sdkVersion, resultInfo.manufacturer).build();
+        return new ActivityLeakAnalyzer(resultInfo.leakedActivityKey, excludedRefs).analyze(heapSnapshot);
+    }
 
-        DuplicatedBitmapResult duplicatedBmpResult = DuplicatedBitmapResult.noDuplicatedBitmap(0);
-        if (sdkVersion < 26) {
+    static DuplicatedBitmapResult analyzeDuplicatedBitmap(HeapSnapshot heapSnapshot, ResultInfo resultInfo, int minBmpLeakSize) {
+        if (resultInfo.sdkVersion < 26) {
+            final ExcludedBmps excludedBmps = AndroidExcludedBmpRefs.createDefaults().build();
+            return new DuplicatedBitmapAnalyzer(minBmpLeakSize, excludedBmps).analyze(heapSnapshot);
+        } else if (!resultInfo.nativeBitmapHashes.isEmpty()) {
             final ExcludedBmps excludedBmps = AndroidExcludedBmpRefs.createDefaults().build();
-            duplicatedBmpResult = new DuplicatedBitmapAnalyzer(mMinBmpLeakSize, excludedBmps).analyze(heapSnapshot);
+            return new DuplicatedBitmapAnalyzer(minBmpLeakSize, excludedBmps, resultInfo.nativeBitmapHashes).analyze(heapSnapshot);
         } else {
-            System.err.println("\n ! SDK version of target device is larger or equal to 26, "
-                    + "which is not supported by DuplicatedBitmapAnalyzer.");
+            System.err.println("\n ! SDK version of target device is larger or equal to 26 and no bitmap pixels "
+                    + "were hashed on the device, which is not supported by DuplicatedBitmapAnalyzer.");
+            return DuplicatedBitmapResult.noDuplicatedBitmap(0);
         }
+    }
+
+    static JSONObject buildResultJson(ActivityLeakResult activityLeakResult, DuplicatedBitmapResult duplicatedBmpResult,
+                                      JSONObject extraInfo) {
+        final JSONObject resultJson = new JSONObject();
+        final JSONObject activityLeakResultJson = new JSONObject();
+        activityLeakResult.encodeToJSON(activityLeakResultJson);
+        final JSONObject duplicatedBmpResultJson = new JSONObject();
+        duplicatedBmpResult.encodeToJSON(duplicatedBmpResultJson);
+
+        resultJson.put("activityLeakResult", activityLeakResultJson)
+                  .put("duplicatedBitmapResult", duplicatedBmpResultJson);
+
+        if (extraInfo != null && extraInfo.length() > 0) {
+            resultJson.put("extraInfo", extraInfo);
+        }
+        return resultJson;
+    }
+
+    /**
+     * The native pointer is written by Long.toHexString, so it's unsigned and a tagged pointer has the sign bit set.
+     */
+    private static long parseUnsignedHex(String hex) {
+        if (hex.isEmpty() || hex.length() > 16 || hex.charAt(0) == '-' || hex.charAt(0) == '+') {
+            throw new NumberFormatException("bad native pointer: " + hex);
+        }
+        return new BigInteger(hex, 16).longValue();
+    }
+
+    /**
+     * The extra info belongs to the upload rather than the hprof, so the cached one is replaced.
+     */
+    static JSONObject replaceExtraInfo(JSONObject resultJson, JSONObject extraInfo) {
+        resultJson.remove("extraInfo");
+        if (extraInfo != null && extraInfo.length() > 0) {
+            resultJson.put("extraInfo", extraInfo);
+        }
+        return resultJson;
+    }
+
+    private static boolean hasDuplicatedBitmaps(JSONObject resultJson) {
+        final JSONObject duplicatedBmpResultJson = resultJson.optJSONObject("duplicatedBitmapResult");
+        return duplicatedBmpResultJson != null && duplicatedBmpResultJson.optBoolean("targetFound");
+    }
+
+    private static JSONObject analyzeAndStoreResult(File hprofFile, ResultInfo resultInfo) throws IOException {
+        final HeapSnapshot heapSnapshot = new HeapSnapshot(hprofFile);
+        final ActivityLeakResult activityLeakResult = analyzeActivityLeak(heapSnapshot, resultInfo);
+        final DuplicatedBitmapResult duplicatedBmpResult = analyzeDuplicatedBitmap(heapSnapshot, resultInfo, mMinBmpLeakSize);
+        final JSONObject resultJson = buildResultJson(activityLeakResult, duplicatedBmpResult, resultInfo.extraInfo);
+        storeResult(resultJson, duplicatedBmpResult.getDuplicatedBitmapEntries());
+        return resultJson;
+    }
+
+    private static void storeResult(JSONObject resultJson, List<DuplicatedBitmapEntry> duplicatedBmpEntries) throws IOException {
         final String resultJsonName = "result.json";
         final String bufferContentsRootDirName = "buffer_contents";
-        final String extralInfoKey = "extraInfo";
         if (mCompressOutput) {
             ZipOutputStream zos = null;
             try {
@@ -309,19 +543,6 @@ public final class CLIMain {
                 zos.putNextEntry(analyzeResultEntry);
                 try {
                     final PrintWriter pw = new PrintWriter(zos);
-                    final JSONObject resultJson = new JSONObject();
-                    final JSONObject activityLeakResultJson = new JSONObject();
-                    activityLeakResult.encodeToJSON(activityLeakResultJson);
-                    final JSONObject duplicatedBmpResultJson = new JSONObject();
-                    duplicatedBmpResult.encodeToJSON(duplicatedBmpResultJson);
-
-                    resultJson.put("activityLeakResult", activityLeakResultJson)
-                              .put("duplicatedBitmapResult", duplicatedBmpResultJson);
-
-                    if (extraInfo != null && extraInfo.length() > 0) {
-                        resultJson.put(extralInfoKey, extraInfo);
-                    }
-
                     pw.println(resultJson.toString());
                     pw.flush();
                 } finally {
@@ -333,10 +554,13 @@ public final class CLIMain {
                 }
 
                 // Store bitmap buffer.
-                final List<DuplicatedBitmapEntry> duplicatedBmpEntries = duplicatedBmpResult.getDuplicatedBitmapEntries();
                 final int duplicatedBmpEntryCount = duplicatedBmpEntries.size();
                 for (int i = 0; i < duplicatedBmpEntryCount; ++i) {
                     final DuplicatedBitmapEntry entry = duplicatedBmpEntries.get(i);
+                    if (entry.getBuffer() == null) {
+                        // Pixels were hashed on the device and are not in the hprof.
+                        continue;
+                    }
                     final BufferedImage img = BitmapDecoder.getBitmap(
                             new HprofBitmapProvider(entry.getBuffer(), entry.getWidth(), entry.getHeight()));
                     // Since bmp format is not compatible with alpha channel, we export buffer as png instead.
@@ -365,19 +589,6 @@ public final class CLIMain {
             try {
                 final File resultJsonFile = new File(outputDir, resultJsonName);
                 resultJsonPW = new PrintWriter(new BufferedWriter(new FileWriter(resultJsonFile)));
-                final JSONObject resultJson = new JSONObject();
-                final JSONObject activityLeakResultJson = new JSONObject();
-                activityLeakResult.encodeToJSON(activityLeakResultJson);
-                final JSONObject duplicatedBmpResultJson = new JSONObject();
-                duplicatedBmpResult.encodeToJSON(duplicatedBmpResultJson);
-
-                resultJson.put("activityLeakResult", activityLeakResultJson)
-                          .put("duplicatedBitmapResult", duplicatedBmpResultJson);
-
-                if (extraInfo != null && extraInfo.length() > 0) {
-                    resultJson.put(extralInfoKey, extraInfo);
-                }
-
                 resultJsonPW.println(resultJson.toString());
                 resultJsonPW.flush();
             } finally {
@@ -389,10 +600,13 @@ public final class CLIMain {
             if (!bufferContentsRootDir.exists()) {
                 bufferContentsRootDir.mkdirs();
             }
-            final List<DuplicatedBitmapEntry> duplicatedBmpEntries = duplicatedBmpResult.getDuplicatedBitmapEntries();
             final int duplicatedBmpEntryCount = duplicatedBmpEntries.size();
             for (int i = 0; i < duplicatedBmpEntryCount; ++i) {
                 final DuplicatedBitmapEntry entry = duplicatedBmpEntries.get(i);
+                if (entry.getBuffer() == null) {
+                    // Pixels were hashed on the device and are not in the hprof.
+                    continue;
+                }
                 final BufferedImage img = BitmapDecoder.getBitmap(
                         new HprofBitmapProvider(entry.getBuffer(), entry.getWidth(), entry.getHeight()));
                 // Since bmp format is not compatible with alpha channel, we export buffer as png instead.
@@ -423,7 +637,13 @@ public final class CLIMain {
 
             parseArguments(cmdline);
 
-            doAnalyze();
+            final LeakSignatureCache cache = (mCacheDir != null ? new LeakSignatureCache(mCacheDir, mCacheSize) : null);
+            if (mBatchMode) {
+                new BatchAnalyzer(BatchAnalyzer.collectInputs(mInputFile), mOutputFile, mWorkerCount, mHeapBudget,
+                        mMinBmpLeakSize, cache).run();
+            } else {
+                doAnalyze(cache);
+            }
 
             System.exit(ERROR_SUCCESS);
         } catch (MissingOptionException e) {
@@ -37,11 +37,14 @@ import com.tencent.matrix.resource.analyzer.utils.ShortestPathFinder;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
 
 import static com.tencent.matrix.resource.analyzer.utils.ShortestPathFinder.Result;
 
@@ -50,15 +53,29 @@ import static com.tencent.matrix.resource.analyzer.utils.ShortestPathFinder.Resu
  */
 
 public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<DuplicatedBitmapResult> {
+    // Count of elements read at a time when comparing the buffers.
+    private static final int BUFFER_READ_CHUNK_SIZE = 64 * 1024;
+
     private final int mMinBmpLeakSize;
     private final ExcludedBmps mExcludedBmps;
+    private final Map<Long, String> mNativeBitmapHashes;
     private Field mMStackField = null;
     private Field mMLengthField = null;
     private Field mMValueOffsetField = null;
 
     public DuplicatedBitmapAnalyzer(int minBmpLeakSize, ExcludedBmps excludedBmps) {
+        this(minBmpLeakSize, excludedBmps, null);
+    }
+
+    /**
+     * @param nativeBitmapHashes mNativePtr of bitmap -> "&lt;md5 of pixels&gt;,&lt;byte count&gt;", which are
+     *                           hashed on the device since the pixels are not in the hprof since Android O. The
+     *                           bitmaps are grouped by the hashes instead of their buffers if it's not null.
+     */
+    public DuplicatedBitmapAnalyzer(int minBmpLeakSize, ExcludedBmps excludedBmps, Map<Long, String> nativeBitmapHashes) {
         mMinBmpLeakSize = minBmpLeakSize;
         mExcludedBmps = excludedBmps;
+        mNativeBitmapHashes = nativeBitmapHashes;
     }
 
     @Override
@@ -80,6 +97,9 @@ public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<Duplicated
         if (bitmapClass == null) {
             return DuplicatedBitmapResult.noDuplicatedBitmap(AnalyzeUtil.since(analysisStartNanoTime));
         }
+        if (mNativeBitmapHashes != null) {
+            return findDuplicatedNativeBitmap(analysisStartNanoTime, snapshot, bitmapClass);
+        }
 
         final Map<ArrayInstance, Instance> byteArrayToBitmapMap = new HashMap<>();
         final Set<ArrayInstance> byteArrays = new HashSet<>();
@@ -123,132 +143,227 @@ public class DuplicatedBitmapAnalyzer implements HeapSnapshotAnalyzer<Duplicated
         }
 
         final List<DuplicatedBitmapEntry> duplicatedBitmapEntries = new ArrayList<>();
+        for (List<ArrayInstance> duplicatedArrays : groupIdenticalArrays(byteArrays)) {
+            final DuplicatedBitmapEntry entry
+                    = buildDuplicatedBitmapEntry(snapshot, duplicatedArrays, byteArrayToBitmapMap);
+            if (entry != null) {
+                duplicatedBitmapEntries.add(entry);
+            }
+        }
 
-        final List<Set<ArrayInstance>> commonPrefixSets = new ArrayList<>();
-        final List<Set<ArrayInstance>> reducedPrefixSets = new ArrayList<>();
-        commonPrefixSets.add(byteArrays);
+        return DuplicatedBitmapResult.duplicatedBitmapDetected(duplicatedBitmapEntries, AnalyzeUtil.since(analysisStartNanoTime));
+    }
 
-        // Cache the values since instance.getValues() recreates the array on every invocation.
-        final Map<ArrayInstance, Object[]> cachedValues = new HashMap<>();
-        for (ArrayInstance instance : byteArrays) {
-            cachedValues.put(instance, instance.getValues());
+    /**
+     * Buckets the arrays by length and then by the crc of their contents, and confirms the arrays in a bucket
+     * are identical by comparing them. The contents are read chunk by chunk, so no array is held as a whole.
+     */
+    private static List<List<ArrayInstance>> groupIdenticalArrays(Collection<ArrayInstance> arrays) {
+        final Map<Integer, List<ArrayInstance>> lengthBuckets = new HashMap<>();
+        for (ArrayInstance array : arrays) {
+            final int length = HahaHelper.getArrayInstanceLength(array);
+            List<ArrayInstance> lengthBucket = lengthBuckets.get(length);
+            if (lengthBucket == null) {
+                lengthBucket = new ArrayList<>();
+                lengthBuckets.put(length, lengthBucket);
+            }
+            lengthBucket.add(array);
         }
 
-        int columnIndex = 0;
-        while (!commonPrefixSets.isEmpty()) {
-            for (Set<ArrayInstance> commonPrefixArrays : commonPrefixSets) {
-                Map<Object, Set<ArrayInstance>> entryClassifier = new HashMap<>(
-                        commonPrefixArrays.size());
-
-                for (ArrayInstance arrayInstance : commonPrefixArrays) {
-                    final Object element = cachedValues.get(arrayInstance)[columnIndex];
-                    if (entryClassifier.containsKey(element)) {
-                        entryClassifier.get(element).add(arrayInstance);
-                    } else {
-                        Set<ArrayInstance> instanceSet = new HashSet<>();
-                        instanceSet.add(arrayInstance);
-                        entryClassifier.put(element, instanceSet);
+        final List<List<ArrayInstance>> identicalGroups = new ArrayList<>();
+        for (Map.Entry<Integer, List<ArrayInstance>> lengthBucket : lengthBuckets.entrySet()) {
+            if (lengthBucket.getValue().size() <= 1) {
+                // Unique length, it won't be counted towards duplication.
+                continue;
+            }
+            final int length = lengthBucket.getKey();
+            final Map<Long, List<ArrayInstance>> crcBuckets = new HashMap<>();
+            for (ArrayInstance array : lengthBucket.getValue()) {
+                final long crc = crcOf(array, length);
+                List<ArrayInstance> crcBucket = crcBuckets.get(crc);
+                if (crcBucket == null) {
+                    crcBucket = new ArrayList<>();
+                    crcBuckets.put(crc, crcBucket);
+                }
+                crcBucket.add(array);
+            }
+            for (List<ArrayInstance> crcBucket : crcBuckets.values()) {
+                if (crcBucket.size() <= 1) {
+                    continue;
+                }
+                // Arrays with the same crc are almost always identical, but a collision mustn't be reported.
+                final List<List<ArrayInstance>> groups = new ArrayList<>();
+                for (ArrayInstance array : crcBucket) {
+                    List<ArrayInstance> group = null;
+                    for (List<ArrayInstance> candidate : groups) {
+                        if (contentEquals(candidate.get(0), array, length)) {
+                            group = candidate;
+                            break;
+                        }
                     }
+                    if (group == null) {
+                        group = new ArrayList<>();
+                        groups.add(group);
+                    }
+                    group.add(array);
                 }
-
-                for (Set<ArrayInstance> branch : entryClassifier.values()) {
-                    if (branch.size() <= 1) {
-                        // Unique branch, ignore it and it won't be counted towards duplication.
-                        continue;
+                for (List<ArrayInstance> group : groups) {
+                    if (group.size() > 1) {
+                        identicalGroups.add(group);
                     }
+                }
+            }
+        }
+        return identicalGroups;
+    }
 
-                    final Set<ArrayInstance> terminatedArrays = new HashSet<>();
+    private static long crcOf(ArrayInstance array, int length) {
+        final CRC32 crc = new CRC32();
+        for (int start = 0; start < length; start += BUFFER_READ_CHUNK_SIZE) {
+            final int count = Math.min(BUFFER_READ_CHUNK_SIZE, length - start);
+            crc.update(HahaHelper.asRawByteArray(array, start, count));
+        }
+        return crc.getValue();
+    }
 
-                    // Move all ArrayInstance that we have hit the end of to the candidate result list.
-                    for (ArrayInstance instance : branch) {
-                        if (HahaHelper.getArrayInstanceLength(instance) == columnIndex + 1) {
-                            terminatedArrays.add(instance);
-                        }
-                    }
-                    branch.removeAll(terminatedArrays);
+    private static boolean contentEquals(ArrayInstance lhs, ArrayInstance rhs, int length) {
+        for (int start = 0; start < length; start += BUFFER_READ_CHUNK_SIZE) {
+            final int count = Math.min(BUFFER_READ_CHUNK_SIZE, length - start);
+            if (!Arrays.equals(HahaHelper.asRawByteArray(lhs, start, count), HahaHelper.asRawByteArray(rhs, start, count))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                    // Exact duplicated arrays found.
-                    if (terminatedArrays.size() > 1) {
-                        byte[] rawBuffer = null;
-                        int width = 0;
-                        int height = 0;
-                        final List<Instance> duplicateBitmaps = new ArrayList<>();
-                        for (ArrayInstance terminatedArray : terminatedArrays) {
-                            final Instance bmpInstance = byteArrayToBitmapMap.get(terminatedArray);
-                            duplicateBitmaps.add(bmpInstance);
-                            if (rawBuffer == null) {
-                                final List<FieldValue> fieldValues = ((ClassInstance) bmpInstance).getValues();
-                                width = HahaHelper.fieldValue(fieldValues, "mWidth");
-                                height = HahaHelper.fieldValue(fieldValues, "mHeight");
-                                final int byteArraySize = HahaHelper.getArrayInstanceLength(terminatedArray);
-                                rawBuffer = HahaHelper.asRawByteArray(terminatedArray, 0, byteArraySize);
-                            }
-                        }
+    private DuplicatedBitmapEntry buildDuplicatedBitmapEntry(Snapshot snapshot, List<ArrayInstance> duplicatedArrays,
+                                                             Map<ArrayInstance, Instance> byteArrayToBitmapMap) {
+        byte[] rawBuffer = null;
+        int width = 0;
+        int height = 0;
+        final List<Instance> duplicateBitmaps = new ArrayList<>();
+        for (ArrayInstance duplicatedArray : duplicatedArrays) {
+            final Instance bmpInstance = byteArrayToBitmapMap.get(duplicatedArray);
+            duplicateBitmaps.add(bmpInstance);
+            if (rawBuffer == null) {
+                final List<FieldValue> fieldValues = ((ClassInstance) bmpInstance).getValues();
+                width = HahaHelper.fieldValue(fieldValues, "mWidth");
+                height = HahaHelper.fieldValue(fieldValues, "mHeight");
+                final int byteArraySize = HahaHelper.getArrayInstanceLength(duplicatedArray);
+                rawBuffer = HahaHelper.asRawByteArray(duplicatedArray, 0, byteArraySize);
+            }
+        }
 
-                        final Map<Instance, Result> results = new ShortestPathFinder(mExcludedBmps)
-                                .findPath(snapshot, duplicateBitmaps);
-                        final List<ReferenceChain> referenceChains = new ArrayList<>();
-                        for (Result result : results.values()) {
-                            if (result.excludingKnown) {
-                                continue;
-                            }
-                            ReferenceNode currRefChainNode = result.referenceChainHead;
-                            while (currRefChainNode.parent != null) {
-                                final ReferenceNode tempNode = currRefChainNode.parent;
-                                if (tempNode.instance == null) {
-                                    currRefChainNode = tempNode;
-                                    continue;
-                                }
-                                final Heap heap = tempNode.instance.getHeap();
-                                if (heap != null && !"app".equals(heap.getName())) {
-                                    break;
-                                } else {
-                                    currRefChainNode = tempNode;
-                                }
-                            }
-                            final Instance gcRootHolder = currRefChainNode.instance;
-                            if (!(gcRootHolder instanceof ClassObj)) {
-                                continue;
-                            }
-                            final String holderClassName = ((ClassObj) gcRootHolder).getClassName();
-                            boolean isExcluded = false;
-                            for (ExcludedBmps.PatternInfo patternInfo : mExcludedBmps.mClassNamePatterns) {
-                                if (!patternInfo.mForGCRootOnly) {
-                                    continue;
-                                }
-                                if (patternInfo.mPattern.matcher(holderClassName).matches()) {
-                                    System.out.println(" + Skipped a bitmap with gc root class: "
-                                            + holderClassName + " by pattern: " + patternInfo.mPattern.toString());
-                                    isExcluded = true;
-                                    break;
-                                }
-                            }
-                            if (!isExcluded) {
-                                referenceChains.add(result.buildReferenceChain());
-                            }
-                        }
-                        if (referenceChains.size() > 1) {
-                            duplicatedBitmapEntries.add(new DuplicatedBitmapEntry(width, height, rawBuffer, referenceChains));
-                        }
-                    }
+        final List<ReferenceChain> referenceChains = findReferenceChains(snapshot, duplicateBitmaps);
+        if (referenceChains.size() > 1) {
+            return new DuplicatedBitmapEntry(width, height, rawBuffer, referenceChains);
+        }
+        return null;
+    }
 
-                    // If there are ArrayInstances that have identical prefixes and haven't hit the
-                    // end, add it back for the next iteration.
-                    if (branch.size() > 1) {
-                        reducedPrefixSets.add(branch);
-                    }
+    private DuplicatedBitmapResult findDuplicatedNativeBitmap(long analysisStartNanoTime, Snapshot snapshot, ClassObj bitmapClass) {
+        final Map<String, List<Instance>> pixelsHashToBitmapsMap = new HashMap<>();
+        final Map<String, Integer> pixelsHashToSizeMap = new HashMap<>();
+        for (Heap heap : snapshot.getHeaps()) {
+            if (!"default".equals(heap.getName()) && !"app".equals(heap.getName())) {
+                continue;
+            }
+            for (Instance bitmapInstance : bitmapClass.getHeapInstances(heap.getId())) {
+                if (bitmapInstance.getDistanceToGcRoot() == Integer.MAX_VALUE) {
+                    continue;
+                }
+                final List<FieldValue> fieldValues = ((ClassInstance) bitmapInstance).getValues();
+                if (!HahaHelper.hasField(fieldValues, "mNativePtr")) {
+                    continue;
                 }
+                final Long nativePtr = HahaHelper.fieldValue(fieldValues, "mNativePtr");
+                final String pixelsInfo = mNativeBitmapHashes.get(nativePtr);
+                if (pixelsInfo == null) {
+                    System.out.println(" + Skiped a bitmap which was not hashed");
+                    continue;
+                }
+                final int sepPos = pixelsInfo.indexOf(',');
+                final String pixelsHash = (sepPos >= 0 ? pixelsInfo.substring(0, sepPos) : pixelsInfo);
+                final int bufferSize = (sepPos >= 0 ? Integer.parseInt(pixelsInfo.substring(sepPos + 1)) : 0);
+                if (bufferSize < mMinBmpLeakSize) {
+                    // Ignore tiny bmp leaks.
+                    System.out.println(" + Skiped a bitmap with size: " + bufferSize);
+                    continue;
+                }
+                List<Instance> bitmaps = pixelsHashToBitmapsMap.get(pixelsHash);
+                if (bitmaps == null) {
+                    bitmaps = new ArrayList<>();
+                    pixelsHashToBitmapsMap.put(pixelsHash, bitmaps);
+                    pixelsHashToSizeMap.put(pixelsHash, bufferSize);
+                }
+                bitmaps.add(bitmapInstance);
             }
-
-            commonPrefixSets.clear();
-            commonPrefixSets.addAll(reducedPrefixSets);
-            reducedPrefixSets.clear();
-            columnIndex++;
         }
 
+        final List<DuplicatedBitmapEntry> duplicatedBitmapEntries = new ArrayList<>();
+        for (Map.Entry<String, List<Instance>> entry : pixelsHashToBitmapsMap.entrySet()) {
+            final List<Instance> duplicateBitmaps = entry.getValue();
+            if (duplicateBitmaps.size() <= 1) {
+                continue;
+            }
+            final List<ReferenceChain> referenceChains = findReferenceChains(snapshot, duplicateBitmaps);
+            if (referenceChains.size() > 1) {
+                final List<FieldValue> fieldValues = ((ClassInstance) duplicateBitmaps.get(0)).getValues();
+                final int width = HahaHelper.fieldValue(fieldValues, "mWidth");
+                final int height = HahaHelper.fieldValue(fieldValues, "mHeight");
+                duplicatedBitmapEntries.add(new DuplicatedBitmapEntry(width, height, entry.getKey(),
+                        pixelsHashToSizeMap.get(entry.getKey()), referenceChains));
+            }
+        }
         return DuplicatedBitmapResult.duplicatedBitmapDetected(duplicatedBitmapEntries, AnalyzeUtil.since(analysisStartNanoTime));
     }
 
+    private List<ReferenceChain> findReferenceChains(Snapshot snapshot, List<Instance> duplicateBitmaps) {
+        final Map<Instance, Result> results = new ShortestPathFinder(mExcludedBmps)
+                .findPath(snapshot, duplicateBitmaps);
+        final List<ReferenceChain> referenceChains = new ArrayList<>();
+        for (Result result : results.values()) {
+            if (result.excludingKnown) {
+                continue;
+            }
+            ReferenceNode currRefChainNode = result.referenceChainHead;
+            while (currRefChainNode.parent != null) {
+                final ReferenceNode tempNode = currRefChainNode.parent;
+                if (tempNode.instance == null) {
+                    currRefChainNode = tempNode;
+                    continue;
+                }
+                final Heap heap = tempNode.instance.getHeap();
+                if (heap != null && !"app".equals(heap.getName())) {
+                    break;
+                } else {
+                    currRefChainNode = tempNode;
+                }
+            }
+            final Instance gcRootHolder = currRefChainNode.instance;
+            if (!(gcRootHolder instanceof ClassObj)) {
+                continue;
+            }
+            final String holderClassName = ((ClassObj) gcRootHolder).getClassName();
+            boolean isExcluded = false;
+            for (ExcludedBmps.PatternInfo patternInfo : mExcludedBmps.mClassNamePatterns) {
+                if (!patternInfo.mForGCRootOnly) {
+                    continue;
+                }
+                if (patternInfo.mPattern.matcher(holderClassName).matches()) {
+                    System.out.println(" + Skipped a bitmap with gc root class: "
+                            + holderClassName + " by pattern: " + patternInfo.mPattern.toString());
+                    isExcluded = true;
+                    break;
+                }
+            }
+            if (!isExcluded) {
+                referenceChains.add(result.buildReferenceChain());
+            }
+        }
+        return referenceChains;
+    }
+
     private ArrayInstance cloneArrayInstance(ArrayInstance orig) {
         try {
             if (mMStackField == null) {
@@ -0,0 +1,173 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.analyzer;
+
+import com.tencent.matrix.resource.common.utils.DigestUtil;
+import com.tencent.matrix.resource.common.utils.StreamUtil;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the result json of analyzed hprofs in a directory, one file per signature, so a hprof uploaded again
+ * needn't be analyzed again.
+ * <p>
+ * The signature is made of the crc and the size of the hprof entry, which are stored in the zip already, along
+ * with the leaked activity key, the device and the options which affect the result. The least recently used
+ * entries are evicted by their modified time once there are more than the max entry count.
+ * </p>
+ */
+final class LeakSignatureCache {
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mCacheDir;
+    private final int  mMaxEntryCount;
+
+    LeakSignatureCache(File cacheDir, int maxEntryCount) {
+        if (maxEntryCount <= 0) {
+            throw new IllegalArgumentException("bad max entry count: " + maxEntryCount);
+        }
+        mCacheDir = cacheDir;
+        mMaxEntryCount = maxEntryCount;
+        if (!mCacheDir.exists()) {
+            mCacheDir.mkdirs();
+        }
+    }
+
+    /**
+     * @return signature of the result, or null if the crc of the hprof entry is unknown.
+     */
+    static String signatureOf(CLIMain.ResultInfo resultInfo, int minBmpLeakSize) {
+        final long crc = resultInfo.hprofEntry.getCrc();
+        final long size = resultInfo.hprofEntry.getSize();
+        if (crc < 0 || size < 0) {
+            return null;
+        }
+        final String key = Long.toHexString(crc) + ':' + size
+                + ':' + resultInfo.leakedActivityKey
+                + ':' + resultInfo.sdkVersion
+                + ':' + resultInfo.manufacturer
+                + ':' + minBmpLeakSize;
+        return DigestUtil.getMD5String(key.getBytes(UTF_8));
+    }
+
+    /**
+     * A successful result is only worth keeping, the failed one may succeed next time.
+     */
+    static boolean isCacheable(JSONObject resultJson) {
+        final JSONObject activityLeakResult = resultJson.optJSONObject("activityLeakResult");
+        final JSONObject duplicatedBmpResult = resultJson.optJSONObject("duplicatedBitmapResult");
+        return activityLeakResult != null && "null".equals(activityLeakResult.optString("failure"))
+                && duplicatedBmpResult != null && "null".equals(duplicatedBmpResult.optString("mFailure"));
+    }
+
+    synchronized JSONObject get(String signature) {
+        final File entryFile = new File(mCacheDir, signature + ENTRY_SUFFIX);
+        if (!entryFile.isFile()) {
+            return null;
+        }
+        JSONObject resultJson = null;
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(entryFile), UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            String line = null;
+            while ((line = br.readLine()) != null) {
+                sb.append(line);
+            }
+            resultJson = new JSONObject(sb.toString());
+        } catch (IOException | JSONException e) {
+            System.err.println("\n ! drop bad cache entry " + entryFile.getPath() + ": " + e);
+        } finally {
+            StreamUtil.closeQuietly(br);
+        }
+        if (resultJson == null) {
+            entryFile.delete();
+            return null;
+        }
+        // Mark it as recently used.
+        entryFile.setLastModified(System.currentTimeMillis());
+        return resultJson;
+    }
+
+    synchronized void put(String signature, JSONObject resultJson) throws IOException {
+        final File entryFile = new File(mCacheDir, signature + ENTRY_SUFFIX);
+        // Write into a temporary file first so that a broken entry is never seen by others.
+        final File tempFile = File.createTempFile(signature, ".tmp", mCacheDir);
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), UTF_8)));
+            pw.println(resultJson.toString());
+            pw.flush();
+            if (pw.checkError()) {
+                throw new IOException("fail to write cache entry " + tempFile.getPath());
+            }
+        } finally {
+            StreamUtil.closeQuietly(pw);
+        }
+        if (!tempFile.renameTo(entryFile)) {
+            entryFile.delete();
+            if (!tempFile.renameTo(entryFile)) {
+                tempFile.delete();
+                throw new IOException("fail to rename " + tempFile.getPath() + " to " + entryFile.getPath());
+            }
+        }
+        evict();
+    }
+
+    private void evict() {
+        final File[] entryFiles = mCacheDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(ENTRY_SUFFIX);
+            }
+        });
+        if (entryFiles == null || entryFiles.length <= mMaxEntryCount) {
+            return;
+        }
+        final long[] lastModifiedTimes = new long[entryFiles.length];
+        final Integer[] order = new Integer[entryFiles.length];
+        for (int i = 0; i < entryFiles.length; ++i) {
+            lastModifiedTimes[i] = entryFiles[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Long.compare(lastModifiedTimes[lhs], lastModifiedTimes[rhs]);
+            }
+        });
+        for (int i = 0; i < entryFiles.length - mMaxEntryCount; ++i) {
+            entryFiles[order[i]].delete();
+        }
+    }
+}
@@ -77,6 +77,7 @@ public class DuplicatedBitmapResult extends AnalyzeResult {
         private final int                  mWidth;
         private final int                  mHeight;
         private final byte[]               mBuffer;
+        private final int                  mBufferSize;
         private final List<ReferenceChain> mReferenceChains;
 
         public DuplicatedBitmapEntry(int width, int height, byte[] rawBuffer, Collection<ReferenceChain> referenceChains) {
@@ -84,6 +85,19 @@ public class DuplicatedBitmapResult extends AnalyzeResult {
             mWidth = width;
             mHeight = height;
             mBuffer = rawBuffer;
+            mBufferSize = (rawBuffer != null ? rawBuffer.length : 0);
+            mReferenceChains = Collections.unmodifiableList(new ArrayList<>(referenceChains));
+        }
+
+        /**
+         * For the bitmaps whose pixels are not in the hprof, which are hashed on the device instead.
+         */
+        public DuplicatedBitmapEntry(int width, int height, String bufferHash, int bufferSize, Collection<ReferenceChain> referenceChains) {
+            mBufferHash = bufferHash;
+            mWidth = width;
+            mHeight = height;
+            mBuffer = null;
+            mBufferSize = bufferSize;
             mReferenceChains = Collections.unmodifiableList(new ArrayList<>(referenceChains));
         }
 
@@ -104,7 +118,7 @@ public class DuplicatedBitmapResult extends AnalyzeResult {
         }
 
         public int getBufferSize() {
-            return (mBuffer != null ? mBuffer.length : 0);
+            return mBufferSize;
         }
 
         public JSONObject toJSONObject() throws JSONException {
@@ -34,11 +34,18 @@ import static com.tencent.matrix.resource.common.utils.Preconditions.checkNotNul
 public class HeapSnapshot {
 
     private final File mHprofFile;
+    private final MemoryMappedFileBuffer mBuffer;
     private final Snapshot mSnapshot;
 
     public HeapSnapshot(File hprofFile) throws IOException {
         mHprofFile = checkNotNull(hprofFile, "hprofFile");
-        mSnapshot = initSnapshot(hprofFile);
+        mBuffer = new MemoryMappedFileBuffer(hprofFile);
+        try {
+            mSnapshot = initSnapshot(mBuffer);
+        } catch (IOException | RuntimeException e) {
+            mBuffer.dispose();
+            throw e;
+        }
     }
 
     public File getHprofFile() {
@@ -49,8 +56,15 @@ public class HeapSnapshot {
         return mSnapshot;
     }
 
-    private static Snapshot initSnapshot(File hprofFile) throws IOException {
-        final HprofBuffer buffer = new MemoryMappedFileBuffer(hprofFile);
+    /**
+     * Unmaps the hprof file, the snapshot must not be used any more.
+     * The mapping holds the file until it is collected, so it should be disposed before the file is deleted.
+     */
+    public void dispose() {
+        mBuffer.dispose();
+    }
+
+    private static Snapshot initSnapshot(HprofBuffer buffer) throws IOException {
         final HprofParser parser = new HprofParser(buffer);
         final Snapshot result = parser.parse();
         AnalyzeUtil.deduplicateGcRoots(result);
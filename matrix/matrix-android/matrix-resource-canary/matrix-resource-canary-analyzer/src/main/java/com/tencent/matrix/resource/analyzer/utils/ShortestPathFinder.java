@@ -32,14 +32,13 @@ import com.tencent.matrix.resource.analyzer.model.ReferenceNode;
 import com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 import static com.squareup.haha.perflib.HahaHelper.extendsThread;
@@ -68,21 +67,25 @@ import static com.tencent.matrix.resource.analyzer.model.ReferenceTraceElement.T
 public final class ShortestPathFinder {
     private static final String ANONYMOUS_CLASS_NAME_PATTERN = "^.+\\$\\d+$";
 
+    private static final int NO_PARENT = -1;
+
     private final ExcludedRefs excludedRefs;
-    private final Queue<ReferenceNode> toVisitQueue;
-    private final Queue<ReferenceNode> toVisitIfNoPathQueue;
-    private final Set<Instance> toVisitSet;
-    private final Set<Instance> toVisitIfNoPathSet;
-    private final Set<Instance> visitedSet;
+    // The nodes to visit are kept as indexes of the node table, their chains are only built as ReferenceNodes
+    // for the results.
+    private final NodeTable nodes;
+    private final IntQueue toVisitQueue;
+    private final IntQueue toVisitIfNoPathQueue;
+    // Instance id -> TO_VISIT | TO_VISIT_IF_NO_PATH | VISITED. RootObjs are not kept since they share the id
+    // with the instances they refer to, and each of them is enqueued only once.
+    private final InstanceStates instanceStates;
     private boolean canIgnoreStrings;
 
     public ShortestPathFinder(ExcludedRefs excludedRefs) {
         this.excludedRefs = excludedRefs;
-        toVisitQueue = new LinkedList<>();
-        toVisitIfNoPathQueue = new LinkedList<>();
-        toVisitSet = new HashSet<>();
-        toVisitIfNoPathSet = new HashSet<>();
-        visitedSet = new HashSet<>();
+        nodes = new NodeTable();
+        toVisitQueue = new IntQueue();
+        toVisitIfNoPathQueue = new IntQueue();
+        instanceStates = new InstanceStates();
     }
 
     public static final class Result {
@@ -250,50 +253,52 @@ public final class ShortestPathFinder {
         final Set<Instance> targetRefSet = new HashSet<>(targetReferences);
 
         while (!toVisitQueue.isEmpty() || !toVisitIfNoPathQueue.isEmpty()) {
-            ReferenceNode node;
+            int node;
             if (!toVisitQueue.isEmpty()) {
                 node = toVisitQueue.poll();
             } else {
                 node = toVisitIfNoPathQueue.poll();
-                if (node.exclusion == null) {
-                    throw new IllegalStateException("Expected node to have an exclusion " + node);
+                if (nodes.exclusions[node] == null) {
+                    throw new IllegalStateException("Expected node to have an exclusion " + nodes.instances[node]);
                 }
             }
+            final Instance instance = nodes.instances[node];
 
             // Termination
-            if (targetRefSet.contains(node.instance)) {
-                results.put(node.instance, new Result(node, node.exclusion != null));
-                targetRefSet.remove(node.instance);
+            if (targetRefSet.contains(instance)) {
+                results.put(instance, new Result(nodes.buildReferenceNode(node), nodes.exclusions[node] != null));
+                targetRefSet.remove(instance);
                 if (targetRefSet.isEmpty()) {
                     break;
                 }
             }
 
-            if (checkSeen(node)) {
+            if (checkSeen(instance)) {
                 continue;
             }
 
-            if (node.instance instanceof RootObj) {
+            if (instance instanceof RootObj) {
                 visitRootObj(node);
-            } else if (node.instance instanceof ClassObj) {
+            } else if (instance instanceof ClassObj) {
                 visitClassObj(node);
-            } else if (node.instance instanceof ClassInstance) {
+            } else if (instance instanceof ClassInstance) {
                 visitClassInstance(node);
-            } else if (node.instance instanceof ArrayInstance) {
+            } else if (instance instanceof ArrayInstance) {
                 visitArrayInstance(node);
             } else {
-                throw new IllegalStateException("Unexpected type for " + node.instance);
+                throw new IllegalStateException("Unexpected type for " + instance);
             }
         }
+        // The nodes are useless once the results are built.
+        clearState();
         return results;
     }
 
     private void clearState() {
+        nodes.clear();
         toVisitQueue.clear();
         toVisitIfNoPathQueue.clear();
-        toVisitSet.clear();
-        toVisitIfNoPathSet.clear();
-        visitedSet.clear();
+        instanceStates.clear();
     }
 
     private void enqueueGcRoots(Snapshot snapshot) {
@@ -304,7 +309,7 @@ public final class ShortestPathFinder {
                     String threadName = threadName(thread);
                     Exclusion params = excludedRefs.threadNames.get(threadName);
                     if (params == null || !params.alwaysExclude) {
-                        enqueue(params, null, rootObj, null, null);
+                        enqueue(params, NO_PARENT, rootObj, null, null);
                     }
                     break;
                 case INTERNED_STRING:
@@ -331,7 +336,7 @@ public final class ShortestPathFinder {
                     // Input or output parameters in native code.
                 case NATIVE_STACK:
                 case JAVA_STATIC:
-                    enqueue(null, null, rootObj, null, null);
+                    enqueue(null, NO_PARENT, rootObj, null, null);
                     break;
                 default:
                     throw new UnsupportedOperationException("Unknown root type:" + rootObj.getRootType());
@@ -339,12 +344,15 @@ public final class ShortestPathFinder {
         }
     }
 
-    private boolean checkSeen(ReferenceNode node) {
-        return !visitedSet.add(node.instance);
+    private boolean checkSeen(Instance instance) {
+        if (instance instanceof RootObj) {
+            return false;
+        }
+        return !instanceStates.add(instance.getId(), InstanceStates.VISITED);
     }
 
-    private void visitRootObj(ReferenceNode node) {
-        RootObj rootObj = (RootObj) node.instance;
+    private void visitRootObj(int node) {
+        RootObj rootObj = (RootObj) nodes.instances[node];
         Instance child = rootObj.getReferredInstance();
 
         if (rootObj.getRootType() == RootType.JAVA_LOCAL) {
@@ -352,18 +360,18 @@ public final class ShortestPathFinder {
             // We switch the parent node with the thread instance that holds
             // the local reference.
             Exclusion exclusion = null;
-            if (node.exclusion != null) {
-                exclusion = node.exclusion;
+            if (nodes.exclusions[node] != null) {
+                exclusion = nodes.exclusions[node];
             }
-            ReferenceNode parent = new ReferenceNode(null, holder, null, null, null);
+            int parent = nodes.add(null, holder, NO_PARENT, null, null);
             enqueue(exclusion, parent, child, "<Java Local>", LOCAL);
         } else {
             enqueue(null, node, child, null, null);
         }
     }
 
-    private void visitClassObj(ReferenceNode node) {
-        ClassObj classObj = (ClassObj) node.instance;
+    private void visitClassObj(int node) {
+        ClassObj classObj = (ClassObj) nodes.instances[node];
         Map<String, Exclusion> ignoredStaticFields =
                 excludedRefs.staticFieldNameByClassName.get(classObj.getClassName());
         for (Map.Entry<Field, Object> entry : classObj.getStaticFieldValues().entrySet()) {
@@ -392,8 +400,8 @@ public final class ShortestPathFinder {
         }
     }
 
-    private void visitClassInstance(ReferenceNode node) {
-        ClassInstance classInstance = (ClassInstance) node.instance;
+    private void visitClassInstance(int node) {
+        ClassInstance classInstance = (ClassInstance) nodes.instances[node];
         Map<String, Exclusion> ignoredFields = new LinkedHashMap<>();
         ClassObj superClassObj = classInstance.getClassObj();
         Exclusion classExclusion = null;
@@ -433,19 +441,20 @@ public final class ShortestPathFinder {
         }
     }
 
-    private void visitArrayInstance(ReferenceNode node) {
-        ArrayInstance arrayInstance = (ArrayInstance) node.instance;
+    private void visitArrayInstance(int node) {
+        ArrayInstance arrayInstance = (ArrayInstance) nodes.instances[node];
         Type arrayType = arrayInstance.getArrayType();
         if (arrayType == Type.OBJECT) {
             Object[] values = arrayInstance.getValues();
             for (int i = 0; i < values.length; i++) {
                 Instance child = (Instance) values[i];
-                enqueue(null, node, child, "[" + i + "]", ARRAY_ENTRY);
+                // The name "[i]" is built only if the entry turns out to be in a result.
+                enqueue(null, node, child, i, ARRAY_ENTRY);
             }
         }
     }
 
-    private void enqueue(Exclusion exclusion, ReferenceNode parent, Instance child, String referenceName,
+    private void enqueue(Exclusion exclusion, int parent, Instance child, Object referenceName,
                          ReferenceTraceElement.Type referenceType) {
         if (child == null) {
             return;
@@ -453,26 +462,32 @@ public final class ShortestPathFinder {
         if (isPrimitiveOrWrapperArray(child) || isPrimitiveWrapper(child)) {
             return;
         }
+        final boolean isRoot = child instanceof RootObj;
+        final int state = (isRoot ? 0 : instanceStates.get(child.getId()));
         // Whether we want to visit now or later, we should skip if this is already to visit.
-        if (toVisitSet.contains(child)) {
+        if ((state & InstanceStates.TO_VISIT) != 0) {
             return;
         }
         boolean visitNow = exclusion == null;
-        if (!visitNow && toVisitIfNoPathSet.contains(child)) {
+        if (!visitNow && (state & InstanceStates.TO_VISIT_IF_NO_PATH) != 0) {
             return;
         }
         if (canIgnoreStrings && isString(child)) {
             return;
         }
-        if (visitedSet.contains(child)) {
+        if ((state & InstanceStates.VISITED) != 0) {
             return;
         }
-        ReferenceNode childNode = new ReferenceNode(exclusion, child, parent, referenceName, referenceType);
+        int childNode = nodes.add(exclusion, child, parent, referenceName, referenceType);
         if (visitNow) {
-            toVisitSet.add(child);
+            if (!isRoot) {
+                instanceStates.add(child.getId(), InstanceStates.TO_VISIT);
+            }
             toVisitQueue.add(childNode);
         } else {
-            toVisitIfNoPathSet.add(child);
+            if (!isRoot) {
+                instanceStates.add(child.getId(), InstanceStates.TO_VISIT_IF_NO_PATH);
+            }
             toVisitIfNoPathQueue.add(childNode);
         }
     }
@@ -482,4 +497,166 @@ public final class ShortestPathFinder {
                 .getClassName()
                 .equals(String.class.getName());
     }
+
+    /**
+     * The nodes of the search in parallel arrays, a node refers to its parent by index.
+     */
+    private static final class NodeTable {
+        Exclusion[] exclusions = new Exclusion[1024];
+        Instance[] instances = new Instance[1024];
+        int[] parents = new int[1024];
+        // Name of field, or index of array entry as Integer which is turned into "[i]" when building the chain.
+        Object[] referenceNames = new Object[1024];
+        ReferenceTraceElement.Type[] referenceTypes = new ReferenceTraceElement.Type[1024];
+        int size = 0;
+
+        int add(Exclusion exclusion, Instance instance, int parent, Object referenceName,
+                ReferenceTraceElement.Type referenceType) {
+            if (size == instances.length) {
+                final int capacity = size << 1;
+                exclusions = Arrays.copyOf(exclusions, capacity);
+                instances = Arrays.copyOf(instances, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                referenceNames = Arrays.copyOf(referenceNames, capacity);
+                referenceTypes = Arrays.copyOf(referenceTypes, capacity);
+            }
+            exclusions[size] = exclusion;
+            instances[size] = instance;
+            parents[size] = parent;
+            referenceNames[size] = referenceName;
+            referenceTypes[size] = referenceType;
+            return size++;
+        }
+
+        ReferenceNode buildReferenceNode(int node) {
+            // Collect the chain from the node to the root first, and then build it from the root.
+            final List<Integer> chain = new ArrayList<>();
+            for (int curr = node; curr != NO_PARENT; curr = parents[curr]) {
+                chain.add(curr);
+            }
+            ReferenceNode result = null;
+            for (int i = chain.size() - 1; i >= 0; --i) {
+                final int curr = chain.get(i);
+                final Object name = referenceNames[curr];
+                final String referenceName = (name instanceof Integer ? "[" + name + "]" : (String) name);
+                result = new ReferenceNode(exclusions[curr], instances[curr], result, referenceName, referenceTypes[curr]);
+            }
+            return result;
+        }
+
+        void clear() {
+            Arrays.fill(exclusions, 0, size, null);
+            Arrays.fill(instances, 0, size, null);
+            Arrays.fill(referenceNames, 0, size, null);
+            Arrays.fill(referenceTypes, 0, size, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * An array-backed FIFO queue of node indexes.
+     */
+    private static final class IntQueue {
+        private int[] elements = new int[1024];
+        private int head = 0;
+        private int tail = 0;
+
+        void add(int element) {
+            if (tail == elements.length) {
+                if (head > 0) {
+                    // Reuse the polled part before growing.
+                    System.arraycopy(elements, head, elements, 0, tail - head);
+                    tail -= head;
+                    head = 0;
+                }
+                if (tail > elements.length >> 1) {
+                    elements = Arrays.copyOf(elements, elements.length << 1);
+                }
+            }
+            elements[tail++] = element;
+        }
+
+        int poll() {
+            return elements[head++];
+        }
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+
+        void clear() {
+            head = 0;
+            tail = 0;
+        }
+    }
+
+    /**
+     * Instance id -> state bits with open addressing, so the states of millions of instances don't cost an
+     * entry object each. Id 0 is never an instance.
+     */
+    private static final class InstanceStates {
+        static final int TO_VISIT = 1;
+        static final int TO_VISIT_IF_NO_PATH = 2;
+        static final int VISITED = 4;
+
+        private long[] ids = new long[1 << 16];
+        private byte[] states = new byte[1 << 16];
+        private int size = 0;
+
+        int get(long id) {
+            final int index = indexOf(ids, id);
+            return (ids[index] == 0 ? 0 : states[index]);
+        }
+
+        /**
+         * @return false if the state was already set.
+         */
+        boolean add(long id, int state) {
+            int index = indexOf(ids, id);
+            if (ids[index] == 0) {
+                if ((size + 1) << 1 > ids.length) {
+                    rehash(ids.length << 1);
+                    index = indexOf(ids, id);
+                }
+                ids[index] = id;
+                ++size;
+            } else if ((states[index] & state) != 0) {
+                return false;
+            }
+            states[index] |= state;
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(ids, 0);
+            Arrays.fill(states, (byte) 0);
+            size = 0;
+        }
+
+        private void rehash(int capacity) {
+            final long[] oldIds = ids;
+            final byte[] oldStates = states;
+            ids = new long[capacity];
+            states = new byte[capacity];
+            for (int i = 0; i < oldIds.length; ++i) {
+                if (oldIds[i] != 0) {
+                    final int index = indexOf(ids, oldIds[i]);
+                    ids[index] = oldIds[i];
+                    states[index] = oldStates[i];
+                }
+            }
+        }
+
+        private static int indexOf(long[] ids, long id) {
+            // Ids are addresses whose low bits are mostly zero, so they are mixed before masking.
+            long hash = id * 0x9E3779B97F4A7C15L;
+            hash ^= (hash >>> 32);
+            final int mask = ids.length - 1;
+            int index = (int) hash & mask;
+            while (ids[index] != 0 && ids[index] != id) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+    }
 }
@@ -21,6 +21,8 @@ import android.content.Intent;
 import android.os.Build;
 
 import com.tencent.matrix.resource.analyzer.model.HeapDump;
+import com.tencent.matrix.resource.common.utils.AsyncOutputStream;
+import com.tencent.matrix.resource.config.ResourceConfig;
 import com.tencent.matrix.resource.hproflib.HprofBufferShrinker;
 import com.tencent.matrix.resource.watcher.DumpStorageManager;
 import com.tencent.matrix.util.MatrixLog;
@@ -35,6 +37,7 @@ import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -51,6 +54,12 @@ public class CanaryWorkerService extends MatrixJobIntentService {
     private static final int JOB_ID = 0xFAFBFCFD;
     private static final String ACTION_SHRINK_HPROF = "com.tencent.matrix.resource.worker.action.SHRINK_HPROF";
     private static final String EXTRA_PARAM_HEAPDUMP = "com.tencent.matrix.resource.worker.param.HEAPDUMP";
+    private static final String EXTRA_PARAM_SHRINK_IN_ONE_PASS = "com.tencent.matrix.resource.worker.param.SHRINK_IN_ONE_PASS";
+    private static final String EXTRA_PARAM_ZIP_LEVEL = "com.tencent.matrix.resource.worker.param.ZIP_LEVEL";
+
+    // The shrunk hprof is handed to the deflating thread in chunks, at most 8 of them are in flight.
+    private static final int DEFLATE_CHUNK_SIZE = 64 * 1024;
+    private static final int DEFLATE_CHUNK_COUNT = 8;
 
     public static void shrinkHprofAndReport(Context context, HeapDump heapDump) {
         final Intent intent = new Intent(context, CanaryWorkerService.class);
@@ -59,6 +68,15 @@ public class CanaryWorkerService extends MatrixJobIntentService {
         enqueueWork(context, CanaryWorkerService.class, JOB_ID, intent);
     }
 
+    public static void shrinkHprofAndReport(Context context, HeapDump heapDump, ResourceConfig config) {
+        final Intent intent = new Intent(context, CanaryWorkerService.class);
+        intent.setAction(ACTION_SHRINK_HPROF);
+        intent.putExtra(EXTRA_PARAM_HEAPDUMP, heapDump);
+        intent.putExtra(EXTRA_PARAM_SHRINK_IN_ONE_PASS, config.isShrinkHprofInOnePass());
+        intent.putExtra(EXTRA_PARAM_ZIP_LEVEL, config.getHprofZipLevel());
+        enqueueWork(context, CanaryWorkerService.class, JOB_ID, intent);
+    }
+
     @Override
     protected void onHandleWork(Intent intent) {
         if (intent != null) {
@@ -68,7 +86,8 @@ public class CanaryWorkerService extends MatrixJobIntentService {
                     intent.setExtrasClassLoader(this.getClassLoader());
                     final HeapDump heapDump = (HeapDump) intent.getSerializableExtra(EXTRA_PARAM_HEAPDUMP);
                     if (heapDump != null) {
-                        doShrinkHprofAndReport(heapDump);
+                        doShrinkHprofAndReport(heapDump, intent.getBooleanExtra(EXTRA_PARAM_SHRINK_IN_ONE_PASS, false),
+                                intent.getIntExtra(EXTRA_PARAM_ZIP_LEVEL, Deflater.DEFAULT_COMPRESSION));
                     } else {
                         MatrixLog.e(TAG, "failed to deserialize heap dump, give up shrinking and reporting.");
                     }
@@ -79,22 +98,19 @@ public class CanaryWorkerService extends MatrixJobIntentService {
         }
     }
 
-    private void doShrinkHprofAndReport(HeapDump heapDump) {
+    private void doShrinkHprofAndReport(HeapDump heapDump, boolean shrinkInOnePass, int zipLevel) {
         final File hprofDir = heapDump.getHprofFile().getParentFile();
-        final File shrinkedHProfFile = new File(hprofDir, getShrinkHprofName(heapDump.getHprofFile()));
+        final String shrinkedHProfName = getShrinkHprofName(heapDump.getHprofFile());
         final File zipResFile = new File(hprofDir, getResultZipName("dump_result_" + android.os.Process.myPid()));
         final File hprofFile = heapDump.getHprofFile();
         ZipOutputStream zos = null;
         try {
             long startTime = System.currentTimeMillis();
-            new HprofBufferShrinker().shrink(hprofFile, shrinkedHProfFile);
-            MatrixLog.i(TAG, "shrink hprof file %s, size: %dk to %s, size: %dk, use time:%d",
-                    hprofFile.getPath(), hprofFile.length() / 1024, shrinkedHProfFile.getPath(), shrinkedHProfFile.length() / 1024, (System.currentTimeMillis() - startTime));
-
             zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipResFile)));
+            zos.setLevel(zipLevel);
 
             final ZipEntry resultInfoEntry = new ZipEntry("result.info");
-            final ZipEntry shrinkedHProfEntry = new ZipEntry(shrinkedHProfFile.getName());
+            final ZipEntry shrinkedHProfEntry = new ZipEntry(shrinkedHProfName);
 
             zos.putNextEntry(resultInfoEntry);
             final PrintWriter pw = new PrintWriter(new OutputStreamWriter(zos, Charset.forName("UTF-8")));
@@ -106,12 +122,47 @@ public class CanaryWorkerService extends MatrixJobIntentService {
             pw.flush();
             zos.closeEntry();
 
+            // The shrunk hprof is streamed into the zip, and deflated on another thread while shrinking.
             zos.putNextEntry(shrinkedHProfEntry);
-            copyFileToStream(shrinkedHProfFile, zos);
+            final AsyncOutputStream hprofOs = new AsyncOutputStream(zos, DEFLATE_CHUNK_SIZE, DEFLATE_CHUNK_COUNT);
+            Throwable shrinkError = null;
+            try {
+                if (shrinkInOnePass) {
+                    new HprofBufferShrinker().shrinkInOnePass(hprofFile, hprofOs);
+                } else {
+                    new HprofBufferShrinker().shrink(hprofFile, hprofOs);
+                }
+            } catch (Throwable thr) {
+                shrinkError = thr;
+                throw thr;
+            } finally {
+                try {
+                    hprofOs.close();
+                } catch (IOException e) {
+                    // the error of shrinking is the cause, don't hide it
+                    if (null == shrinkError) {
+                        throw e;
+                    }
+                    shrinkError.addSuppressed(e);
+                }
+            }
             zos.closeEntry();
 
-            shrinkedHProfFile.delete();
+            // Extra info captured along with the hprof, e.g. the hashes of native bitmap pixels.
+            final File extraInfoFile = DumpStorageManager.getExtraInfoFile(hprofFile);
+            if (extraInfoFile.exists()) {
+                zos.putNextEntry(new ZipEntry(HprofBufferShrinker.EXTRA_INFO_ENTRY_NAME));
+                copyFileToStream(extraInfoFile, zos);
+                zos.closeEntry();
+            }
+            MatrixLog.i(TAG, "shrink hprof file %s, size: %dk to %s, size: %dk, compressed size: %dk, use time:%d",
+                    hprofFile.getPath(), hprofFile.length() / 1024, shrinkedHProfName, shrinkedHProfEntry.getSize() / 1024,
+                    shrinkedHProfEntry.getCompressedSize() / 1024, (System.currentTimeMillis() - startTime));
+
+            zos.close();
+            zos = null;
             hprofFile.delete();
+            extraInfoFile.delete();
 
             MatrixLog.i(TAG, "process hprof file use total time:%d", (System.currentTimeMillis() - startTime));
 
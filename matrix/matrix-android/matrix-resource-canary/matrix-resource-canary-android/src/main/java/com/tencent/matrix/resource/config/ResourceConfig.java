@@ -21,6 +21,7 @@ import android.content.Intent;
 import com.tencent.mrs.plugin.IDynamicConfig;
 
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 /**
  * Created by tangyinsheng on 2017/6/2.
@@ -42,13 +43,19 @@ public final class ResourceConfig {
     private final DumpMode mDumpHprofMode;
     private final boolean mDetectDebugger;
     private final Intent mContentIntent;
+    private final boolean mShrinkHprofInOnePass;
+    private final int mHprofZipLevel;
+    private final boolean mHashNativeBitmaps;
 
 
-    private ResourceConfig(IDynamicConfig dynamicConfig, DumpMode dumpHprofMode, boolean detectDebuger, Intent pendingIntent) {
+    private ResourceConfig(IDynamicConfig dynamicConfig, DumpMode dumpHprofMode, boolean detectDebuger, Intent pendingIntent, boolean shrinkHprofInOnePass, int hprofZipLevel, boolean hashNativeBitmaps) {
         this.mDynamicConfig = dynamicConfig;
         this.mDumpHprofMode = dumpHprofMode;
         mDetectDebugger = detectDebuger;
         mContentIntent = pendingIntent;
+        mShrinkHprofInOnePass = shrinkHprofInOnePass;
+        mHprofZipLevel = hprofZipLevel;
+        mHashNativeBitmaps = hashNativeBitmaps;
     }
 
     public long getScanIntervalMillis() {
@@ -75,12 +82,27 @@ public final class ResourceConfig {
         return mDetectDebugger;
     }
 
+    public boolean isShrinkHprofInOnePass() {
+        return mShrinkHprofInOnePass;
+    }
+
+    public int getHprofZipLevel() {
+        return mHprofZipLevel;
+    }
+
+    public boolean isHashNativeBitmaps() {
+        return mHashNativeBitmaps;
+    }
+
     public static final class Builder {
 
         private DumpMode mDefaultDumpHprofMode = DEFAULT_DUMP_HPROF_MODE;
         private IDynamicConfig dynamicConfig;
         private Intent mContentIntent;
         private boolean mDetectDebugger = false;
+        private boolean mShrinkHprofInOnePass = false;
+        private int mHprofZipLevel = Deflater.DEFAULT_COMPRESSION;
+        private boolean mHashNativeBitmaps = false;
 
         public Builder dynamicConfig(IDynamicConfig dynamicConfig) {
             this.dynamicConfig = dynamicConfig;
@@ -102,8 +124,38 @@ public final class ResourceConfig {
             return this;
         }
 
+        /**
+         * Reads the hprof file only once when shrinking it, see HprofBufferShrinker#shrinkInOnePass. It saves the
+         * reading on slow storage, at the cost of writing and reading a provisional file a few times smaller.
+         */
+        public Builder setShrinkHprofInOnePass(boolean enabled) {
+            mShrinkHprofInOnePass = enabled;
+            return this;
+        }
+
+        /**
+         * The deflate level of the zip which the shrunk hprof is reported in, from {@link Deflater#BEST_SPEED} to
+         * {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+         */
+        public Builder setHprofZipLevel(int level) {
+            if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+                throw new IllegalArgumentException("invalid zip level: " + level);
+            }
+            mHprofZipLevel = level;
+            return this;
+        }
+
+        /**
+         * Hashes the pixels of live bitmaps before dumping heap on Android P and above, where the pixels are not
+         * in the hprof, so that the analyzer can still find duplicated bitmaps. See NativeBitmapHasher.
+         */
+        public Builder setHashNativeBitmaps(boolean enabled) {
+            mHashNativeBitmaps = enabled;
+            return this;
+        }
+
         public ResourceConfig build() {
-            return new ResourceConfig(dynamicConfig, mDefaultDumpHprofMode, mDetectDebugger, mContentIntent);
+            return new ResourceConfig(dynamicConfig, mDefaultDumpHprofMode, mDetectDebugger, mContentIntent, mShrinkHprofInOnePass, mHprofZipLevel, mHashNativeBitmaps);
         }
     }
 }
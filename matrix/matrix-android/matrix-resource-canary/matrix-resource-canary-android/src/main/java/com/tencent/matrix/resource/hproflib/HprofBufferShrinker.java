@@ -16,11 +16,12 @@
 
 package com.tencent.matrix.resource.hproflib;
 
-import com.tencent.matrix.resource.common.utils.DigestUtil;
 import com.tencent.matrix.resource.hproflib.model.Field;
 import com.tencent.matrix.resource.hproflib.model.ID;
 import com.tencent.matrix.resource.hproflib.model.Type;
 import com.tencent.matrix.resource.hproflib.utils.IOUtil;
+import com.tencent.matrix.resource.hproflib.utils.LongLongMap;
+import com.tencent.matrix.resource.hproflib.utils.LongSet;
 import com.tencent.matrix.util.MatrixLog;
 import com.tencent.matrix.util.MatrixUtil;
 import com.tencent.tinker.ziputils.ziputil.TinkerZipEntry;
@@ -28,21 +29,23 @@ import com.tencent.tinker.ziputils.ziputil.TinkerZipFile;
 import com.tencent.tinker.ziputils.ziputil.TinkerZipOutputStream;
 import com.tencent.tinker.ziputils.ziputil.TinkerZipUtil;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
 import java.util.zip.CRC32;
 
 /**
@@ -52,12 +55,19 @@ import java.util.zip.CRC32;
 public class HprofBufferShrinker {
     public static final String TAG = "Matrix.HprofBufferShrinker";
 
-    private static final String PROPERTY_NAME = "extra.info";
+    public static final String EXTRA_INFO_ENTRY_NAME = "extra.info";
 
-    private final Set<ID>         mBmpBufferIds                   = new HashSet<>();
-    private final Map<ID, byte[]> mBufferIdToElementDataMap       = new HashMap<>();
-    private final Map<ID, ID>     mBmpBufferIdToDeduplicatedIdMap = new HashMap<>();
-    private final Set<ID>         mStringValueIds                 = new HashSet<>();
+    private static final int BUFFER_CHUNK_SIZE = 64 * 1024;
+
+    // Ids are packed into longs (see ID#toLong()) so that millions of them don't cost an object each.
+    private final LongSet         mBmpBufferIds                   = new LongSet();
+    // Byte arrays are recorded by where they are in the file instead of their contents.
+    private       int             mBufferCount                    = 0;
+    private       long[]          mBufferIds                      = new long[1024];
+    private       long[]          mBufferOffsets                  = new long[1024];
+    private       int[]           mBufferLengths                  = new int[1024];
+    private final LongLongMap     mBmpBufferIdToDeduplicatedIdMap = new LongLongMap();
+    private final LongSet         mStringValueIds                 = new LongSet();
 
     private ID mBitmapClassNameStringId    = null;
     private ID mBmpClassId                 = null;
@@ -68,8 +78,10 @@ public class HprofBufferShrinker {
     private ID mStringClassId           = null;
     private ID mValueFieldNameStringId  = null;
 
+    private FileChannel mHprofChannel = null;
+    private long        mBytesReadRandomly = 0;
+
     private int     mIdSize                    = 0;
-    private ID      mNullBufferId              = null;
     private Field[] mBmpClassInstanceFields    = null;
     private Field[] mStringClassInstanceFields = null;
 
@@ -81,8 +93,16 @@ public class HprofBufferShrinker {
             return true;
         }
         long start = System.currentTimeMillis();
+        // The result may carry extra info already, e.g. the hashes of native bitmap pixels, so they are merged.
+        final Properties mergedProperties = new Properties();
+        if (!loadExtraInfo(shrinkResultFile, mergedProperties)) {
+            return false;
+        }
+        mergedProperties.putAll(properties);
+        properties = mergedProperties;
+
         OutputStream propertiesOutputStream = null;
-        File propertiesFile = new File(shrinkResultFile.getParentFile(), PROPERTY_NAME);
+        File propertiesFile = new File(shrinkResultFile.getParentFile(), EXTRA_INFO_ENTRY_NAME);
         File tempFile = new File(shrinkResultFile.getAbsolutePath() + "_temp");
 
         try {
@@ -110,7 +130,7 @@ public class HprofBufferShrinker {
                     throw new RuntimeException("zipEntry is null when get from oldApk");
                 }
                 String name = zipEntry.getName();
-                if (name.contains("../")) {
+                if (name.contains("../") || EXTRA_INFO_ENTRY_NAME.equals(name)) {
                     continue;
                 }
                 TinkerZipUtil.extractTinkerEntry(zipFile, zipEntry, out);
@@ -142,6 +162,26 @@ public class HprofBufferShrinker {
         return true;
     }
 
+    private static boolean loadExtraInfo(File shrinkResultFile, Properties out) {
+        TinkerZipFile zipFile = null;
+        InputStream is = null;
+        try {
+            zipFile = new TinkerZipFile(shrinkResultFile);
+            final TinkerZipEntry extraInfoEntry = zipFile.getEntry(EXTRA_INFO_ENTRY_NAME);
+            if (extraInfoEntry != null) {
+                is = zipFile.getInputStream(extraInfoEntry);
+                out.load(is);
+            }
+            return true;
+        } catch (IOException e) {
+            MatrixLog.e(TAG, "load property error:" + e);
+            return false;
+        } finally {
+            MatrixUtil.closeQuietly(is);
+            MatrixUtil.closeQuietly(zipFile);
+        }
+    }
+
     private static Long getCRC32(File file) {
         CRC32 crc32 = new CRC32();
         // MessageDigest.get
@@ -161,20 +201,15 @@ public class HprofBufferShrinker {
         }
     }
 
+    /**
+     * Reads {@code hprofIn} three times, see {@link #shrinkInOnePass(File, File)} for the one which reads it only
+     * once.
+     */
     public void shrink(File hprofIn, File hprofOut) throws IOException {
-        FileInputStream is = null;
         OutputStream os = null;
         try {
-            is = new FileInputStream(hprofIn);
-            os = new BufferedOutputStream(new FileOutputStream(hprofOut));
-            final HprofReader reader = new HprofReader(new BufferedInputStream(is));
-            reader.accept(new HprofInfoCollectVisitor());
-            // Reset.
-            is.getChannel().position(0);
-            reader.accept(new HprofKeptBufferCollectVisitor());
-            // Reset.
-            is.getChannel().position(0);
-            reader.accept(new HprofBufferShrinkVisitor(new HprofWriter(os)));
+            os = new FileOutputStream(hprofOut);
+            shrink(hprofIn, os);
         } finally {
             if (os != null) {
                 try {
@@ -183,6 +218,40 @@ public class HprofBufferShrinker {
                     // Ignored.
                 }
             }
+        }
+    }
+
+    /**
+     * Writes the result to {@code hprofOut}, which is flushed but not closed, so it can be an entry of a zip or
+     * any other stream chain.
+     */
+    public void shrink(File hprofIn, OutputStream hprofOut) throws IOException {
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(hprofIn);
+            final OutputStream os = new BufferedOutputStream(hprofOut);
+            mHprofChannel = is.getChannel();
+            mBytesReadRandomly = 0;
+            final HprofReader reader = new HprofReader(mHprofChannel);
+
+            long phaseStart = System.currentTimeMillis();
+            reader.accept(new HprofInfoCollectVisitor(null));
+            logPhase("collect info", phaseStart, reader.getPosition());
+
+            phaseStart = System.currentTimeMillis();
+            reader.accept(new HprofKeptBufferCollectVisitor(reader, null));
+            logPhase("collect kept buffers", phaseStart, reader.getPosition());
+
+            phaseStart = System.currentTimeMillis();
+            deduplicateBmpBuffers();
+            logPhase("deduplicate bitmap buffers", phaseStart, mBytesReadRandomly);
+
+            phaseStart = System.currentTimeMillis();
+            reader.accept(new HprofBufferShrinkVisitor(new HprofWriter(os), false));
+            os.flush();
+            logPhase("write", phaseStart, reader.getPosition());
+        } finally {
+            mHprofChannel = null;
             if (is != null) {
                 try {
                     is.close();
@@ -193,16 +262,130 @@ public class HprofBufferShrinker {
         }
     }
 
-    private class HprofInfoCollectVisitor extends HprofVisitor {
+    public void shrinkInOnePass(File hprofIn, File hprofOut) throws IOException {
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(hprofOut);
+            shrinkInOnePass(hprofIn, os);
+        } finally {
+            MatrixUtil.closeQuietly(os);
+        }
+    }
 
-        HprofInfoCollectVisitor() {
-            super(null);
+    /**
+     * Reads {@code hprofIn} only once and writes a provisional dump beside it, in which every primitive array is a
+     * placeholder. Then the provisional dump, which is much smaller, is rewritten into {@code hprofOut} with the
+     * placeholders of the kept arrays filled from {@code hprofIn} and the others dropped. {@code hprofOut} is flushed
+     * but not closed.
+     * <p>
+     * The string and load class records are expected to be ahead of the heap dump records, which is how ART and the
+     * JVM write the dump.
+     * </p>
+     */
+    public void shrinkInOnePass(File hprofIn, OutputStream hprofOut) throws IOException {
+        final File provisionalFile = new File(hprofIn.getPath() + ".provisional");
+        FileInputStream is = null;
+        OutputStream provisionalOs = null;
+        FileInputStream provisionalIs = null;
+        try {
+            is = new FileInputStream(hprofIn);
+            mHprofChannel = is.getChannel();
+            mBytesReadRandomly = 0;
+            final HprofReader reader = new HprofReader(mHprofChannel);
+
+            long phaseStart = System.currentTimeMillis();
+            provisionalOs = new BufferedOutputStream(new FileOutputStream(provisionalFile));
+            reader.accept(new HprofInfoCollectVisitor(new HprofKeptBufferCollectVisitor(reader, new HprofWriter(provisionalOs))));
+            provisionalOs.close();
+            provisionalOs = null;
+            logPhase("collect and write provisional", phaseStart, reader.getPosition());
+
+            phaseStart = System.currentTimeMillis();
+            deduplicateBmpBuffers();
+            logPhase("deduplicate bitmap buffers", phaseStart, mBytesReadRandomly);
+
+            phaseStart = System.currentTimeMillis();
+            mBytesReadRandomly = 0;
+            provisionalIs = new FileInputStream(provisionalFile);
+            final OutputStream os = new BufferedOutputStream(hprofOut);
+            final HprofReader provisionalReader = new HprofReader(provisionalIs.getChannel());
+            provisionalReader.accept(new HprofBufferShrinkVisitor(new HprofWriter(os), true));
+            os.flush();
+            logPhase("patch", phaseStart, provisionalReader.getPosition() + mBytesReadRandomly);
+        } finally {
+            mHprofChannel = null;
+            MatrixUtil.closeQuietly(provisionalOs);
+            MatrixUtil.closeQuietly(provisionalIs);
+            MatrixUtil.closeQuietly(is);
+            provisionalFile.delete();
+        }
+    }
+
+    private static void logPhase(String phase, long startMillis, long bytesRead) {
+        MatrixLog.i(TAG, "shrink phase: %s, use time: %d, read: %dk", phase, System.currentTimeMillis() - startMillis, bytesRead / 1024);
+    }
+
+    /**
+     * Passes the data to the next visitor as it is without copying.
+     */
+    private static class PassThroughVisitor extends HprofVisitor {
+
+        PassThroughVisitor(HprofVisitor hv) {
+            super(hv);
+        }
+
+        @Override
+        public void visitUnconcernedRecord(int tag, int timestamp, long length, ByteBuffer data) {
+            if (hv != null) {
+                hv.visitUnconcernedRecord(tag, timestamp, length, data);
+            }
+        }
+    }
+
+    /**
+     * Passes the data to the next visitor as it is without copying.
+     */
+    private static class PassThroughHeapDumpVisitor extends HprofHeapDumpVisitor {
+
+        PassThroughHeapDumpVisitor(HprofHeapDumpVisitor hdv) {
+            super(hdv);
+        }
+
+        @Override
+        public void visitHeapDumpInstance(ID id, int stackId, ID typeId, ByteBuffer instanceData) {
+            if (hdv != null) {
+                hdv.visitHeapDumpInstance(id, stackId, typeId, instanceData);
+            }
+        }
+
+        @Override
+        public void visitHeapDumpObjectArray(ID id, int stackId, int numElements, ID typeId, ByteBuffer elements) {
+            if (hdv != null) {
+                hdv.visitHeapDumpObjectArray(id, stackId, numElements, typeId, elements);
+            }
+        }
+
+        @Override
+        public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, ByteBuffer elements) {
+            if (hdv != null) {
+                hdv.visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, elements);
+            }
+        }
+    }
+
+    private class HprofInfoCollectVisitor extends PassThroughVisitor {
+
+        HprofInfoCollectVisitor(HprofVisitor hv) {
+            super(hv);
         }
 
         @Override
         public void visitHeader(String text, int idSize, long timestamp) {
+            if (idSize > 8) {
+                throw new IllegalStateException("unsupported id size: " + idSize);
+            }
             mIdSize = idSize;
-            mNullBufferId = ID.createNullID(idSize);
+            super.visitHeader(text, idSize, timestamp);
         }
 
         @Override
@@ -218,6 +401,7 @@ public class HprofBufferShrinker {
             } else if (mValueFieldNameStringId == null && "value".equals(text)) {
                 mValueFieldNameStringId = id;
             }
+            super.visitStringRecord(id, text, timestamp, length);
         }
 
         @Override
@@ -227,11 +411,12 @@ public class HprofBufferShrinker {
             } else if (mStringClassId == null && mStringClassNameStringId != null && mStringClassNameStringId.equals(classNameStringId)) {
                 mStringClassId = classObjectId;
             }
+            super.visitLoadClassRecord(serialNumber, classObjectId, stackTraceSerial, classNameStringId, timestamp, length);
         }
 
         @Override
         public HprofHeapDumpVisitor visitHeapDumpRecord(int tag, int timestamp, long length) {
-            return new HprofHeapDumpVisitor(null) {
+            return new PassThroughHeapDumpVisitor(super.visitHeapDumpRecord(tag, timestamp, length)) {
                 @Override
                 public void visitHeapDumpClass(ID id, int stackSerialNumber, ID superClassId, ID classLoaderId, int instanceSize, Field[] staticFields, Field[] instanceFields) {
                     if (mBmpClassInstanceFields == null && mBmpClassId != null && mBmpClassId.equals(id)) {
@@ -239,124 +424,284 @@ public class HprofBufferShrinker {
                     } else if (mStringClassInstanceFields == null && mStringClassId != null && mStringClassId.equals(id)) {
                         mStringClassInstanceFields = instanceFields;
                     }
+                    super.visitHeapDumpClass(id, stackSerialNumber, superClassId, classLoaderId, instanceSize, staticFields, instanceFields);
                 }
             };
         }
     }
 
-    private class HprofKeptBufferCollectVisitor extends HprofVisitor {
+    /**
+     * Collects the buffers of bitmaps and the values of strings. If there is a next visitor, every primitive array is
+     * passed to it as a placeholder, see {@link #shrinkInOnePass(File, File)}.
+     */
+    private class HprofKeptBufferCollectVisitor extends PassThroughVisitor {
+
+        private final HprofReader mReader;
+        // Instances which are read before the dump of their class, they can only be parsed after that.
+        private final List<ID>     mDeferredInstanceTypeIds = new ArrayList<>();
+        private final List<byte[]> mDeferredInstanceDatas   = new ArrayList<>();
 
-        HprofKeptBufferCollectVisitor() {
-            super(null);
+        HprofKeptBufferCollectVisitor(HprofReader reader, HprofVisitor hv) {
+            super(hv);
+            mReader = reader;
         }
 
         @Override
         public HprofHeapDumpVisitor visitHeapDumpRecord(int tag, int timestamp, long length) {
-            return new HprofHeapDumpVisitor(null) {
+            return new PassThroughHeapDumpVisitor(super.visitHeapDumpRecord(tag, timestamp, length)) {
 
                 @Override
-                public void visitHeapDumpInstance(ID id, int stackId, ID typeId, byte[] instanceData) {
+                public void visitHeapDumpInstance(ID id, int stackId, ID typeId, ByteBuffer instanceData) {
                     try {
                         if (mBmpClassId != null && mBmpClassId.equals(typeId)) {
-                            ID bufferId = null;
-                            Boolean isRecycled = null;
-                            final ByteArrayInputStream bais = new ByteArrayInputStream(instanceData);
-                            for (Field field : mBmpClassInstanceFields) {
-                                final ID fieldNameStringId = field.nameId;
-                                final Type fieldType = Type.getType(field.typeId);
-                                if (fieldType == null) {
-                                    throw new IllegalStateException("visit bmp instance failed, lost type def of typeId: " + field.typeId);
-                                }
-                                if (mMBufferFieldNameStringId.equals(fieldNameStringId)) {
-                                    bufferId = (ID) IOUtil.readValue(bais, fieldType, mIdSize);
-                                } else if (mMRecycledFieldNameStringId.equals(fieldNameStringId)) {
-                                    isRecycled = (Boolean) IOUtil.readValue(bais, fieldType, mIdSize);
-                                } else if (bufferId == null || isRecycled == null) {
-                                    IOUtil.skipValue(bais, fieldType, mIdSize);
-                                } else {
-                                    break;
-                                }
-                            }
-                            bais.close();
-                            final boolean reguardAsNotRecycledBmp = (isRecycled == null || !isRecycled);
-                            if (bufferId != null && reguardAsNotRecycledBmp && !bufferId.equals(mNullBufferId)) {
-                                mBmpBufferIds.add(bufferId);
+                            if (mBmpClassInstanceFields == null) {
+                                defer(typeId, instanceData);
+                            } else {
+                                collectBmpBufferId(instanceData.duplicate());
                             }
                         } else if (mStringClassId != null && mStringClassId.equals(typeId)) {
-                            ID strValueId = null;
-                            final ByteArrayInputStream bais = new ByteArrayInputStream(instanceData);
-                            for (Field field : mStringClassInstanceFields) {
-                                final ID fieldNameStringId = field.nameId;
-                                final Type fieldType = Type.getType(field.typeId);
-                                if (fieldType == null) {
-                                    throw new IllegalStateException("visit string instance failed, lost type def of typeId: " + field.typeId);
-                                }
-                                if (mValueFieldNameStringId.equals(fieldNameStringId)) {
-                                    strValueId = (ID) IOUtil.readValue(bais, fieldType, mIdSize);
-                                } else if (strValueId == null) {
-                                    IOUtil.skipValue(bais, fieldType, mIdSize);
-                                } else {
-                                    break;
-                                }
-                            }
-                            bais.close();
-                            if (strValueId != null && !strValueId.equals(mNullBufferId)) {
-                                mStringValueIds.add(strValueId);
+                            if (mStringClassInstanceFields == null) {
+                                defer(typeId, instanceData);
+                            } else {
+                                collectStringValueId(instanceData.duplicate());
                             }
                         }
                     } catch (Throwable thr) {
                         throw new RuntimeException(thr);
                     }
+                    super.visitHeapDumpInstance(id, stackId, typeId, instanceData);
                 }
 
                 @Override
-                public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, byte[] elements) {
-                    mBufferIdToElementDataMap.put(id, elements);
+                public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, ByteBuffer elements) {
+                    final long offset = mReader.getPosition() - elements.remaining();
+                    // Bitmap buffers are byte arrays, the others can't be deduplicated.
+                    if (typeId == Type.BYTE.getTypeId()) {
+                        final int index = mBufferCount++;
+                        if (index == mBufferIds.length) {
+                            mBufferIds = Arrays.copyOf(mBufferIds, index << 1);
+                            mBufferOffsets = Arrays.copyOf(mBufferOffsets, index << 1);
+                            mBufferLengths = Arrays.copyOf(mBufferLengths, index << 1);
+                        }
+                        mBufferIds[index] = id.toLong();
+                        mBufferOffsets[index] = offset;
+                        mBufferLengths[index] = elements.remaining();
+                    }
+                    if (hdv != null) {
+                        // The placeholder is a long[1] of where the elements are in the dump, which is followed
+                        // by the number of elements and the type.
+                        final ByteBuffer placeholder = ByteBuffer.allocate(8);
+                        placeholder.putLong(0, offset);
+                        hdv.visitHeapDumpPrimitiveArray(tag, id, stackId, 1, Type.LONG.getTypeId(), placeholder);
+                    }
                 }
             };
         }
 
+        private void defer(ID typeId, ByteBuffer instanceData) {
+            mDeferredInstanceTypeIds.add(typeId);
+            mDeferredInstanceDatas.add(IOUtil.toByteArray(instanceData.duplicate()));
+        }
+
         @Override
         public void visitEnd() {
-            final Set<Map.Entry<ID, byte[]>> idDataSet = mBufferIdToElementDataMap.entrySet();
-            final Map<String, ID> duplicateBufferFilterMap = new HashMap<>();
-            for (Map.Entry<ID, byte[]> idDataPair : idDataSet) {
-                final ID bufferId = idDataPair.getKey();
-                final byte[] elementData = idDataPair.getValue();
-                if (!mBmpBufferIds.contains(bufferId)) {
-                    // Discard non-bitmap buffer.
-                    continue;
+            try {
+                for (int i = 0; i < mDeferredInstanceTypeIds.size(); ++i) {
+                    final ByteBuffer instanceData = ByteBuffer.wrap(mDeferredInstanceDatas.get(i));
+                    if (mDeferredInstanceTypeIds.get(i).equals(mBmpClassId)) {
+                        if (mBmpClassInstanceFields != null) {
+                            collectBmpBufferId(instanceData);
+                        }
+                    } else if (mStringClassInstanceFields != null) {
+                        collectStringValueId(instanceData);
+                    }
                 }
-                final String buffMd5 = DigestUtil.getMD5String(elementData);
-                final ID mergedBufferId = duplicateBufferFilterMap.get(buffMd5);
-                if (mergedBufferId == null) {
-                    duplicateBufferFilterMap.put(buffMd5, bufferId);
-                } else {
-                    mBmpBufferIdToDeduplicatedIdMap.put(mergedBufferId, mergedBufferId);
-                    mBmpBufferIdToDeduplicatedIdMap.put(bufferId, mergedBufferId);
+            } catch (Throwable thr) {
+                throw new RuntimeException(thr);
+            }
+            mDeferredInstanceTypeIds.clear();
+            mDeferredInstanceDatas.clear();
+            super.visitEnd();
+        }
+    }
+
+    private void collectBmpBufferId(ByteBuffer bais) {
+        long bufferId = 0;
+        boolean hasBufferId = false;
+        Boolean isRecycled = null;
+        for (Field field : mBmpClassInstanceFields) {
+            final ID fieldNameStringId = field.nameId;
+            final Type fieldType = Type.getType(field.typeId);
+            if (fieldType == null) {
+                throw new IllegalStateException("visit bmp instance failed, lost type def of typeId: " + field.typeId);
+            }
+            if (mMBufferFieldNameStringId.equals(fieldNameStringId)) {
+                bufferId = IOUtil.readIdValue(bais, mIdSize);
+                hasBufferId = true;
+            } else if (mMRecycledFieldNameStringId.equals(fieldNameStringId)) {
+                isRecycled = (Boolean) IOUtil.readValue(bais, fieldType, mIdSize);
+            } else if (!hasBufferId || isRecycled == null) {
+                IOUtil.skipValue(bais, fieldType, mIdSize);
+            } else {
+                break;
+            }
+        }
+        final boolean reguardAsNotRecycledBmp = (isRecycled == null || !isRecycled);
+        if (bufferId != 0 && reguardAsNotRecycledBmp) {
+            mBmpBufferIds.add(bufferId);
+        }
+    }
+
+    private void collectStringValueId(ByteBuffer bais) {
+        long strValueId = 0;
+        boolean hasStrValueId = false;
+        for (Field field : mStringClassInstanceFields) {
+            final ID fieldNameStringId = field.nameId;
+            final Type fieldType = Type.getType(field.typeId);
+            if (fieldType == null) {
+                throw new IllegalStateException("visit string instance failed, lost type def of typeId: " + field.typeId);
+            }
+            if (mValueFieldNameStringId.equals(fieldNameStringId)) {
+                strValueId = IOUtil.readIdValue(bais, mIdSize);
+                hasStrValueId = true;
+            } else if (!hasStrValueId) {
+                IOUtil.skipValue(bais, fieldType, mIdSize);
+            } else {
+                break;
+            }
+        }
+        if (strValueId != 0) {
+            mStringValueIds.add(strValueId);
+        }
+    }
+
+    /**
+     * Only the bitmap buffers are read back from the dump. Buffers with the same hash are compared byte by byte, and
+     * the first one of the same buffers in the dump is kept.
+     * <p>
+     * The buffers are read by positional reads into two chunks which are reused for all of them. Mapping every buffer
+     * would hold its address space until the mapping is collected, which runs out on 32-bit devices for large hprofs.
+     * </p>
+     */
+    private void deduplicateBmpBuffers() throws IOException {
+        final ByteBuffer chunk = ByteBuffer.allocate(BUFFER_CHUNK_SIZE);
+        final ByteBuffer otherChunk = ByteBuffer.allocate(BUFFER_CHUNK_SIZE);
+        final Map<Long, List<Integer>> hashToBufferIndexesMap = new HashMap<>();
+        for (int i = 0; i < mBufferCount; ++i) {
+            final long bufferId = mBufferIds[i];
+            if (!mBmpBufferIds.contains(bufferId)) {
+                // Discard non-bitmap buffer.
+                continue;
+            }
+            final long hash = hashBuffer(i, chunk);
+            List<Integer> sameHashIndexes = hashToBufferIndexesMap.get(hash);
+            if (sameHashIndexes == null) {
+                sameHashIndexes = new ArrayList<>(1);
+                hashToBufferIndexesMap.put(hash, sameHashIndexes);
+            }
+            long mergedBufferId = 0;
+            for (int mergedIndex : sameHashIndexes) {
+                if (mBufferLengths[mergedIndex] == mBufferLengths[i] && isSameBuffer(mergedIndex, i, chunk, otherChunk)) {
+                    mergedBufferId = mBufferIds[mergedIndex];
+                    break;
                 }
             }
-            // Save memory cost.
-            mBufferIdToElementDataMap.clear();
+            if (mergedBufferId == 0) {
+                sameHashIndexes.add(i);
+            } else {
+                mBmpBufferIdToDeduplicatedIdMap.put(mergedBufferId, mergedBufferId);
+                mBmpBufferIdToDeduplicatedIdMap.put(bufferId, mergedBufferId);
+            }
+        }
+        // Save memory cost.
+        mBufferCount = 0;
+        mBufferIds = new long[0];
+        mBufferOffsets = new long[0];
+        mBufferLengths = new int[0];
+    }
+
+    /**
+     * The size of the chunk is a multiple of 8, so only the last chunk of a buffer has the bytes less than a long.
+     */
+    private long hashBuffer(int index, ByteBuffer chunk) throws IOException {
+        final long offset = mBufferOffsets[index];
+        final int length = mBufferLengths[index];
+        long hash = 0xCBF29CE484222325L ^ length;
+        for (int done = 0; done < length; done += chunk.limit()) {
+            readChunk(offset + done, Math.min(chunk.capacity(), length - done), chunk);
+            while (chunk.remaining() >= 8) {
+                hash = (hash ^ chunk.getLong()) * 0x9E3779B97F4A7C15L;
+                hash ^= hash >>> 29;
+            }
+            while (chunk.hasRemaining()) {
+                hash = (hash ^ chunk.get()) * 0x9E3779B97F4A7C15L;
+            }
+        }
+        return hash ^ (hash >>> 32);
+    }
+
+    /**
+     * Both buffers must be of the same length.
+     */
+    private boolean isSameBuffer(int index, int otherIndex, ByteBuffer chunk, ByteBuffer otherChunk) throws IOException {
+        final int length = mBufferLengths[index];
+        for (int done = 0; done < length; done += chunk.limit()) {
+            final int size = Math.min(chunk.capacity(), length - done);
+            readChunk(mBufferOffsets[index] + done, size, chunk);
+            readChunk(mBufferOffsets[otherIndex] + done, size, otherChunk);
+            if (!chunk.equals(otherChunk)) {
+                return false;
+            }
         }
+        return true;
     }
 
-    private class HprofBufferShrinkVisitor extends HprofVisitor {
+    private void readChunk(long position, int size, ByteBuffer chunk) throws IOException {
+        chunk.clear();
+        chunk.limit(size);
+        while (chunk.hasRemaining()) {
+            if (mHprofChannel.read(chunk, position + chunk.position()) < 0) {
+                throw new EOFException("unexpected end of hprof at " + (position + chunk.position()));
+            }
+        }
+        chunk.flip();
+        mBytesReadRandomly += size;
+    }
+
+    private class HprofBufferShrinkVisitor extends PassThroughVisitor {
+
+        private final boolean mResolvePlaceholders;
+        // The placeholders are in the same order as the arrays in the dump, so it mostly moves forward.
+        private HprofInput.ChannelInput mArrayInput = null;
 
-        HprofBufferShrinkVisitor(HprofWriter hprofWriter) {
+        HprofBufferShrinkVisitor(HprofWriter hprofWriter, boolean resolvePlaceholders) {
             super(hprofWriter);
+            mResolvePlaceholders = resolvePlaceholders;
+        }
+
+        /**
+         * @return the input positioned at the number of elements of the array whose elements start at {@code offset}.
+         */
+        private HprofInput seekArrayInput(long offset) throws IOException {
+            final long headerOffset = offset - 5;
+            if (mArrayInput == null || mArrayInput.position() > headerOffset) {
+                mArrayInput = new HprofInput.ChannelInput(mHprofChannel, headerOffset);
+            } else {
+                mArrayInput.skip(headerOffset - mArrayInput.position());
+            }
+            return mArrayInput;
         }
 
         @Override
         public HprofHeapDumpVisitor visitHeapDumpRecord(int tag, int timestamp, long length) {
-            return new HprofHeapDumpVisitor(super.visitHeapDumpRecord(tag, timestamp, length)) {
+            return new PassThroughHeapDumpVisitor(super.visitHeapDumpRecord(tag, timestamp, length)) {
                 @Override
-                public void visitHeapDumpInstance(ID id, int stackId, ID typeId, byte[] instanceData) {
+                public void visitHeapDumpInstance(ID id, int stackId, ID typeId, ByteBuffer instanceData) {
                     try {
                         if (typeId.equals(mBmpClassId)) {
-                            ID bufferId = null;
+                            long bufferId = 0;
                             int bufferIdPos = 0;
-                            final ByteArrayInputStream bais = new ByteArrayInputStream(instanceData);
+                            final ByteBuffer bais = instanceData.duplicate();
                             for (Field field : mBmpClassInstanceFields) {
                                 final ID fieldNameStringId = field.nameId;
                                 final Type fieldType = Type.getType(field.typeId);
@@ -364,16 +709,20 @@ public class HprofBufferShrinker {
                                     throw new IllegalStateException("visit instance failed, lost type def of typeId: " + field.typeId);
                                 }
                                 if (mMBufferFieldNameStringId.equals(fieldNameStringId)) {
-                                    bufferId = (ID) IOUtil.readValue(bais, fieldType, mIdSize);
+                                    bufferId = IOUtil.readIdValue(bais, mIdSize);
                                     break;
                                 } else {
                                     bufferIdPos += IOUtil.skipValue(bais, fieldType, mIdSize);
                                 }
                             }
-                            if (bufferId != null) {
-                                final ID deduplicatedId = mBmpBufferIdToDeduplicatedIdMap.get(bufferId);
-                                if (deduplicatedId != null && !bufferId.equals(deduplicatedId) && !bufferId.equals(mNullBufferId)) {
-                                    modifyIdInBuffer(instanceData, bufferIdPos, deduplicatedId);
+                            if (bufferId != 0) {
+                                final long deduplicatedId = mBmpBufferIdToDeduplicatedIdMap.get(bufferId, bufferId);
+                                if (deduplicatedId != bufferId) {
+                                    // The view is read-only, so modify a copy.
+                                    final byte[] modifiedData = IOUtil.toByteArray(instanceData);
+                                    modifyIdInBuffer(modifiedData, bufferIdPos, deduplicatedId);
+                                    super.visitHeapDumpInstance(id, stackId, typeId, modifiedData);
+                                    return;
                                 }
                             }
                         }
@@ -383,22 +732,42 @@ public class HprofBufferShrinker {
                     super.visitHeapDumpInstance(id, stackId, typeId, instanceData);
                 }
 
-                private void modifyIdInBuffer(byte[] buf, int off, ID newId) {
+                private void modifyIdInBuffer(byte[] buf, int off, long newId) {
                     final ByteBuffer bBuf = ByteBuffer.wrap(buf);
                     bBuf.position(off);
-                    bBuf.put(newId.getBytes());
+                    IOUtil.writeIdValue(bBuf, newId, mIdSize);
                 }
 
                 @Override
-                public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, byte[] elements) {
-                    final ID deduplicatedID = mBmpBufferIdToDeduplicatedIdMap.get(id);
+                public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, ByteBuffer elements) {
+                    final long bufferId = id.toLong();
                     // Discard non-bitmap or duplicated bitmap buffer but keep reference key.
-                    if (deduplicatedID == null || !id.equals(deduplicatedID)) {
-                        if (!mStringValueIds.contains(id)) {
+                    if (mBmpBufferIdToDeduplicatedIdMap.get(bufferId, 0) != bufferId) {
+                        if (!mStringValueIds.contains(bufferId)) {
                             return;
                         }
                     }
-                    super.visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, elements);
+                    if (hdv == null) {
+                        return;
+                    }
+                    if (!mResolvePlaceholders) {
+                        hdv.visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, elements);
+                        return;
+                    }
+                    try {
+                        final HprofInput in = seekArrayInput(elements.getLong(0));
+                        final int realNumElements = in.readBEInt();
+                        final int realTypeId = in.readU1();
+                        final Type type = Type.getType(realTypeId);
+                        if (type == null) {
+                            throw new IllegalStateException("patch primitive array failed, lost type def of typeId: " + realTypeId);
+                        }
+                        final int length = realNumElements * type.getSize(mIdSize);
+                        mBytesReadRandomly += 5 + length;
+                        hdv.visitHeapDumpPrimitiveArray(tag, id, stackId, realNumElements, realTypeId, in.readView(length));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
                 }
             };
         }
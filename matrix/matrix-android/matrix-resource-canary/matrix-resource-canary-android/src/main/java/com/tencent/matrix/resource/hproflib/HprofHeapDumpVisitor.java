@@ -18,9 +18,16 @@ package com.tencent.matrix.resource.hproflib;
 
 import com.tencent.matrix.resource.hproflib.model.Field;
 import com.tencent.matrix.resource.hproflib.model.ID;
+import com.tencent.matrix.resource.hproflib.utils.IOUtil;
+
+import java.nio.ByteBuffer;
 
 /**
  * Created by tangyinsheng on 2017/6/28.
+ *
+ * {@link HprofReader} calls the methods which take a {@link ByteBuffer}, the buffer is a view of the dump and is only
+ * valid during the call. Override them to avoid copying, by default the data is copied and passed to the methods
+ * which take a byte array.
  */
 
 @SuppressWarnings("unused")
@@ -86,6 +93,10 @@ public class HprofHeapDumpVisitor {
         }
     }
 
+    public void visitHeapDumpInstance(ID id, int stackId, ID typeId, ByteBuffer instanceData) {
+        visitHeapDumpInstance(id, stackId, typeId, IOUtil.toByteArray(instanceData));
+    }
+
     public void visitHeapDumpJniMonitor(ID id, int threadSerialNumber, int stackDepth) {
         if (this.hdv != null) {
             this.hdv.visitHeapDumpJniMonitor(id, threadSerialNumber, stackDepth);
@@ -98,12 +109,20 @@ public class HprofHeapDumpVisitor {
         }
     }
 
+    public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, ByteBuffer elements) {
+        visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, IOUtil.toByteArray(elements));
+    }
+
     public void visitHeapDumpObjectArray(ID id, int stackId, int numElements, ID typeId, byte[] elements) {
         if (this.hdv != null) {
             this.hdv.visitHeapDumpObjectArray(id, stackId, numElements, typeId, elements);
         }
     }
 
+    public void visitHeapDumpObjectArray(ID id, int stackId, int numElements, ID typeId, ByteBuffer elements) {
+        visitHeapDumpObjectArray(id, stackId, numElements, typeId, IOUtil.toByteArray(elements));
+    }
+
     public void visitEnd() {
         if (this.hdv != null) {
             this.hdv.visitEnd();
@@ -0,0 +1,310 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.hproflib;
+
+import com.tencent.matrix.resource.hproflib.model.ID;
+import com.tencent.matrix.resource.hproflib.model.Type;
+import com.tencent.matrix.resource.hproflib.utils.IOUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The source which {@link HprofReader} reads from, all of the values are big-endian.
+ */
+abstract class HprofInput {
+
+    abstract int readU1() throws IOException;
+
+    abstract short readBEShort() throws IOException;
+
+    abstract int readBEInt() throws IOException;
+
+    abstract long readBELong() throws IOException;
+
+    abstract ID readID(int idSize) throws IOException;
+
+    abstract Object readValue(Type type, int idSize) throws IOException;
+
+    abstract String readString(long length) throws IOException;
+
+    abstract void skip(long n) throws IOException;
+
+    /**
+     * @return the next {@code length} bytes, it may share the content with the input so it's only valid until the
+     * next read.
+     */
+    abstract ByteBuffer readView(int length) throws IOException;
+
+    abstract long available() throws IOException;
+
+    /**
+     * @return the offset of the next byte to read from where the input starts.
+     */
+    abstract long position();
+
+    String readNullTerminatedString() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int c = readU1(); c != 0; c = readU1()) {
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    static final class StreamInput extends HprofInput {
+        private final InputStream mStreamIn;
+        private long mPosition;
+
+        StreamInput(InputStream in) {
+            mStreamIn = in;
+        }
+
+        @Override
+        int readU1() throws IOException {
+            final int b = mStreamIn.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            ++mPosition;
+            return b;
+        }
+
+        @Override
+        short readBEShort() throws IOException {
+            final short value = IOUtil.readBEShort(mStreamIn);
+            mPosition += 2;
+            return value;
+        }
+
+        @Override
+        int readBEInt() throws IOException {
+            final int value = IOUtil.readBEInt(mStreamIn);
+            mPosition += 4;
+            return value;
+        }
+
+        @Override
+        long readBELong() throws IOException {
+            final long value = IOUtil.readBELong(mStreamIn);
+            mPosition += 8;
+            return value;
+        }
+
+        @Override
+        ID readID(int idSize) throws IOException {
+            final ID id = IOUtil.readID(mStreamIn, idSize);
+            mPosition += idSize;
+            return id;
+        }
+
+        @Override
+        Object readValue(Type type, int idSize) throws IOException {
+            final Object value = IOUtil.readValue(mStreamIn, type, idSize);
+            mPosition += type.getSize(idSize);
+            return value;
+        }
+
+        @Override
+        String readString(long length) throws IOException {
+            final String text = IOUtil.readString(mStreamIn, length);
+            mPosition += length;
+            return text;
+        }
+
+        @Override
+        void skip(long n) throws IOException {
+            IOUtil.skip(mStreamIn, n);
+            mPosition += n;
+        }
+
+        @Override
+        ByteBuffer readView(int length) throws IOException {
+            final byte[] data = new byte[length];
+            IOUtil.readFully(mStreamIn, data, 0, length);
+            mPosition += length;
+            return ByteBuffer.wrap(data);
+        }
+
+        @Override
+        long available() throws IOException {
+            return mStreamIn.available();
+        }
+
+        @Override
+        long position() {
+            return mPosition;
+        }
+    }
+
+    /**
+     * Reads the file window by window into a heap buffer which is reused for every window, so files larger than 2GB
+     * can be read as well. The views not larger than a window are slices of it and no bytes are copied again, the
+     * larger ones are read into a buffer of their own.
+     * <p>
+     * The file is read by positional reads instead of being mapped, since a mapping holds its address space until
+     * it's collected, and moving a mapped window over a large hprof runs out of it on 32-bit devices.
+     * </p>
+     */
+    static final class ChannelInput extends HprofInput {
+        private static final int WINDOW_SIZE = 1024 * 1024;
+
+        private final FileChannel mChannel;
+        private final long mSize;
+        private final ByteBuffer mWindow = ByteBuffer.allocate(WINDOW_SIZE);
+        private long mWindowStart;
+
+        ChannelInput(FileChannel channel, long position) throws IOException {
+            mChannel = channel;
+            mSize = channel.size();
+            fill(position);
+        }
+
+        private void fill(long position) throws IOException {
+            mWindow.clear();
+            mWindow.limit((int) Math.min(mWindow.capacity(), mSize - position));
+            readFully(position, mWindow);
+            mWindowStart = position;
+        }
+
+        private void readFully(long position, ByteBuffer dst) throws IOException {
+            final int start = dst.position();
+            while (dst.hasRemaining()) {
+                if (mChannel.read(dst, position + dst.position() - start) < 0) {
+                    throw new EOFException();
+                }
+            }
+            dst.flip();
+            dst.position(start);
+        }
+
+        @Override
+        long position() {
+            return mWindowStart + mWindow.position();
+        }
+
+        /**
+         * @param n not larger than {@link #WINDOW_SIZE}
+         */
+        private void ensure(int n) throws IOException {
+            if (mWindow.remaining() >= n) {
+                return;
+            }
+            final long position = position();
+            if (position + n > mSize) {
+                throw new EOFException();
+            }
+            fill(position);
+        }
+
+        /**
+         * @return the next {@code length} bytes which are larger than a window, read into a buffer of their own.
+         */
+        private ByteBuffer readLarge(int length) throws IOException {
+            final long position = position();
+            if (position + length > mSize) {
+                throw new EOFException();
+            }
+            final ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(position, data);
+            skip(length);
+            return data;
+        }
+
+        @Override
+        int readU1() throws IOException {
+            ensure(1);
+            return mWindow.get() & 0xFF;
+        }
+
+        @Override
+        short readBEShort() throws IOException {
+            ensure(2);
+            return mWindow.getShort();
+        }
+
+        @Override
+        int readBEInt() throws IOException {
+            ensure(4);
+            return mWindow.getInt();
+        }
+
+        @Override
+        long readBELong() throws IOException {
+            ensure(8);
+            return mWindow.getLong();
+        }
+
+        @Override
+        ID readID(int idSize) throws IOException {
+            ensure(idSize);
+            return IOUtil.readID(mWindow, idSize);
+        }
+
+        @Override
+        Object readValue(Type type, int idSize) throws IOException {
+            ensure(type.getSize(idSize));
+            return IOUtil.readValue(mWindow, type, idSize);
+        }
+
+        @Override
+        String readString(long length) throws IOException {
+            final byte[] buf;
+            if (length > WINDOW_SIZE) {
+                buf = readLarge((int) length).array();
+            } else {
+                ensure((int) length);
+                buf = new byte[(int) length];
+                mWindow.get(buf);
+            }
+            return new String(buf, Charset.forName("UTF-8"));
+        }
+
+        @Override
+        void skip(long n) throws IOException {
+            final long position = position() + n;
+            if (position > mSize) {
+                throw new EOFException();
+            }
+            if (position - mWindowStart <= mWindow.limit()) {
+                mWindow.position((int) (position - mWindowStart));
+            } else {
+                fill(position);
+            }
+        }
+
+        @Override
+        ByteBuffer readView(int length) throws IOException {
+            if (length > WINDOW_SIZE) {
+                return readLarge(length);
+            }
+            ensure(length);
+            final ByteBuffer view = mWindow.slice();
+            view.limit(length);
+            mWindow.position(mWindow.position() + length);
+            return view;
+        }
+
+        @Override
+        long available() {
+            return mSize - position();
+        }
+    }
+}
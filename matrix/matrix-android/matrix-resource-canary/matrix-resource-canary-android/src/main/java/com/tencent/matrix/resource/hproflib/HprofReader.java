@@ -19,11 +19,12 @@ package com.tencent.matrix.resource.hproflib;
 import com.tencent.matrix.resource.hproflib.model.Field;
 import com.tencent.matrix.resource.hproflib.model.ID;
 import com.tencent.matrix.resource.hproflib.model.Type;
-import com.tencent.matrix.resource.hproflib.utils.IOUtil;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Created by tangyinsheng on 2017/6/25.
@@ -31,25 +32,54 @@ import java.io.InputStream;
 
 public class HprofReader {
     private final InputStream mStreamIn;
+    private final FileChannel mChannel;
+    private final long mChannelStart;
+    private HprofInput mIn;
     private int mIdSize = 0;
 
     public HprofReader(InputStream in) {
         mStreamIn = in;
+        mChannel = null;
+        mChannelStart = 0;
+    }
+
+    /**
+     * Reads the file from the current position of {@code channel} window by window, instance data and arrays are
+     * handed to the visitors as views of the window without copying. Every {@link #accept(HprofVisitor)} reads from
+     * that position again.
+     */
+    public HprofReader(FileChannel channel) throws IOException {
+        mStreamIn = null;
+        mChannel = channel;
+        mChannelStart = channel.position();
     }
 
     public void accept(HprofVisitor hv) throws IOException {
+        if (mChannel != null) {
+            mIn = new HprofInput.ChannelInput(mChannel, mChannelStart);
+        } else if (mIn == null) {
+            mIn = new HprofInput.StreamInput(mStreamIn);
+        }
         acceptHeader(hv);
         acceptRecord(hv);
         hv.visitEnd();
     }
 
+    /**
+     * @return the offset in the file of the next byte to read, so in a visitor callback it's where the data handed
+     * to the callback ends. For a reader of {@link InputStream} it counts from where the stream starts.
+     */
+    public long getPosition() {
+        return mIn == null ? 0 : mIn.position();
+    }
+
     private void acceptHeader(HprofVisitor hv) throws IOException {
-        final String text = IOUtil.readNullTerminatedString(mStreamIn);
-        final int idSize = IOUtil.readBEInt(mStreamIn);
+        final String text = mIn.readNullTerminatedString();
+        final int idSize = mIn.readBEInt();
         if (idSize <= 0 || idSize >= (Integer.MAX_VALUE >> 1)) {
             throw new IOException("bad idSize: " + idSize);
         }
-        final long timestamp = IOUtil.readBELong(mStreamIn);
+        final long timestamp = mIn.readBELong();
         mIdSize = idSize;
         hv.visitHeader(text, idSize, timestamp);
     }
@@ -57,9 +87,9 @@ public class HprofReader {
     private void acceptRecord(HprofVisitor hv) throws IOException {
         try {
             while (true) {
-                final int tag = mStreamIn.read();
-                final int timestamp = IOUtil.readBEInt(mStreamIn);
-                final long length = IOUtil.readBEInt(mStreamIn) & 0x00000000FFFFFFFFL;
+                final int tag = mIn.readU1();
+                final int timestamp = mIn.readBEInt();
+                final long length = mIn.readBEInt() & 0x00000000FFFFFFFFL;
                 switch (tag) {
                     case HprofConstants.RECORD_TAG_STRING:
                         acceptStringRecord(timestamp, length, hv);
@@ -97,36 +127,36 @@ public class HprofReader {
     }
 
     private void acceptStringRecord(int timestamp, long length, HprofVisitor hv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final String text = IOUtil.readString(mStreamIn, length - mIdSize);
+        final ID id = mIn.readID(mIdSize);
+        final String text = mIn.readString(length - mIdSize);
         hv.visitStringRecord(id, text, timestamp, length);
     }
 
     private void acceptLoadClassRecord(int timestamp, long length, HprofVisitor hv) throws IOException {
-        final int serialNumber = IOUtil.readBEInt(mStreamIn);
-        final ID classObjectId = IOUtil.readID(mStreamIn, mIdSize);
-        final int stackTraceSerial = IOUtil.readBEInt(mStreamIn);
-        final ID classNameStringId = IOUtil.readID(mStreamIn, mIdSize);
+        final int serialNumber = mIn.readBEInt();
+        final ID classObjectId = mIn.readID(mIdSize);
+        final int stackTraceSerial = mIn.readBEInt();
+        final ID classNameStringId = mIn.readID(mIdSize);
         hv.visitLoadClassRecord(serialNumber, classObjectId, stackTraceSerial, classNameStringId, timestamp, length);
     }
 
     private void acceptStackFrameRecord(int timestamp, long length, HprofVisitor hv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final ID methodNameId = IOUtil.readID(mStreamIn, mIdSize);
-        final ID methodSignatureId = IOUtil.readID(mStreamIn, mIdSize);
-        final ID sourceFileId = IOUtil.readID(mStreamIn, mIdSize);
-        final int serial = IOUtil.readBEInt(mStreamIn);
-        final int lineNumber = IOUtil.readBEInt(mStreamIn);
+        final ID id = mIn.readID(mIdSize);
+        final ID methodNameId = mIn.readID(mIdSize);
+        final ID methodSignatureId = mIn.readID(mIdSize);
+        final ID sourceFileId = mIn.readID(mIdSize);
+        final int serial = mIn.readBEInt();
+        final int lineNumber = mIn.readBEInt();
         hv.visitStackFrameRecord(id, methodNameId, methodSignatureId, sourceFileId, serial, lineNumber, timestamp, length);
     }
 
     private void acceptStackTraceRecord(int timestamp, long length, HprofVisitor hv) throws IOException {
-        final int serialNumber = IOUtil.readBEInt(mStreamIn);
-        final int threadSerialNumber = IOUtil.readBEInt(mStreamIn);
-        final int numFrames = IOUtil.readBEInt(mStreamIn);
+        final int serialNumber = mIn.readBEInt();
+        final int threadSerialNumber = mIn.readBEInt();
+        final int numFrames = mIn.readBEInt();
         final ID[] frameIds = new ID[numFrames];
         for (int i = 0; i < numFrames; ++i) {
-            frameIds[i] = IOUtil.readID(mStreamIn, mIdSize);
+            frameIds[i] = mIn.readID(mIdSize);
         }
         hv.visitStackTraceRecord(serialNumber, threadSerialNumber, frameIds, timestamp, length);
     }
@@ -134,20 +164,20 @@ public class HprofReader {
     private void acceptHeapDumpRecord(int tag, int timestamp, long length, HprofVisitor hv) throws IOException {
         final HprofHeapDumpVisitor hdv = hv.visitHeapDumpRecord(tag, timestamp, length);
         if (hdv == null) {
-            IOUtil.skip(mStreamIn, length);
+            mIn.skip(length);
             return;
         }
         while (length > 0) {
-            final int heapDumpTag = mStreamIn.read();
+            final int heapDumpTag = mIn.readU1();
             --length;
             switch (heapDumpTag) {
                 case HprofConstants.HEAPDUMP_ROOT_UNKNOWN:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_JNI_GLOBAL:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
-                    IOUtil.skip(mStreamIn, mIdSize);   //  ignored
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
+                    mIn.skip(mIdSize);   //  ignored
                     length -= (mIdSize << 1);
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_JNI_LOCAL:
@@ -160,14 +190,14 @@ public class HprofReader {
                     length -= acceptNativeStack(hdv);
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_STICKY_CLASS:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_THREAD_BLOCK:
                     length -= acceptThreadBlock(hdv);
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_MONITOR_USED:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_THREAD_OBJECT:
@@ -192,36 +222,36 @@ public class HprofReader {
                     length -= acceptHeapDumpInfo(hdv);
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_INTERNED_STRING:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_FINALIZING:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_DEBUGGER:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_REFERENCE_CLEANUP:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_VM_INTERNAL:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_JNI_MONITOR:
                     length -= acceptJniMonitor(hdv);
                     break;
                 case HprofConstants.HEAPDUMP_ROOT_UNREACHABLE:
-                    hdv.visitHeapDumpBasicObj(heapDumpTag, IOUtil.readID(mStreamIn, mIdSize));
+                    hdv.visitHeapDumpBasicObj(heapDumpTag, mIn.readID(mIdSize));
                     length -= mIdSize;
                     break;
                 default:
                     throw new IllegalArgumentException(
                             "acceptHeapDumpRecord loop with unknown tag " + heapDumpTag
-                                    + " with " + mStreamIn.available()
+                                    + " with " + mIn.available()
                                     + " bytes possibly remaining");
             }
         }
@@ -229,97 +259,96 @@ public class HprofReader {
     }
 
     private void acceptUnconcernedRecord(int tag, int timestamp, long length, HprofVisitor hv) throws IOException {
-        final byte[] data = new byte[(int) length];
-        IOUtil.readFully(mStreamIn, data, 0, length);
+        final ByteBuffer data = mIn.readView((int) length);
         hv.visitUnconcernedRecord(tag, timestamp, length, data);
     }
 
     private int acceptHeapDumpInfo(HprofHeapDumpVisitor hdv) throws IOException {
-        final int heapId = IOUtil.readBEInt(mStreamIn);
-        final ID heapNameId = IOUtil.readID(mStreamIn, mIdSize);
+        final int heapId = mIn.readBEInt();
+        final ID heapNameId = mIn.readID(mIdSize);
         hdv.visitHeapDumpInfo(heapId, heapNameId);
         return 4 + mIdSize;
     }
 
     private int acceptJniLocal(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int threadSerialNumber = IOUtil.readBEInt(mStreamIn);
-        final int stackFrameNumber = IOUtil.readBEInt(mStreamIn);
+        final ID id = mIn.readID(mIdSize);
+        final int threadSerialNumber = mIn.readBEInt();
+        final int stackFrameNumber = mIn.readBEInt();
         hdv.visitHeapDumpJniLocal(id, threadSerialNumber, stackFrameNumber);
         return mIdSize + 4 + 4;
     }
 
     private int acceptJavaFrame(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int threadSerialNumber = IOUtil.readBEInt(mStreamIn);
-        final int stackFrameNumber = IOUtil.readBEInt(mStreamIn);
+        final ID id = mIn.readID(mIdSize);
+        final int threadSerialNumber = mIn.readBEInt();
+        final int stackFrameNumber = mIn.readBEInt();
         hdv.visitHeapDumpJavaFrame(id, threadSerialNumber, stackFrameNumber);
         return mIdSize + 4 + 4;
     }
 
     private int acceptNativeStack(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int threadSerialNumber = IOUtil.readBEInt(mStreamIn);
+        final ID id = mIn.readID(mIdSize);
+        final int threadSerialNumber = mIn.readBEInt();
         hdv.visitHeapDumpNativeStack(id, threadSerialNumber);
         return mIdSize + 4;
     }
 
     private int acceptThreadBlock(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int threadSerialNumber = IOUtil.readBEInt(mStreamIn);
+        final ID id = mIn.readID(mIdSize);
+        final int threadSerialNumber = mIn.readBEInt();
         hdv.visitHeapDumpThreadBlock(id, threadSerialNumber);
         return mIdSize + 4;
     }
 
     private int acceptThreadObject(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int threadSerialNumber = IOUtil.readBEInt(mStreamIn);
-        final int stackFrameNumber = IOUtil.readBEInt(mStreamIn);
+        final ID id = mIn.readID(mIdSize);
+        final int threadSerialNumber = mIn.readBEInt();
+        final int stackFrameNumber = mIn.readBEInt();
         hdv.visitHeapDumpThreadObject(id, threadSerialNumber, stackFrameNumber);
         return mIdSize + 4 + 4;
     }
 
     private int acceptClassDump(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int stackSerialNumber = IOUtil.readBEInt(mStreamIn);
-        final ID superClassId = IOUtil.readID(mStreamIn, mIdSize);
-        final ID classLoaderId = IOUtil.readID(mStreamIn, mIdSize);
-        IOUtil.skip(mStreamIn, (mIdSize << 2));
-        final int instanceSize = IOUtil.readBEInt(mStreamIn);
+        final ID id = mIn.readID(mIdSize);
+        final int stackSerialNumber = mIn.readBEInt();
+        final ID superClassId = mIn.readID(mIdSize);
+        final ID classLoaderId = mIn.readID(mIdSize);
+        mIn.skip((mIdSize << 2));
+        final int instanceSize = mIn.readBEInt();
 
         int bytesRead = (7 * mIdSize) + 4 + 4;
 
         //  Skip over the constant pool
-        int numEntries = IOUtil.readBEShort(mStreamIn);
+        int numEntries = mIn.readBEShort();
         bytesRead += 2;
         for (int i = 0; i < numEntries; ++i) {
-            IOUtil.skip(mStreamIn, 2);
+            mIn.skip(2);
             bytesRead += 2 + skipValue();
         }
 
         //  Static fields
-        numEntries = IOUtil.readBEShort(mStreamIn);
+        numEntries = mIn.readBEShort();
         Field[] staticFields = new Field[numEntries];
         bytesRead += 2;
         for (int i = 0; i < numEntries; ++i) {
-            final ID nameId = IOUtil.readID(mStreamIn, mIdSize);
-            final int typeId = mStreamIn.read();
+            final ID nameId = mIn.readID(mIdSize);
+            final int typeId = mIn.readU1();
             final Type type = Type.getType(typeId);
             if (type == null) {
                 throw new IllegalStateException("accept class failed, lost type def of typeId: " + typeId);
             }
-            final Object staticValue = IOUtil.readValue(mStreamIn, type, mIdSize);
+            final Object staticValue = mIn.readValue(type, mIdSize);
             staticFields[i] = new Field(typeId, nameId, staticValue);
             bytesRead += mIdSize + 1 + type.getSize(mIdSize);
         }
 
         //  Instance fields
-        numEntries = IOUtil.readBEShort(mStreamIn);
+        numEntries = mIn.readBEShort();
         final Field[] instanceFields = new Field[numEntries];
         bytesRead += 2;
         for (int i = 0; i < numEntries; i++) {
-            final ID nameId = IOUtil.readID(mStreamIn, mIdSize);
-            final int typeId = mStreamIn.read();
+            final ID nameId = mIn.readID(mIdSize);
+            final int typeId = mIn.readU1();
             instanceFields[i] = new Field(typeId, nameId, null);
             bytesRead += mIdSize + 1;
         }
@@ -330,60 +359,57 @@ public class HprofReader {
     }
 
     private int acceptInstanceDump(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int stackId = IOUtil.readBEInt(mStreamIn);
-        final ID typeId = IOUtil.readID(mStreamIn, mIdSize);
-        final int remaining = IOUtil.readBEInt(mStreamIn);
-        final byte[] instanceData = new byte[remaining];
-        IOUtil.readFully(mStreamIn, instanceData, 0, remaining);
+        final ID id = mIn.readID(mIdSize);
+        final int stackId = mIn.readBEInt();
+        final ID typeId = mIn.readID(mIdSize);
+        final int remaining = mIn.readBEInt();
+        final ByteBuffer instanceData = mIn.readView(remaining);
         hdv.visitHeapDumpInstance(id, stackId, typeId, instanceData);
         return mIdSize + 4 + mIdSize + 4 + remaining;
     }
 
     private int acceptObjectArrayDump(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int stackId = IOUtil.readBEInt(mStreamIn);
-        final int numElements = IOUtil.readBEInt(mStreamIn);
-        final ID typeId = IOUtil.readID(mStreamIn, mIdSize);
+        final ID id = mIn.readID(mIdSize);
+        final int stackId = mIn.readBEInt();
+        final int numElements = mIn.readBEInt();
+        final ID typeId = mIn.readID(mIdSize);
         final int remaining = numElements * mIdSize;
-        final byte[] elements = new byte[remaining];
-        IOUtil.readFully(mStreamIn, elements, 0, remaining);
+        final ByteBuffer elements = mIn.readView(remaining);
         hdv.visitHeapDumpObjectArray(id, stackId, numElements, typeId, elements);
         return mIdSize + 4 + 4 + mIdSize + remaining;
     }
 
     private int acceptPrimitiveArrayDump(int tag, HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int stackId = IOUtil.readBEInt(mStreamIn);
-        final int numElements = IOUtil.readBEInt(mStreamIn);
-        final int typeId = mStreamIn.read();
+        final ID id = mIn.readID(mIdSize);
+        final int stackId = mIn.readBEInt();
+        final int numElements = mIn.readBEInt();
+        final int typeId = mIn.readU1();
         final Type type = Type.getType(typeId);
         if (type == null) {
             throw new IllegalStateException("accept primitive array failed, lost type def of typeId: " + typeId);
         }
         final int remaining = numElements * type.getSize(mIdSize);
-        final byte[] elements = new byte[remaining];
-        IOUtil.readFully(mStreamIn, elements, 0, remaining);
+        final ByteBuffer elements = mIn.readView(remaining);
         hdv.visitHeapDumpPrimitiveArray(tag, id, stackId, numElements, typeId, elements);
         return mIdSize + 4 + 4 + 1 + remaining;
     }
 
     private int acceptJniMonitor(HprofHeapDumpVisitor hdv) throws IOException {
-        final ID id = IOUtil.readID(mStreamIn, mIdSize);
-        final int threadSerialNumber = IOUtil.readBEInt(mStreamIn);
-        final int stackDepth = IOUtil.readBEInt(mStreamIn);
+        final ID id = mIn.readID(mIdSize);
+        final int threadSerialNumber = mIn.readBEInt();
+        final int stackDepth = mIn.readBEInt();
         hdv.visitHeapDumpJniMonitor(id, threadSerialNumber, stackDepth);
         return mIdSize + 4 + 4;
     }
 
     private int skipValue() throws IOException {
-        final int typeId = mStreamIn.read();
+        final int typeId = mIn.readU1();
         final Type type = Type.getType(typeId);
         if (type == null) {
             throw new IllegalStateException("failure to skip type, cannot find type def of typeid: " + typeId);
         }
         final int size = type.getSize(mIdSize);
-        IOUtil.skip(mStreamIn, size);
+        mIn.skip(size);
         return size + 1;
     }
 }
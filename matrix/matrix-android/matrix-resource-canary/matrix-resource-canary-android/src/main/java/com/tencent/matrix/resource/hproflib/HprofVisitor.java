@@ -17,6 +17,9 @@
 package com.tencent.matrix.resource.hproflib;
 
 import com.tencent.matrix.resource.hproflib.model.ID;
+import com.tencent.matrix.resource.hproflib.utils.IOUtil;
+
+import java.nio.ByteBuffer;
 
 /**
  * Created by tangyinsheng on 2017/6/25.
@@ -74,6 +77,15 @@ public class HprofVisitor {
         }
     }
 
+    /**
+     * {@link HprofReader} calls it with a view of the record, which is only valid during the call. Override it to
+     * avoid copying the data, by default the data is copied and passed to
+     * {@link #visitUnconcernedRecord(int, int, long, byte[])}.
+     */
+    public void visitUnconcernedRecord(int tag, int timestamp, long length, ByteBuffer data) {
+        visitUnconcernedRecord(tag, timestamp, length, IOUtil.toByteArray(data));
+    }
+
     public void visitEnd() {
         if (this.hv != null) {
             this.hv.visitEnd();
@@ -24,6 +24,7 @@ import com.tencent.matrix.resource.hproflib.utils.IOUtil;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Created by tangyinsheng on 2017/6/27.
@@ -34,6 +35,7 @@ public class HprofWriter extends HprofVisitor {
     private int mIdSize = 0;
 
     private final ByteArrayOutputStream mHeapDumpOut = new ByteArrayOutputStream();
+    private final byte[] mCopyBuffer = new byte[8192];
 
     public HprofWriter(OutputStream os) {
         super(null);
@@ -138,6 +140,18 @@ public class HprofWriter extends HprofVisitor {
         }
     }
 
+    @Override
+    public void visitUnconcernedRecord(int tag, int timestamp, long length, ByteBuffer data) {
+        try {
+            mStreamOut.write(tag);
+            IOUtil.writeBEInt(mStreamOut, timestamp);
+            IOUtil.writeBEInt(mStreamOut, (int) length);
+            IOUtil.writeBuffer(mStreamOut, data, mCopyBuffer);
+        } catch (Throwable thr) {
+            throw new RuntimeException(thr);
+        }
+    }
+
     @Override
     public void visitEnd() {
         try {
@@ -289,6 +303,20 @@ public class HprofWriter extends HprofVisitor {
             }
         }
 
+        @Override
+        public void visitHeapDumpInstance(ID id, int stackId, ID typeId, ByteBuffer instanceData) {
+            try {
+                mHeapDumpOut.write(HprofConstants.HEAPDUMP_ROOT_INSTANCE_DUMP);
+                mHeapDumpOut.write(id.getBytes());
+                IOUtil.writeBEInt(mHeapDumpOut, stackId);
+                mHeapDumpOut.write(typeId.getBytes());
+                IOUtil.writeBEInt(mHeapDumpOut, instanceData.remaining());
+                IOUtil.writeBuffer(mHeapDumpOut, instanceData, mCopyBuffer);
+            } catch (Throwable thr) {
+                throw new RuntimeException(thr);
+            }
+        }
+
         @Override
         public void visitHeapDumpObjectArray(ID id, int stackId, int numElements, ID typeId, byte[] elements) {
             try {
@@ -304,6 +332,20 @@ public class HprofWriter extends HprofVisitor {
             }
         }
 
+        @Override
+        public void visitHeapDumpObjectArray(ID id, int stackId, int numElements, ID typeId, ByteBuffer elements) {
+            try {
+                mHeapDumpOut.write(HprofConstants.HEAPDUMP_ROOT_OBJECT_ARRAY_DUMP);
+                mHeapDumpOut.write(id.getBytes());
+                IOUtil.writeBEInt(mHeapDumpOut, stackId);
+                IOUtil.writeBEInt(mHeapDumpOut, numElements);
+                mHeapDumpOut.write(typeId.getBytes());
+                IOUtil.writeBuffer(mHeapDumpOut, elements, mCopyBuffer);
+            } catch (Throwable thr) {
+                throw new RuntimeException(thr);
+            }
+        }
+
         @Override
         public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, byte[] elements) {
             try {
@@ -319,6 +361,20 @@ public class HprofWriter extends HprofVisitor {
             }
         }
 
+        @Override
+        public void visitHeapDumpPrimitiveArray(int tag, ID id, int stackId, int numElements, int typeId, ByteBuffer elements) {
+            try {
+                mHeapDumpOut.write(tag);
+                mHeapDumpOut.write(id.getBytes());
+                IOUtil.writeBEInt(mHeapDumpOut, stackId);
+                IOUtil.writeBEInt(mHeapDumpOut, numElements);
+                mHeapDumpOut.write(typeId);
+                IOUtil.writeBuffer(mHeapDumpOut, elements, mCopyBuffer);
+            } catch (Throwable thr) {
+                throw new RuntimeException(thr);
+            }
+        }
+
         @Override
         public void visitHeapDumpJniMonitor(ID id, int threadSerialNumber, int stackDepth) {
             try {
@@ -337,7 +393,7 @@ public class HprofWriter extends HprofVisitor {
                 mStreamOut.write(mTag);
                 IOUtil.writeBEInt(mStreamOut, mTimestamp);
                 IOUtil.writeBEInt(mStreamOut, mHeapDumpOut.size());
-                mStreamOut.write(mHeapDumpOut.toByteArray());
+                mHeapDumpOut.writeTo(mStreamOut);
                 mHeapDumpOut.reset();
             } catch (Throwable thr) {
                 throw new RuntimeException(thr);
@@ -35,6 +35,17 @@ public final class ID {
         System.arraycopy(idBytes, 0, mIdBytes, 0, len);
     }
 
+    private ID(byte[] idBytes, boolean ignored) {
+        mIdBytes = idBytes;
+    }
+
+    /**
+     * Create an id which takes {@code idBytes} without copying, so {@code idBytes} must not be modified after that.
+     */
+    public static ID wrap(byte[] idBytes) {
+        return new ID(idBytes, false);
+    }
+
     public byte[] getBytes() {
         return mIdBytes;
     }
@@ -43,6 +54,20 @@ public final class ID {
         return mIdBytes.length;
     }
 
+    /**
+     * @return the id packed into a long, ids longer than 8 bytes can't be packed.
+     */
+    public long toLong() {
+        if (mIdBytes.length > 8) {
+            throw new IllegalStateException("id is too long to pack: " + mIdBytes.length);
+        }
+        long value = 0;
+        for (byte b : mIdBytes) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        return value;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof ID)) {
@@ -23,6 +23,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -128,7 +129,7 @@ public final class IOUtil {
     public static ID readID(InputStream in, int idSize) throws IOException {
         final byte[] idBytes = new byte[idSize];
         readFully(in, idBytes, 0, idSize);
-        return new ID(idBytes);
+        return ID.wrap(idBytes);
     }
 
     public static Object readValue(InputStream in, Type type, int idSize) throws IOException {
@@ -173,6 +174,96 @@ public final class IOUtil {
         return actualIdSize;
     }
 
+    public static ID readID(ByteBuffer buf, int idSize) {
+        final byte[] idBytes = new byte[idSize];
+        buf.get(idBytes);
+        return ID.wrap(idBytes);
+    }
+
+    /**
+     * @return the next id packed into a long, see {@link ID#toLong()}.
+     */
+    public static long readIdValue(ByteBuffer buf, int idSize) {
+        switch (idSize) {
+            case 4:
+                return buf.getInt() & 0x00000000FFFFFFFFL;
+            case 8:
+                return buf.getLong();
+            default:
+                long value = 0;
+                for (int i = 0; i < idSize; ++i) {
+                    value = (value << 8) | (buf.get() & 0xFF);
+                }
+                return value;
+        }
+    }
+
+    public static void writeIdValue(ByteBuffer buf, long id, int idSize) {
+        for (int i = idSize - 1; i >= 0; --i) {
+            buf.put((byte) (id >>> (i << 3)));
+        }
+    }
+
+    public static Object readValue(ByteBuffer buf, Type type, int idSize) {
+        switch (type) {
+            case OBJECT:
+                return IOUtil.readID(buf, idSize);
+            case BOOLEAN:
+                return (buf.get() != 0);
+            case CHAR:
+                return buf.getChar();
+            case FLOAT:
+                return buf.getFloat();
+            case DOUBLE:
+                return buf.getDouble();
+            case BYTE:
+                return buf.get();
+            case SHORT:
+                return buf.getShort();
+            case INT:
+                return buf.getInt();
+            case LONG:
+                return buf.getLong();
+            default:
+                return null;
+        }
+    }
+
+    public static int skipValue(ByteBuffer buf, Type type, int idSize) {
+        final int actualIdSize = type.getSize(idSize);
+        buf.position(buf.position() + actualIdSize);
+        return actualIdSize;
+    }
+
+    /**
+     * @return the remaining bytes of {@code buf}, the backing array is returned without copying if it holds exactly
+     * these bytes.
+     */
+    public static byte[] toByteArray(ByteBuffer buf) {
+        if (buf.hasArray() && buf.arrayOffset() == 0 && buf.position() == 0 && buf.remaining() == buf.array().length) {
+            return buf.array();
+        }
+        final byte[] bytes = new byte[buf.remaining()];
+        buf.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * write the remaining bytes of {@code buf} without changing its position.
+     */
+    public static void writeBuffer(OutputStream out, ByteBuffer buf, byte[] tmpBuf) throws IOException {
+        if (buf.hasArray()) {
+            out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            return;
+        }
+        final ByteBuffer src = buf.duplicate();
+        while (src.hasRemaining()) {
+            final int count = Math.min(src.remaining(), tmpBuf.length);
+            src.get(tmpBuf, 0, count);
+            out.write(tmpBuf, 0, count);
+        }
+    }
+
     public static void writeLEShort(OutputStream out, int value) throws IOException {
         out.write((value) & 0xFF);
         out.write((value >>> 8) & 0xFF);
@@ -0,0 +1,53 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.hproflib.utils;
+
+/**
+ * The probing shared by the open addressing tables of long keys, 0 marks the empty slots.
+ */
+final class LongHashing {
+
+    static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (isFull(expectedSize, capacity)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static boolean isFull(int size, int capacity) {
+        // load factor 2/3
+        return size * 3L > capacity * 2L;
+    }
+
+    /**
+     * @return the slot of {@code key}, or the empty slot where it should be put.
+     */
+    static int indexOf(long[] keys, long key) {
+        final int mask = keys.length - 1;
+        long h = key * 0x9E3779B97F4A7C15L;
+        int index = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[index] != 0 && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private LongHashing() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.hproflib.utils;
+
+import java.util.Arrays;
+
+/**
+ * A long to long map with open addressing, it doesn't box the keys and values so it's much smaller than
+ * a {@link java.util.HashMap} of ids. Key 0 is kept aside since 0 marks the empty slots.
+ */
+public final class LongLongMap {
+    private long[] mKeys;
+    private long[] mValues;
+    private int mSize;
+    private boolean mHasZeroKey;
+    private long mZeroValue;
+
+    public LongLongMap() {
+        this(16);
+    }
+
+    public LongLongMap(int expectedSize) {
+        final int capacity = LongHashing.capacityFor(expectedSize);
+        mKeys = new long[capacity];
+        mValues = new long[capacity];
+    }
+
+    public void put(long key, long value) {
+        if (key == 0) {
+            if (!mHasZeroKey) {
+                mHasZeroKey = true;
+                ++mSize;
+            }
+            mZeroValue = value;
+            return;
+        }
+        final int index = LongHashing.indexOf(mKeys, key);
+        if (mKeys[index] == 0) {
+            mKeys[index] = key;
+            mValues[index] = value;
+            if (LongHashing.isFull(++mSize, mKeys.length)) {
+                rehash(mKeys.length << 1);
+            }
+        } else {
+            mValues[index] = value;
+        }
+    }
+
+    public long get(long key, long defaultValue) {
+        if (key == 0) {
+            return mHasZeroKey ? mZeroValue : defaultValue;
+        }
+        final int index = LongHashing.indexOf(mKeys, key);
+        return mKeys[index] == 0 ? defaultValue : mValues[index];
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return mHasZeroKey;
+        }
+        return mKeys[LongHashing.indexOf(mKeys, key)] != 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, 0);
+        mHasZeroKey = false;
+        mSize = 0;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldKeys = mKeys;
+        final long[] oldValues = mValues;
+        mKeys = new long[capacity];
+        mValues = new long[capacity];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != 0) {
+                final int index = LongHashing.indexOf(mKeys, oldKeys[i]);
+                mKeys[index] = oldKeys[i];
+                mValues[index] = oldValues[i];
+            }
+        }
+    }
+}
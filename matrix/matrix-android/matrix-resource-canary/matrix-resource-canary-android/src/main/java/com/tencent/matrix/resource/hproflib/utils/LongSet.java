@@ -0,0 +1,83 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.hproflib.utils;
+
+import java.util.Arrays;
+
+/**
+ * A set of longs with open addressing, see {@link LongLongMap}.
+ */
+public final class LongSet {
+    private long[] mKeys;
+    private int mSize;
+    private boolean mHasZeroKey;
+
+    public LongSet() {
+        this(16);
+    }
+
+    public LongSet(int expectedSize) {
+        mKeys = new long[LongHashing.capacityFor(expectedSize)];
+    }
+
+    public boolean add(long key) {
+        if (key == 0) {
+            if (mHasZeroKey) {
+                return false;
+            }
+            mHasZeroKey = true;
+            ++mSize;
+            return true;
+        }
+        final int index = LongHashing.indexOf(mKeys, key);
+        if (mKeys[index] != 0) {
+            return false;
+        }
+        mKeys[index] = key;
+        if (LongHashing.isFull(++mSize, mKeys.length)) {
+            rehash(mKeys.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) {
+            return mHasZeroKey;
+        }
+        return mKeys[LongHashing.indexOf(mKeys, key)] != 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, 0);
+        mHasZeroKey = false;
+        mSize = 0;
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldKeys = mKeys;
+        mKeys = new long[capacity];
+        for (long key : oldKeys) {
+            if (key != 0) {
+                mKeys[LongHashing.indexOf(mKeys, key)] = key;
+            }
+        }
+    }
+}
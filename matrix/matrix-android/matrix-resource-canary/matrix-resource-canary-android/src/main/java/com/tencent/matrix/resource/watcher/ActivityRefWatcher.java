@@ -107,11 +107,11 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher, IAppFo
             return new AndroidHeapDumper(context, dumpStorageManager);
         }
 
-        protected AndroidHeapDumper.HeapDumpHandler createHeapDumpHandler(final Context context, ResourceConfig resourceConfig) {
+        protected AndroidHeapDumper.HeapDumpHandler createHeapDumpHandler(final Context context, final ResourceConfig resourceConfig) {
             return new AndroidHeapDumper.HeapDumpHandler() {
                 @Override
                 public void process(HeapDump result) {
-                    CanaryWorkerService.shrinkHprofAndReport(context, result);
+                    CanaryWorkerService.shrinkHprofAndReport(context, result, resourceConfig);
                 }
             };
         }
@@ -138,6 +138,9 @@ public class ActivityRefWatcher extends FilePublisher implements Watcher, IAppFo
         mMaxRedetectTimes = config.getMaxRedetectTimes();
         mDumpStorageManager = componentFactory.createDumpStorageManager(context);
         mHeapDumper = componentFactory.createHeapDumper(context, mDumpStorageManager);
+        if (config.isHashNativeBitmaps() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            mHeapDumper.setNativeBitmapHasher(new NativeBitmapHasher());
+        }
         mHeapDumpHandler = componentFactory.createHeapDumpHandler(context, config);
         mDestroyedActivityInfos = new ConcurrentLinkedQueue<>();
     }
@@ -29,9 +29,16 @@ import com.tencent.matrix.resource.R;
 import com.tencent.matrix.resource.analyzer.model.HeapDump;
 import com.tencent.matrix.util.MatrixLog;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
+import static com.tencent.matrix.resource.common.utils.StreamUtil.closeQuietly;
+
 /**
  * Created by tangyinsheng on 2017/6/2.
  * <p>
@@ -44,6 +51,7 @@ public class AndroidHeapDumper {
     private final Context mContext;
     private final DumpStorageManager mDumpStorageManager;
     private final Handler mMainHandler;
+    private NativeBitmapHasher mNativeBitmapHasher = null;
 
     public interface HeapDumpHandler {
         void process(HeapDump result);
@@ -59,6 +67,10 @@ public class AndroidHeapDumper {
         mMainHandler = mainHandler;
     }
 
+    public void setNativeBitmapHasher(NativeBitmapHasher hasher) {
+        mNativeBitmapHasher = hasher;
+    }
+
     public File dumpHeap() {
         final File hprofFile = mDumpStorageManager.newHprofFile();
 
@@ -86,6 +98,11 @@ public class AndroidHeapDumper {
             return null;
         }
 
+        if (mNativeBitmapHasher != null) {
+            // Hashed right before dumping so that the bitmaps are mostly the same as the ones in the hprof.
+            storeExtraInfo(mNativeBitmapHasher.hashLiveBitmaps(), DumpStorageManager.getExtraInfoFile(hprofFile));
+        }
+
         try {
             Debug.dumpHprofData(hprofFile.getAbsolutePath());
             cancelToast(waitingForToast.get());
@@ -96,6 +113,24 @@ public class AndroidHeapDumper {
         }
     }
 
+    private void storeExtraInfo(Properties extraInfo, File extraInfoFile) {
+        if (extraInfo.isEmpty()) {
+            return;
+        }
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(extraInfoFile));
+            extraInfo.store(os, null);
+        } catch (IOException e) {
+            MatrixLog.printErrStackTrace(TAG, e, "failed to store extra info into file: %s.", extraInfoFile.getAbsolutePath());
+            closeQuietly(os);
+            os = null;
+            extraInfoFile.delete();
+        } finally {
+            closeQuietly(os);
+        }
+    }
+
     private void showToast(final FutureResult<Toast> waitingForToast) {
         mMainHandler.post(new Runnable() {
             @Override
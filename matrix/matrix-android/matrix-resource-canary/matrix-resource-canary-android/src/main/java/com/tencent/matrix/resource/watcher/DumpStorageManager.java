@@ -34,6 +34,7 @@ public class DumpStorageManager {
     private static final String TAG = "Matrix.DumpStorageManager";
 
     public static final String HPROF_EXT = ".hprof";
+    public static final String EXTRA_INFO_EXT = ".info";
 
     public static final int DEFAULT_MAX_STORED_HPROF_FILECOUNT = 5;
 
@@ -53,6 +54,13 @@ public class DumpStorageManager {
         mMaxStoredHprofFileCount = maxStoredHprofFileCount;
     }
 
+    /**
+     * @return the file which keeps the extra info captured along with {@code hprofFile}, it may not exist.
+     */
+    public static File getExtraInfoFile(File hprofFile) {
+        return new File(hprofFile.getPath() + EXTRA_INFO_EXT);
+    }
+
     public File newHprofFile() {
         final File storageDir = prepareStorageDirectory();
         if (storageDir == null) {
@@ -83,6 +91,7 @@ public class DumpStorageManager {
                 if (file.exists() && !file.delete()) {
                     MatrixLog.w(TAG, "faile to delete hprof file: " + file.getAbsolutePath());
                 }
+                getExtraInfoFile(file).delete();
             }
         }
         return storageDir;
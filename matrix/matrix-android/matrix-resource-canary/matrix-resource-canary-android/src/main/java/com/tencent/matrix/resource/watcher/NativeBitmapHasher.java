@@ -0,0 +1,108 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.watcher;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.tencent.matrix.resource.common.utils.DigestUtil;
+import com.tencent.matrix.util.MatrixLog;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+/**
+ * Since Android O the pixels of a bitmap are kept in native memory and are absent from the hprof, so they are
+ * hashed while the process is alive and the hashes are reported in the extra info along with the hprof.
+ * <p>
+ * Each live bitmap is recorded as {@code bitmap.<mNativePtr>=<md5 of pixels>,<allocation byte count>}, the
+ * analyzer finds the bitmap in the hprof by its mNativePtr field. Live bitmaps can only be enumerated since
+ * Android P, nothing is recorded on Android O.
+ * </p>
+ */
+public class NativeBitmapHasher {
+    private static final String TAG = "Matrix.NativeBitmapHasher";
+
+    public static final String KEY_PREFIX = "bitmap.";
+
+    public Properties hashLiveBitmaps() {
+        final Properties result = new Properties();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+            MatrixLog.w(TAG, "live bitmaps can't be enumerated on sdk %d, skip hashing.", Build.VERSION.SDK_INT);
+            return result;
+        }
+        final long start = System.currentTimeMillis();
+        final Object[] bitmaps;
+        final Field nativePtrField;
+        try {
+            final Method getInstancesOfClasses = Class.forName("dalvik.system.VMDebug")
+                    .getDeclaredMethod("getInstancesOfClasses", Class[].class, boolean.class);
+            final Object[][] instances = (Object[][]) getInstancesOfClasses.invoke(null, new Class[]{Bitmap.class}, false);
+            bitmaps = instances[0];
+            nativePtrField = Bitmap.class.getDeclaredField("mNativePtr");
+            nativePtrField.setAccessible(true);
+        } catch (Throwable thr) {
+            MatrixLog.printErrStackTrace(TAG, thr, "failed to enumerate live bitmaps, skip hashing.");
+            return result;
+        }
+
+        int hashedCount = 0;
+        for (Object bitmapObj : bitmaps) {
+            final Bitmap bitmap = (Bitmap) bitmapObj;
+            if (bitmap == null || bitmap.isRecycled() || bitmap.getConfig() == null
+                    || bitmap.getConfig() == Bitmap.Config.HARDWARE) {
+                // The pixels of hardware bitmaps are not readable.
+                continue;
+            }
+            try {
+                final long nativePtr = nativePtrField.getLong(bitmap);
+                result.setProperty(KEY_PREFIX + Long.toHexString(nativePtr),
+                        hashPixels(bitmap) + "," + bitmap.getAllocationByteCount());
+                ++hashedCount;
+            } catch (Throwable thr) {
+                MatrixLog.w(TAG, "failed to hash bitmap: %s", thr);
+            }
+        }
+        MatrixLog.i(TAG, "hashed %d of %d live bitmaps, use time: %d", hashedCount, bitmaps.length,
+                System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * The pixels are read row by row as ARGB, the size and config are hashed as well so that bitmaps which
+     * only look the same are not taken as duplicated.
+     */
+    private static String hashPixels(Bitmap bitmap) throws Exception {
+        final MessageDigest md = MessageDigest.getInstance("MD5");
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        md.update((width + "x" + height + ":" + bitmap.getConfig().name()).getBytes(Charset.forName("UTF-8")));
+        final int[] row = new int[width];
+        final ByteBuffer rowBytes = ByteBuffer.allocate(width * 4);
+        for (int y = 0; y < height; ++y) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            rowBytes.clear();
+            rowBytes.asIntBuffer().put(row);
+            md.update(rowBytes.array(), 0, rowBytes.capacity());
+        }
+        return DigestUtil.bytesToHexString(md.digest());
+    }
+}
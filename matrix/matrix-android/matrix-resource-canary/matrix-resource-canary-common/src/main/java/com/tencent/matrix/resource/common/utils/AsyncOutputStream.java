@@ -0,0 +1,197 @@
+/*
+ * Tencent is pleased to support the open source community by making wechat-matrix available.
+ * Copyright (C) 2018 THL A29 Limited, a Tencent company. All rights reserved.
+ * Licensed under the BSD 3-Clause License (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tencent.matrix.resource.common.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes to the target stream on its own thread, so the producer (e.g. a parser) and the target (e.g. a
+ * {@link java.util.zip.ZipOutputStream} which deflates) work at the same time.
+ * <p>
+ * The bytes are handed over in chunks and only a fixed number of chunks exist, so the producer waits when the
+ * target falls behind. {@link #close()} waits until every byte is written and flushes the target, but doesn't close
+ * it. What the target throws is thrown to the producer by the following write, flush or close.
+ * </p>
+ */
+public final class AsyncOutputStream extends OutputStream {
+    private static final Chunk END = new Chunk(0);
+    private static final long WAIT_CHECK_INTERVAL_MS = 500;
+
+    private final OutputStream mTarget;
+    private final BlockingQueue<Chunk> mFilledChunks = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Chunk> mFreeChunks = new LinkedBlockingQueue<>();
+    private final Thread mWriterThread;
+    private volatile Throwable mError = null;
+    private Chunk mCurrentChunk;
+    private boolean mClosed = false;
+
+    public AsyncOutputStream(OutputStream target, int chunkSize, int chunkCount) {
+        if (chunkSize <= 0 || chunkCount < 2) {
+            throw new IllegalArgumentException("bad chunkSize: " + chunkSize + " or chunkCount: " + chunkCount);
+        }
+        mTarget = target;
+        mCurrentChunk = new Chunk(chunkSize);
+        for (int i = 1; i < chunkCount; ++i) {
+            mFreeChunks.add(new Chunk(chunkSize));
+        }
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain();
+                } catch (Throwable thr) {
+                    mError = thr;
+                }
+            }
+        }, "matrix_async_output");
+        mWriterThread.start();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                final Chunk chunk = mFilledChunks.take();
+                if (chunk == END) {
+                    break;
+                }
+                if (mError == null) {
+                    try {
+                        mTarget.write(chunk.data, 0, chunk.size);
+                    } catch (Throwable thr) {
+                        // Keep taking the chunks so the producer won't wait forever.
+                        mError = thr;
+                    }
+                }
+                chunk.size = 0;
+                mFreeChunks.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            mError = e;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (mCurrentChunk.isFull()) {
+            handOver();
+        }
+        mCurrentChunk.data[mCurrentChunk.size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (mCurrentChunk.isFull()) {
+                handOver();
+            }
+            final int count = Math.min(len, mCurrentChunk.data.length - mCurrentChunk.size);
+            System.arraycopy(b, off, mCurrentChunk.data, mCurrentChunk.size, count);
+            mCurrentChunk.size += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Hands the pending bytes over to the writer thread without waiting for them to be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (mCurrentChunk.size > 0) {
+            handOver();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mCurrentChunk != null && mCurrentChunk.size > 0) {
+                mFilledChunks.put(mCurrentChunk);
+            }
+            mCurrentChunk = null;
+            mFilledChunks.put(END);
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted when waiting for the writer thread");
+        }
+        checkError();
+        mTarget.flush();
+    }
+
+    /**
+     * Waits for a free chunk, but gives up once the writer thread fails or is gone, it won't free any chunk then.
+     */
+    private void handOver() throws IOException {
+        checkError();
+        try {
+            mFilledChunks.put(mCurrentChunk);
+            mCurrentChunk = null;
+            Chunk chunk;
+            while ((chunk = mFreeChunks.poll(WAIT_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS)) == null) {
+                checkError();
+                if (!mWriterThread.isAlive()) {
+                    mError = new IOException("writer thread is gone");
+                    checkError();
+                }
+            }
+            mCurrentChunk = chunk;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted when handing over bytes");
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("stream is closed");
+        }
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        final Throwable error = mError;
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException(error);
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        int size = 0;
+
+        Chunk(int capacity) {
+            data = new byte[capacity];
+        }
+
+        boolean isFull() {
+            return size == data.length;
+        }
+    }
+}
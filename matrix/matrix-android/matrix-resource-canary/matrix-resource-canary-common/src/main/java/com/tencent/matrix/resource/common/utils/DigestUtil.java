@@ -39,7 +39,7 @@ public final class DigestUtil {
         }
     }
 
-    private static String bytesToHexString(byte[] bytes) {
+    public static String bytesToHexString(byte[] bytes) {
         final StringBuilder sb = new StringBuilder();
         for (byte b : bytes) {
             if (b >= 0 && b <= 15) {
@@ -29,6 +29,8 @@ import com.tencent.matrix.trace.core.UIThreadMonitor;
 import com.tencent.matrix.trace.tracer.AnrTracer;
 import com.tencent.matrix.trace.tracer.EvilMethodTracer;
 import com.tencent.matrix.trace.tracer.FrameTracer;
+import com.tencent.matrix.trace.tracer.HotMethodTracer;
+import com.tencent.matrix.trace.tracer.SamplingMethodTracer;
 import com.tencent.matrix.trace.tracer.StartupTracer;
 import com.tencent.matrix.util.MatrixHandlerThread;
 import com.tencent.matrix.util.MatrixLog;
@@ -41,6 +43,8 @@ public class TracePlugin extends Plugin {
 
     private final TraceConfig traceConfig;
     private EvilMethodTracer evilMethodTracer;
+    private SamplingMethodTracer samplingMethodTracer;
+    private HotMethodTracer hotMethodTracer;
     private StartupTracer startupTracer;
     private FrameTracer frameTracer;
     private AnrTracer anrTracer;
@@ -59,12 +63,21 @@ public class TracePlugin extends Plugin {
             return;
         }
 
+        AppMethodBeat.setMultiThreadTraceEnable(traceConfig.isMultiThreadTraceEnable());
+        if (traceConfig.isHighResolutionTimeEnable()) {
+            AppMethodBeat.setTimePrecisionUs(traceConfig.getTimePrecisionUs());
+        }
+
         anrTracer = new AnrTracer(traceConfig);
 
         frameTracer = new FrameTracer(traceConfig);
 
         evilMethodTracer = new EvilMethodTracer(traceConfig);
 
+        samplingMethodTracer = new SamplingMethodTracer(traceConfig);
+
+        hotMethodTracer = new HotMethodTracer(traceConfig);
+
         startupTracer = new StartupTracer(traceConfig);
     }
 
@@ -99,6 +112,10 @@ public class TracePlugin extends Plugin {
 
                 evilMethodTracer.onStartTrace();
 
+                samplingMethodTracer.onStartTrace();
+
+                hotMethodTracer.onStartTrace();
+
                 startupTracer.onStartTrace();
             }
         };
@@ -134,6 +151,10 @@ public class TracePlugin extends Plugin {
 
                 evilMethodTracer.onCloseTrace();
 
+                samplingMethodTracer.onCloseTrace();
+
+                hotMethodTracer.onCloseTrace();
+
                 startupTracer.onCloseTrace();
 
             }
@@ -167,6 +188,14 @@ public class TracePlugin extends Plugin {
             evilMethodTracer.onForeground(isForeground);
         }
 
+        if (samplingMethodTracer != null) {
+            samplingMethodTracer.onForeground(isForeground);
+        }
+
+        if (hotMethodTracer != null) {
+            hotMethodTracer.onForeground(isForeground);
+        }
+
         if (startupTracer != null) {
             startupTracer.onForeground(isForeground);
         }
@@ -199,6 +228,14 @@ public class TracePlugin extends Plugin {
         return evilMethodTracer;
     }
 
+    public SamplingMethodTracer getSamplingMethodTracer() {
+        return samplingMethodTracer;
+    }
+
+    public HotMethodTracer getHotMethodTracer() {
+        return hotMethodTracer;
+    }
+
     public StartupTracer getStartupTracer() {
         return startupTracer;
     }
@@ -26,6 +26,8 @@ public class SharePluginInfo {
     public static final String TAG_PLUGIN_FPS = TAG_PLUGIN + "_FPS";
     public static final String TAG_PLUGIN_EVIL_METHOD = TAG_PLUGIN + "_EvilMethod";
     public static final String TAG_PLUGIN_STARTUP = TAG_PLUGIN + "_StartUp";
+    public static final String TAG_PLUGIN_HOT_METHOD = TAG_PLUGIN + "_HotMethod";
+    public static final String TAG_PLUGIN_SAMPLING_METHOD = TAG_PLUGIN + "_SamplingMethod";
 
 //    public static final String ISSUE_DEVICE = "machine";
     public static final String ISSUE_SCENE = "scene";
@@ -35,10 +37,18 @@ public class SharePluginInfo {
     public static final String ISSUE_SUM_TASK_FRAME = "dropTaskFrameSum";
     public static final String ISSUE_TRACE_STACK = "stack";
     public static final String ISSUE_THREAD_STACK = "threadStack";
+    public static final String ISSUE_THREAD_NAME = "threadName";
     public static final String ISSUE_PROCESS_PRIORITY = "processPriority";
     public static final String ISSUE_PROCESS_NICE = "processNice";
     public static final String ISSUE_PROCESS_FOREGROUND = "isProcessForeground";
     public static final String ISSUE_STACK_KEY = "stackKey";
+    public static final String ISSUE_STACK_METHODS = "stackMethods";
+    public static final String ISSUE_SAMPLE_INTERVAL = "sampleInterval";
+    public static final String ISSUE_HOT_METHODS = "hotMethods";
+    public static final String ISSUE_METHOD_ID = "methodId";
+    public static final String ISSUE_METHOD_COUNT = "count";
+    public static final String ISSUE_MAX_COST = "maxCost";
+    public static final String ISSUE_DURATION = "duration";
     public static final String ISSUE_MEMORY = "memory";
     public static final String ISSUE_MEMORY_NATIVE = "native_heap";
     public static final String ISSUE_MEMORY_DALVIK = "dalvik_heap";
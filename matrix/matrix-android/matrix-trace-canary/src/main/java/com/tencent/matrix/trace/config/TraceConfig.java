@@ -39,6 +39,14 @@ public class TraceConfig implements IDefaultConfig {
     public boolean defaultMethodTraceEnable;
     public boolean defaultStartupEnable;
     public boolean defaultAnrEnable;
+    public boolean defaultMultiThreadTraceEnable;
+    public boolean defaultHighResolutionTimeEnable;
+    public int timePrecisionUs = Constants.DEFAULT_TIME_PRECISION_US;
+    public boolean defaultSamplingTraceEnable;
+    public int sampleIntervalMs = Constants.DEFAULT_SAMPLE_INTERVAL_MS;
+    public boolean defaultHotMethodTraceEnable;
+    public int hotMethodReportIntervalMs = Constants.DEFAULT_HOT_METHOD_REPORT_INTERVAL_MS;
+    public int hotMethodTopN = Constants.DEFAULT_HOT_METHOD_TOP_N;
     public boolean isDebug;
     public boolean isDevEnv;
     public String splashActivities;
@@ -59,6 +67,14 @@ public class TraceConfig implements IDefaultConfig {
         ss.append("* defaultMethodTraceEnable:\t").append(defaultMethodTraceEnable).append("\n");
         ss.append("* defaultStartupEnable:\t").append(defaultStartupEnable).append("\n");
         ss.append("* defaultAnrEnable:\t").append(defaultAnrEnable).append("\n");
+        ss.append("* defaultMultiThreadTraceEnable:\t").append(defaultMultiThreadTraceEnable).append("\n");
+        ss.append("* defaultHighResolutionTimeEnable:\t").append(defaultHighResolutionTimeEnable).append("\n");
+        ss.append("* timePrecisionUs:\t").append(timePrecisionUs).append("\n");
+        ss.append("* defaultSamplingTraceEnable:\t").append(defaultSamplingTraceEnable).append("\n");
+        ss.append("* sampleIntervalMs:\t").append(sampleIntervalMs).append("\n");
+        ss.append("* defaultHotMethodTraceEnable:\t").append(defaultHotMethodTraceEnable).append("\n");
+        ss.append("* hotMethodReportIntervalMs:\t").append(hotMethodReportIntervalMs).append("\n");
+        ss.append("* hotMethodTopN:\t").append(hotMethodTopN).append("\n");
         ss.append("* splashActivities:\t").append(splashActivities).append("\n");
         return ss.toString();
     }
@@ -93,6 +109,38 @@ public class TraceConfig implements IDefaultConfig {
         return defaultAnrEnable;
     }
 
+    public boolean isMultiThreadTraceEnable() {
+        return defaultMultiThreadTraceEnable;
+    }
+
+    public boolean isHighResolutionTimeEnable() {
+        return defaultHighResolutionTimeEnable;
+    }
+
+    public int getTimePrecisionUs() {
+        return timePrecisionUs;
+    }
+
+    public boolean isSamplingTraceEnable() {
+        return defaultSamplingTraceEnable;
+    }
+
+    public int getSampleIntervalMs() {
+        return sampleIntervalMs;
+    }
+
+    public boolean isHotMethodTraceEnable() {
+        return defaultHotMethodTraceEnable;
+    }
+
+    public int getHotMethodReportIntervalMs() {
+        return hotMethodReportIntervalMs;
+    }
+
+    public int getHotMethodTopN() {
+        return hotMethodTopN;
+    }
+
 
     public Set<String> getSplashActivities() {
         if (null == splashActivitiesSet) {
@@ -188,6 +236,46 @@ public class TraceConfig implements IDefaultConfig {
             return this;
         }
 
+        public Builder enableMultiThreadTrace(boolean enable) {
+            config.defaultMultiThreadTraceEnable = enable;
+            return this;
+        }
+
+        public Builder enableHighResolutionTime(boolean enable) {
+            config.defaultHighResolutionTimeEnable = enable;
+            return this;
+        }
+
+        public Builder timePrecisionUs(int precisionUs) {
+            config.timePrecisionUs = precisionUs;
+            return this;
+        }
+
+        public Builder enableSamplingTrace(boolean enable) {
+            config.defaultSamplingTraceEnable = enable;
+            return this;
+        }
+
+        public Builder sampleIntervalMs(int intervalMs) {
+            config.sampleIntervalMs = intervalMs;
+            return this;
+        }
+
+        public Builder enableHotMethodTrace(boolean enable) {
+            config.defaultHotMethodTraceEnable = enable;
+            return this;
+        }
+
+        public Builder hotMethodReportIntervalMs(int intervalMs) {
+            config.hotMethodReportIntervalMs = intervalMs;
+            return this;
+        }
+
+        public Builder hotMethodTopN(int topN) {
+            config.hotMethodTopN = topN;
+            return this;
+        }
+
         public Builder enableStartup(boolean enable) {
             config.defaultStartupEnable = enable;
             return this;
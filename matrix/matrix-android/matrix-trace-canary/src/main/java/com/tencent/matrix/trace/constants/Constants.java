@@ -23,7 +23,10 @@ package com.tencent.matrix.trace.constants;
 public class Constants {
 
     public static final int BUFFER_SIZE = 100 * 10000; // 7.6M
+    public static final int THREAD_BUFFER_SIZE = 10 * 10000; // 0.76M per traced thread
+    public static final int MAX_TRACE_THREAD_COUNT = 16;
     public static final int TIME_UPDATE_CYCLE_MS = 5;
+    public static final int DEFAULT_TIME_PRECISION_US = 1;
     public static final int FILTER_STACK_MAX_COUNT = 60;
     public static final float FILTER_STACK_KEY_ALL_PERCENT = .3F;
     public static final float FILTER_STACK_KEY_PATENT_PERCENT = .8F;
@@ -43,6 +46,13 @@ public class Constants {
 
     public static final int DEFAULT_RELEASE_BUFFER_DELAY = 15 * 1000;
     public static final int TARGET_EVIL_METHOD_STACK = 30;
+    public static final int DEFAULT_SAMPLE_INTERVAL_MS = 20;
+    public static final int MAX_SAMPLE_COUNT = 500;
+    public static final int SNAPSHOT_POOL_SIZE = 2;
+    public static final int SNAPSHOT_TRIM_DELAY_MS = 30 * 1000;
+    public static final int HOT_METHOD_WINDOW_MS = 1000;
+    public static final int DEFAULT_HOT_METHOD_REPORT_INTERVAL_MS = 60 * 1000;
+    public static final int DEFAULT_HOT_METHOD_TOP_N = 20;
     public static final int MAX_LIMIT_ANALYSE_STACK_KEY_NUM = 10;
 
     public static final int LIMIT_WARM_THRESHOLD_MS = 5 * 1000;
@@ -14,8 +14,11 @@ import com.tencent.matrix.trace.util.Utils;
 import com.tencent.matrix.util.MatrixHandlerThread;
 import com.tencent.matrix.util.MatrixLog;
 
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AppMethodBeat implements BeatLifecycle {
 
@@ -23,6 +26,18 @@ public class AppMethodBeat implements BeatLifecycle {
         void enter(int method, long threadId);
     }
 
+    public interface ThreadMethodListener {
+        /**
+         * called on the default matrix handler thread after the outermost traced method of a thread returns after at
+         * least the threshold, so the traced thread never runs the copy or the analysis.
+         *
+         * @param beginRecord the record at the beginning of the method, it must be released by the listener
+         * @param beginMs
+         * @param endMs
+         */
+        void onLongMethod(IndexRecord beginRecord, long beginMs, long endMs);
+    }
+
     private static final String TAG = "Matrix.AppMethodBeat";
     public static boolean isDev = false;
     private static AppMethodBeat sInstance = new AppMethodBeat();
@@ -37,11 +52,14 @@ public class AppMethodBeat implements BeatLifecycle {
     private final static Object statusLock = new Object();
     public static MethodEnterListener sMethodEnterListener;
     private static long[] sBuffer = new long[Constants.BUFFER_SIZE];
+    private static final TraceSnapshotPool sSnapshotPool = new TraceSnapshotPool(Constants.SNAPSHOT_POOL_SIZE);
     private static int sIndex = 0;
     private static int sLastIndex = -1;
     private static boolean assertIn = false;
     private volatile static long sCurrentDiffTime = SystemClock.uptimeMillis();
     private volatile static long sDiffTime = sCurrentDiffTime;
+    private static final long sNanoDiffTime = System.nanoTime();
+    private volatile static long sTimeUnitNanos = 0;
     private static long sMainThreadId = Looper.getMainLooper().getThread().getId();
     private static HandlerThread sTimerUpdateThread = MatrixHandlerThread.getNewHandlerThread("matrix_time_update_thread");
     private static Handler sHandler = new Handler(sTimerUpdateThread.getLooper());
@@ -51,7 +69,18 @@ public class AppMethodBeat implements BeatLifecycle {
     private static final HashSet<IAppMethodBeatListener> listeners = new HashSet<>();
     private static final Object updateTimeLock = new Object();
     private static boolean isPauseUpdateTime = false;
+    private static boolean isUpdateTimeStarted = false;
     private static Runnable checkStartExpiredRunnable = null;
+    private static volatile boolean sIsMultiThreadTrace = false;
+    private static final ThreadBuffer[] sThreadBuffers = new ThreadBuffer[Constants.MAX_TRACE_THREAD_COUNT];
+    private static final AtomicInteger sThreadBufferCount = new AtomicInteger(0);
+    // a thread without a slot tries to claim one again after it, since the slot of a dead thread can be reclaimed
+    private static final long CLAIM_RETRY_INTERVAL_MS = 1000;
+    // written after a thread buffer is copied, see copyThreadData
+    private static volatile long sCopyFence;
+    private static volatile ThreadLocal<ThreadBuffer> sThreadBufferLocal = new ThreadLocal<>();
+    private static volatile ThreadMethodListener sThreadMethodListener;
+    private static volatile long sThreadMethodThresholdMs = Long.MAX_VALUE;
     private static LooperMonitor.LooperDispatchListener looperMonitorListener = new LooperMonitor.LooperDispatchListener() {
         @Override
         public boolean isValid() {
@@ -88,7 +117,7 @@ public class AppMethodBeat implements BeatLifecycle {
         public void run() {
             try {
                 while (true) {
-                    while (!isPauseUpdateTime && status > STATUS_STOPPED) {
+                    while (!isPauseUpdateTime && status > STATUS_STOPPED && sTimeUnitNanos == 0) {
                         sCurrentDiffTime = SystemClock.uptimeMillis() - sDiffTime;
                         SystemClock.sleep(Constants.TIME_UPDATE_CYCLE_MS);
                     }
@@ -152,6 +181,16 @@ public class AppMethodBeat implements BeatLifecycle {
                 LooperMonitor.unregister(looperMonitorListener);
                 sTimerUpdateThread.quit();
                 sBuffer = null;
+                sIsMultiThreadTrace = false;
+                synchronized (sThreadBuffers) {
+                    for (int i = 0; i < sThreadBuffers.length; i++) {
+                        sThreadBuffers[i] = null;
+                    }
+                    sThreadBufferCount.set(0);
+                }
+                // the values of the other threads can't be removed here, drop them along with the old ThreadLocal
+                sThreadBufferLocal = new ThreadLocal<>();
+                sThreadMethodListener = null;
                 status = STATUS_OUT_RELEASE;
             }
         }
@@ -163,7 +202,10 @@ public class AppMethodBeat implements BeatLifecycle {
         sCurrentDiffTime = SystemClock.uptimeMillis() - sDiffTime;
 
         sHandler.removeCallbacksAndMessages(null);
-        sHandler.postDelayed(sUpdateDiffTimeRunnable, Constants.TIME_UPDATE_CYCLE_MS);
+        // the time is read from System.nanoTime() directly in the unit of precision, the update thread isn't needed
+        if (sTimeUnitNanos == 0) {
+            startUpdateTime();
+        }
         sHandler.postDelayed(checkStartExpiredRunnable = new Runnable() {
             @Override
             public void run() {
@@ -180,6 +222,16 @@ public class AppMethodBeat implements BeatLifecycle {
         LooperMonitor.register(looperMonitorListener);
     }
 
+    /**
+     * the runnable never returns once it runs, it occupies matrix_time_update_thread
+     */
+    private static void startUpdateTime() {
+        if (!isUpdateTimeStarted) {
+            isUpdateTimeStarted = true;
+            sHandler.postDelayed(sUpdateDiffTimeRunnable, Constants.TIME_UPDATE_CYCLE_MS);
+        }
+    }
+
     private static void dispatchBegin() {
         sCurrentDiffTime = SystemClock.uptimeMillis() - sDiffTime;
         isPauseUpdateTime = false;
@@ -190,7 +242,103 @@ public class AppMethodBeat implements BeatLifecycle {
     }
 
     private static void dispatchEnd() {
-        isPauseUpdateTime = true;
+        // other threads keep tracing while the main looper is idle, so the time must keep going
+        if (!sIsMultiThreadTrace) {
+            isPauseUpdateTime = true;
+        }
+    }
+
+    /**
+     * trace the methods of all threads, not only the main thread.
+     * every traced thread owns a ring buffer of {@link Constants#THREAD_BUFFER_SIZE},
+     * at most {@link Constants#MAX_TRACE_THREAD_COUNT} threads will be traced.
+     *
+     * @param enable
+     */
+    public static void setMultiThreadTraceEnable(boolean enable) {
+        MatrixLog.i(TAG, "[setMultiThreadTraceEnable] enable:%s", enable);
+        sIsMultiThreadTrace = enable;
+        if (enable) {
+            isPauseUpdateTime = false;
+            synchronized (updateTimeLock) {
+                updateTimeLock.notify();
+            }
+        }
+    }
+
+    public static boolean isMultiThreadTrace() {
+        return sIsMultiThreadTrace;
+    }
+
+    /**
+     * watch the outermost traced method of every non-main thread, {@code listener} is called on the default matrix
+     * handler thread once such a method costs at least {@code thresholdMs}. It only works when multi-thread trace is
+     * enabled.
+     *
+     * @param listener    null to stop watching
+     * @param thresholdMs
+     */
+    public static void setThreadMethodListener(ThreadMethodListener listener, long thresholdMs) {
+        MatrixLog.i(TAG, "[setThreadMethodListener] listener:%s thresholdMs:%s", listener, thresholdMs);
+        sThreadMethodThresholdMs = thresholdMs;
+        sThreadMethodListener = listener;
+    }
+
+    /**
+     * record the time of methods by {@link System#nanoTime()} in the unit of {@code precisionUs},
+     * instead of the millisecond updated by matrix_time_update_thread every {@link Constants#TIME_UPDATE_CYCLE_MS}.
+     * It's better to be called before any method is traced, the data has been traced in the other unit will be dropped.
+     *
+     * @param precisionUs the unit of the recorded time in microsecond, <= 0 means the millisecond of update thread.
+     */
+    public static void setTimePrecisionUs(int precisionUs) {
+        long unitNanos = precisionUs > 0 ? precisionUs * 1000L : 0;
+        if (unitNanos == sTimeUnitNanos) {
+            return;
+        }
+        MatrixLog.i(TAG, "[setTimePrecisionUs] precisionUs:%s status:%s", precisionUs, status);
+        synchronized (statusLock) {
+            sTimeUnitNanos = unitNanos;
+            if (null != sBuffer && status != STATUS_DEFAULT) {
+                Arrays.fill(sBuffer, 0L);
+                IndexRecord record = sIndexRecordHead;
+                while (null != record) {
+                    record.isValid = false;
+                    record = record.next;
+                }
+            }
+            for (ThreadBuffer threadBuffer : sThreadBuffers) {
+                if (null != threadBuffer) {
+                    Arrays.fill(threadBuffer.buffer, 0L);
+                }
+            }
+            if (unitNanos == 0 && status != STATUS_DEFAULT && status != STATUS_OUT_RELEASE) {
+                startUpdateTime();
+            }
+        }
+        if (unitNanos == 0) {
+            sCurrentDiffTime = SystemClock.uptimeMillis() - sDiffTime;
+            isPauseUpdateTime = false;
+            synchronized (updateTimeLock) {
+                updateTimeLock.notify();
+            }
+        }
+    }
+
+    /**
+     * @return how many nanoseconds the unit of the time in trace data is.
+     */
+    public static long getTimeUnitNanos() {
+        long unitNanos = sTimeUnitNanos;
+        return unitNanos > 0 ? unitNanos : Constants.TIME_MILLIS_TO_NANO;
+    }
+
+    private static long currentTime() {
+        long unitNanos = sTimeUnitNanos;
+        if (unitNanos > 0) {
+            return (System.nanoTime() - sNanoDiffTime) / unitNanos;
+        }
+        return sCurrentDiffTime;
     }
 
     /**
@@ -235,6 +383,13 @@ public class AppMethodBeat implements BeatLifecycle {
             }
             ++sIndex;
             assertIn = false;
+        } else if (sIsMultiThreadTrace) {
+            ThreadBuffer threadBuffer = obtainThreadBuffer();
+            if (null != threadBuffer && !threadBuffer.assertIn) {
+                threadBuffer.assertIn = true;
+                threadBuffer.merge(methodId, true);
+                threadBuffer.assertIn = false;
+            }
         }
     }
 
@@ -258,7 +413,130 @@ public class AppMethodBeat implements BeatLifecycle {
                 mergeData(methodId, sIndex, false);
             }
             ++sIndex;
+        } else if (sIsMultiThreadTrace) {
+            ThreadBuffer threadBuffer = obtainThreadBuffer();
+            if (null != threadBuffer && !threadBuffer.assertIn && threadBuffer.merge(methodId, false)) {
+                threadBuffer.assertIn = true;
+                checkThreadMethod(threadBuffer);
+                threadBuffer.assertIn = false;
+            }
+        }
+    }
+
+    private static void checkThreadMethod(ThreadBuffer threadBuffer) {
+        final ThreadMethodListener listener = sThreadMethodListener;
+        if (null == listener) {
+            return;
+        }
+        long unitNanos = getTimeUnitNanos();
+        final long beginMs = threadBuffer.beginTime * unitNanos / Constants.TIME_MILLIS_TO_NANO + sDiffTime;
+        final long endMs = threadBuffer.endTime * unitNanos / Constants.TIME_MILLIS_TO_NANO + sDiffTime;
+        if (endMs - beginMs < sThreadMethodThresholdMs) {
+            return;
         }
+        final IndexRecord beginRecord = newThreadRecord("AppMethodBeat#threadMethod", threadBuffer, threadBuffer.beginSequence);
+        // only the record is handed over, the window is copied on the handler thread like the main thread one
+        MatrixHandlerThread.getDefaultHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onLongMethod(beginRecord, beginMs, endMs);
+            }
+        });
+    }
+
+    /**
+     * find the ring buffer of current thread without allocation,
+     * a slot will be claimed when the thread is traced for the first time.
+     * The thread which gets no slot keeps a marker instead, and claims again after {@link #CLAIM_RETRY_INTERVAL_MS}.
+     *
+     * @return null if there is no slot for current thread
+     */
+    private static ThreadBuffer obtainThreadBuffer() {
+        ThreadLocal<ThreadBuffer> threadLocal = sThreadBufferLocal;
+        ThreadBuffer threadBuffer = threadLocal.get();
+        if (null != threadBuffer) {
+            if (!threadBuffer.isNoSlot()) {
+                return threadBuffer;
+            }
+            if (SystemClock.uptimeMillis() < threadBuffer.retryTimeMs) {
+                return null;
+            }
+        }
+        ThreadBuffer claimed = claimThreadBuffer(Thread.currentThread());
+        if (null == claimed) {
+            if (null == threadBuffer) {
+                threadBuffer = new ThreadBuffer(null, 0);
+                threadLocal.set(threadBuffer);
+            }
+            threadBuffer.retryTimeMs = SystemClock.uptimeMillis() + CLAIM_RETRY_INTERVAL_MS;
+            return null;
+        }
+        threadLocal.set(claimed);
+        return claimed;
+    }
+
+    /**
+     * a slot is free if it's never used or its owner thread is dead, so the threads of the pools come and go
+     * won't use up the slots.
+     */
+    private static ThreadBuffer claimThreadBuffer(Thread thread) {
+        synchronized (sThreadBuffers) {
+            for (int i = 0; i < sThreadBuffers.length; i++) {
+                ThreadBuffer threadBuffer = sThreadBuffers[i];
+                if (null == threadBuffer || !threadBuffer.isOwnerAlive()) {
+                    if (null != threadBuffer) {
+                        MatrixLog.i(TAG, "[claimThreadBuffer] reclaim slot:%s of dead thread:%s", i, threadBuffer.threadName);
+                    }
+                    threadBuffer = new ThreadBuffer(thread, Constants.THREAD_BUFFER_SIZE);
+                    sThreadBuffers[i] = threadBuffer;
+                    if (i >= sThreadBufferCount.get()) {
+                        sThreadBufferCount.set(i + 1);
+                    }
+                    return threadBuffer;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static ThreadBuffer findThreadBuffer(long threadId) {
+        int count = Math.min(sThreadBufferCount.get(), sThreadBuffers.length);
+        for (int i = 0; i < count; i++) {
+            ThreadBuffer threadBuffer = sThreadBuffers[i];
+            if (null != threadBuffer && threadBuffer.threadId == threadId) {
+                return threadBuffer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the ids of threads which has its own trace buffer, the main thread is excluded.
+     */
+    public long[] getTraceThreadIds() {
+        int count = Math.min(sThreadBufferCount.get(), sThreadBuffers.length);
+        long[] threadIds = new long[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            ThreadBuffer threadBuffer = sThreadBuffers[i];
+            if (null != threadBuffer) {
+                threadIds[size++] = threadBuffer.threadId;
+            }
+        }
+        if (size < count) {
+            long[] tmp = new long[size];
+            System.arraycopy(threadIds, 0, tmp, 0, size);
+            return tmp;
+        }
+        return threadIds;
+    }
+
+    public String getTraceThreadName(long threadId) {
+        if (threadId == sMainThreadId) {
+            return Looper.getMainLooper().getThread().getName();
+        }
+        ThreadBuffer threadBuffer = findThreadBuffer(threadId);
+        return null == threadBuffer ? null : threadBuffer.threadName;
     }
 
     /**
@@ -300,15 +578,86 @@ public class AppMethodBeat implements BeatLifecycle {
         if (methodId == AppMethodBeat.METHOD_ID_DISPATCH) {
             sCurrentDiffTime = SystemClock.uptimeMillis() - sDiffTime;
         }
+        sBuffer[index] = packData(methodId, isIn, currentTime());
+        checkPileup(index);
+        sLastIndex = index;
+    }
+
+    /**
+     * |isIn(1bit)|methodId(20bit)|time(43bit)|
+     */
+    private static long packData(int methodId, boolean isIn, long time) {
         long trueId = 0L;
         if (isIn) {
             trueId |= 1L << 63;
         }
         trueId |= (long) methodId << 43;
-        trueId |= sCurrentDiffTime & 0x7FFFFFFFFFFL;
-        sBuffer[index] = trueId;
-        checkPileup(index);
-        sLastIndex = index;
+        trueId |= time & 0x7FFFFFFFFFFL;
+        return trueId;
+    }
+
+    /**
+     * The ring buffer of a non-main thread. Only the owner thread writes it, so the writer is lock-free,
+     * {@link #count} is published by a volatile write and readers detect the overwritten window by it.
+     */
+    private static final class ThreadBuffer {
+        final long threadId;
+        final String threadName;
+        final WeakReference<Thread> owner;
+        final long[] buffer;
+        // the count of the records written, and the one being written which is published before its slot is
+        // overwritten, so a copy which sees the slot overwritten sees writingCount too
+        volatile long count = 0;
+        volatile long writingCount = 0;
+        // only for the marker of a thread without a slot
+        long retryTimeMs;
+        boolean assertIn = false;
+        // the outermost traced method, only accessed by the owner thread
+        int depth = 0;
+        long beginSequence;
+        long beginTime;
+        long endTime;
+
+        ThreadBuffer(Thread thread, int size) {
+            this.threadId = null == thread ? -1 : thread.getId();
+            this.threadName = null == thread ? null : thread.getName();
+            this.owner = new WeakReference<>(thread);
+            this.buffer = new long[size];
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return null != thread && thread.isAlive();
+        }
+
+        boolean isNoSlot() {
+            return buffer.length == 0;
+        }
+
+        /**
+         * @return true if the outermost traced method returns
+         */
+        boolean merge(int methodId, boolean isIn) {
+            long current = count;
+            long time = currentTime();
+            writingCount = current + 1;
+            // the slot is indexed by the volatile read of writingCount, which keeps the write behind the publishing
+            buffer[(int) ((writingCount - 1) % buffer.length)] = packData(methodId, isIn, time);
+            count = current + 1;
+            if (isIn) {
+                if (depth++ == 0) {
+                    beginSequence = current;
+                    beginTime = time;
+                }
+                return false;
+            }
+            // the method exits by an exception thrown from its callee has no out record, so the depth may be wrong
+            if (depth > 0 && --depth == 0) {
+                endTime = time;
+                return true;
+            }
+            return false;
+        }
     }
 
     public void addListener(IAppMethodBeatListener listener) {
@@ -360,6 +709,35 @@ public class AppMethodBeat implements BeatLifecycle {
         }
     }
 
+    /**
+     * mask the current position of the trace buffer which belongs to {@code threadId}.
+     *
+     * @param source
+     * @param threadId
+     * @return
+     */
+    public IndexRecord maskIndex(String source, long threadId) {
+        if (threadId == sMainThreadId) {
+            return maskIndex(source);
+        }
+        ThreadBuffer threadBuffer = findThreadBuffer(threadId);
+        if (null == threadBuffer) {
+            IndexRecord indexRecord = new IndexRecord();
+            indexRecord.threadId = threadId;
+            indexRecord.source = source;
+            return indexRecord;
+        }
+        return newThreadRecord(source, threadBuffer, threadBuffer.count);
+    }
+
+    private static IndexRecord newThreadRecord(String source, ThreadBuffer threadBuffer, long sequence) {
+        IndexRecord indexRecord = new IndexRecord((int) (sequence % threadBuffer.buffer.length));
+        indexRecord.sequence = sequence;
+        indexRecord.threadId = threadBuffer.threadId;
+        indexRecord.source = source;
+        return indexRecord;
+    }
+
     private static void checkPileup(int index) {
         IndexRecord indexRecord = sIndexRecordHead;
         while (indexRecord != null) {
@@ -384,11 +762,17 @@ public class AppMethodBeat implements BeatLifecycle {
 
         public int index;
         private IndexRecord next;
-        public boolean isValid = true;
+        // it's read by the threads copying the window after the copy, see copyWindow
+        public volatile boolean isValid = true;
         public String source;
+        public long threadId = sMainThreadId;
+        private long sequence;
 
         public void release() {
             isValid = false;
+            if (threadId != sMainThreadId) {
+                return;
+            }
             IndexRecord record = sIndexRecordHead;
             IndexRecord last = null;
             while (null != record) {
@@ -408,41 +792,147 @@ public class AppMethodBeat implements BeatLifecycle {
 
         @Override
         public String toString() {
-            return "index:" + index + ",\tisValid:" + isValid + " source:" + source;
+            return "index:" + index + ",\tisValid:" + isValid + " source:" + source + " threadId:" + threadId;
         }
     }
 
+    /**
+     * it allocates a new array every time, use {@link #copySnapshot(IndexRecord)} instead.
+     */
     public long[] copyData(IndexRecord startRecord) {
+        TraceSnapshot snapshot = copySnapshot(startRecord);
+        try {
+            return snapshot.toArray();
+        } finally {
+            snapshot.recycle();
+        }
+    }
+
+    /**
+     * copy the window from {@code startRecord} to now into a buffer of {@link #getSnapshotPool()}, the snapshot must be
+     * recycled once it's analysed.
+     */
+    public TraceSnapshot copySnapshot(IndexRecord startRecord) {
+        if (startRecord.threadId != sMainThreadId) {
+            return copyThreadData(startRecord);
+        }
         return copyData(startRecord, new IndexRecord(sIndex - 1));
     }
 
-    private long[] copyData(IndexRecord startRecord, IndexRecord endRecord) {
+    public static TraceSnapshotPool getSnapshotPool() {
+        return sSnapshotPool;
+    }
+
+    /**
+     * copy the window from {@code startRecord} to now for the thread of {@code startRecord}
+     * while the owner thread keeps writing.
+     */
+    private TraceSnapshot copyThreadData(IndexRecord startRecord) {
+        long current = System.currentTimeMillis();
+        TraceSnapshot snapshot = TraceSnapshot.EMPTY;
+        ThreadBuffer threadBuffer = findThreadBuffer(startRecord.threadId);
+        try {
+            if (!startRecord.isValid || null == threadBuffer) {
+                return snapshot;
+            }
+            long[] buffer = threadBuffer.buffer;
+            long end = threadBuffer.count;
+            long start = startRecord.sequence;
+            if (end - start >= buffer.length) {
+                MatrixLog.w(TAG, "[copyThreadData] window has been overwritten! %s", startRecord);
+                startRecord.isValid = false;
+                return snapshot;
+            }
+            int length = (int) (end - start);
+            if (length <= 0) {
+                return snapshot;
+            }
+            snapshot = sSnapshotPool.obtain(length);
+            long[] data = snapshot.getData();
+            int from = (int) (start % buffer.length);
+            int firstPart = Math.min(length, buffer.length - from);
+            System.arraycopy(buffer, from, data, 0, firstPart);
+            if (firstPart < length) {
+                System.arraycopy(buffer, 0, data, firstPart, length - firstPart);
+            }
+            // the writer may have wrapped around while copying. The volatile write keeps the reads of the copy before the
+            // read of writingCount, which is published by the writer before it overwrites a slot
+            sCopyFence = end;
+            if (threadBuffer.writingCount - start > buffer.length) {
+                MatrixLog.w(TAG, "[copyThreadData] window is overwritten while copying! %s", startRecord);
+                startRecord.isValid = false;
+                snapshot.recycle();
+                snapshot = TraceSnapshot.EMPTY;
+            }
+            return snapshot;
+        } catch (OutOfMemoryError e) {
+            MatrixLog.e(TAG, e.toString());
+            return snapshot;
+        } finally {
+            MatrixLog.i(TAG, "[copyThreadData] thread:%s length:%s cost:%sms pool:%s", startRecord.threadId, snapshot.getLength(), System.currentTimeMillis() - current, sSnapshotPool);
+        }
+    }
+
+    /**
+     * the length of the main thread window from {@code startRecord} to {@code endRecord}, 0 if it's empty.
+     */
+    public static int getWindowLength(IndexRecord startRecord, IndexRecord endRecord) {
+        int start = Math.max(0, startRecord.index);
+        int end = Math.max(0, endRecord.index);
+        if (end > start) {
+            return end - start + 1;
+        } else if (end < start) {
+            return 1 + end + (sBuffer.length - start);
+        }
+        return 0;
+    }
+
+    /**
+     * copy the main thread window from {@code startRecord} to {@code endRecord} into {@code data} of the caller, so
+     * it can be done off the main thread and doesn't take a buffer of {@link #getSnapshotPool()}. Both records must not
+     * be released until it returns, then {@link #checkPileup} invalidates {@code startRecord} before the window is
+     * overwritten, which is checked again after the copy.
+     *
+     * @param data at least {@link #getWindowLength} long
+     * @return false if the window is invalid or overwritten while copying, the data must be dropped then
+     */
+    public boolean copyWindow(IndexRecord startRecord, IndexRecord endRecord, long[] data) {
+        if (!startRecord.isValid || !endRecord.isValid) {
+            return false;
+        }
+        copyWindowTo(startRecord, endRecord, data);
+        return startRecord.isValid;
+    }
+
+    private static void copyWindowTo(IndexRecord startRecord, IndexRecord endRecord, long[] data) {
+        int start = Math.max(0, startRecord.index);
+        int end = Math.max(0, endRecord.index);
+        if (end > start) {
+            System.arraycopy(sBuffer, start, data, 0, end - start + 1);
+        } else if (end < start) {
+            System.arraycopy(sBuffer, start, data, 0, sBuffer.length - start);
+            System.arraycopy(sBuffer, 0, data, sBuffer.length - start, end + 1);
+        }
+    }
+
+    private TraceSnapshot copyData(IndexRecord startRecord, IndexRecord endRecord) {
         long current = System.currentTimeMillis();
-        long[] data = new long[0];
+        TraceSnapshot snapshot = TraceSnapshot.EMPTY;
         try {
             if (startRecord.isValid && endRecord.isValid) {
-                int length;
-                int start = Math.max(0, startRecord.index);
-                int end = Math.max(0, endRecord.index);
-
-                if (end > start) {
-                    length = end - start + 1;
-                    data = new long[length];
-                    System.arraycopy(sBuffer, start, data, 0, length);
-                } else if (end < start) {
-                    length = 1 + end + (sBuffer.length - start);
-                    data = new long[length];
-                    System.arraycopy(sBuffer, start, data, 0, sBuffer.length - start);
-                    System.arraycopy(sBuffer, 0, data, sBuffer.length - start, end + 1);
+                int length = getWindowLength(startRecord, endRecord);
+                if (length > 0) {
+                    snapshot = sSnapshotPool.obtain(length);
+                    copyWindowTo(startRecord, endRecord, snapshot.getData());
                 }
-                return data;
+                return snapshot;
             }
-            return data;
+            return snapshot;
         } catch (OutOfMemoryError e) {
             MatrixLog.e(TAG, e.toString());
-            return data;
+            return snapshot;
         } finally {
-            MatrixLog.i(TAG, "[copyData] [%s:%s] length:%s cost:%sms", Math.max(0, startRecord.index), endRecord.index, data.length, System.currentTimeMillis() - current);
+            MatrixLog.i(TAG, "[copyData] [%s:%s] length:%s cost:%sms pool:%s", Math.max(0, startRecord.index), endRecord.index, snapshot.getLength(), System.currentTimeMillis() - current, sSnapshotPool);
         }
     }
 
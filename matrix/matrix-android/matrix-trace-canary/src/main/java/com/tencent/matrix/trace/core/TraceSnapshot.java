@@ -0,0 +1,44 @@
+package com.tencent.matrix.trace.core;
+
+import java.util.Arrays;
+
+/**
+ * A window of the trace buffer copied by {@link AppMethodBeat#copySnapshot(AppMethodBeat.IndexRecord)}, only the
+ * first {@link #getLength()} items of {@link #getData()} belong to the window.
+ * <p>
+ * The data may come from {@link TraceSnapshotPool}, so call {@link #recycle()} once it's not used anymore and don't
+ * keep the data after that.
+ * </p>
+ */
+public final class TraceSnapshot {
+
+    static final TraceSnapshot EMPTY = new TraceSnapshot(null, new long[0]);
+
+    private final TraceSnapshotPool pool;
+    long[] data;
+    int length;
+    boolean isInUse;
+
+    TraceSnapshot(TraceSnapshotPool pool, long[] data) {
+        this.pool = pool;
+        this.data = data;
+    }
+
+    public long[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(data, length);
+    }
+
+    public void recycle() {
+        if (null != pool) {
+            pool.recycle(this);
+        }
+    }
+}
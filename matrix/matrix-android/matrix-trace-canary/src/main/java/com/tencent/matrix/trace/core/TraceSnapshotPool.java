@@ -0,0 +1,110 @@
+package com.tencent.matrix.trace.core;
+
+import com.tencent.matrix.trace.constants.Constants;
+import com.tencent.matrix.util.MatrixHandlerThread;
+import com.tencent.matrix.util.MatrixLog;
+
+/**
+ * Keeps a few buffers for {@link TraceSnapshot}, so the jank which comes one after another doesn't allocate
+ * megabytes again and again. The buffers are dropped after they are not used for
+ * {@link Constants#SNAPSHOT_TRIM_DELAY_MS}.
+ * <p>
+ * When all of the buffers are in use, the snapshot gets a buffer of its own which isn't pooled.
+ * </p>
+ */
+public final class TraceSnapshotPool {
+
+    private static final String TAG = "Matrix.TraceSnapshotPool";
+    private static final int CAPACITY_ALIGN = 64 * 1024;
+    private final TraceSnapshot[] snapshots;
+    private int hitCount;
+    private int missCount;
+
+    TraceSnapshotPool(int size) {
+        snapshots = new TraceSnapshot[size];
+        for (int i = 0; i < size; i++) {
+            snapshots[i] = new TraceSnapshot(this, null);
+        }
+    }
+
+    private final Runnable trimRunnable = new Runnable() {
+        @Override
+        public void run() {
+            trim();
+        }
+    };
+
+    /**
+     * @return a snapshot whose data can hold {@code length} items at least.
+     * @throws OutOfMemoryError if there isn't a buffer big enough and it can't be allocated.
+     */
+    synchronized TraceSnapshot obtain(int length) {
+        TraceSnapshot free = null;
+        for (TraceSnapshot snapshot : snapshots) {
+            if (snapshot.isInUse) {
+                continue;
+            }
+            if (null != snapshot.data && snapshot.data.length >= length) {
+                hitCount++;
+                return use(snapshot, length);
+            }
+            if (null == free || null == snapshot.data || (null != free.data && snapshot.data.length < free.data.length)) {
+                free = snapshot;
+            }
+        }
+
+        missCount++;
+        long[] data = new long[alignCapacity(length)];
+        if (null == free) {
+            free = new TraceSnapshot(null, data);
+        } else {
+            free.data = data;
+        }
+        return use(free, length);
+    }
+
+    private static TraceSnapshot use(TraceSnapshot snapshot, int length) {
+        snapshot.isInUse = true;
+        snapshot.length = length;
+        return snapshot;
+    }
+
+    private static int alignCapacity(int length) {
+        int capacity = (length + CAPACITY_ALIGN - 1) / CAPACITY_ALIGN * CAPACITY_ALIGN;
+        return Math.max(length, Math.min(capacity, Constants.BUFFER_SIZE));
+    }
+
+    synchronized void recycle(TraceSnapshot snapshot) {
+        if (!snapshot.isInUse) {
+            return;
+        }
+        snapshot.isInUse = false;
+        snapshot.length = 0;
+        MatrixHandlerThread.getDefaultHandler().removeCallbacks(trimRunnable);
+        MatrixHandlerThread.getDefaultHandler().postDelayed(trimRunnable, Constants.SNAPSHOT_TRIM_DELAY_MS);
+    }
+
+    private synchronized void trim() {
+        int count = 0;
+        for (TraceSnapshot snapshot : snapshots) {
+            if (!snapshot.isInUse && null != snapshot.data) {
+                snapshot.data = null;
+                count++;
+            }
+        }
+        MatrixLog.i(TAG, "[trim] release %s buffers, %s", count, this);
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("hit:%s miss:%s", hitCount, missCount);
+    }
+}
@@ -1,15 +1,26 @@
 package com.tencent.matrix.trace.items;
 
+import com.tencent.matrix.trace.constants.Constants;
+
 public class MethodItem {
 
     public int methodId;
     public int durTime;
+    public long durTimeNs;
     public int depth;
     public int count = 1;
 
     public MethodItem(int methodId, int durTime, int depth) {
         this.methodId = methodId;
         this.durTime = durTime;
+        this.durTimeNs = (long) durTime * Constants.TIME_MILLIS_TO_NANO;
+        this.depth = depth;
+    }
+
+    public MethodItem(int methodId, long durTimeNs, int depth) {
+        this.methodId = methodId;
+        this.durTimeNs = durTimeNs;
+        this.durTime = (int) (durTimeNs / Constants.TIME_MILLIS_TO_NANO);
         this.depth = depth;
     }
 
@@ -21,6 +32,18 @@ public class MethodItem {
     public void mergeMore(long cost) {
         count++;
         durTime += cost;
+        durTimeNs += cost * Constants.TIME_MILLIS_TO_NANO;
+    }
+
+    /**
+     * merge the cost in nanosecond, the methods shorter than one millisecond are accumulated as well.
+     *
+     * @param costNs
+     */
+    public void mergeMoreNs(long costNs) {
+        count++;
+        durTimeNs += costNs;
+        durTime = (int) (durTimeNs / Constants.TIME_MILLIS_TO_NANO);
     }
 
     public String print() {
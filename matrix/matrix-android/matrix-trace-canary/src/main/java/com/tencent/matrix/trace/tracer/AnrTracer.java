@@ -12,6 +12,7 @@ import com.tencent.matrix.trace.config.SharePluginInfo;
 import com.tencent.matrix.trace.config.TraceConfig;
 import com.tencent.matrix.trace.constants.Constants;
 import com.tencent.matrix.trace.core.AppMethodBeat;
+import com.tencent.matrix.trace.core.TraceSnapshot;
 import com.tencent.matrix.trace.core.UIThreadMonitor;
 import com.tencent.matrix.trace.items.MethodItem;
 import com.tencent.matrix.trace.util.TraceDataUtils;
@@ -113,8 +114,17 @@ public class AnrTracer extends Tracer {
             boolean isForeground = isForeground();
             // process
             int[] processStat = Utils.getProcessPriority(Process.myPid());
-            long[] data = AppMethodBeat.getInstance().copyData(beginRecord);
-            beginRecord.release();
+            // trace, the snapshot goes back to the pool before anything else may throw
+            TraceSnapshot snapshot = AppMethodBeat.getInstance().copySnapshot(beginRecord);
+            LinkedList<MethodItem> stack = new LinkedList();
+            try {
+                beginRecord.release();
+                if (snapshot.getLength() > 0) {
+                    TraceDataUtils.structuredDataToStack(snapshot.getData(), snapshot.getLength(), stack, true, curTime);
+                }
+            } finally {
+                snapshot.recycle();
+            }
             String scene = AppMethodBeat.getVisibleScene();
 
             // memory
@@ -132,9 +142,7 @@ public class AnrTracer extends Tracer {
             long traversalCost = monitor.getQueueCost(UIThreadMonitor.CALLBACK_TRAVERSAL, token);
 
             // trace
-            LinkedList<MethodItem> stack = new LinkedList();
-            if (data.length > 0) {
-                TraceDataUtils.structuredDataToStack(data, stack, true, curTime);
+            if (!stack.isEmpty()) {
                 TraceDataUtils.trimStack(stack, Constants.TARGET_EVIL_METHOD_STACK, new TraceDataUtils.IStructuredDataFilter() {
                     @Override
                     public boolean isFilter(long during, int filterCount) {
@@ -1,5 +1,6 @@
 package com.tencent.matrix.trace.tracer;
 
+import android.os.Looper;
 import android.os.Process;
 
 import com.tencent.matrix.Matrix;
@@ -9,6 +10,7 @@ import com.tencent.matrix.trace.config.SharePluginInfo;
 import com.tencent.matrix.trace.config.TraceConfig;
 import com.tencent.matrix.trace.constants.Constants;
 import com.tencent.matrix.trace.core.AppMethodBeat;
+import com.tencent.matrix.trace.core.TraceSnapshot;
 import com.tencent.matrix.trace.core.UIThreadMonitor;
 import com.tencent.matrix.trace.items.MethodItem;
 import com.tencent.matrix.trace.util.TraceDataUtils;
@@ -24,7 +26,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-public class EvilMethodTracer extends Tracer {
+public class EvilMethodTracer extends Tracer implements AppMethodBeat.ThreadMethodListener {
 
     private static final String TAG = "Matrix.EvilMethodTracer";
     private final TraceConfig config;
@@ -44,6 +46,7 @@ public class EvilMethodTracer extends Tracer {
         super.onAlive();
         if (isEvilMethodTraceEnable) {
             UIThreadMonitor.getMonitor().addObserver(this);
+            AppMethodBeat.setThreadMethodListener(this, evilThresholdMs);
         }
 
     }
@@ -53,6 +56,7 @@ public class EvilMethodTracer extends Tracer {
         super.onDead();
         if (isEvilMethodTraceEnable) {
             UIThreadMonitor.getMonitor().removeObserver(this);
+            AppMethodBeat.setThreadMethodListener(null, evilThresholdMs);
         }
     }
 
@@ -79,11 +83,19 @@ public class EvilMethodTracer extends Tracer {
         try {
             long dispatchCost = endMs - beginMs;
             if (dispatchCost >= evilThresholdMs) {
-                long[] data = AppMethodBeat.getInstance().copyData(indexRecord);
-                long[] queueCosts = new long[3];
-                System.arraycopy(queueTypeCosts, 0, queueCosts, 0, 3);
-                String scene = AppMethodBeat.getVisibleScene();
-                MatrixHandlerThread.getDefaultHandler().post(new AnalyseTask(isForeground(), scene, data, queueCosts, cpuEndMs - cpuBeginMs, endMs - beginMs, endMs));
+                TraceSnapshot snapshot = AppMethodBeat.getInstance().copySnapshot(indexRecord);
+                boolean isPosted = false;
+                try {
+                    long[] queueCosts = new long[3];
+                    System.arraycopy(queueTypeCosts, 0, queueCosts, 0, 3);
+                    String scene = AppMethodBeat.getVisibleScene();
+                    isPosted = MatrixHandlerThread.getDefaultHandler().post(new AnalyseTask(isForeground(), scene, snapshot, queueCosts, cpuEndMs - cpuBeginMs, endMs - beginMs, endMs));
+                } finally {
+                    // the task recycles it once it's posted
+                    if (!isPosted) {
+                        snapshot.recycle();
+                    }
+                }
             }
         } finally {
             indexRecord.release();
@@ -97,35 +109,87 @@ public class EvilMethodTracer extends Tracer {
 
     public void modifyEvilThresholdMs(long evilThresholdMs) {
         this.evilThresholdMs = evilThresholdMs;
+        if (isEvilMethodTraceEnable && isAlive()) {
+            AppMethodBeat.setThreadMethodListener(this, evilThresholdMs);
+        }
+    }
+
+    @Override
+    public void onLongMethod(AppMethodBeat.IndexRecord beginRecord, long beginMs, long endMs) {
+        analyseThread(beginRecord, beginMs, endMs);
+    }
+
+    /**
+     * analyse the methods which run on a non-main thread since {@code beginRecord}, it's called by
+     * {@link #onLongMethod} when the outermost method of a traced thread returns, or by a custom trigger with the
+     * record from {@link AppMethodBeat#maskIndex(String, long)}. Multi-thread trace must be enabled.
+     *
+     * @param beginRecord
+     * @param beginMs
+     * @param endMs
+     */
+    public void analyseThread(AppMethodBeat.IndexRecord beginRecord, long beginMs, long endMs) {
+        try {
+            if (!isEvilMethodTraceEnable || !AppMethodBeat.isMultiThreadTrace()) {
+                return;
+            }
+            long cost = endMs - beginMs;
+            if (cost >= evilThresholdMs) {
+                TraceSnapshot snapshot = AppMethodBeat.getInstance().copySnapshot(beginRecord);
+                boolean isPosted = false;
+                try {
+                    String scene = AppMethodBeat.getVisibleScene();
+                    AnalyseTask task = new AnalyseTask(isForeground(), scene, snapshot, new long[3], 0, cost, endMs);
+                    task.threadId = beginRecord.threadId;
+                    isPosted = MatrixHandlerThread.getDefaultHandler().post(task);
+                } finally {
+                    if (!isPosted) {
+                        snapshot.recycle();
+                    }
+                }
+            }
+        } finally {
+            beginRecord.release();
+        }
     }
 
     private class AnalyseTask implements Runnable {
         long[] queueCost;
-        long[] data;
+        TraceSnapshot snapshot;
         long cpuCost;
         long cost;
         long endMs;
         String scene;
         boolean isForeground;
+        long threadId = Looper.getMainLooper().getThread().getId();
 
-        AnalyseTask(boolean isForeground, String scene, long[] data, long[] queueCost, long cpuCost, long cost, long endMs) {
+        AnalyseTask(boolean isForeground, String scene, TraceSnapshot snapshot, long[] queueCost, long cpuCost, long cost, long endMs) {
             this.isForeground = isForeground;
             this.scene = scene;
             this.cost = cost;
             this.cpuCost = cpuCost;
-            this.data = data;
+            this.snapshot = snapshot;
             this.queueCost = queueCost;
             this.endMs = endMs;
         }
 
         void analyse() {
+            LinkedList<MethodItem> stack = new LinkedList();
+            boolean isMainThread;
+            try {
+                isMainThread = threadId == Looper.getMainLooper().getThread().getId();
+                if (snapshot.getLength() > 0) {
+                    // there is no dispatch method on other threads, so don't be strict
+                    TraceDataUtils.structuredDataToStack(snapshot.getData(), snapshot.getLength(), stack, isMainThread, endMs);
+                }
+            } finally {
+                snapshot.recycle();
+            }
 
             // process
             int[] processStat = Utils.getProcessPriority(Process.myPid());
             String usage = Utils.calculateCpuUsage(cpuCost, cost);
-            LinkedList<MethodItem> stack = new LinkedList();
-            if (data.length > 0) {
-                TraceDataUtils.structuredDataToStack(data, stack, true, endMs);
+            if (!stack.isEmpty()) {
                 TraceDataUtils.trimStack(stack, Constants.TARGET_EVIL_METHOD_STACK, new TraceDataUtils.IStructuredDataFilter() {
                     @Override
                     public boolean isFilter(long during, int filterCount) {
@@ -172,6 +236,9 @@ public class EvilMethodTracer extends Tracer {
                 jsonObject.put(SharePluginInfo.ISSUE_SCENE, scene);
                 jsonObject.put(SharePluginInfo.ISSUE_TRACE_STACK, reportBuilder.toString());
                 jsonObject.put(SharePluginInfo.ISSUE_STACK_KEY, stackKey);
+                if (!isMainThread) {
+                    jsonObject.put(SharePluginInfo.ISSUE_THREAD_NAME, AppMethodBeat.getInstance().getTraceThreadName(threadId));
+                }
 
                 Issue issue = new Issue();
                 issue.setTag(SharePluginInfo.TAG_PLUGIN_EVIL_METHOD);
@@ -0,0 +1,201 @@
+package com.tencent.matrix.trace.tracer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.tencent.matrix.Matrix;
+import com.tencent.matrix.report.Issue;
+import com.tencent.matrix.trace.TracePlugin;
+import com.tencent.matrix.trace.config.SharePluginInfo;
+import com.tencent.matrix.trace.config.TraceConfig;
+import com.tencent.matrix.trace.constants.Constants;
+import com.tencent.matrix.trace.core.AppMethodBeat;
+import com.tencent.matrix.trace.core.UIThreadMonitor;
+import com.tencent.matrix.trace.util.MethodCostMatcher;
+import com.tencent.matrix.trace.util.MethodStatTable;
+import com.tencent.matrix.util.DeviceUtil;
+import com.tencent.matrix.util.MatrixHandlerThread;
+import com.tencent.matrix.util.MatrixLog;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Unlike {@link EvilMethodTracer} which reports a stack only when a single dispatch is slow, it sums up the cost of
+ * every method of the main thread over {@link TraceConfig#getHotMethodReportIntervalMs()}, and then reports the
+ * {@link TraceConfig#getHotMethodTopN()} methods with the most total cost, so the methods which are cheap but called
+ * very often can be found.
+ * <p>
+ * The trace buffer is marked window by window at the end of dispatches, and the windows are copied into a buffer
+ * of its own and consumed on its own thread, so the main thread only masks the index.
+ * </p>
+ */
+public class HotMethodTracer extends Tracer {
+
+    private static final String TAG = "Matrix.HotMethodTracer";
+    private final boolean isHotMethodTraceEnable;
+    private final long reportIntervalMs;
+    private final int topN;
+    private final MethodStatTable statTable = new MethodStatTable(1024);
+    private final MethodCostMatcher costMatcher = new MethodCostMatcher();
+    // it's only used on the aggregate thread and never taken from the snapshot pool of the other tracers
+    private long[] windowData = new long[0];
+    private long statBeginMs;
+    private AppMethodBeat.IndexRecord windowRecord;
+    private long windowBeginMs;
+    private HandlerThread aggregateThread;
+    private Handler aggregateHandler;
+
+    public HotMethodTracer(TraceConfig config) {
+        this.isHotMethodTraceEnable = config.isHotMethodTraceEnable();
+        this.reportIntervalMs = config.getHotMethodReportIntervalMs();
+        this.topN = config.getHotMethodTopN();
+    }
+
+    @Override
+    public void onAlive() {
+        super.onAlive();
+        if (isHotMethodTraceEnable) {
+            aggregateThread = MatrixHandlerThread.getNewHandlerThread("matrix_hot_method");
+            aggregateHandler = new Handler(aggregateThread.getLooper());
+            statBeginMs = System.currentTimeMillis();
+            aggregateHandler.postDelayed(reportRunnable, reportIntervalMs);
+            UIThreadMonitor.getMonitor().addObserver(this);
+        }
+    }
+
+    @Override
+    public void onDead() {
+        super.onDead();
+        if (isHotMethodTraceEnable) {
+            UIThreadMonitor.getMonitor().removeObserver(this);
+            if (null != windowRecord) {
+                windowRecord.release();
+                windowRecord = null;
+            }
+            aggregateHandler.removeCallbacks(reportRunnable);
+            // let the pending windows release their records
+            aggregateThread.quitSafely();
+        }
+    }
+
+    @Override
+    public void dispatchEnd(long beginMs, long cpuBeginMs, long endMs, long cpuEndMs, long token, boolean isBelongFrame) {
+        super.dispatchEnd(beginMs, cpuBeginMs, endMs, cpuEndMs, token, isBelongFrame);
+        if (null == windowRecord) {
+            windowRecord = AppMethodBeat.getInstance().maskIndex("HotMethodTracer#window");
+            windowBeginMs = endMs;
+            return;
+        }
+        if (endMs - windowBeginMs < Constants.HOT_METHOD_WINDOW_MS) {
+            return;
+        }
+        AppMethodBeat.IndexRecord endRecord = AppMethodBeat.getInstance().maskIndex("HotMethodTracer#window");
+        // only the records are posted, the window is copied on the aggregate thread
+        aggregateHandler.post(new AggregateTask(windowRecord, endRecord));
+        windowRecord = endRecord;
+        windowBeginMs = endMs;
+    }
+
+    private final class AggregateTask implements Runnable {
+        final AppMethodBeat.IndexRecord startRecord;
+        final AppMethodBeat.IndexRecord endRecord;
+
+        AggregateTask(AppMethodBeat.IndexRecord startRecord, AppMethodBeat.IndexRecord endRecord) {
+            this.startRecord = startRecord;
+            this.endRecord = endRecord;
+        }
+
+        @Override
+        public void run() {
+            try {
+                aggregate();
+            } finally {
+                // the records are linked on the main thread, the end one is the start of the next window
+                MatrixHandlerThread.getDefaultMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startRecord.release();
+                    }
+                });
+            }
+        }
+
+        private void aggregate() {
+            int length = AppMethodBeat.getWindowLength(startRecord, endRecord);
+            if (length > windowData.length) {
+                try {
+                    windowData = new long[length];
+                } catch (OutOfMemoryError e) {
+                    MatrixLog.e(TAG, "[aggregate] %s, drop %s in-methods", e, costMatcher.reset());
+                    return;
+                }
+            }
+            if (!AppMethodBeat.getInstance().copyWindow(startRecord, endRecord, windowData)) {
+                // the window has been overwritten, the methods which are still in can't be matched anymore
+                MatrixLog.w(TAG, "[aggregate] window is invalid, drop %s in-methods", costMatcher.reset());
+                return;
+            }
+            // the first one is the last one of the previous window
+            costMatcher.match(windowData, 1, length, AppMethodBeat.getTimeUnitNanos(), statTable);
+        }
+    }
+
+    private final Runnable reportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long endMs = System.currentTimeMillis();
+            try {
+                if (statTable.size() > 0) {
+                    report(endMs - statBeginMs);
+                }
+            } finally {
+                statTable.clear();
+                statBeginMs = endMs;
+                aggregateHandler.postDelayed(this, reportIntervalMs);
+            }
+        }
+    };
+
+    private void report(long duration) {
+        int[] slots = statTable.top(topN);
+        StringBuilder print = new StringBuilder();
+        print.append(String.format("-\n>>>>>>>>>>>>>>>>>>>>> hot methods in %sms <<<<<<<<<<<<<<<<<<<<<\n", duration));
+        try {
+            JSONArray methodsJson = new JSONArray();
+            for (int slot : slots) {
+                long cost = statTable.getTotalCost(slot) / Constants.TIME_MILLIS_TO_NANO;
+                long maxCost = statTable.getMaxCost(slot) / Constants.TIME_MILLIS_TO_NANO;
+                JSONObject methodJson = new JSONObject();
+                methodJson.put(SharePluginInfo.ISSUE_METHOD_ID, statTable.getMethodId(slot));
+                methodJson.put(SharePluginInfo.ISSUE_METHOD_COUNT, statTable.getCount(slot));
+                methodJson.put(SharePluginInfo.ISSUE_COST, cost);
+                methodJson.put(SharePluginInfo.ISSUE_MAX_COST, maxCost);
+                methodsJson.put(methodJson);
+                print.append("|* ").append(statTable.getMethodId(slot)).append(" count:").append(statTable.getCount(slot))
+                        .append(" cost:").append(cost).append("ms max:").append(maxCost).append("ms\n");
+            }
+            print.append("=========================================================================");
+            MatrixLog.i(TAG, "%s", print.toString());
+
+            TracePlugin plugin = Matrix.with().getPluginByClass(TracePlugin.class);
+            if (null == plugin) {
+                return;
+            }
+            JSONObject jsonObject = new JSONObject();
+            jsonObject = DeviceUtil.getDeviceInfo(jsonObject, Matrix.with().getApplication());
+            jsonObject.put(SharePluginInfo.ISSUE_SCENE, AppMethodBeat.getVisibleScene());
+            jsonObject.put(SharePluginInfo.ISSUE_DURATION, duration);
+            jsonObject.put(SharePluginInfo.ISSUE_HOT_METHODS, methodsJson);
+
+            Issue issue = new Issue();
+            issue.setTag(SharePluginInfo.TAG_PLUGIN_HOT_METHOD);
+            issue.setContent(jsonObject);
+            plugin.onDetectIssue(issue);
+
+        } catch (JSONException e) {
+            MatrixLog.e(TAG, "[JSONException error: %s", e);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.tencent.matrix.trace.tracer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.tencent.matrix.Matrix;
+import com.tencent.matrix.report.Issue;
+import com.tencent.matrix.trace.TracePlugin;
+import com.tencent.matrix.trace.config.SharePluginInfo;
+import com.tencent.matrix.trace.config.TraceConfig;
+import com.tencent.matrix.trace.constants.Constants;
+import com.tencent.matrix.trace.core.AppMethodBeat;
+import com.tencent.matrix.trace.core.UIThreadMonitor;
+import com.tencent.matrix.trace.items.MethodItem;
+import com.tencent.matrix.trace.util.TraceDataUtils;
+import com.tencent.matrix.trace.util.Utils;
+import com.tencent.matrix.util.DeviceUtil;
+import com.tencent.matrix.util.MatrixHandlerThread;
+import com.tencent.matrix.util.MatrixLog;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Finds the slow dispatches of the main looper like {@link EvilMethodTracer}, but the stack is built from the samples
+ * of the main thread's stack taken every {@link TraceConfig#getSampleIntervalMs()} during the dispatch, so it works
+ * without the trace transform of matrix-gradle-plugin.
+ * <p>
+ * The methods are identified by the hash of their names, which is the same on every device, and the names of the
+ * reported methods are put into the issue. The ids are not the ones assigned by the trace transform, so the issue is
+ * reported with {@link SharePluginInfo#TAG_PLUGIN_SAMPLING_METHOD} instead of the tag of {@link EvilMethodTracer}.
+ * </p>
+ */
+public class SamplingMethodTracer extends Tracer {
+
+    private static final String TAG = "Matrix.SamplingMethodTracer";
+    private static final String LOOPER_LOOP = "android.os.Looper.loop";
+    private static final String HANDLER_DISPATCH = "android.os.Handler.dispatchMessage";
+    private final TraceConfig config;
+    private final Thread mainThread = Looper.getMainLooper().getThread();
+    private final Object lock = new Object();
+    private final ArrayList<StackTraceElement[]> samples = new ArrayList<>();
+    private final long[] sampleTimes = new long[Constants.MAX_SAMPLE_COUNT];
+    private final int sampleIntervalMs;
+    private final boolean isSamplingTraceEnable;
+    private long evilThresholdMs;
+    private long sampleBeginMs;
+    private boolean isSampling;
+    private HandlerThread sampleThread;
+    private Handler sampleHandler;
+
+    public SamplingMethodTracer(TraceConfig config) {
+        this.config = config;
+        this.evilThresholdMs = config.getEvilThresholdMs();
+        this.sampleIntervalMs = config.getSampleIntervalMs();
+        this.isSamplingTraceEnable = config.isSamplingTraceEnable();
+    }
+
+    @Override
+    public void onAlive() {
+        super.onAlive();
+        if (isSamplingTraceEnable) {
+            sampleThread = MatrixHandlerThread.getNewHandlerThread("matrix_stack_sampler");
+            sampleHandler = new Handler(sampleThread.getLooper());
+            UIThreadMonitor.getMonitor().addObserver(this);
+        }
+    }
+
+    @Override
+    public void onDead() {
+        super.onDead();
+        if (isSamplingTraceEnable) {
+            UIThreadMonitor.getMonitor().removeObserver(this);
+            synchronized (lock) {
+                isSampling = false;
+                samples.clear();
+                sampleHandler.removeCallbacksAndMessages(null);
+            }
+            sampleThread.quit();
+        }
+    }
+
+    private final Runnable sampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                // the main thread isn't suspended any more once the samples are full
+                if (!isSampling || samples.size() >= Constants.MAX_SAMPLE_COUNT) {
+                    return;
+                }
+            }
+            long sampleMs = SystemClock.uptimeMillis();
+            StackTraceElement[] stack = mainThread.getStackTrace();
+            synchronized (lock) {
+                // the sample may be taken before the dispatch it's added to
+                if (!isSampling || sampleMs < sampleBeginMs || samples.size() >= Constants.MAX_SAMPLE_COUNT) {
+                    return;
+                }
+                sampleTimes[samples.size()] = sampleMs;
+                samples.add(stack);
+                // keep only one pending sample, the last one may be posted by a stale run
+                sampleHandler.removeCallbacks(this);
+                if (samples.size() < Constants.MAX_SAMPLE_COUNT) {
+                    sampleHandler.postDelayed(this, sampleIntervalMs);
+                }
+            }
+        }
+    };
+
+    @Override
+    public void dispatchBegin(long beginMs, long cpuBeginMs, long token) {
+        super.dispatchBegin(beginMs, cpuBeginMs, token);
+        synchronized (lock) {
+            isSampling = true;
+            sampleBeginMs = beginMs;
+            samples.clear();
+            sampleHandler.removeCallbacks(sampleRunnable);
+            sampleHandler.postDelayed(sampleRunnable, sampleIntervalMs);
+        }
+    }
+
+    @Override
+    public void dispatchEnd(long beginMs, long cpuBeginMs, long endMs, long cpuEndMs, long token, boolean isBelongFrame) {
+        super.dispatchEnd(beginMs, cpuBeginMs, endMs, cpuEndMs, token, isBelongFrame);
+        StackTraceElement[][] stacks = null;
+        long[] times = null;
+        synchronized (lock) {
+            isSampling = false;
+            sampleHandler.removeCallbacks(sampleRunnable);
+            if (endMs - beginMs >= evilThresholdMs && !samples.isEmpty()) {
+                stacks = samples.toArray(new StackTraceElement[samples.size()][]);
+                times = new long[stacks.length];
+                System.arraycopy(sampleTimes, 0, times, 0, stacks.length);
+            }
+            samples.clear();
+        }
+        if (null != stacks) {
+            String scene = AppMethodBeat.getVisibleScene();
+            MatrixHandlerThread.getDefaultHandler().post(new AnalyseTask(isForeground(), scene, stacks, times,
+                    cpuEndMs - cpuBeginMs, beginMs, endMs));
+        }
+    }
+
+    public void modifyEvilThresholdMs(long evilThresholdMs) {
+        this.evilThresholdMs = evilThresholdMs;
+    }
+
+    /**
+     * Merges the samples into a tree, every sample stands for the time since the previous sample, and then returns
+     * the tree in the same pre-order as {@link TraceDataUtils#structuredDataToStack}. The root is the dispatch
+     * method and the frames under {@link #HANDLER_DISPATCH} are dropped.
+     *
+     * @param methodNames receives the name of every method in the stack by its id
+     */
+    static LinkedList<MethodItem> samplesToStack(StackTraceElement[][] stacks, long[] times, long beginMs, long endMs,
+                                                 HashMap<Integer, String> methodNames) {
+        SampleNode root = new SampleNode(AppMethodBeat.METHOD_ID_DISPATCH);
+        for (int i = 0; i < stacks.length; i++) {
+            long cost = times[i] - (i == 0 ? beginMs : times[i - 1]);
+            if (i == stacks.length - 1) {
+                cost += Math.max(0, endMs - times[i]);
+            }
+            StackTraceElement[] stack = stacks[i];
+            root.cost += cost;
+            root.count++;
+
+            SampleNode node = root;
+            for (int j = baseIndex(stack) - 1; j >= 0; j--) {
+                String name = stack[j].getClassName() + "." + stack[j].getMethodName();
+                int methodId = name.hashCode() & 0x7fffffff;
+                methodNames.put(methodId, name);
+                node = node.child(methodId);
+                node.cost += cost;
+                node.count++;
+            }
+        }
+
+        LinkedList<MethodItem> result = new LinkedList<>();
+        root.flatten(0, result);
+        return result;
+    }
+
+    /**
+     * @return the index of the frame which dispatches the message, all frames above it belong to the message.
+     */
+    private static int baseIndex(StackTraceElement[] stack) {
+        int base = stack.length;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            String name = stack[i].getClassName() + "." + stack[i].getMethodName();
+            if (LOOPER_LOOP.equals(name)) {
+                base = i;
+            } else if (HANDLER_DISPATCH.equals(name) && base < stack.length) {
+                return i;
+            }
+        }
+        return base;
+    }
+
+    private static final class SampleNode {
+        final int methodId;
+        long cost;
+        int count;
+        ArrayList<SampleNode> children;
+
+        SampleNode(int methodId) {
+            this.methodId = methodId;
+        }
+
+        SampleNode child(int methodId) {
+            if (null == children) {
+                children = new ArrayList<>(2);
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                SampleNode child = children.get(i);
+                if (child.methodId == methodId) {
+                    return child;
+                }
+            }
+            SampleNode child = new SampleNode(methodId);
+            children.add(child);
+            return child;
+        }
+
+        void flatten(int depth, List<MethodItem> result) {
+            MethodItem item = new MethodItem(methodId, (int) cost, depth);
+            item.count = count;
+            result.add(item);
+            if (null != children) {
+                for (SampleNode child : children) {
+                    child.flatten(depth + 1, result);
+                }
+            }
+        }
+    }
+
+    private class AnalyseTask implements Runnable {
+        StackTraceElement[][] stacks;
+        long[] times;
+        long cpuCost;
+        long beginMs;
+        long endMs;
+        String scene;
+        boolean isForeground;
+
+        AnalyseTask(boolean isForeground, String scene, StackTraceElement[][] stacks, long[] times, long cpuCost, long beginMs, long endMs) {
+            this.isForeground = isForeground;
+            this.scene = scene;
+            this.stacks = stacks;
+            this.times = times;
+            this.cpuCost = cpuCost;
+            this.beginMs = beginMs;
+            this.endMs = endMs;
+        }
+
+        void analyse() {
+            long cost = endMs - beginMs;
+            int[] processStat = Utils.getProcessPriority(Process.myPid());
+            String usage = Utils.calculateCpuUsage(cpuCost, cost);
+
+            HashMap<Integer, String> methodNames = new HashMap<>();
+            LinkedList<MethodItem> stack = samplesToStack(stacks, times, beginMs, endMs, methodNames);
+            TraceDataUtils.trimStack(stack, Constants.TARGET_EVIL_METHOD_STACK, new TraceDataUtils.IStructuredDataFilter() {
+                @Override
+                public boolean isFilter(long during, int filterCount) {
+                    return during < filterCount * sampleIntervalMs;
+                }
+
+                @Override
+                public int getFilterMaxCount() {
+                    return Constants.FILTER_STACK_MAX_COUNT;
+                }
+
+                @Override
+                public void fallback(List<MethodItem> stack, int size) {
+                    MatrixLog.w(TAG, "[fallback] size:%s targetSize:%s stack:%s", size, Constants.TARGET_EVIL_METHOD_STACK, stack);
+                    Iterator iterator = stack.listIterator(Math.min(size, Constants.TARGET_EVIL_METHOD_STACK));
+                    while (iterator.hasNext()) {
+                        iterator.next();
+                        iterator.remove();
+                    }
+                }
+            });
+
+            StringBuilder reportBuilder = new StringBuilder();
+            StringBuilder logcatBuilder = new StringBuilder();
+            long stackCost = Math.max(cost, TraceDataUtils.stackToString(stack, reportBuilder, logcatBuilder));
+            String stackKey = TraceDataUtils.getTreeKey(stack, stackCost);
+
+            MatrixLog.w(TAG, "%s", printEvil(scene, processStat, isForeground, logcatBuilder, stack.size(), stackKey, usage, cost)); // for logcat
+
+            // report
+            try {
+                TracePlugin plugin = Matrix.with().getPluginByClass(TracePlugin.class);
+                if (null == plugin) {
+                    return;
+                }
+                JSONObject jsonObject = new JSONObject();
+                jsonObject = DeviceUtil.getDeviceInfo(jsonObject, Matrix.with().getApplication());
+
+                jsonObject.put(SharePluginInfo.ISSUE_STACK_TYPE, Constants.Type.NORMAL);
+                jsonObject.put(SharePluginInfo.ISSUE_COST, stackCost);
+                jsonObject.put(SharePluginInfo.ISSUE_CPU_USAGE, usage);
+                jsonObject.put(SharePluginInfo.ISSUE_SCENE, scene);
+                jsonObject.put(SharePluginInfo.ISSUE_TRACE_STACK, reportBuilder.toString());
+                jsonObject.put(SharePluginInfo.ISSUE_STACK_KEY, stackKey);
+                jsonObject.put(SharePluginInfo.ISSUE_SAMPLE_INTERVAL, sampleIntervalMs);
+
+                JSONObject methodsJson = new JSONObject();
+                for (MethodItem item : stack) {
+                    String name = methodNames.get(item.methodId);
+                    if (null != name) {
+                        methodsJson.put(String.valueOf(item.methodId), name);
+                    }
+                }
+                jsonObject.put(SharePluginInfo.ISSUE_STACK_METHODS, methodsJson);
+
+                Issue issue = new Issue();
+                issue.setTag(SharePluginInfo.TAG_PLUGIN_SAMPLING_METHOD);
+                issue.setContent(jsonObject);
+                plugin.onDetectIssue(issue);
+
+            } catch (JSONException e) {
+                MatrixLog.e(TAG, "[JSONException error: %s", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            analyse();
+        }
+
+        private String printEvil(String scene, int[] processStat, boolean isForeground, StringBuilder stack, long stackSize,
+                                 String stackKey, String usage, long allCost) {
+            StringBuilder print = new StringBuilder();
+            print.append(String.format("-\n>>>>>>>>>>>>>>>>>>>>> maybe happens Jankiness!(%sms) <<<<<<<<<<<<<<<<<<<<<\n", allCost));
+            print.append("|* scene: ").append(scene).append("\n");
+            print.append("|* [ProcessStat]").append("\n");
+            print.append("|*\t\tPriority: ").append(processStat[0]).append("\n");
+            print.append("|*\t\tNice: ").append(processStat[1]).append("\n");
+            print.append("|*\t\tForeground: ").append(isForeground).append("\n");
+            print.append("|* [CPU]").append("\n");
+            print.append("|*\t\tusage: ").append(usage).append("\n");
+            print.append("|* [Sample]").append("\n");
+            print.append("|*\t\tSampleCount: ").append(stacks.length).append("\n");
+            print.append("|*\t\tSampleInterval: ").append(sampleIntervalMs).append("\n");
+            print.append("|*\t\tStackSize: ").append(stackSize).append("\n");
+            print.append("|*\t\tStackKey: ").append(stackKey).append("\n");
+
+            if (config.isDebug()) {
+                print.append(stack.toString());
+            }
+
+            print.append("=========================================================================");
+            return print.toString();
+        }
+    }
+
+}
@@ -11,6 +11,7 @@ import com.tencent.matrix.trace.config.SharePluginInfo;
 import com.tencent.matrix.trace.config.TraceConfig;
 import com.tencent.matrix.trace.constants.Constants;
 import com.tencent.matrix.trace.core.AppMethodBeat;
+import com.tencent.matrix.trace.core.TraceSnapshot;
 import com.tencent.matrix.trace.hacker.ActivityThreadHacker;
 import com.tencent.matrix.trace.items.MethodItem;
 import com.tencent.matrix.trace.listeners.IAppMethodBeatListener;
@@ -128,31 +129,39 @@ public class StartupTracer extends Tracer implements IAppMethodBeatListener, App
 
     private void analyse(long applicationCost, long firstScreenCost, long allCost, boolean isWarmStartUp) {
         MatrixLog.i(TAG, "[report] applicationCost:%s firstScreenCost:%s allCost:%s isWarmStartUp:%s", applicationCost, firstScreenCost, allCost, isWarmStartUp);
-        long[] data = new long[0];
+        TraceSnapshot snapshot = null;
         if (!isWarmStartUp && allCost >= coldStartupThresholdMs) { // for cold startup
-            data = AppMethodBeat.getInstance().copyData(ActivityThreadHacker.sApplicationCreateBeginMethodIndex);
+            snapshot = AppMethodBeat.getInstance().copySnapshot(ActivityThreadHacker.sApplicationCreateBeginMethodIndex);
             ActivityThreadHacker.sApplicationCreateBeginMethodIndex.release();
 
         } else if (isWarmStartUp && allCost >= warmStartupThresholdMs) {
-            data = AppMethodBeat.getInstance().copyData(ActivityThreadHacker.sLastLaunchActivityMethodIndex);
+            snapshot = AppMethodBeat.getInstance().copySnapshot(ActivityThreadHacker.sLastLaunchActivityMethodIndex);
             ActivityThreadHacker.sLastLaunchActivityMethodIndex.release();
         }
 
-        MatrixHandlerThread.getDefaultHandler().post(new AnalyseTask(data, applicationCost, firstScreenCost, allCost, isWarmStartUp, ActivityThreadHacker.sApplicationCreateScene));
+        boolean isPosted = false;
+        try {
+            isPosted = MatrixHandlerThread.getDefaultHandler().post(new AnalyseTask(snapshot, applicationCost, firstScreenCost, allCost, isWarmStartUp, ActivityThreadHacker.sApplicationCreateScene));
+        } finally {
+            // the task recycles it once it's posted
+            if (!isPosted && null != snapshot) {
+                snapshot.recycle();
+            }
+        }
 
     }
 
     private class AnalyseTask implements Runnable {
 
-        long[] data;
+        TraceSnapshot snapshot;
         long applicationCost;
         long firstScreenCost;
         long allCost;
         boolean isWarmStartUp;
         int scene;
 
-        AnalyseTask(long[] data, long applicationCost, long firstScreenCost, long allCost, boolean isWarmStartUp, int scene) {
-            this.data = data;
+        AnalyseTask(TraceSnapshot snapshot, long applicationCost, long firstScreenCost, long allCost, boolean isWarmStartUp, int scene) {
+            this.snapshot = snapshot;
             this.scene = scene;
             this.applicationCost = applicationCost;
             this.firstScreenCost = firstScreenCost;
@@ -163,8 +172,16 @@ public class StartupTracer extends Tracer implements IAppMethodBeatListener, App
         @Override
         public void run() {
             LinkedList<MethodItem> stack = new LinkedList();
-            if (data.length > 0) {
-                TraceDataUtils.structuredDataToStack(data, stack, false, -1);
+            if (null != snapshot) {
+                try {
+                    if (snapshot.getLength() > 0) {
+                        TraceDataUtils.structuredDataToStack(snapshot.getData(), snapshot.getLength(), stack, false, -1);
+                    }
+                } finally {
+                    snapshot.recycle();
+                }
+            }
+            if (!stack.isEmpty()) {
                 TraceDataUtils.trimStack(stack, Constants.TARGET_EVIL_METHOD_STACK, new TraceDataUtils.IStructuredDataFilter() {
                     @Override
                     public boolean isFilter(long during, int filterCount) {
@@ -0,0 +1,64 @@
+package com.tencent.matrix.trace.util;
+
+import com.tencent.matrix.trace.core.AppMethodBeat;
+
+import java.util.Arrays;
+
+/**
+ * Matches the method in/out records of the trace buffer window by window and adds the cost of every matched method
+ * to a {@link MethodStatTable}, the methods which are still in are kept for the next window.
+ * <p>
+ * It's not thread safe.
+ * </p>
+ */
+public final class MethodCostMatcher {
+
+    private long[] inStack = new long[64];
+    private int inStackSize;
+
+    /**
+     * @param data   the trace records
+     * @param from   the first record of the window
+     * @param length the end of the window, exclusive
+     */
+    public void match(long[] data, int from, int length, long timeUnitNanos, MethodStatTable statTable) {
+        for (int i = from; i < length; i++) {
+            long trueId = data[i];
+            if (0 == trueId) {
+                continue;
+            }
+            if (TraceDataUtils.isIn(trueId)) {
+                if (inStackSize == inStack.length) {
+                    inStack = Arrays.copyOf(inStack, inStackSize << 1);
+                }
+                inStack[inStackSize++] = trueId;
+                continue;
+            }
+            int methodId = TraceDataUtils.getMethodId(trueId);
+            int top = inStackSize - 1;
+            while (top >= 0 && TraceDataUtils.getMethodId(inStack[top]) != methodId) {
+                top--;
+            }
+            if (top < 0) {
+                // it's in before the first window
+                continue;
+            }
+            long during = TraceDataUtils.getTime(trueId) - TraceDataUtils.getTime(inStack[top]);
+            inStackSize = top;
+            if (during >= 0 && methodId != AppMethodBeat.METHOD_ID_DISPATCH) {
+                statTable.add(methodId, during * timeUnitNanos);
+            }
+        }
+    }
+
+    /**
+     * drop the methods which are still in, e.g. the window has been overwritten and they can't be matched anymore
+     *
+     * @return the count of the dropped ones
+     */
+    public int reset() {
+        int count = inStackSize;
+        inStackSize = 0;
+        return count;
+    }
+}
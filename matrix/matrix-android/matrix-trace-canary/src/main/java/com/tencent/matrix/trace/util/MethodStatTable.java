@@ -0,0 +1,185 @@
+package com.tencent.matrix.trace.util;
+
+import java.util.Arrays;
+
+/**
+ * The count, total cost and max cost of every method id, kept in an open addressing table with linear probing so
+ * adding a cost doesn't box or allocate once the table has grown.
+ * <p>
+ * It's not thread safe.
+ * </p>
+ */
+public final class MethodStatTable {
+
+    private static final int EMPTY = -1;
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private int[] keys;
+    private int[] counts;
+    private long[] totalCosts;
+    private long[] maxCosts;
+    private int size;
+    private int threshold;
+
+    public MethodStatTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        alloc(capacity);
+    }
+
+    private void alloc(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new int[capacity];
+        totalCosts = new long[capacity];
+        maxCosts = new long[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(int methodId, int mask) {
+        int h = methodId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @param methodId must not be negative
+     */
+    public void add(int methodId, long cost) {
+        int mask = keys.length - 1;
+        int index = slot(methodId, mask);
+        while (keys[index] != EMPTY && keys[index] != methodId) {
+            index = (index + 1) & mask;
+        }
+        if (keys[index] == EMPTY) {
+            keys[index] = methodId;
+            if (++size > threshold) {
+                counts[index] = 1;
+                totalCosts[index] = cost;
+                maxCosts[index] = cost;
+                rehash(keys.length << 1);
+                return;
+            }
+        }
+        counts[index]++;
+        totalCosts[index] += cost;
+        if (cost > maxCosts[index]) {
+            maxCosts[index] = cost;
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        long[] oldTotalCosts = totalCosts;
+        long[] oldMaxCosts = maxCosts;
+        alloc(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) {
+                continue;
+            }
+            int index = slot(oldKeys[i], mask);
+            while (keys[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = oldKeys[i];
+            counts[index] = oldCounts[i];
+            totalCosts[index] = oldTotalCosts[i];
+            maxCosts[index] = oldMaxCosts[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * removes all methods but keeps the capacity.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(counts, 0);
+        Arrays.fill(totalCosts, 0);
+        Arrays.fill(maxCosts, 0);
+        size = 0;
+    }
+
+    /**
+     * @return the slots of the {@code topN} methods with the most total cost, from the most to the least. read them by
+     * {@link #getMethodId(int)}, {@link #getCount(int)}, {@link #getTotalCost(int)} and {@link #getMaxCost(int)}
+     * before the table is changed.
+     */
+    public int[] top(int topN) {
+        int n = Math.min(topN, size);
+        // min-heap on total cost, the root is the least of the current top
+        int[] heap = new int[n];
+        int heapSize = 0;
+        for (int i = 0; i < keys.length && n > 0; i++) {
+            if (keys[i] == EMPTY) {
+                continue;
+            }
+            if (heapSize < n) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++);
+            } else if (totalCosts[i] > totalCosts[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, 0, heapSize);
+            }
+        }
+        int[] result = new int[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[i];
+            siftDown(heap, 0, i);
+        }
+        return result;
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int slot = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (totalCosts[heap[parent]] <= totalCosts[slot]) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = slot;
+    }
+
+    private void siftDown(int[] heap, int index, int heapSize) {
+        int slot = heap[index];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            if (child + 1 < heapSize && totalCosts[heap[child + 1]] < totalCosts[heap[child]]) {
+                child++;
+            }
+            if (totalCosts[slot] <= totalCosts[heap[child]]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = slot;
+    }
+
+    public int getMethodId(int slot) {
+        return keys[slot];
+    }
+
+    public int getCount(int slot) {
+        return counts[slot];
+    }
+
+    public long getTotalCost(int slot) {
+        return totalCosts[slot];
+    }
+
+    public long getMaxCost(int slot) {
+        return maxCosts[slot];
+    }
+}
@@ -7,6 +7,7 @@ import com.tencent.matrix.trace.core.AppMethodBeat;
 import com.tencent.matrix.trace.items.MethodItem;
 import com.tencent.matrix.util.MatrixLog;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -26,13 +27,62 @@ public class TraceDataUtils {
         void fallback(List<MethodItem> stack, int size);
     }
 
+    private static final int NONE = -1;
+    private static final int DEFAULT_RAW_STACK_SIZE = 64;
+
+    /**
+     * the buffers of structuring are kept for each tracer thread and only grow, so the reports of the same thread
+     * don't allocate them again.
+     */
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Structured the trace buffer as a method stack in pre-order.
+     * The method in/out records are matched on a primitive stack and the items are flattened
+     * by int arrays instead of boxing every record and building a {@link TreeNode} tree.
+     * <p>
+     * The items added to an empty {@code result} are pooled by the calling thread, they are only valid until
+     * the next call on the same thread.
+     * </p>
+     *
+     * @param buffer
+     * @param result
+     * @param isStrict
+     * @param endTime
+     */
     public static void structuredDataToStack(long[] buffer, LinkedList<MethodItem> result, boolean isStrict, long endTime) {
+        structuredDataToStack(buffer, buffer.length, result, isStrict, endTime);
+    }
+
+    /**
+     * the same as {@link #structuredDataToStack(long[], LinkedList, boolean, long)} but only the first {@code length}
+     * items of {@code buffer} are structured, for the data of {@link com.tencent.matrix.trace.core.TraceSnapshot}.
+     */
+    public static void structuredDataToStack(long[] buffer, int length, LinkedList<MethodItem> result, boolean isStrict, long endTime) {
+        structuredDataToStack(buffer, length, result, isStrict, endTime, AppMethodBeat.getTimeUnitNanos(), AppMethodBeat.getDiffTime(), AppMethodBeat.isDev);
+    }
+
+    /**
+     * the state of {@link AppMethodBeat} is passed in, so it runs without the main looper, e.g. in the local unit tests.
+     */
+    static void structuredDataToStack(long[] buffer, int length, LinkedList<MethodItem> result, boolean isStrict, long endTime,
+                                      long timeUnitNanos, long diffTime, boolean isDev) {
+        Scratch scratch = sScratch.get();
         long lastInId = 0L;
         int depth = 0;
-        LinkedList<Long> rawData = new LinkedList<>();
+        long[] rawData = scratch.rawData;
+        int rawSize = 0;
+        ItemStack itemStack = scratch.itemStack;
+        itemStack.reset(result, isDev);
         boolean isBegin = !isStrict;
 
-        for (long trueId : buffer) {
+        for (int i = 0; i < length; i++) {
+            long trueId = buffer[i];
             if (0 == trueId) {
                 continue;
             }
@@ -53,96 +103,251 @@ public class TraceDataUtils {
                     depth = 0;
                 }
                 depth++;
-                rawData.push(trueId);
+                if (rawSize == rawData.length) {
+                    rawData = Arrays.copyOf(rawData, rawSize << 1);
+                    scratch.rawData = rawData;
+                }
+                rawData[rawSize++] = trueId;
             } else {
                 int outMethodId = getMethodId(trueId);
-                if (!rawData.isEmpty()) {
-                    long in = rawData.pop();
+                if (rawSize > 0) {
+                    int top = rawSize;
+                    long in = rawData[--top];
                     depth--;
                     int inMethodId;
-                    LinkedList<Long> tmp = new LinkedList<>();
-                    tmp.add(in);
-                    while ((inMethodId = getMethodId(in)) != outMethodId && !rawData.isEmpty()) {
+                    while ((inMethodId = getMethodId(in)) != outMethodId && top > 0) {
                         MatrixLog.w(TAG, "pop inMethodId[%s] to continue match ouMethodId[%s]", inMethodId, outMethodId);
-                        in = rawData.pop();
+                        in = rawData[--top];
                         depth--;
-                        tmp.add(in);
                     }
 
                     if (inMethodId != outMethodId && inMethodId == AppMethodBeat.METHOD_ID_DISPATCH) {
                         MatrixLog.e(TAG, "inMethodId[%s] != outMethodId[%s] throw this outMethodId!", inMethodId, outMethodId);
-                        rawData.addAll(tmp);
-                        depth += rawData.size();
+                        // keep the popped in-methods
+                        depth += rawSize - top;
                         continue;
                     }
+                    rawSize = top;
 
                     long outTime = getTime(trueId);
                     long inTime = getTime(in);
                     long during = outTime - inTime;
                     if (during < 0) {
                         MatrixLog.e(TAG, "[structuredDataToStack] trace during invalid:%d", during);
-                        rawData.clear();
+                        itemStack.clear();
                         result.clear();
                         return;
                     }
-                    MethodItem methodItem = new MethodItem(outMethodId, (int) during, depth);
-                    addMethodItem(result, methodItem);
+                    addMethodItem(itemStack, outMethodId, during * timeUnitNanos, depth);
                 } else {
                     MatrixLog.w(TAG, "[structuredDataToStack] method[%s] not found in! ", outMethodId);
                 }
             }
         }
 
-        while (!rawData.isEmpty() && isStrict) {
-            long trueId = rawData.pop();
+        while (rawSize > 0 && isStrict) {
+            long trueId = rawData[--rawSize];
             int methodId = getMethodId(trueId);
             boolean isIn = isIn(trueId);
-            long inTime = getTime(trueId) + AppMethodBeat.getDiffTime();
+            long inTime = getTime(trueId) * timeUnitNanos / Constants.TIME_MILLIS_TO_NANO + diffTime;
             MatrixLog.w(TAG, "[structuredDataToStack] has never out method[%s], isIn:%s, inTime:%s, endTime:%s,rawData size:%s",
-                    methodId, isIn, inTime, endTime, rawData.size());
+                    methodId, isIn, inTime, endTime, rawSize);
             if (!isIn) {
                 MatrixLog.e(TAG, "[structuredDataToStack] why has out Method[%s]? is wrong! ", methodId);
                 continue;
             }
-            MethodItem methodItem = new MethodItem(methodId, (int) (endTime - inTime), rawData.size());
-            addMethodItem(result, methodItem);
+            addMethodItem(itemStack, methodId, (endTime - inTime) * Constants.TIME_MILLIS_TO_NANO, rawSize);
         }
-        TreeNode root = new TreeNode(null, null);
-        stackToTree(result, root);
         result.clear();
-        treeToStack(root, result);
+        flattenStack(scratch, result);
+        itemStack.clear();
     }
 
-    private static boolean isIn(long trueId) {
+    static boolean isIn(long trueId) {
         return ((trueId >> 63) & 0x1) == 1;
     }
 
-    private static long getTime(long trueId) {
+    static long getTime(long trueId) {
         return trueId & 0x7FFFFFFFFFFL;
     }
 
-    private static int getMethodId(long trueId) {
+    static int getMethodId(long trueId) {
         return (int) ((trueId >> 43) & 0xFFFFFL);
     }
 
-    private static int addMethodItem(LinkedList<MethodItem> resultStack, MethodItem item) {
-        if (AppMethodBeat.isDev) {
-            Log.v(TAG, "method:" + item);
-        }
-        MethodItem last = null;
-        if (!resultStack.isEmpty()) {
-            last = resultStack.peek();
+    private static int addMethodItem(ItemStack itemStack, int methodId, long durTimeNs, int depth) {
+        MethodItem last = itemStack.peek();
+        if (itemStack.isDev) {
+            Log.v(TAG, "method:" + depth + "," + methodId + "," + 1 + "," + durTimeNs / Constants.TIME_MILLIS_TO_NANO);
         }
-        if (null != last && last.methodId == item.methodId && last.depth == item.depth && 0 != item.depth) {
-            item.durTime = item.durTime == Constants.DEFAULT_ANR ? last.durTime : item.durTime;
-            last.mergeMore(item.durTime);
+        if (null != last && last.methodId == methodId && last.depth == depth && 0 != depth) {
+            if (durTimeNs / Constants.TIME_MILLIS_TO_NANO == Constants.DEFAULT_ANR) {
+                durTimeNs = last.durTimeNs;
+            }
+            last.mergeMoreNs(durTimeNs);
             return last.durTime;
         } else {
-            resultStack.push(item);
+            MethodItem item = itemStack.obtain(methodId, durTimeNs, depth);
+            itemStack.push(item);
             return item.durTime;
         }
     }
 
+    /**
+     * The same as {@link #stackToTree} and then traversing the tree in pre-order,
+     * but the tree is kept by the indexes of items so that no node is allocated.
+     */
+    private static void flattenStack(Scratch scratch, LinkedList<MethodItem> result) {
+        ItemStack itemStack = scratch.itemStack;
+        int count = itemStack.size;
+        if (count == 0) {
+            return;
+        }
+        scratch.ensureNodeCapacity(count + 1);
+        MethodItem[] items = itemStack.items;
+        int root = count;
+        int[] father = scratch.father;
+        int[] firstChild = scratch.firstChild;
+        int[] nextSibling = scratch.nextSibling;
+        Arrays.fill(firstChild, 0, count + 1, NONE);
+
+        // the top of item stack is the head of stack list
+        int lastNode = NONE;
+        for (int node = 0; node < count; node++) {
+            int depth = items[count - 1 - node].depth;
+            father[node] = lastNode;
+            if (NONE == lastNode && depth != 0) {
+                MatrixLog.e(TAG, "[stackToTree] begin error! why the first node'depth is not 0!");
+                return;
+            }
+            if (NONE == lastNode || depth == 0) {
+                nextSibling[node] = firstChild[root];
+                firstChild[root] = node;
+            } else if (items[count - 1 - lastNode].depth >= depth) {
+                int parent = lastNode;
+                while (NONE != parent && items[count - 1 - parent].depth > depth) {
+                    parent = father[parent];
+                }
+                if (NONE != parent && NONE != father[parent]) {
+                    father[node] = father[parent];
+                    nextSibling[node] = firstChild[father[parent]];
+                    firstChild[father[parent]] = node;
+                }
+            } else {
+                nextSibling[node] = firstChild[lastNode];
+                firstChild[lastNode] = node;
+            }
+            lastNode = node;
+        }
+
+        // the father array is done with, it's reused as the stack of the siblings to visit
+        int[] siblings = father;
+        int top = 0;
+        int node = firstChild[root];
+        while (NONE != node || top > 0) {
+            if (NONE == node) {
+                node = siblings[--top];
+                continue;
+            }
+            result.add(items[count - 1 - node]);
+            if (NONE != firstChild[node]) {
+                siblings[top++] = nextSibling[node];
+                node = firstChild[node];
+            } else {
+                node = nextSibling[node];
+            }
+        }
+    }
+
+    /**
+     * the buffers of one thread, see {@link #sScratch}.
+     */
+    private static final class Scratch {
+        final ItemStack itemStack = new ItemStack();
+        long[] rawData = new long[DEFAULT_RAW_STACK_SIZE];
+        int[] father = new int[DEFAULT_RAW_STACK_SIZE];
+        int[] firstChild = new int[DEFAULT_RAW_STACK_SIZE];
+        int[] nextSibling = new int[DEFAULT_RAW_STACK_SIZE];
+
+        void ensureNodeCapacity(int capacity) {
+            if (capacity > firstChild.length) {
+                int newCapacity = Math.max(capacity, firstChild.length << 1);
+                father = new int[newCapacity];
+                firstChild = new int[newCapacity];
+                nextSibling = new int[newCapacity];
+            }
+        }
+    }
+
+    /**
+     * a growable array of {@link MethodItem}, the last one is the top.
+     * <p>
+     * The items it creates are kept in a pool and handed out again by the next structuring. The pool is skipped
+     * if the stack begins with the items of the caller, which may be the pooled ones of the last structuring.
+     * </p>
+     */
+    private static final class ItemStack {
+        boolean isDev;
+        MethodItem[] items = new MethodItem[DEFAULT_RAW_STACK_SIZE];
+        int size;
+        private MethodItem[] pool = new MethodItem[DEFAULT_RAW_STACK_SIZE];
+        private int poolSize;
+        private int poolUsed;
+        private boolean isPoolEnabled;
+
+        void reset(LinkedList<MethodItem> origin, boolean isDev) {
+            this.isDev = isDev;
+            size = 0;
+            poolUsed = 0;
+            isPoolEnabled = origin.isEmpty();
+            Iterator<MethodItem> iterator = origin.descendingIterator();
+            while (iterator.hasNext()) {
+                push(iterator.next());
+            }
+        }
+
+        MethodItem obtain(int methodId, long durTimeNs, int depth) {
+            if (!isPoolEnabled) {
+                return new MethodItem(methodId, durTimeNs, depth);
+            }
+            if (poolUsed < poolSize) {
+                MethodItem item = pool[poolUsed++];
+                item.methodId = methodId;
+                item.durTimeNs = durTimeNs;
+                item.durTime = (int) (durTimeNs / Constants.TIME_MILLIS_TO_NANO);
+                item.depth = depth;
+                item.count = 1;
+                return item;
+            }
+            MethodItem item = new MethodItem(methodId, durTimeNs, depth);
+            if (poolSize == pool.length) {
+                pool = Arrays.copyOf(pool, poolSize << 1);
+            }
+            pool[poolSize++] = item;
+            poolUsed = poolSize;
+            return item;
+        }
+
+        void push(MethodItem item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size << 1);
+            }
+            items[size++] = item;
+        }
+
+        MethodItem peek() {
+            return size == 0 ? null : items[size - 1];
+        }
+
+        /**
+         * drop the references of the items, the pooled ones are still held by the pool
+         */
+        void clear() {
+            Arrays.fill(items, 0, size, null);
+            size = 0;
+        }
+    }
+
     private static void rechange(TreeNode root) {
         if (root.children.isEmpty()) {
             return;
@@ -156,18 +361,6 @@ public class TraceDataUtils {
         }
     }
 
-    private static void treeToStack(TreeNode root, LinkedList<MethodItem> list) {
-
-        for (int i = 0; i < root.children.size(); i++) {
-            TreeNode node = root.children.get(i);
-            list.add(node.item);
-            if (!node.children.isEmpty()) {
-                treeToStack(node, list);
-            }
-        }
-    }
-
-
     /**
      * Structured the method stack as a tree Data structure
      *
@@ -0,0 +1,325 @@
+package com.tencent.matrix.trace.util;
+
+import com.tencent.matrix.trace.constants.Constants;
+import com.tencent.matrix.trace.core.AppMethodBeat;
+import com.tencent.matrix.trace.items.MethodItem;
+import com.tencent.matrix.util.MatrixLog;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * structuredDataToStack is rewritten on primitive stacks, its output must be the same as the one built by
+ * {@link TraceDataUtils#stackToTree}, which is kept here as {@link #legacyStructuredDataToStack}.
+ */
+public class TraceDataUtilsTestCase {
+
+    private static final long TIME_UNIT_NANOS = Constants.TIME_MILLIS_TO_NANO;
+    private static final long DIFF_TIME = 1000L;
+    private static final int DISPATCH = AppMethodBeat.METHOD_ID_DISPATCH;
+
+    @Before
+    public void setUp() {
+        // android.util.Log is not available in the local unit tests
+        MatrixLog.setMatrixLogImp(new MatrixLog.MatrixLogImp() {
+            @Override
+            public void v(String tag, String msg, Object... obj) {
+            }
+
+            @Override
+            public void i(String tag, String msg, Object... obj) {
+            }
+
+            @Override
+            public void w(String tag, String msg, Object... obj) {
+            }
+
+            @Override
+            public void d(String tag, String msg, Object... obj) {
+            }
+
+            @Override
+            public void e(String tag, String msg, Object... obj) {
+            }
+
+            @Override
+            public void printErrStackTrace(String tag, Throwable tr, String format, Object... obj) {
+            }
+        });
+    }
+
+    /**
+     * dispatch { 1 { 2 { 3 } 3 { } } 4 { 5 } }
+     */
+    @Test
+    public void testNestedMethods() {
+        long[] buffer = {
+                in(DISPATCH, 0),
+                in(1, 0), in(2, 1), in(3, 2), out(3, 5), in(3, 5), out(3, 9), out(2, 10), out(1, 12),
+                in(4, 12), in(5, 13), out(5, 20), out(4, 21),
+                out(DISPATCH, 22),
+        };
+        List<String> stack = assertEquivalent(buffer, true, 100);
+        assertFalse(stack.isEmpty());
+        assertEquivalent(buffer, false, 100);
+    }
+
+    /**
+     * the out of a method never comes in, so it's matched across the dispatch
+     */
+    @Test
+    public void testMismatchedDispatch() {
+        long[] buffer = {
+                in(DISPATCH, 0), in(1, 1), in(2, 2), out(7, 3), out(2, 4), out(1, 5), out(DISPATCH, 6),
+                in(DISPATCH, 7), in(3, 8), out(8, 9), out(3, 10), in(4, 11), out(DISPATCH, 12),
+        };
+        assertEquivalent(buffer, true, 100);
+        assertEquivalent(buffer, false, 100);
+    }
+
+    /**
+     * the methods still running at the end are counted until the end time in the strict mode
+     */
+    @Test
+    public void testUnmatchedBegin() {
+        long[] buffer = {
+                in(DISPATCH, 0), in(1, 1), in(2, 2), out(2, 3), in(3, 4), in(4, 5), out(4, 6), in(5, 7),
+        };
+        assertEquivalent(buffer, true, DIFF_TIME + 50);
+        assertEquivalent(buffer, false, DIFF_TIME + 50);
+    }
+
+    /**
+     * the head of the window has been overwritten in the ring buffer, so it begins in the middle of the stack
+     */
+    @Test
+    public void testTrimmedStack() {
+        long[] buffer = {
+                0L, 0L, out(3, 2), out(2, 3), in(6, 3), out(6, 4), out(1, 6),
+                in(DISPATCH, 7), in(1, 8), out(1, 9), out(DISPATCH, 9), in(1, 10), out(9, 11),
+        };
+        assertEquivalent(buffer, true, 100);
+        assertEquivalent(buffer, false, 100);
+    }
+
+    @Test
+    public void testTrimmedResult() {
+        long[] buffer = new long[2 + 20 * 4];
+        int index = 0;
+        buffer[index++] = in(DISPATCH, 0);
+        for (int i = 1; i <= 20; i++) {
+            buffer[index++] = in(i, i * 3);
+            buffer[index++] = in(100 + i, i * 3);
+            buffer[index++] = out(100 + i, i * 3 + i % 3);
+            buffer[index++] = out(i, i * 3 + 2);
+        }
+        buffer[index] = out(DISPATCH, 70);
+
+        LinkedList<MethodItem> expected = new LinkedList<>();
+        legacyStructuredDataToStack(buffer, expected, true, 100);
+        LinkedList<MethodItem> actual = new LinkedList<>();
+        TraceDataUtils.structuredDataToStack(buffer, buffer.length, actual, true, 100, TIME_UNIT_NANOS, DIFF_TIME, false);
+        TraceDataUtils.IStructuredDataFilter filter = new TraceDataUtils.IStructuredDataFilter() {
+            @Override
+            public boolean isFilter(long during, int filterCount) {
+                return during < filterCount * Constants.TIME_UPDATE_CYCLE_MS;
+            }
+
+            @Override
+            public int getFilterMaxCount() {
+                return Constants.FILTER_STACK_MAX_COUNT;
+            }
+
+            @Override
+            public void fallback(List<MethodItem> stack, int size) {
+                while (stack.size() > 10) {
+                    stack.remove(stack.size() - 1);
+                }
+            }
+        };
+        TraceDataUtils.trimStack(expected, 10, filter);
+        TraceDataUtils.trimStack(actual, 10, filter);
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    @Test
+    public void testRandomBuffers() {
+        Random random = new Random(20181018L);
+        for (int round = 0; round < 2000; round++) {
+            long[] buffer = randomBuffer(random);
+            assertEquivalent(buffer, true, 500);
+            assertEquivalent(buffer, false, 500);
+        }
+    }
+
+    private static long[] randomBuffer(Random random) {
+        int length = 1 + random.nextInt(80);
+        long[] buffer = new long[length];
+        int[] stack = new int[length];
+        int depth = 0;
+        long time = 0;
+        for (int i = 0; i < length; i++) {
+            time += random.nextInt(4);
+            int dice = random.nextInt(10);
+            if (dice == 0) {
+                buffer[i] = 0L;
+            } else if (dice == 1) {
+                buffer[i] = random.nextBoolean() ? in(DISPATCH, time) : out(DISPATCH, time);
+            } else if (dice < 6 || depth == 0) {
+                int methodId = 1 + random.nextInt(6);
+                stack[depth++] = methodId;
+                buffer[i] = in(methodId, time);
+            } else if (dice == 6) {
+                // an out without the matched in
+                buffer[i] = out(1 + random.nextInt(8), time);
+            } else {
+                buffer[i] = out(stack[--depth], time);
+            }
+        }
+        return buffer;
+    }
+
+    private static List<String> assertEquivalent(long[] buffer, boolean isStrict, long endTime) {
+        LinkedList<MethodItem> expected = new LinkedList<>();
+        legacyStructuredDataToStack(buffer, expected, isStrict, endTime);
+        LinkedList<MethodItem> actual = new LinkedList<>();
+        TraceDataUtils.structuredDataToStack(buffer, buffer.length, actual, isStrict, endTime, TIME_UNIT_NANOS, DIFF_TIME, false);
+        List<String> description = describe(actual);
+        assertEquals(describe(expected), description);
+        return description;
+    }
+
+    private static List<String> describe(List<MethodItem> stack) {
+        List<String> list = new ArrayList<>(stack.size());
+        for (MethodItem item : stack) {
+            list.add(item.toString() + "," + item.durTimeNs);
+        }
+        return list;
+    }
+
+    private static long in(int methodId, long time) {
+        return pack(methodId, true, time);
+    }
+
+    private static long out(int methodId, long time) {
+        return pack(methodId, false, time);
+    }
+
+    /**
+     * the same as AppMethodBeat#packData
+     */
+    private static long pack(int methodId, boolean isIn, long time) {
+        long trueId = 0L;
+        if (isIn) {
+            trueId |= 1L << 63;
+        }
+        trueId |= (long) methodId << 43;
+        trueId |= time & 0x7FFFFFFFFFFL;
+        return trueId;
+    }
+
+    /**
+     * the implementation before the rewrite, with the state of AppMethodBeat passed in
+     */
+    private static void legacyStructuredDataToStack(long[] buffer, LinkedList<MethodItem> result, boolean isStrict, long endTime) {
+        long lastInId = 0L;
+        int depth = 0;
+        LinkedList<Long> rawData = new LinkedList<>();
+        boolean isBegin = !isStrict;
+
+        for (long trueId : buffer) {
+            if (0 == trueId) {
+                continue;
+            }
+            if (isStrict) {
+                if (TraceDataUtils.isIn(trueId) && DISPATCH == TraceDataUtils.getMethodId(trueId)) {
+                    isBegin = true;
+                }
+                if (!isBegin) {
+                    continue;
+                }
+            }
+            if (TraceDataUtils.isIn(trueId)) {
+                lastInId = TraceDataUtils.getMethodId(trueId);
+                if (lastInId == DISPATCH) {
+                    depth = 0;
+                }
+                depth++;
+                rawData.push(trueId);
+            } else {
+                int outMethodId = TraceDataUtils.getMethodId(trueId);
+                if (!rawData.isEmpty()) {
+                    long in = rawData.pop();
+                    depth--;
+                    int inMethodId;
+                    LinkedList<Long> tmp = new LinkedList<>();
+                    tmp.add(in);
+                    while ((inMethodId = TraceDataUtils.getMethodId(in)) != outMethodId && !rawData.isEmpty()) {
+                        in = rawData.pop();
+                        depth--;
+                        tmp.add(in);
+                    }
+
+                    if (inMethodId != outMethodId && inMethodId == DISPATCH) {
+                        rawData.addAll(tmp);
+                        depth += rawData.size();
+                        continue;
+                    }
+
+                    long during = TraceDataUtils.getTime(trueId) - TraceDataUtils.getTime(in);
+                    if (during < 0) {
+                        rawData.clear();
+                        result.clear();
+                        return;
+                    }
+                    legacyAddMethodItem(result, new MethodItem(outMethodId, during * TIME_UNIT_NANOS, depth));
+                }
+            }
+        }
+
+        while (!rawData.isEmpty() && isStrict) {
+            long trueId = rawData.pop();
+            int methodId = TraceDataUtils.getMethodId(trueId);
+            long inTime = TraceDataUtils.getTime(trueId) * TIME_UNIT_NANOS / Constants.TIME_MILLIS_TO_NANO + DIFF_TIME;
+            if (!TraceDataUtils.isIn(trueId)) {
+                continue;
+            }
+            legacyAddMethodItem(result, new MethodItem(methodId, (int) (endTime - inTime), rawData.size()));
+        }
+        TraceDataUtils.TreeNode root = new TraceDataUtils.TreeNode(null, null);
+        TraceDataUtils.stackToTree(result, root);
+        result.clear();
+        legacyTreeToStack(root, result);
+    }
+
+    private static void legacyAddMethodItem(LinkedList<MethodItem> resultStack, MethodItem item) {
+        MethodItem last = resultStack.isEmpty() ? null : resultStack.peek();
+        if (null != last && last.methodId == item.methodId && last.depth == item.depth && 0 != item.depth) {
+            if (item.durTime == Constants.DEFAULT_ANR) {
+                item.durTime = last.durTime;
+                item.durTimeNs = last.durTimeNs;
+            }
+            last.mergeMoreNs(item.durTimeNs);
+        } else {
+            resultStack.push(item);
+        }
+    }
+
+    private static void legacyTreeToStack(TraceDataUtils.TreeNode root, LinkedList<MethodItem> list) {
+        for (int i = 0; i < root.children.size(); i++) {
+            TraceDataUtils.TreeNode node = root.children.get(i);
+            list.add(node.item);
+            if (!node.children.isEmpty()) {
+                legacyTreeToStack(node, list);
+            }
+        }
+    }
+}